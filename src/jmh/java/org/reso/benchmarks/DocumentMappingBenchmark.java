@@ -0,0 +1,217 @@
+package org.reso.benchmarks;
+
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.data.Property;
+import org.apache.olingo.commons.api.data.ValueType;
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind;
+import org.bson.Document;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.reso.service.data.common.DocumentEntityMapper;
+import org.reso.service.data.definition.LookupDefinition;
+import org.reso.service.data.definition.LookupDictionary;
+import org.reso.service.data.meta.EnumFieldInfo;
+import org.reso.service.data.meta.FieldInfo;
+import org.reso.service.data.meta.GenericResourceInfo;
+
+import java.net.URI;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost per document of turning a Property-like MongoDB document into an Olingo Entity.
+ * <p>
+ * "legacy" is the per-field FullQualifiedName / instanceof / SimpleDateFormat path that
+ * CommonDataProcessing.getEntityFromDocument used before, "compiled" is DocumentEntityMapper.
+ * <p>
+ * Run with: ./gradlew jmh
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DocumentMappingBenchmark {
+   private static final int DOCUMENTS = 100;
+
+   @Param({ "50", "600" })
+   public int fieldCount;
+
+   private GenericResourceInfo resource;
+   private DocumentEntityMapper mapper;
+   private List<Document> documents;
+
+   @Setup
+   public void setup() {
+      LookupDictionary.Builder lookups = new LookupDictionary.Builder();
+      for (int i = 0; i < 20; i++) {
+         lookups.add("StandardStatus", "key" + i, "Value " + i, "Value " + i, "Value" + i);
+      }
+      LookupDefinition.publish(lookups.build());
+
+      resource = new GenericResourceInfo("Property", "property") {
+         {
+            // Normally discovered by findMongoPrimaryKey
+            this.primaryKeyName = "ListingKey";
+         }
+      };
+      ArrayList<FieldInfo> fields = resource.getFieldList();
+      fields.add(new FieldInfo("ListingKey", EdmPrimitiveTypeKind.String.getFullQualifiedName()));
+
+      for (int i = 1; i < fieldCount; i++) {
+         switch (i % 6) {
+            case 0:
+               fields.add(new FieldInfo("String" + i, EdmPrimitiveTypeKind.String.getFullQualifiedName()));
+               break;
+            case 1:
+               fields.add(new FieldInfo("Int" + i, EdmPrimitiveTypeKind.Int64.getFullQualifiedName()));
+               break;
+            case 2:
+               fields.add(new FieldInfo("Decimal" + i, EdmPrimitiveTypeKind.Decimal.getFullQualifiedName()));
+               break;
+            case 3:
+               fields.add(new FieldInfo("Date" + i, EdmPrimitiveTypeKind.Date.getFullQualifiedName()));
+               break;
+            case 4:
+               fields.add(new FieldInfo("Timestamp" + i, EdmPrimitiveTypeKind.DateTimeOffset.getFullQualifiedName()));
+               break;
+            default:
+               EnumFieldInfo enumField = new EnumFieldInfo("Enum" + i, EdmPrimitiveTypeKind.Int64.getFullQualifiedName());
+               enumField.setLookupName("StandardStatus");
+               fields.add(enumField);
+         }
+      }
+
+      mapper = DocumentEntityMapper.compile(resource);
+
+      documents = new ArrayList<>(DOCUMENTS);
+      for (int d = 0; d < DOCUMENTS; d++) {
+         Document doc = new Document("ListingKey", "L" + d);
+         for (int i = 1; i < fieldCount; i++) {
+            FieldInfo field = fields.get(i);
+            switch (i % 6) {
+               case 0:
+                  doc.append(field.getFieldName(), "text " + d);
+                  break;
+               case 1:
+                  doc.append(field.getFieldName(), (long) d * i);
+                  break;
+               case 2:
+                  doc.append(field.getFieldName(), d * 1.5);
+                  break;
+               case 3:
+                  doc.append(field.getFieldName(), "2024-0" + (1 + d % 9) + "-1" + (d % 9));
+                  break;
+               case 4:
+                  doc.append(field.getFieldName(), new Date(1700000000000L + d));
+                  break;
+               default:
+                  doc.append(field.getFieldName(), "key" + (d % 20));
+            }
+         }
+         documents.add(doc);
+      }
+   }
+
+   @Benchmark
+   @OperationsPerInvocation(DOCUMENTS)
+   public void legacy(Blackhole blackhole) {
+      for (Document doc : documents) {
+         blackhole.consume(LegacyMapping.getEntityFromDocument(doc, resource));
+      }
+   }
+
+   @Benchmark
+   @OperationsPerInvocation(DOCUMENTS)
+   public void compiled(Blackhole blackhole) {
+      for (Document doc : documents) {
+         blackhole.consume(mapper.map(doc));
+      }
+   }
+
+   /**
+    * Copy of the per-field mapping that the compiled mapper replaced, kept here as the baseline.
+    */
+   static class LegacyMapping {
+      static Entity getEntityFromDocument(Document doc, GenericResourceInfo resource) {
+         Entity entity = new Entity();
+         String primaryFieldName = resource.getPrimaryKeyName();
+         String lookupKey = null;
+
+         for (FieldInfo field : resource.getFieldList()) {
+            String fieldName = field.getODATAFieldName();
+            Object value = getFieldValueFromDocument(field, doc);
+
+            if (primaryFieldName != null && primaryFieldName.equals(field.getFieldName())) {
+               lookupKey = value != null ? value.toString() : null;
+            }
+
+            if (field.isCollection()) {
+               entity.addProperty(new Property(null, fieldName, ValueType.COLLECTION_PRIMITIVE, value));
+            } else if (field.getType().equals(EdmPrimitiveTypeKind.Date.getFullQualifiedName())) {
+               if (value != null) {
+                  try {
+                     SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+                     dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+                     dateFormat.setLenient(false);
+                     Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+                     cal.setTime(dateFormat.parse((String) value));
+                     cal.set(Calendar.HOUR_OF_DAY, 0);
+                     cal.set(Calendar.MINUTE, 0);
+                     cal.set(Calendar.SECOND, 0);
+                     cal.set(Calendar.MILLISECOND, 0);
+                     entity.addProperty(new Property(null, fieldName, ValueType.PRIMITIVE,
+                           new java.sql.Date(cal.getTimeInMillis())));
+                  } catch (Exception e) {
+                     throw new IllegalStateException(e);
+                  }
+               } else {
+                  entity.addProperty(new Property(null, fieldName, ValueType.PRIMITIVE, null));
+               }
+            } else {
+               entity.addProperty(new Property(null, fieldName, ValueType.PRIMITIVE, value));
+            }
+         }
+
+         if (lookupKey != null) {
+            entity.setId(URI.create(resource.getResourcesName() + "('" + lookupKey + "')"));
+         }
+         return entity;
+      }
+
+      static Object getFieldValueFromDocument(FieldInfo field, Document doc) {
+         Object value = doc.get(field.getFieldName());
+         if (value == null) {
+            return null;
+         }
+
+         if (field instanceof EnumFieldInfo) {
+            LookupDictionary dictionary = LookupDefinition.getDictionary();
+            int valueId = value instanceof String ? dictionary.getValueIdByKey((String) value) : LookupDictionary.NOT_FOUND;
+            return valueId == LookupDictionary.NOT_FOUND ? value : dictionary.getLegacyODataValue(valueId);
+         }
+
+         if (field.getType().equals(EdmPrimitiveTypeKind.Date.getFullQualifiedName())) {
+            SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+            dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+            dateFormat.setLenient(false);
+            try {
+               return dateFormat.format(dateFormat.parse((String) value));
+            } catch (Exception e) {
+               throw new IllegalStateException(e);
+            }
+         }
+
+         if (field.getType().equals(EdmPrimitiveTypeKind.DateTimeOffset.getFullQualifiedName())) {
+            if (value instanceof String) {
+               return Date.from(Instant.parse((String) value));
+            }
+         }
+
+         return value;
+      }
+   }
+}
@@ -3,27 +3,47 @@ package org.reso.service.data;
 import org.apache.olingo.commons.api.data.*;
 import org.apache.olingo.commons.api.edm.EdmEntitySet;
 import org.apache.olingo.commons.api.edm.EdmEntityType;
-import org.apache.olingo.commons.api.edm.EdmProperty;
 import org.apache.olingo.commons.api.format.ContentType;
 import org.apache.olingo.commons.api.http.HttpHeader;
 import org.apache.olingo.commons.api.http.HttpStatusCode;
 import org.apache.olingo.server.api.*;
+import org.apache.olingo.server.api.prefer.Preferences;
+import org.apache.olingo.server.api.prefer.PreferencesApplied;
 import org.apache.olingo.server.api.processor.EntityCollectionProcessor;
 import org.apache.olingo.server.api.serializer.EntityCollectionSerializerOptions;
 import org.apache.olingo.server.api.serializer.ODataSerializer;
 import org.apache.olingo.server.api.serializer.SerializerException;
 import org.apache.olingo.server.api.serializer.SerializerResult;
+import org.apache.olingo.server.api.serializer.SerializerStreamResult;
 import org.apache.olingo.server.api.uri.*;
 import org.apache.olingo.server.api.uri.queryoption.*;
-import org.apache.olingo.server.api.uri.queryoption.expression.Expression;
-import org.apache.olingo.server.api.uri.queryoption.expression.Member;
+import org.apache.olingo.server.api.uri.queryoption.expression.ExpressionVisitException;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
 import org.bson.conversions.Bson;
 import org.reso.service.data.common.CommonDataProcessing;
+import org.reso.service.data.common.DocumentEntityMapper;
+import org.reso.service.data.common.RawBsonJsonWriter;
+import org.reso.service.data.common.ResultSetEntityMapper;
 import org.reso.service.data.helper.ExpandUtils;
-import org.reso.service.data.meta.FieldInfo;
 import org.reso.service.data.meta.MongoDBFilterExpressionVisitor;
+import org.reso.service.data.meta.MongoFilter;
 import org.reso.service.data.meta.ResourceInfo;
+import org.reso.service.data.mongodb.DeltaLog;
+import org.reso.service.data.mongodb.DeltaToken;
+import org.reso.service.data.mongodb.IndexAdvisor;
+import org.reso.service.data.mongodb.SlowQueryLog;
+import org.reso.service.data.sql.ConnectionPool;
+import org.reso.service.data.sql.SqlCursor;
+import org.reso.service.data.sql.SqlEntityIterator;
+import org.reso.service.data.sql.SqlQuery;
+import org.reso.service.data.sql.SqlQueryBuilder;
+import org.reso.service.diagnostics.DiagnosticLog;
+import org.reso.service.metrics.CountingInputStream;
+import org.reso.service.metrics.CountingOutputStream;
+import org.reso.service.metrics.MetricsRegistry;
+import org.reso.service.metrics.StageTimer;
+import org.reso.service.servlet.RESOservlet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,12 +52,21 @@ import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.MongoClient;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.sql.*;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -46,10 +75,22 @@ public class GenericEntityCollectionProcessor implements EntityCollectionProcess
    static class DataResult {
       private final EntityCollection entityCollection;
       private final int totalCount;
+      private final boolean keysetPaged;
+      private final String nextSkipToken;
       
       public DataResult(EntityCollection entityCollection, int totalCount) {
+         this(entityCollection, totalCount, false, null);
+      }
+
+      /**
+       * @param keysetPaged   The page was read by primary key, so the next link carries a $skiptoken, not a $skip
+       * @param nextSkipToken The $skiptoken of the next page, or null on the last page
+       */
+      public DataResult(EntityCollection entityCollection, int totalCount, boolean keysetPaged, String nextSkipToken) {
          this.entityCollection = entityCollection;
          this.totalCount = totalCount;
+         this.keysetPaged = keysetPaged;
+         this.nextSkipToken = nextSkipToken;
       }
       
       public EntityCollection getEntityCollection() {
@@ -59,31 +100,34 @@ public class GenericEntityCollectionProcessor implements EntityCollectionProcess
       public int getTotalCount() {
          return totalCount;
       }
+
+      public boolean isKeysetPaged() {
+         return keysetPaged;
+      }
+
+      public String getNextSkipToken() {
+         return nextSkipToken;
+      }
    }
 
    private OData odata;
    private ServiceMetadata serviceMetadata;
    private final MongoClient mongoClient;
-   private Connection connect;
    private String dbType;
+   private final boolean rawJsonEnabled;
+   private final int sqlStreamMinRows;
    private ExpandUtils expandUtils;
    HashMap<String, ResourceInfo> resourceList = null;
    private static final Logger LOG = LoggerFactory.getLogger(GenericEntityCollectionProcessor.class);
    private static final int PAGE_SIZE = 10;
+   private static final int DELTA_PAGE_SIZE =
+         Integer.parseInt(System.getenv().getOrDefault("DELTA_PAGE_SIZE", "200"));
 
    public GenericEntityCollectionProcessor(MongoClient mongoClient) {
       this.mongoClient = mongoClient;
       this.dbType = System.getenv().getOrDefault("DB_TYPE", "mongodb").toLowerCase();
-      try {
-         if (!"mongodb".equals(this.dbType)) {
-            String jdbcUrl = System.getenv().getOrDefault("JDBC_URL", "");
-            String username = System.getenv().getOrDefault("DB_USERNAME", "");
-            String password = System.getenv().getOrDefault("DB_PASSWORD", "");
-            this.connect = DriverManager.getConnection(jdbcUrl, username, password);
-         }
-      } catch (SQLException e) {
-         LOG.error("Failed to establish database connection", e);
-      }
+      this.rawJsonEnabled = Boolean.parseBoolean(System.getenv().getOrDefault("RAW_BSON_JSON", "false"));
+      this.sqlStreamMinRows = Integer.parseInt(System.getenv().getOrDefault("SQL_STREAM_MIN_ROWS", "1000"));
       this.expandUtils = new ExpandUtils(mongoClient);
       this.resourceList = new HashMap<>();
    }
@@ -103,6 +147,68 @@ public class GenericEntityCollectionProcessor implements EntityCollectionProcess
    public void readEntityCollection(ODataRequest request, ODataResponse response, UriInfo uriInfo,
          ContentType responseFormat)
          throws ODataApplicationException, SerializerException {
+      String resourceName = uriInfo.getUriResourceParts().get(0).toString();
+      String operation = operationOf(uriInfo);
+      MetricsRegistry metrics = MetricsRegistry.getInstance();
+      long start = System.nanoTime();
+      boolean failed = true;
+      try {
+         StageTimer.recordSinceBegin(StageTimer.URI);
+         serveEntityCollection(request, response, uriInfo, responseFormat);
+         if (response.getContent() != null) {
+            response.setContent(new CountingInputStream(response.getContent(),
+                  metrics.responseBytes(resourceName, operation)));
+         } else if (response.getODataContent() != null) {
+            response.setODataContent(countingContent(response.getODataContent(),
+                  metrics.responseBytes(resourceName, operation)));
+         }
+         // Streamed content has not been read yet, so its header stops at filter and count
+         String serverTiming = StageTimer.currentHeaderValue();
+         if (serverTiming != null) {
+            response.setHeader(StageTimer.HEADER, serverTiming);
+         }
+         failed = false;
+      } finally {
+         metrics.recordRequest(resourceName, operation, System.nanoTime() - start, failed);
+      }
+   }
+
+   // Streamed bodies are written by the content itself, so they are counted on the way out
+   private static ODataContent countingContent(ODataContent content, LongAdder counter) {
+      return new ODataContent() {
+         @Override
+         public void write(WritableByteChannel channel) {
+            write(Channels.newOutputStream(channel));
+         }
+
+         @Override
+         public void write(OutputStream stream) {
+            content.write(new CountingOutputStream(stream, counter));
+         }
+      };
+   }
+
+   /**
+    * @return The operation a collection request is counted under: delta, count, expand or list
+    */
+   static String operationOf(UriInfo uriInfo) {
+      if (uriInfo.getDeltaTokenOption() != null) {
+         return "delta";
+      }
+      CountOption countOption = uriInfo.getCountOption();
+      if (countOption != null && countOption.getValue()) {
+         return "count";
+      }
+      ExpandOption expandOption = uriInfo.getExpandOption();
+      if (expandOption != null && !expandOption.getExpandItems().isEmpty()) {
+         return "expand";
+      }
+      return "list";
+   }
+
+   private void serveEntityCollection(ODataRequest request, ODataResponse response, UriInfo uriInfo,
+         ContentType responseFormat)
+         throws ODataApplicationException, SerializerException {
 
       // 1st we have retrieve the requested EntitySet from the uriInfo object
       // (representation of the parsed service URI)
@@ -125,15 +231,37 @@ public class GenericEntityCollectionProcessor implements EntityCollectionProcess
          }
       }
 
+      // Delta link requests, and first reads that asked for a delta link with Prefer: odata.track-changes
+      DeltaTokenOption deltaTokenOption = uriInfo.getDeltaTokenOption();
+      if (deltaTokenOption != null || tracksChanges(request, uriInfo, isCount, resource)) {
+         serveDelta(request, response, uriInfo, responseFormat, edmEntitySet, resource,
+               deltaTokenOption == null ? null : deltaTokenOption.getValue());
+         return;
+      }
+
+      // Plain JSON pages can be written straight from the BSON bytes
+      if (rawJsonEnabled && canWriteRawJson(uriInfo, responseFormat, isCount, resource)) {
+         writeRawJson(request, response, uriInfo, edmEntitySet, resource);
+         return;
+      }
+
+      // Large SQL pages go out row by row instead of being collected first
+      if (isStreamedSqlPage(uriInfo, responseFormat, resource)) {
+         streamFromSQL(request, response, uriInfo, uriInfo.getFormatOption() == null ? ContentType.JSON
+               : responseFormat, edmEntitySet, resource, isCount);
+         return;
+      }
+
       // 2nd: fetch the data from backend for this requested EntitySetName
       // it has to be delivered as EntitySet object
       EntityCollection entitySet;
       int totalCount = 0; // Always get total count for pagination logic
+      DataResult dataResult = null;
 
       if (resource.useCustomDatasource()) {
          entitySet = resource.getData(edmEntitySet, uriInfo, isCount);
       } else {
-         DataResult dataResult = getData(edmEntitySet, uriInfo, isCount, resource);
+         dataResult = getData(edmEntitySet, uriInfo, isCount, resource);
          entitySet = dataResult.getEntityCollection();
          totalCount = dataResult.getTotalCount();
       }
@@ -146,7 +274,12 @@ public class GenericEntityCollectionProcessor implements EntityCollectionProcess
       // 3rd: create a serializer based on the requested format (json)
       try {
         // Only add next link if there are more records to fetch
-         if (!resource.useCustomDatasource() && (skipNumber + topNumber) < totalCount) {
+         if (dataResult != null && dataResult.isKeysetPaged()) {
+            if (dataResult.getNextSkipToken() != null) {
+               entitySet.setNext(new URI(modifySkipToken(request.getRawRequestUri(), topNumber,
+                     dataResult.getNextSkipToken())));
+            }
+         } else if (!resource.useCustomDatasource() && (skipNumber + topNumber) < totalCount) {
             entitySet.setNext(new URI(modifyUrl(request.getRawRequestUri(), topNumber, skipNumber + topNumber)));
          }
          uriInfo.asUriInfoAll().getFormatOption().getFormat(); // If Format is given, then we will use what it has.
@@ -190,8 +323,10 @@ public class GenericEntityCollectionProcessor implements EntityCollectionProcess
             opts = EntityCollectionSerializerOptions.with().id(id).contextURL(contextUrl).expand(expandOption).build();
          }
       }
+      long serializeStart = System.nanoTime();
       SerializerResult serializerResult = serializer.entityCollection(serviceMetadata, edmEntityType, entitySet, opts);
       InputStream serializedContent = serializerResult.getContent();
+      StageTimer.record(StageTimer.SERIALIZE, serializeStart);
 
       // Finally: configure the response object: set the body, headers and status code
       response.setContent(serializedContent);
@@ -199,6 +334,185 @@ public class GenericEntityCollectionProcessor implements EntityCollectionProcess
       response.setHeader(HttpHeader.CONTENT_TYPE, responseFormat.toContentTypeString());
    }
 
+   /**
+    * Whether a first read gets a delta link: it asked for one, and it reads the whole collection in
+    * ModificationTimestamp order, which $top, $skip, $orderby, $search and $count would change.
+    */
+   private boolean tracksChanges(ODataRequest request, UriInfo uriInfo, boolean isCount, ResourceInfo resource) {
+      List<String> prefer = request.getHeaders(HttpHeader.PREFER);
+      if (prefer == null || !odata.createPreferences(prefer).hasTrackChanges()) {
+         return false;
+      }
+      return !isCount && uriInfo.getTopOption() == null && uriInfo.getSkipOption() == null
+            && uriInfo.getOrderByOption() == null && uriInfo.getSearchOption() == null && supportsDelta(resource);
+   }
+
+   private boolean supportsDelta(ResourceInfo resource) {
+      return "mongodb".equals(getDatabaseType()) && !resource.useCustomDatasource()
+            && DeltaLog.timestampField(resource) != null;
+   }
+
+   /**
+    * Serves one page of changes in ModificationTimestamp then _id order, starting after the position of the
+    * $deltatoken, or from the start for a first read. Entities are followed by the resource's deletes from the
+    * {@link DeltaLog}. A full page links to the next one; the last page returns the delta link to read the changes
+    * made after it. $filter, $select and $expand stay in the links, so they apply to every page. Every page of a
+    * first read, including those reached through its next links, is a plain collection.
+    */
+   private void serveDelta(ODataRequest request, ODataResponse response, UriInfo uriInfo, ContentType responseFormat,
+         EdmEntitySet edmEntitySet, ResourceInfo resource, String deltaToken)
+         throws ODataApplicationException, SerializerException {
+      if (!supportsDelta(resource)) {
+         throw new ODataApplicationException("Delta links are not supported for " + resource.getResourcesName(),
+               HttpStatusCode.NOT_IMPLEMENTED.getStatusCode(), Locale.ENGLISH);
+      }
+      DeltaLog deltaLog = RESOservlet.getDeltaLog();
+      boolean logsDeletes = deltaLog != null && deltaLog.isTracked(resource);
+      DeltaToken position;
+      if (deltaToken == null) {
+         // Deletes made before the first read are not in it anyway
+         position = new DeltaToken(null, null, logsDeletes ? deltaLog.head(resource) : "",
+               System.currentTimeMillis(), true);
+      } else {
+         position = DeltaToken.decode(deltaToken);
+         if (position == null) {
+            throw new ODataApplicationException("Invalid $deltatoken",
+                  HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH);
+         }
+         if (deltaLog != null && !deltaLog.covers(position.getIssuedAt())) {
+            throw new ODataApplicationException("The $deltatoken has expired, read the collection again",
+                  HttpStatusCode.GONE.getStatusCode(), Locale.ENGLISH);
+         }
+      }
+
+      // Checked before the position moves: the last page of a first read links to changes but is not one
+      boolean initial = position.isInitial();
+      List<String> prefer = request.getHeaders(HttpHeader.PREFER);
+      Preferences preferences = odata.createPreferences(prefer == null ? Collections.<String>emptyList() : prefer);
+      Integer maxPageSize = preferences.getMaxPageSize();
+      int pageSize = maxPageSize != null && maxPageSize > 0 ? maxPageSize : DELTA_PAGE_SIZE;
+
+      Delta delta = new Delta();
+      int deleted = 0;
+      try {
+         Bson filter = buildMongoFilter(uriInfo, resource);
+         String timestampField = DeltaLog.timestampField(resource);
+         Bson after = afterPosition(timestampField, position);
+         Bson query = after == null ? filter : Filters.and(filter, after);
+         Bson sort = Sorts.ascending(timestampField, "_id");
+         String collectionName = resource.getTableName().toLowerCase();
+         MongoCollection<Document> collection = mongoClient.getDatabase("reso").getCollection(collectionName);
+         IndexAdvisor.getInstance().record(collectionName, filter, sort);
+
+         DocumentEntityMapper mapper = resource.getDocumentMapper();
+         Document last = null;
+         long queryStart = System.nanoTime();
+         try (MongoCursor<Document> cursor = collection.find(query)
+               .collation(MongoFilter.collationOf(filter))
+               .sort(sort)
+               .limit(pageSize)
+               .maxTime(5000, TimeUnit.MILLISECONDS)
+               .iterator()) {
+            while (cursor.hasNext()) {
+               last = cursor.next();
+               delta.getEntities().add(mapper.map(last));
+            }
+         }
+         StageTimer.record(StageTimer.FIND, queryStart);
+         SlowQueryLog.getInstance().record(collection, query, sort, null, 0, pageSize,
+               TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - queryStart));
+         if (last != null) {
+            Object timestamp = last.get(timestampField);
+            position = position.afterEntity(timestamp instanceof java.util.Date ? (java.util.Date) timestamp : null,
+                  last.get("_id"));
+         }
+
+         if (logsDeletes && !position.isInitial()) {
+            for (Document tombstone : deltaLog.after(resource, position.getTombstone(), pageSize)) {
+               DeletedEntity deletedEntity = new DeletedEntity();
+               deletedEntity.setId(CommonDataProcessing.createId(edmEntitySet.getName(), tombstone.get("key")));
+               deletedEntity.setReason(DeletedEntity.Reason.deleted);
+               delta.getDeletedEntities().add(deletedEntity);
+               position = position.afterTombstone(tombstone.getString("_id"));
+               deleted++;
+            }
+         }
+
+         ExpandOption expandOption = uriInfo.getExpandOption();
+         if (expandOption != null && !delta.getEntities().isEmpty()) {
+            long expandStart = System.nanoTime();
+            expandUtils.handleMongoExpand(delta, resource, expandOption);
+            StageTimer.record(StageTimer.EXPAND, expandStart);
+         }
+
+         if (delta.getEntities().size() == pageSize || deleted == pageSize) {
+            delta.setNext(new URI(modifyDeltaToken(request.getRawRequestUri(), position.encode())));
+         } else {
+            // Whatever is logged from now on follows this page
+            delta.setDeltaLink(new URI(modifyDeltaToken(request.getRawRequestUri(),
+                  position.issued(System.currentTimeMillis()).encode())));
+         }
+      } catch (ODataApplicationException e) {
+         throw e;
+      } catch (Exception e) {
+         LOG.error("Error executing MongoDB delta query: {}", e.getMessage(), e);
+         throw new ODataApplicationException("Error executing MongoDB query: " + e.getMessage(),
+               HttpStatusCode.INTERNAL_SERVER_ERROR.getStatusCode(), Locale.ENGLISH);
+      }
+
+      // Without $format the response is JSON, see serveEntityCollection
+      ContentType format = uriInfo.getFormatOption() == null ? ContentType.JSON : responseFormat;
+      EdmEntityType edmEntityType = edmEntitySet.getEntityType();
+      SelectOption selectOption = uriInfo.getSelectOption();
+      ExpandOption expandOption = uriInfo.getExpandOption();
+      String selectList = odata.createUriHelper().buildContextURLSelectList(edmEntityType,
+            expandOption, selectOption);
+      ContextURL.Builder contextUrl = ContextURL.with().entitySet(edmEntitySet).selectList(selectList);
+      EntityCollectionSerializerOptions.Builder opts = EntityCollectionSerializerOptions.with()
+            .id(request.getRawBaseUri() + "/" + edmEntitySet.getName())
+            .select(selectOption).expand(expandOption);
+
+      long serializeStart = System.nanoTime();
+      SerializerResult serializerResult;
+      if (initial) {
+         serializerResult = odata.createSerializer(format).entityCollection(serviceMetadata, edmEntityType, delta,
+               opts.contextURL(contextUrl.build()).build());
+         if (deltaToken == null) {
+            PreferencesApplied.Builder applied = PreferencesApplied.with().trackChanges();
+            if (maxPageSize != null && maxPageSize > 0) {
+               applied.maxPageSize(pageSize);
+            }
+            response.setHeader(HttpHeader.PREFERENCE_APPLIED, applied.build().toValueString());
+         }
+      } else {
+         serializerResult = odata.createEdmDeltaSerializer(format, Collections.singletonList("4.0"))
+               .entityCollection(serviceMetadata, edmEntityType, delta,
+                     opts.contextURL(contextUrl.suffix(ContextURL.Suffix.DELTA).build()).build());
+      }
+      StageTimer.record(StageTimer.SERIALIZE, serializeStart);
+
+      response.setContent(serializerResult.getContent());
+      response.setStatusCode(HttpStatusCode.OK.getStatusCode());
+      response.setHeader(HttpHeader.CONTENT_TYPE, format.toContentTypeString());
+   }
+
+   /**
+    * @return The filter for the entities after the position, or null when it is the start of the collection
+    */
+   static Bson afterPosition(String timestampField, DeltaToken position) {
+      if (position.getAfterId() == null) {
+         return null;
+      }
+      if (position.getTimestamp() == null) {
+         // Entities without a timestamp sort first
+         return Filters.or(Filters.and(Filters.eq(timestampField, null), Filters.gt("_id", position.getAfterId())),
+               Filters.ne(timestampField, null));
+      }
+      return Filters.or(Filters.gt(timestampField, position.getTimestamp()),
+            Filters.and(Filters.eq(timestampField, position.getTimestamp()),
+                  Filters.gt("_id", position.getAfterId())));
+   }
+
    protected DataResult getData(EdmEntitySet edmEntitySet, UriInfo uriInfo, boolean isCount,
          ResourceInfo resource) throws ODataApplicationException {
       String dbType = getDatabaseType();
@@ -215,113 +529,73 @@ public class GenericEntityCollectionProcessor implements EntityCollectionProcess
       int totalCount = 0;
 
       try {
-         // Log MongoDB client state
-         LOG.info("MongoDB client status - isNull: {}", mongoClient == null);
-
-         // Initialize with empty filter
-         Document filter = new Document();
-
-         FilterOption filterOption = uriInfo.getFilterOption();
-         if (filterOption != null) {
-            String filterExpr = filterOption.getExpression()
-                  .accept(new MongoDBFilterExpressionVisitor(resource));
-            filter = Document.parse(filterExpr);
-            LOG.info("Applied filter expression: {}", filterExpr);
-         }
+         Bson filter = buildMongoFilter(uriInfo, resource);
 
          TopOption topOption = uriInfo.getTopOption();
          SkipOption skipOption = uriInfo.getSkipOption();
          int topNumber = topOption == null ? PAGE_SIZE : topOption.getValue();
          int skipNumber = skipOption == null ? 0 : skipOption.getValue();
 
-         LOG.info("Pagination - top: {}, skip: {}", topNumber, skipNumber);
+         DiagnosticLog.log("Pagination - top: {}, skip: {}", topNumber, skipNumber);
 
           // Always get total count for pagination logic
+         long countStart = System.nanoTime();
          totalCount = resource.executeMongoCount(filter);
-         LOG.info("Total count: {}", totalCount);
+         StageTimer.record(StageTimer.COUNT, countStart);
+         DiagnosticLog.log("Total count: {}", totalCount);
 
          // Only set count in response if requested
          if (isCount) {
              dataCollection.setCount(totalCount);
-             LOG.info("Count query result: {}", totalCount);
-         } else {
-            // Get the base data collection
-            MongoDatabase database = mongoClient.getDatabase("reso");
-            String collectionName = resource.getTableName().toLowerCase();
-            LOG.info("Attempting to access collection: {}", collectionName);
-
-            // List all collections in the database
-            LOG.info("Available collections in database:");
-            database.listCollectionNames().into(new ArrayList<>()).forEach(name -> LOG.info("- Collection: {}", name));
-
-            MongoCollection<Document> collection = database.getCollection(collectionName);
-            LOG.info("Collection stats: count={}", collection.countDocuments());
-
-            LOG.info("Executing MongoDB query on collection: {} with filter: {}",
-                  collection.getNamespace(),
-                  filter.toJson());
-
-            FindIterable<Document> findIterable = collection.find(filter)
-                  .skip(skipNumber)
-                  .limit(topNumber)
-                  .maxTime(5000, TimeUnit.MILLISECONDS);
-
-            // Execute query and build collection
-            try (MongoCursor<Document> cursor = findIterable.iterator()) {
-               int documentCount = 0;
-               while (cursor.hasNext()) {
-                  Document doc = cursor.next();
-                  documentCount++;
-                  LOG.info("Found document {}: {}", documentCount, doc.toJson());
-                  Entity entity = CommonDataProcessing.getEntityFromDocument(doc, resource);
-                  dataCollection.getEntities().add(entity);
+         }
+
+         // Get the base data collection
+         MongoDatabase database = mongoClient.getDatabase("reso");
+         String collectionName = resource.getTableName().toLowerCase();
+
+         MongoCollection<Entity> collection = resource.getEntityCollection(database, collectionName);
+         IndexAdvisor.getInstance().record(collectionName, filter, null);
+         if (DiagnosticLog.isEnabled()) {
+            DiagnosticLog.log("Collection {} holds about {} documents", collectionName,
+                  collection.estimatedDocumentCount());
+         }
+
+         DiagnosticLog.log("Executing MongoDB query on collection: {} with filter: {}",
+               collection.getNamespace(),
+               filter);
+
+         long queryStart = System.nanoTime();
+         FindIterable<Entity> findIterable = collection.find(filter)
+               .collation(MongoFilter.collationOf(filter))
+               .skip(skipNumber)
+               .limit(topNumber)
+               .maxTime(5000, TimeUnit.MILLISECONDS);
+
+         // Execute query and build collection, documents are decoded straight into entities
+         // as batches arrive, so mapping is part of the find stage here
+         try (MongoCursor<Entity> cursor = findIterable.iterator()) {
+            int documentCount = 0;
+            while (cursor.hasNext()) {
+               Entity entity = cursor.next();
+               documentCount++;
+               if (DiagnosticLog.isEnabled()) {
+                  DiagnosticLog.log("Found document {}: {}", documentCount, entity.getId());
                }
-               LOG.info("Total documents processed: {}", documentCount);
+               dataCollection.getEntities().add(entity);
             }
-
-            LOG.info("Retrieved {} documents from MongoDB", dataCollection.getEntities().size());
          }
+         StageTimer.record(StageTimer.FIND, queryStart);
+         SlowQueryLog.getInstance().record(collection, filter, null, null, skipNumber, topNumber,
+               TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - queryStart));
 
-        // Get the base data collection
-        MongoDatabase database = mongoClient.getDatabase("reso");
-        String collectionName = resource.getTableName().toLowerCase();
-        LOG.info("Attempting to access collection: {}", collectionName);
-
-        // List all collections in the database
-        LOG.info("Available collections in database:");
-        database.listCollectionNames().into(new ArrayList<>()).forEach(name -> LOG.info("- Collection: {}", name));
-
-        MongoCollection<Document> collection = database.getCollection(collectionName);
-        LOG.info("Collection stats: count={}", collection.countDocuments());
-
-        LOG.info("Executing MongoDB query on collection: {} with filter: {}",
-              collection.getNamespace(),
-              filter.toJson());
-
-        FindIterable<Document> findIterable = collection.find(filter)
-              .skip(skipNumber)
-              .limit(topNumber)
-              .maxTime(5000, TimeUnit.MILLISECONDS);
-
-        // Execute query and build collection
-        try (MongoCursor<Document> cursor = findIterable.iterator()) {
-           int documentCount = 0;
-           while (cursor.hasNext()) {
-              Document doc = cursor.next();
-              documentCount++;
-              LOG.info("Found document {}: {}", documentCount, doc.toJson());
-              Entity entity = CommonDataProcessing.getEntityFromDocument(doc, resource);
-              dataCollection.getEntities().add(entity);
-           }
-           LOG.info("Total documents processed: {}", documentCount);
-        }
-
-        LOG.info("Retrieved {} documents from MongoDB", dataCollection.getEntities().size());
+         DiagnosticLog.log("Retrieved {} documents from MongoDB", dataCollection.getEntities().size());
 
          // Handle $expand if present
          ExpandOption expandOption = uriInfo.getExpandOption();
          if (expandOption != null && !dataCollection.getEntities().isEmpty()) {
+            long expandStart = System.nanoTime();
             expandUtils.handleMongoExpand(dataCollection, resource, expandOption);
+            StageTimer.record(StageTimer.EXPAND, expandStart);
          }
       } catch (Exception e) {
          LOG.error("Error executing MongoDB query: {}", e.getMessage(), e);
@@ -333,119 +607,304 @@ public class GenericEntityCollectionProcessor implements EntityCollectionProcess
       return new DataResult(dataCollection, totalCount);
    }
 
+   /**
+    * Whether the request can be answered by {@link RawBsonJsonWriter}: a MongoDB backed resource, JSON with
+    * minimal metadata, and no $expand or $count.
+    */
+   private boolean canWriteRawJson(UriInfo uriInfo, ContentType responseFormat, boolean isCount,
+         ResourceInfo resource) {
+      if (isCount || resource.useCustomDatasource() || !"mongodb".equals(getDatabaseType())
+            || uriInfo.getExpandOption() != null) {
+         return false;
+      }
+
+      // Without $format the response is JSON, see readEntityCollection
+      ContentType format = uriInfo.getFormatOption() == null ? ContentType.JSON : responseFormat;
+      if (!format.isCompatible(ContentType.APPLICATION_JSON)) {
+         return false;
+      }
+      String metadata = format.getParameter(ContentType.PARAMETER_ODATA_METADATA);
+      String ieee754 = format.getParameter(ContentType.PARAMETER_IEEE754_COMPATIBLE);
+      return (metadata == null || ContentType.VALUE_ODATA_METADATA_MINIMAL.equalsIgnoreCase(metadata))
+            && !Boolean.parseBoolean(ieee754);
+   }
+
+   private void writeRawJson(ODataRequest request, ODataResponse response, UriInfo uriInfo,
+         EdmEntitySet edmEntitySet, ResourceInfo resource) throws ODataApplicationException, SerializerException {
+      TopOption topOption = uriInfo.getTopOption();
+      SkipOption skipOption = uriInfo.getSkipOption();
+      int topNumber = topOption == null ? PAGE_SIZE : topOption.getValue();
+      int skipNumber = skipOption == null ? 0 : skipOption.getValue();
+
+      SelectOption selectOption = uriInfo.getSelectOption();
+      String selectList = odata.createUriHelper().buildContextURLSelectList(edmEntitySet.getEntityType(),
+            null, selectOption);
+      String contextUrl = "$metadata#" + edmEntitySet.getName() + (selectList == null ? "" : "(" + selectList + ")");
+
+      RawBsonJsonWriter writer = resource.getRawJsonWriter();
+      MongoCursor<RawBsonDocument> cursor;
+      MongoCollection<RawBsonDocument> collection;
+      Bson filter;
+      String nextLink;
+
+      try {
+         filter = buildMongoFilter(uriInfo, resource);
+         long countStart = System.nanoTime();
+         int totalCount = resource.executeMongoCount(filter);
+         StageTimer.record(StageTimer.COUNT, countStart);
+         nextLink = (skipNumber + topNumber) < totalCount
+               ? modifyUrl(request.getRawRequestUri(), topNumber, skipNumber + topNumber)
+               : null;
+
+         collection = mongoClient.getDatabase("reso")
+               .getCollection(resource.getTableName().toLowerCase(), RawBsonDocument.class);
+         IndexAdvisor.getInstance().record(resource.getTableName().toLowerCase(), filter, null);
+         cursor = collection.find(filter)
+               .collation(MongoFilter.collationOf(filter))
+               .skip(skipNumber)
+               .limit(topNumber)
+               .maxTime(5000, TimeUnit.MILLISECONDS)
+               .iterator();
+      } catch (ODataApplicationException e) {
+         throw e;
+      } catch (Exception e) {
+         LOG.error("Error executing MongoDB query: {}", e.getMessage(), e);
+         throw new ODataApplicationException("Error executing MongoDB query: " + e.getMessage(),
+               HttpStatusCode.INTERNAL_SERVER_ERROR.getStatusCode(), Locale.ENGLISH);
+      }
+
+      boolean[] selected = writer.getSelection(selectOption);
+      response.setODataContent(new ODataContent() {
+         @Override
+         public void write(WritableByteChannel channel) {
+            write(Channels.newOutputStream(channel));
+         }
+
+         @Override
+         public void write(OutputStream stream) {
+            // BSON is copied straight to the response as the cursor is read, so find and serialization are one stage
+            long queryStart = System.nanoTime();
+            try (MongoCursor<RawBsonDocument> documents = cursor) {
+               int written = writer.writeCollection(stream, contextUrl, documents, selected, nextLink);
+               LOG.debug("Wrote {} raw documents from {}", written, collection.getNamespace());
+            } catch (IOException | RuntimeException e) {
+               // The status line is already sent, the client sees a truncated body
+               LOG.error("Error streaming " + resource.getResourceName(), e);
+            }
+            StageTimer.record(StageTimer.FIND, queryStart);
+            SlowQueryLog.getInstance().record(collection, filter, null, null, skipNumber, topNumber,
+                  TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - queryStart));
+         }
+      });
+      response.setStatusCode(HttpStatusCode.OK.getStatusCode());
+      response.setHeader(HttpHeader.CONTENT_TYPE, ContentType.JSON.toContentTypeString());
+   }
+
+   private Bson buildMongoFilter(UriInfo uriInfo, ResourceInfo resource)
+         throws ExpressionVisitException, ODataApplicationException {
+      FilterOption filterOption = uriInfo.getFilterOption();
+      if (filterOption == null) {
+         return new Document();
+      }
+      long filterStart = System.nanoTime();
+      Bson filter = MongoDBFilterExpressionVisitor.compile(filterOption, resource);
+      StageTimer.record(StageTimer.FILTER, filterStart);
+      DiagnosticLog.log("Applied filter expression: {}", filter);
+      return filter;
+   }
+
 protected DataResult getDataFromSQL(EdmEntitySet edmEntitySet, UriInfo uriInfo, boolean isCount,
          ResourceInfo resource) throws ODataApplicationException {
-      ArrayList<FieldInfo> fields = resource.getFieldList();
       EntityCollection entCollection = new EntityCollection();
       List<Entity> entityList = entCollection.getEntities();
-      Bson mongoCriteria = null;
       int totalCount = 0;
-      
-      try {
-         String primaryFieldName = resource.getPrimaryKeyName();
-         FilterOption filter = uriInfo.getFilterOption();
-         String sqlCriteria = null;
-
-         if (filter != null) {
-            if (this.mongoClient == null) {
-               throw new ODataApplicationException("MongoDB client not initialized",
-                     HttpStatusCode.INTERNAL_SERVER_ERROR.getStatusCode(), Locale.ENGLISH);
-            }
-            sqlCriteria = filter.getExpression().accept(new MongoDBFilterExpressionVisitor(resource));
-         }
+      String nextSkipToken = null;
+      boolean keyset = false;
 
-         HashMap<String, Boolean> selectLookup = null;
-         Statement statement = connect.createStatement();
-         String queryString = null;
-         LOG.info("Detected Database Type: " + getDatabaseType());
+      try (Connection connect = ConnectionPool.forReads().getConnection()) {
+         SqlQueryBuilder builder = sqlFilter(uriInfo, resource);
+         DiagnosticLog.log("Detected Database Type: {}", getDatabaseType());
 
          // Always get total count first
-         String countQuery = "SELECT count(*) AS rowcount FROM " + resource.getTableName();
-         if (sqlCriteria != null && !sqlCriteria.isEmpty()) {
-            countQuery += " WHERE " + sqlCriteria;
-         }
-         
-         ResultSet countResult = statement.executeQuery(countQuery);
-         if (countResult.next()) {
-            totalCount = countResult.getInt("rowcount");
-         }
-         countResult.close();
-         LOG.info("Total count: {}", totalCount);
+         totalCount = sqlCount(connect, builder);
 
          // Set count in response if requested
          if (isCount) {
             entCollection.setCount(totalCount);
          }
 
-         // Now get the actual data
-         queryString = "SELECT * FROM " + resource.getTableName();
-
-         // SelectOption selectOption = uriInfo.getSelectOption();
-
-         if (sqlCriteria != null && !sqlCriteria.isEmpty()) {
-            queryString += " WHERE " + sqlCriteria;
-         }
-
-         LOG.info("Executing query in SQL...");
-
-         // Pagination logic: Ensure LIMIT is only added when it's > 0
          TopOption topOption = uriInfo.getTopOption();
          int topNumber = (topOption == null) ? PAGE_SIZE : topOption.getValue();
-         SkipOption skipOption = uriInfo.getSkipOption();
-         int skipNumber = (skipOption != null) ? skipOption.getValue() : 0;
-
-         LOG.debug("dbType: " + this.dbType);
-         LOG.debug("Top: " + topNumber + ", Skip: " + skipNumber);
-
-         OrderByOption orderByOption = uriInfo.getOrderByOption();
-         if (orderByOption != null && orderByOption.getOrders() != null && !orderByOption.getOrders().isEmpty()) {
-            List<OrderByItem> orderItemList = orderByOption.getOrders();
-            final OrderByItem orderByItem = orderItemList.get(0);
-            Expression expression = orderByItem.getExpression();
-            if (expression instanceof Member) {
-               UriInfoResource resourcePath = ((Member) expression).getResourcePath();
-               UriResource uriResource = resourcePath.getUriResourceParts().get(0);
-               if (uriResource instanceof UriResourcePrimitiveProperty) {
-                  EdmProperty edmProperty = ((UriResourcePrimitiveProperty) uriResource).getProperty();
-                  final String sortPropertyName = edmProperty.getName();
-                  queryString += " ORDER BY " + sortPropertyName;
-                  if (orderByItem.isDescending()) {
-                     queryString += " DESC";
-                  }
+         keyset = sqlPage(builder, uriInfo, topNumber);
+
+         SqlQuery query = builder.select();
+         DiagnosticLog.log("Final SQL Query before execution: {}", query);
+         long queryStart = System.nanoTime();
+         long mapNanos = 0;
+         try (SqlCursor cursor = SqlCursor.open(connect, query, keyset ? topNumber + 1 : topNumber)) {
+            ResultSetEntityMapper mapper = ResultSetEntityMapper.compile(resource, cursor.getResultSet().getMetaData());
+            while (cursor.next()) {
+               if (keyset && entityList.size() == topNumber) {
+                  Property key = entityList.get(topNumber - 1).getProperty(resource.getPrimaryKeyName());
+                  nextSkipToken = key == null || key.getValue() == null ? null : key.getValue().toString();
+                  break;
                }
+               long mapStart = System.nanoTime();
+               entityList.add(mapper.mapRow(cursor.getResultSet(), null));
+               mapNanos += System.nanoTime() - mapStart;
             }
          }
+         StageTimer.add(StageTimer.FIND, System.nanoTime() - queryStart - mapNanos);
+         long enumStart = System.nanoTime();
+         CommonDataProcessing.resolveEnums(connect, resource, entityList);
+         StageTimer.add(StageTimer.MAP, mapNanos + System.nanoTime() - enumStart);
+      } catch (ODataApplicationException e) {
+         throw e;
+      } catch (Exception e) {
+         LOG.error("Server Error occurred in reading " + resource.getResourceName(), e);
+         return new DataResult(entCollection, totalCount);
+      }
 
-         LOG.info("SQL Query after workaround: " + queryString);
-         if (topNumber > 0) {
-            if (this.dbType.equals("mysql")) {
-               queryString += " LIMIT " + topNumber + ", " + skipNumber;
-            } else if (this.dbType.equals("postgres")) {
-               queryString += " LIMIT " + topNumber + " OFFSET " + skipNumber;
-            } else {
-               // Default case
-               if (topNumber > 0) {
-                  queryString += " LIMIT " + topNumber + " OFFSET " + skipNumber;
-               }
-            }
-         } else {
-            LOG.warn("Skipping LIMIT because topNumber is 0");
-         }
+      return new DataResult(entCollection, totalCount, keyset, nextSkipToken);
+   }
 
-         LOG.info("Final SQL Query before execution: " + queryString);
-         ResultSet resultSet = statement.executeQuery(queryString);
+   /**
+    * Writes a SQL page as the rows come off the cursor, instead of collecting the whole page first. The connection
+    * stays borrowed until the serializer has read the last row.
+    */
+   private void streamFromSQL(ODataRequest request, ODataResponse response, UriInfo uriInfo,
+         ContentType responseFormat, EdmEntitySet edmEntitySet, ResourceInfo resource, boolean isCount)
+         throws ODataApplicationException, SerializerException {
+      TopOption topOption = uriInfo.getTopOption();
+      SkipOption skipOption = uriInfo.getSkipOption();
+      int topNumber = topOption == null ? PAGE_SIZE : topOption.getValue();
+      int skipNumber = skipOption == null ? 0 : skipOption.getValue();
 
-         while (resultSet.next()) {
-            Entity ent = CommonDataProcessing.getEntityFromRow(resultSet, resource, selectLookup);
-            entityList.add(ent);
+      Connection connect = null;
+      SqlEntityIterator entities;
+      try {
+         connect = ConnectionPool.forReads().getConnection();
+         SqlQueryBuilder builder = sqlFilter(uriInfo, resource);
+         int totalCount = sqlCount(connect, builder);
+         boolean keyset = sqlPage(builder, uriInfo, topNumber);
+         SqlQuery query = builder.select();
+         DiagnosticLog.log("Streaming SQL Query: {}", query);
+
+         SqlCursor cursor = SqlCursor.open(connect, query, keyset ? topNumber + 1 : topNumber);
+         try {
+            entities = new SqlEntityIterator(connect, cursor, resource, topNumber, keyset);
+         } catch (SQLException | RuntimeException e) {
+            cursor.close();
+            throw e;
+         }
+         if (isCount) {
+            entities.setCount(totalCount);
+         }
+         String requestUri = request.getRawRequestUri();
+         if (keyset) {
+            entities.setSkipTokenLink(token -> URI.create(modifySkipToken(requestUri, topNumber, token)));
+         } else if ((skipNumber + topNumber) < totalCount) {
+            entities.setNext(URI.create(modifyUrl(requestUri, topNumber, skipNumber + topNumber)));
          }
-         statement.close();
+      } catch (ODataApplicationException e) {
+         closeQuietly(connect);
+         throw e;
       } catch (Exception e) {
+         closeQuietly(connect);
          LOG.error("Server Error occurred in reading " + resource.getResourceName(), e);
-         return new DataResult(entCollection, totalCount);
+         throw new ODataApplicationException("Error reading " + resource.getResourceName(),
+               HttpStatusCode.INTERNAL_SERVER_ERROR.getStatusCode(), Locale.ENGLISH);
+      }
+
+      EdmEntityType edmEntityType = edmEntitySet.getEntityType();
+      SelectOption selectOption = uriInfo.getSelectOption();
+      ExpandOption expandOption = uriInfo.getExpandOption();
+      String selectList = odata.createUriHelper().buildContextURLSelectList(edmEntityType,
+            expandOption, selectOption);
+      ContextURL contextUrl = ContextURL.with().entitySet(edmEntitySet).selectList(selectList).build();
+      EntityCollectionSerializerOptions.Builder opts = EntityCollectionSerializerOptions.with()
+            .contextURL(contextUrl)
+            .id(request.getRawBaseUri() + "/" + edmEntitySet.getName())
+            .select(selectOption).expand(expandOption)
+            .writeContentErrorCallback((context, channel) -> LOG.error("Error streaming "
+                  + resource.getResourceName(), context.getException()));
+      if (isCount) {
+         opts.count(uriInfo.getCountOption());
+      }
+
+      try {
+         SerializerStreamResult result = odata.createSerializer(responseFormat)
+               .entityCollectionStreamed(serviceMetadata, edmEntityType, entities, opts.build());
+         response.setODataContent(result.getODataContent());
+      } catch (SerializerException | RuntimeException e) {
+         entities.close();
+         throw e;
       }
+      response.setStatusCode(HttpStatusCode.OK.getStatusCode());
+      response.setHeader(HttpHeader.CONTENT_TYPE, responseFormat.toContentTypeString());
+   }
 
-      return new DataResult(entCollection, totalCount);
+   private SqlQueryBuilder sqlFilter(UriInfo uriInfo, ResourceInfo resource)
+         throws ExpressionVisitException, ODataApplicationException {
+      long filterStart = System.nanoTime();
+      SqlQueryBuilder builder = new SqlQueryBuilder(resource, SqlQueryBuilder.Dialect.of(this.dbType))
+            .filter(uriInfo.getFilterOption());
+      if (uriInfo.getFilterOption() != null) {
+         StageTimer.record(StageTimer.FILTER, filterStart);
+      }
+      return builder;
+   }
+
+   private static int sqlCount(Connection connect, SqlQueryBuilder builder) throws SQLException {
+      int totalCount = 0;
+      long countStart = System.nanoTime();
+      try (PreparedStatement countStatement = builder.count().prepare(connect);
+           ResultSet countResult = countStatement.executeQuery()) {
+         if (countResult.next()) {
+            totalCount = countResult.getInt("rowcount");
+         }
+      }
+      StageTimer.record(StageTimer.COUNT, countStart);
+      DiagnosticLog.log("Total count: {}", totalCount);
+      return totalCount;
+   }
+
+   /**
+    * Applies $top, $skip, $orderby and $skiptoken, see {@link SqlQueryBuilder#paginate}.
+    *
+    * @return Whether the page is read by primary key
+    */
+   private static boolean sqlPage(SqlQueryBuilder builder, UriInfo uriInfo, int topNumber)
+         throws ODataApplicationException {
+      SkipOption skipOption = uriInfo.getSkipOption();
+      int skipNumber = (skipOption != null) ? skipOption.getValue() : 0;
+      SkipTokenOption skipTokenOption = uriInfo.getSkipTokenOption();
+      LOG.debug("Top: " + topNumber + ", Skip: " + skipNumber);
+
+      return builder.paginate(topNumber, skipNumber, uriInfo.getOrderByOption(),
+            skipTokenOption == null ? null : skipTokenOption.getValue());
+   }
+
+   private static void closeQuietly(Connection connect) {
+      if (connect != null) {
+         try {
+            connect.close();
+         } catch (SQLException e) {
+            LOG.debug("Error returning connection: {}", e.getMessage());
+         }
+      }
+   }
+
+   private boolean isStreamedSqlPage(UriInfo uriInfo, ContentType responseFormat, ResourceInfo resource) {
+      if (sqlStreamMinRows <= 0 || "mongodb".equals(getDatabaseType()) || resource.useCustomDatasource()) {
+         return false;
+      }
+      // Without $format the response is JSON, see below
+      if (uriInfo.getFormatOption() != null && !responseFormat.isCompatible(ContentType.APPLICATION_JSON)) {
+         return false;
+      }
+      TopOption topOption = uriInfo.getTopOption();
+      return topOption != null && topOption.getValue() >= sqlStreamMinRows;
    }
 
    private static String modifyUrl(String url, Integer topValue, Integer skipValue) {
@@ -454,6 +913,32 @@ protected DataResult getDataFromSQL(EdmEntitySet edmEntitySet, UriInfo uriInfo,
       return url;
    }
 
+   private static String modifySkipToken(String url, Integer topValue, String skipToken) {
+      url = modifyParameter(url, "\\$top=\\d+", "\\$top", topValue);
+      return modifyToken(url, "$skiptoken", skipToken);
+   }
+
+   private static String modifyDeltaToken(String url, String deltaToken) {
+      return modifyToken(url, "$deltatoken", deltaToken);
+   }
+
+   private static String modifyToken(String url, String paramName, String token) {
+      String replacement = paramName + "=" + encodeQueryValue(token);
+      Matcher m = Pattern.compile(Pattern.quote(paramName) + "=[^&]*").matcher(url);
+      if (m.find()) {
+         return m.replaceFirst(Matcher.quoteReplacement(replacement));
+      }
+      return url + (url.contains("?") ? "&" : "?") + replacement;
+   }
+
+   private static String encodeQueryValue(String value) {
+      try {
+         return URLEncoder.encode(value, "UTF-8");
+      } catch (UnsupportedEncodingException e) {
+         throw new IllegalStateException(e);
+      }
+   }
+
    // Helper method to replace or append a parameter
    private static String modifyParameter(String url, String pattern, String paramName, Integer value) {
       Pattern p = Pattern.compile(pattern);
@@ -465,11 +950,11 @@ protected DataResult getDataFromSQL(EdmEntitySet edmEntitySet, UriInfo uriInfo,
          if (m.find()) {
             // Replace existing parameter
             url = m.replaceFirst(replacement);
-            LOG.info("1: Url Replacement: " + url);
+            DiagnosticLog.log("1: Url Replacement: {}", url);
          } else {
             // Append parameter, handling both cases: with and without existing query
             url += (url.contains("?") ? "&" : "?") + replacement.replace("\\", "");
-            LOG.info("2: Url Replacement: " + url);
+            DiagnosticLog.log("2: Url Replacement: {}", url);
          }
       }
 
@@ -480,14 +965,12 @@ protected DataResult getDataFromSQL(EdmEntitySet edmEntitySet, UriInfo uriInfo,
       if (this.dbType != null) {
          return this.dbType;
       }
-      try {
-         if (this.connect != null) {
-            String dbProductName = this.connect.getMetaData().getDatabaseProductName().toLowerCase();
-            if (dbProductName.contains("mysql")) {
-               return "mysql";
-            } else if (dbProductName.contains("postgres")) {
-               return "postgres";
-            }
+      try (Connection connect = ConnectionPool.forReads().getConnection()) {
+         String dbProductName = connect.getMetaData().getDatabaseProductName().toLowerCase();
+         if (dbProductName.contains("mysql")) {
+            return "mysql";
+         } else if (dbProductName.contains("postgres")) {
+            return "postgres";
          }
          return "mongodb";
       } catch (SQLException e) {
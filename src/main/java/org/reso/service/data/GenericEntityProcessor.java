@@ -37,6 +37,14 @@ import org.reso.service.data.definition.FieldDefinition;
 import org.reso.service.data.meta.EnumFieldInfo;
 import org.reso.service.data.meta.FieldInfo;
 import org.reso.service.data.meta.ResourceInfo;
+import org.reso.service.data.meta.SearchShadowFields;
+import org.reso.service.data.sql.ConnectionPool;
+import org.reso.service.data.sql.SqlQuery;
+import org.reso.service.data.sql.SqlQueryBuilder;
+import org.reso.service.diagnostics.DiagnosticLog;
+import org.reso.service.metrics.CountingInputStream;
+import org.reso.service.metrics.MetricsRegistry;
+import org.reso.service.metrics.StageTimer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.mongodb.client.model.Sorts;
@@ -49,7 +57,6 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.Executors;
 
 import static org.reso.service.servlet.RESOservlet.resourceLookup;
 
@@ -59,17 +66,9 @@ public class GenericEntityProcessor implements EntityProcessor {
     private final MongoClient mongoClient;
     private HashMap<String, ResourceInfo> resourceList = null;
     private static final Logger LOG = LoggerFactory.getLogger(GenericEntityCollectionProcessor.class);
-    private final String dbUrl;
-    private final String dbUser;
-    private final String dbPassword;
-    private static final int TIMEOUT = 5000; // 5 seconds timeout
     private static final int MONGO_TIMEOUT = 10000; // 10 seconds timeout for MongoDB operations
 
     public GenericEntityProcessor(MongoClient mongoClient) {
-        Map<String, String> env = System.getenv();
-        this.dbUrl = env.getOrDefault("JDBC_URL", "jdbc:mysql://mysql-db:3306/reso");
-        this.dbUser = env.getOrDefault("DB_USERNAME", "root");
-        this.dbPassword = env.getOrDefault("DB_PASSWORD", "root");
         this.resourceList = new HashMap<>();
 
         this.mongoClient = mongoClient;
@@ -86,7 +85,7 @@ public class GenericEntityProcessor implements EntityProcessor {
 
     private void testDatabaseConnections() {
         // Test MySQL connection
-        try (Connection conn = DriverManager.getConnection(dbUrl, dbUser, dbPassword)) {
+        try (Connection conn = getMySQLConnection()) {
             LOG.info("Successfully connected to MySQL database");
         } catch (SQLException e) {
             LOG.error("Failed to connect to MySQL database: " + e.getMessage(), e);
@@ -126,16 +125,18 @@ public class GenericEntityProcessor implements EntityProcessor {
         }
     }
 
+    /**
+     * @return A pooled connection to the primary database, for writes
+     */
     private Connection getMySQLConnection() throws SQLException {
-        try {
-            Class.forName("com.mysql.cj.jdbc.Driver");
-            Connection conn = DriverManager.getConnection(dbUrl, dbUser, dbPassword);
-            conn.setNetworkTimeout(Executors.newSingleThreadExecutor(), TIMEOUT);
-            return conn;
-        } catch (ClassNotFoundException e) {
-            LOG.error("MySQL JDBC Driver not found", e);
-            throw new SQLException("MySQL JDBC Driver not found", e);
-        }
+        return ConnectionPool.primary().getConnection();
+    }
+
+    /**
+     * @return A pooled connection to the read replica if one is configured, otherwise to the primary
+     */
+    private Connection getReadConnection() throws SQLException {
+        return ConnectionPool.forReads().getConnection();
     }
 
     public void addResource(ResourceInfo resource, String name) {
@@ -145,6 +146,29 @@ public class GenericEntityProcessor implements EntityProcessor {
     @Override
     public void readEntity(ODataRequest request, ODataResponse response, UriInfo uriInfo, ContentType responseFormat)
             throws ODataApplicationException, ODataLibraryException {
+        String resourceName = uriInfo.getUriResourceParts().get(0).toString();
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            StageTimer.recordSinceBegin(StageTimer.URI);
+            serveEntity(request, response, uriInfo, responseFormat);
+            if (response.getContent() != null) {
+                response.setContent(new CountingInputStream(response.getContent(),
+                        metrics.responseBytes(resourceName, "read")));
+            }
+            String serverTiming = StageTimer.currentHeaderValue();
+            if (serverTiming != null) {
+                response.setHeader(StageTimer.HEADER, serverTiming);
+            }
+            failed = false;
+        } finally {
+            metrics.recordRequest(resourceName, "read", System.nanoTime() - start, failed);
+        }
+    }
+
+    private void serveEntity(ODataRequest request, ODataResponse response, UriInfo uriInfo, ContentType responseFormat)
+            throws ODataApplicationException, ODataLibraryException {
         // 1. Retrieve info from URI
         // 1.1. retrieve the info about the requested entity set
         List<UriResource> resourcePaths = uriInfo.getUriResourceParts();
@@ -178,7 +202,9 @@ public class GenericEntityProcessor implements EntityProcessor {
         ODataSerializer serializer = odata.createSerializer(responseFormat);
         SerializerException cachedException = null;
         try {
+            long serializeStart = System.nanoTime();
             SerializerResult serializerResult = serializer.entity(serviceMetadata, edmEntityType, entity, options);
+            StageTimer.record(StageTimer.SERIALIZE, serializeStart);
             response.setContent(serializerResult.getContent());
             response.setStatusCode(HttpStatusCode.OK.getStatusCode());
             response.setHeader(HttpHeader.CONTENT_TYPE, responseFormat.toContentTypeString());
@@ -226,20 +252,14 @@ public class GenericEntityProcessor implements EntityProcessor {
             return null;
         }
 
-        LOG.info("=== Starting getDataFromMongo ===");
-        LOG.info("Resource Name: {}", resource.getResourceName());
-        LOG.info("Resource Table Name: {}", resource.getTableName());
-        LOG.info("Has UriInfo: {}", uriInfo != null);
-        LOG.info("Has Expand Option: {}", uriInfo != null && uriInfo.getExpandOption() != null);
-        if (uriInfo != null && uriInfo.getExpandOption() != null) {
-            LOG.info("Expand Option Details:");
+        DiagnosticLog.log("Reading {} from collection {}", resource.getResourceName(), resource.getTableName());
+        if (DiagnosticLog.isEnabled() && uriInfo != null && uriInfo.getExpandOption() != null) {
             for (ExpandItem item : uriInfo.getExpandOption().getExpandItems()) {
-                LOG.info("  - Expand Item: {}", item.getResourcePath().getUriResourceParts().get(0));
+                DiagnosticLog.log("  - Expand Item: {}", item.getResourcePath().getUriResourceParts().get(0));
             }
         }
 
         String primaryFieldName = resource.getPrimaryKeyName();
-        LOG.info("Primary Field Name: {}", primaryFieldName);
 
         List<FieldInfo> enumFields = CommonDataProcessing.gatherEnumFields(resource);
         HashMap<String, Object> enumValues = new HashMap<>();
@@ -247,32 +267,33 @@ public class GenericEntityProcessor implements EntityProcessor {
 
         Document query = new Document();
         if (keyPredicates != null) {
-            LOG.info("=== Key Predicates ===");
             for (UriParameter key : keyPredicates) {
                 String value = key.getText();
                 if (value.startsWith("'") && value.endsWith("'")) {
                     value = value.substring(1, value.length() - 1);
                 }
                 query.append(key.getName(), value);
-                LOG.info("Key: {}, Value: {}", key.getName(), value);
             }
         }
-        LOG.info("Query for main entity: {}", query.toJson());
+        DiagnosticLog.log("Query for main entity: {}", query);
 
         try {
             MongoDatabase database = mongoClient.getDatabase("reso");
-            MongoCollection<Document> collection = database.getCollection(resource.getTableName());
+            MongoCollection<Entity> collection = resource.getEntityCollection(database, resource.getTableName());
 
-            // Add a timeout to the find operation
-            Document doc = collection.find(query)
+            // Add a timeout to the find operation, the document is decoded straight into the entity
+            long findStart = System.nanoTime();
+            entity = collection.find(query)
                     .maxTime(5000, TimeUnit.MILLISECONDS)
                     .first();
+            StageTimer.record(StageTimer.FIND, findStart);
 
-            if (doc != null) {
-                LOG.info("Found main document: {}", doc.toJson());
-                entity = CommonDataProcessing.getEntityFromDocument(doc, resource);
-                String resourceRecordKey = doc.getString(primaryFieldName);
-                LOG.info("Resource Record Key: {}", resourceRecordKey);
+            if (entity != null) {
+                DiagnosticLog.log("Found main entity: {}", entity.getId());
+                long mapStart = System.nanoTime();
+                Property keyProperty = entity.getProperty(primaryFieldName);
+                String resourceRecordKey = keyProperty == null || keyProperty.getValue() == null ? null
+                        : keyProperty.getValue().toString();
 
                 if (!enumFields.isEmpty()) {
                     Document lookupQuery = new Document("ResourceRecordKey", resourceRecordKey);
@@ -291,12 +312,12 @@ public class GenericEntityProcessor implements EntityProcessor {
                         CommonDataProcessing.setEntityEnums(enumValues, entity, enumFields);
                     }
                 }
+                StageTimer.record(StageTimer.MAP, mapStart);
 
                 // Handle $expand for MongoDB
                 if (uriInfo != null && uriInfo.getExpandOption() != null) {
-                    LOG.info("=== Starting Expansion ===");
-                    LOG.info("Resource Record Key for expansion: {}", resourceRecordKey);
-                    LOG.info("Resource Name for expansion: {}", resource.getResourceName());
+                    long expandStart = System.nanoTime();
+                    DiagnosticLog.log("Expanding {} {}", resource.getResourceName(), resourceRecordKey);
                     for (ExpandItem expandItem : uriInfo.getExpandOption().getExpandItems()) {
                         UriResource expandPath = expandItem.getResourcePath().getUriResourceParts().get(0);
                         if (!(expandPath instanceof UriResourceNavigation)) {
@@ -305,47 +326,48 @@ public class GenericEntityProcessor implements EntityProcessor {
 
                         UriResourceNavigation expandNavigation = (UriResourceNavigation) expandPath;
                         String navigationName = expandNavigation.getProperty().getName();
-                        LOG.info("Processing navigation property: {}", navigationName);
+                        DiagnosticLog.log("Processing navigation property: {}", navigationName);
 
                         Document expandQuery = new Document();
                         EntityCollection expandEntities = new EntityCollection();
-                        MongoCollection<Document> expandCollection;
+                        MongoCollection<Entity> expandCollection;
 
                         switch (navigationName) {
                             case "Media":
+                                ResourceInfo mediaResource = resourceLookup.get(navigationName);
+                                if (mediaResource == null) {
+                                    LOG.error("Media resource definition not found in resourceLookup");
+                                    continue;
+                                }
                                 expandQuery.append("ResourceName", "Property")
                                         .append("ResourceRecordKey", resourceRecordKey);
-                                expandCollection = database.getCollection("media");
+                                expandCollection = mediaResource.getEntityCollection(database, "media");
                                 break;
                             case "ListAgent":
                                 Property listAgentKeyProp = entity.getProperty("ListAgentKey");
                                 if (listAgentKeyProp != null && listAgentKeyProp.getValue() != null) {
                                     String listAgentKey = listAgentKeyProp.getValue().toString();
-                                    LOG.info("Found ListAgentKey: {}", listAgentKey);
 
                                     Document agentQuery = new Document("MemberKey", listAgentKey);
-                                    expandCollection = database.getCollection("member");
-                                    LOG.info("Querying member collection with filter: {}", agentQuery.toJson());
+                                    ResourceInfo memberResource = resourceLookup.get("Member");
+                                    if (memberResource == null) {
+                                        LOG.error("Member resource definition not found in resourceLookup");
+                                        continue;
+                                    }
+                                    expandCollection = memberResource.getEntityCollection(database, "member");
+                                    DiagnosticLog.log("Querying member collection with filter: {}", agentQuery);
 
-                                    Document memberDoc = expandCollection.find(agentQuery)
+                                    Entity memberEntity = expandCollection.find(agentQuery)
                                             .maxTime(5000, TimeUnit.MILLISECONDS)
                                             .first();
 
-                                    if (memberDoc != null) {
-                                        LOG.info("Found member document: {}", memberDoc.toJson());
-                                        ResourceInfo memberResource = resourceLookup.get("Member");
-                                        if (memberResource != null) {
-                                            Entity memberEntity = CommonDataProcessing.getEntityFromDocument(memberDoc,
-                                                    memberResource);
-                                            Link link = new Link();
-                                            link.setTitle("ListAgent");
-                                            link.setType(Constants.ENTITY_NAVIGATION_LINK_TYPE);
-                                            link.setInlineEntity(memberEntity);
-                                            entity.getNavigationLinks().add(link);
-                                            LOG.info("Added ListAgent link to property");
-                                        } else {
-                                            LOG.error("Member resource definition not found in resourceLookup");
-                                        }
+                                    if (memberEntity != null) {
+                                        DiagnosticLog.log("Found member entity: {}", memberEntity.getId());
+                                        Link link = new Link();
+                                        link.setTitle("ListAgent");
+                                        link.setType(Constants.ENTITY_NAVIGATION_LINK_TYPE);
+                                        link.setInlineEntity(memberEntity);
+                                        entity.getNavigationLinks().add(link);
                                     } else {
                                         LOG.warn("No member found with MemberKey: {}", listAgentKey);
                                     }
@@ -358,17 +380,15 @@ public class GenericEntityProcessor implements EntityProcessor {
                                 continue;
                         }
 
-                        LOG.info("Executing MongoDB query on collection {} with filter: {}",
-                                expandCollection.getNamespace().getCollectionName(), expandQuery.toJson());
+                        DiagnosticLog.log("Executing MongoDB query on collection {} with filter: {}",
+                                expandCollection.getNamespace().getCollectionName(), expandQuery);
 
-                        try (MongoCursor<Document> cursor = expandCollection.find(expandQuery)
+                        try (MongoCursor<Entity> cursor = expandCollection.find(expandQuery)
                                 .maxTime(5000, TimeUnit.MILLISECONDS)
                                 .iterator()) {
                             while (cursor.hasNext()) {
-                                Document expandDoc = cursor.next();
-                                LOG.debug("Found {} document: {}", navigationName, expandDoc.toJson());
-                                Entity expandEntity = CommonDataProcessing.getEntityFromDocument(expandDoc,
-                                        resourceLookup.get(navigationName));
+                                Entity expandEntity = cursor.next();
+                                DiagnosticLog.log("Found {} entity: {}", navigationName, expandEntity.getId());
                                 expandEntities.getEntities().add(expandEntity);
                             }
                         }
@@ -378,16 +398,17 @@ public class GenericEntityProcessor implements EntityProcessor {
                         link.setType(Constants.ENTITY_NAVIGATION_LINK_TYPE);
                         if (expandEntities.getEntities().size() > 0) {
                             link.setInlineEntitySet(expandEntities);
-                            LOG.info("Set {} entities for property {}",
+                            DiagnosticLog.log("Set {} entities for property {}",
                                     expandEntities.getEntities().size(), resourceRecordKey);
                         } else {
                             LOG.warn("No {} entities found for property {}", navigationName, resourceRecordKey);
                         }
                         entity.getNavigationLinks().add(link);
                     }
+                    StageTimer.record(StageTimer.EXPAND, expandStart);
                 }
             } else {
-                LOG.info("No document found for query: {}", query.toJson());
+                DiagnosticLog.log("No document found for query: {}", query);
             }
         } catch (Exception e) {
             LOG.error("Error querying MongoDB: " + e.getMessage(), e);
@@ -399,50 +420,27 @@ public class GenericEntityProcessor implements EntityProcessor {
 
     private Entity getDataFromSQL(ResourceInfo resource, List<UriParameter> keyPredicates, UriInfo uriInfo) {
         Entity entity = null;
-        try (Connection connection = getMySQLConnection()) {
+        try (Connection connection = getReadConnection()) {
             String primaryFieldName = resource.getPrimaryKeyName();
-            List<FieldInfo> enumFields = CommonDataProcessing.gatherEnumFields(resource);
-            HashMap<String, Object> enumValues = new HashMap<>();
-
-            StringBuilder queryBuilder = new StringBuilder("SELECT * FROM ")
-                    .append(resource.getTableName())
-                    .append(" WHERE ");
-
-            if (keyPredicates != null) {
-                for (UriParameter key : keyPredicates) {
-                    queryBuilder.append(key.getName())
-                            .append(" = ")
-                            .append(key.getText())
-                            .append(" AND ");
-                }
-                queryBuilder.setLength(queryBuilder.length() - 5); // Remove last " AND "
-            }
+            SqlQuery query = SqlQueryBuilder.selectByKey(resource,
+                    keyPredicates != null ? keyPredicates : Collections.<UriParameter>emptyList());
 
-            try (Statement statement = connection.createStatement();
-                    ResultSet resultSet = statement.executeQuery(queryBuilder.toString())) {
+            long findStart = System.nanoTime();
+            try (PreparedStatement statement = query.prepare(connection);
+                    ResultSet resultSet = statement.executeQuery()) {
 
                 if (resultSet.next()) {
+                    StageTimer.record(StageTimer.FIND, findStart);
+                    long mapStart = System.nanoTime();
                     entity = CommonDataProcessing.getEntityFromRow(resultSet, resource, null);
                     String resourceRecordKey = resultSet.getString(primaryFieldName);
 
-                    if (!enumFields.isEmpty()) {
-                        String enumQuery = "SELECT * FROM lookup_value WHERE ResourceRecordKey = '" + resourceRecordKey
-                                + "'";
-                        try (Statement enumStatement = connection.createStatement();
-                                ResultSet enumResultSet = enumStatement.executeQuery(enumQuery)) {
-
-                            HashMap<String, HashMap<String, Object>> entities = new HashMap<>();
-                            entities.put(resourceRecordKey, enumValues);
-
-                            while (enumResultSet.next()) {
-                                CommonDataProcessing.getEntityValues(enumResultSet, entities, enumFields);
-                            }
-                            CommonDataProcessing.setEntityEnums(enumValues, entity, enumFields);
-                        }
-                    }
+                    CommonDataProcessing.resolveEnums(connection, resource, Collections.singletonList(entity));
+                    StageTimer.record(StageTimer.MAP, mapStart);
 
                     // Handle $expand for SQL
                     if (uriInfo != null && uriInfo.getExpandOption() != null) {
+                        long expandStart = System.nanoTime();
                         for (ExpandItem expandItem : uriInfo.getExpandOption().getExpandItems()) {
                             UriResource expandPath = expandItem.getResourcePath().getUriResourceParts().get(0);
                             if (expandPath instanceof UriResourceNavigation) {
@@ -458,6 +456,7 @@ public class GenericEntityProcessor implements EntityProcessor {
                                 entity.getNavigationLinks().add(link);
                             }
                         }
+                        StageTimer.record(StageTimer.EXPAND, expandStart);
                     }
                 }
             }
@@ -586,6 +585,7 @@ public class GenericEntityProcessor implements EntityProcessor {
                     document.append(key, null);
                 }
             }
+            SearchShadowFields.apply(resource, document);
             collection.insertOne(document);
         }
     }
@@ -8,8 +8,12 @@ import org.apache.olingo.commons.api.edm.FullQualifiedName;
 import org.apache.olingo.commons.api.ex.ODataRuntimeException;
 import org.bson.Document;
 import org.reso.service.data.definition.LookupDefinition;
+import org.reso.service.data.definition.LookupDictionary;
 import org.reso.service.data.meta.*;
 import org.reso.service.data.mongodb.MongoDBManager;
+import org.reso.service.data.sql.SqlCursor;
+import org.reso.service.data.sql.SqlQuery;
+import org.reso.service.diagnostics.DiagnosticLog;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.mongodb.client.MongoCollection;
@@ -18,19 +22,19 @@ import com.mongodb.client.model.Filters;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.text.SimpleDateFormat;
-import java.time.Instant;
-import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.function.Consumer;
 
 import static org.reso.service.servlet.RESOservlet.resourceLookup;
 
 public class CommonDataProcessing {
    private static final Logger LOG = LoggerFactory.getLogger(CommonDataProcessing.class);
    private static HashMap<String, List<FieldInfo>> resourceEnumFields = new HashMap<>();
+   private static final int ENUM_BATCH_SIZE = 512;
 
    /**
     * This function will return the Enum fields for a given resource.
@@ -111,14 +115,17 @@ public class CommonDataProcessing {
             LOG.debug("Field Name: {} Field type: {}", field.getFieldName(), fieldType);
          }
       } catch (Exception e) {
-         LOG.info("Field Name: {} not in schema or error processing: {}", field.getFieldName(), e.getMessage());
+         DiagnosticLog.log("Field Name: {} not in schema or error processing: {}", field.getFieldName(),
+               e.getMessage());
       }
 
       return value;
    }
 
    /**
-    * Builds an Entity from the row from the Resource's data source
+    * Builds an Entity from the row from the Resource's data source. Compiles a
+    * {@link ResultSetEntityMapper} per call; loops over rows should compile one
+    * for the result set instead.
     * 
     * @param resultSet    Data source row result
     * @param resource     The resource we're making an Entity for
@@ -129,47 +136,14 @@ public class CommonDataProcessing {
     */
    public static Entity getEntityFromRow(ResultSet resultSet, ResourceInfo resource,
          HashMap<String, Boolean> selectLookup) throws SQLException {
-      String primaryFieldName = resource.getPrimaryKeyName();
-      ArrayList<FieldInfo> fields = resource.getFieldList();
-
-      String lookupKey = null;
-      if (selectLookup != null && selectLookup.get(primaryFieldName) != null) {
-         lookupKey = resultSet.getString(primaryFieldName);
-      }
-
-      Entity ent = new Entity();
-
-      for (FieldInfo field : fields) {
-         String fieldName = field.getODATAFieldName();
-         Object value = null;
-         if ((selectLookup == null || selectLookup.containsKey(fieldName))) {
-            value = CommonDataProcessing.getFieldValueFromRow(field, resultSet);
-            if (field instanceof EnumFieldInfo) {
-               LOG.error(
-                     "ENUMS currently only handles by values in lookup_value table. One must Define if this uses a key a numeric value.");
-            } else if (field.isCollection()) {
-               if (field.getType().equals(EdmPrimitiveTypeKind.String.getFullQualifiedName())) {
-                  ent.addProperty(new Property(null, fieldName, ValueType.COLLECTION_PRIMITIVE, value));
-               } else {
-                  ent.addProperty(new Property(null, fieldName, ValueType.ENUM, value));
-               }
-            } else {
-               ent.addProperty(new Property(null, fieldName, ValueType.PRIMITIVE, value));
-            }
-         }
-      }
-
-      if (lookupKey != null) {
-         ent.setId(createId(resource.getResourcesName(), lookupKey));
-      }
-
-      return ent;
+      return ResultSetEntityMapper.compile(resource, resultSet.getMetaData()).mapRow(resultSet, selectLookup);
    }
 
    /**
     * Returns a HashMap representation of a row from the data source, similar to
     * the above function.
-    * Useful for building a simple Lookup cache, apart from Entities
+    * Useful for building a simple Lookup cache, apart from Entities.
+    * Compiles a {@link ResultSetEntityMapper} per call, like getEntityFromRow.
     * 
     * @param resultSet    Data source row result
     * @param resource     The resource we're making an Entity for
@@ -180,27 +154,7 @@ public class CommonDataProcessing {
     */
    public static HashMap<String, Object> getObjectFromRow(ResultSet resultSet, ResourceInfo resource,
          HashMap<String, Boolean> selectLookup) throws SQLException {
-      String primaryFieldName = resource.getPrimaryKeyName();
-      ArrayList<FieldInfo> fields = resource.getFieldList();
-      String lookupKey = null;
-      if (selectLookup != null && selectLookup.get(primaryFieldName) != null) {
-         lookupKey = resultSet.getString(primaryFieldName);
-      }
-      HashMap<String, Object> ent = new HashMap<>();
-      for (FieldInfo field : fields) {
-         String fieldName = field.getODATAFieldName();
-         Object value = null;
-         if (selectLookup == null || selectLookup.containsKey(fieldName)) {
-            value = CommonDataProcessing.getFieldValueFromRow(field, resultSet);
-            ent.put(fieldName, value);
-         }
-      }
-
-      if (lookupKey != null) {
-         ent.put("ID", createId(resource.getResourcesName(), lookupKey));
-      }
-
-      return ent;
+      return ResultSetEntityMapper.compile(resource, resultSet.getMetaData()).mapRowToMap(resultSet, selectLookup);
    }
 
    /**
@@ -225,18 +179,121 @@ public class CommonDataProcessing {
          entities.put(resourceRecordKey, enumValues);
       }
 
-      @SuppressWarnings("unchecked")
-      HashMap<String, HashMap<String, String>> lookupCache = LookupDefinition.getLookupCache();
-      HashMap<String, String> lookup = lookupCache.get(lookupValue);
+      LookupDictionary dictionary = LookupDefinition.getDictionary();
+      int valueId = dictionary.getValueIdByKey(lookupValue);
 
-      if (lookup != null) {
-         String legacyValue = lookup.get("LegacyODataValue");
+      if (valueId != LookupDictionary.NOT_FOUND) {
+         String legacyValue = dictionary.getLegacyODataValue(valueId);
          if (legacyValue != null) {
             enumValues.put(fieldName, legacyValue);
          }
       }
    }
 
+   /**
+    * Fills in the Enum values of a page of entities with one query against the
+    * lookup_value table per {@value #ENUM_BATCH_SIZE} entities, instead of one
+    * query per entity. LookupKeys are resolved through the cached
+    * {@link LookupDictionary} rather than a join with the lookup table.
+    * 
+    * @param connect  The data source connection
+    * @param resource The resource of the entities
+    * @param entities The entities, with their primary key property filled in
+    */
+   public static void resolveEnums(Connection connect, ResourceInfo resource, List<Entity> entities) {
+      List<FieldInfo> enumFields = gatherEnumFields(resource);
+      if (enumFields.isEmpty() || entities.isEmpty()) {
+         return;
+      }
+
+      HashMap<String, EnumFieldInfo> enumFieldByName = new HashMap<>();
+      for (FieldInfo field : enumFields) {
+         enumFieldByName.put(field.getFieldName(), (EnumFieldInfo) field);
+      }
+
+      // Several entities can share a key, e.g. across $expand
+      LinkedHashMap<String, List<Entity>> entitiesByKey = new LinkedHashMap<>();
+      for (Entity entity : entities) {
+         Property key = entity.getProperty(resource.getPrimaryKeyName());
+         if (key != null && key.getValue() != null) {
+            entitiesByKey.computeIfAbsent(key.getValue().toString(), k -> new ArrayList<>()).add(entity);
+         }
+      }
+
+      HashMap<String, HashMap<String, Object>> enumValuesByKey = new HashMap<>();
+      List<String> keys = new ArrayList<>(entitiesByKey.keySet());
+      try {
+         for (int start = 0; start < keys.size(); start += ENUM_BATCH_SIZE) {
+            List<String> batch = keys.subList(start, Math.min(keys.size(), start + ENUM_BATCH_SIZE));
+            try (PreparedStatement statement = enumQuery(connect, batch);
+                 ResultSet resultSet = statement.executeQuery()) {
+               while (resultSet.next()) {
+                  addEnumValue(enumValuesByKey, enumFieldByName, resultSet.getString(1), resultSet.getString(2),
+                        resultSet.getString(3));
+               }
+            }
+         }
+      } catch (SQLException e) {
+         LOG.error("Error reading Enum values of " + resource.getResourceName(), e);
+         return;
+      }
+
+      for (Map.Entry<String, List<Entity>> entry : entitiesByKey.entrySet()) {
+         HashMap<String, Object> enumValues = enumValuesByKey.getOrDefault(entry.getKey(), new HashMap<>());
+         for (Entity entity : entry.getValue()) {
+            setEntityEnums(enumValues, entity, enumFields);
+         }
+      }
+   }
+
+   // The IN list is padded to the next power of two, so pages of any size share a handful of statements
+   private static PreparedStatement enumQuery(Connection connect, List<String> keys) throws SQLException {
+      int size = Integer.highestOneBit(keys.size());
+      if (size < keys.size()) {
+         size *= 2;
+      }
+      StringBuilder sql = new StringBuilder(
+            "SELECT ResourceRecordKey, FieldName, LookupKey FROM lookup_value WHERE ResourceRecordKey IN (?");
+      for (int i = 1; i < size; i++) {
+         sql.append(", ?");
+      }
+      sql.append(")");
+
+      PreparedStatement statement = connect.prepareStatement(sql.toString());
+      for (int i = 0; i < size; i++) {
+         statement.setString(i + 1, keys.get(Math.min(i, keys.size() - 1)));
+      }
+      return statement;
+   }
+
+   private static void addEnumValue(HashMap<String, HashMap<String, Object>> enumValuesByKey,
+         HashMap<String, EnumFieldInfo> enumFieldByName, String resourceRecordKey, String fieldName,
+         String lookupKey) {
+      EnumFieldInfo field = enumFieldByName.get(fieldName);
+      LookupDictionary dictionary = LookupDefinition.getDictionary();
+      int valueId = lookupKey == null ? LookupDictionary.NOT_FOUND : dictionary.getValueIdByKey(lookupKey);
+      if (field == null || valueId == LookupDictionary.NOT_FOUND) {
+         return;
+      }
+      String legacyValue = dictionary.getLegacyODataValue(valueId);
+      if (legacyValue == null) {
+         return;
+      }
+
+      HashMap<String, Object> enumValues = enumValuesByKey.computeIfAbsent(resourceRecordKey, k -> new HashMap<>());
+      if (field.isFlags()) {
+         // setEntityEnums adds up the bit values
+         Object bit = field.getValueOf(legacyValue);
+         if (bit != null) {
+            ((ArrayList<Object>) enumValues.computeIfAbsent(fieldName, k -> new ArrayList<>())).add(bit);
+         }
+      } else if (field.isCollection()) {
+         ((ArrayList<Object>) enumValues.computeIfAbsent(fieldName, k -> new ArrayList<>())).add(legacyValue);
+      } else {
+         enumValues.put(fieldName, legacyValue);
+      }
+   }
+
    /**
     * Translate the Enum values from a HashMap representation to an Entity
     * representation
@@ -256,7 +313,7 @@ public class CommonDataProcessing {
             try {
                // Builds a bit flag representation of the multiple values.
                Object flagValues = enumValues.get(fieldName);
-               ArrayList<Object> flagsArray = (ArrayList<Object>) flagValues;
+               ArrayList<Object> flagsArray = flagValues == null ? new ArrayList<>() : (ArrayList<Object>) flagValues;
                for (Object flagObj : flagsArray) {
                   Long flagLong = (Long) flagObj;
                   totalFlagValues = totalFlagValues + flagLong;
@@ -324,27 +381,36 @@ public class CommonDataProcessing {
     */
    public static ArrayList<HashMap<String, Object>> loadAllResource(Connection connect, ResourceInfo resource) {
       ArrayList<HashMap<String, Object>> entityList = new ArrayList<>();
+      forEachResource(connect, resource, entityList::add);
+      return entityList;
+   }
 
-      try {
-         Statement statement = connect.createStatement();
-         String queryString = "select * from " + resource.getTableName();
-
-         LOG.info("SQL Query: " + queryString);
-         ResultSet resultSet = statement.executeQuery(queryString);
-
-         while (resultSet.next()) {
-            HashMap<String, Object> ent = CommonDataProcessing.getObjectFromRow(resultSet, resource, null);
-            entityList.add(ent);
+   /**
+    * Reads all Resource entries through a cursor and hands them to the consumer
+    * one at a time, so only a fetch-sized batch of rows is held in memory.
+    * 
+    * @param connect  The data source connection
+    * @param resource The Resource to read
+    * @param consumer Receives the HashMap representation of each entry
+    * @return The number of entries read
+    */
+   public static int forEachResource(Connection connect, ResourceInfo resource,
+         Consumer<HashMap<String, Object>> consumer) {
+      int rows = 0;
+      SqlQuery query = new SqlQuery("select * from " + resource.getTableName(), Collections.emptyList());
+      DiagnosticLog.log("SQL Query: {}", query);
+
+      try (SqlCursor cursor = SqlCursor.open(connect, query, 0)) {
+         ResultSetEntityMapper mapper = ResultSetEntityMapper.compile(resource, cursor.getResultSet().getMetaData());
+         while (cursor.next()) {
+            consumer.accept(mapper.mapRowToMap(cursor.getResultSet(), null));
+            rows++;
          }
-
-         statement.close();
-
       } catch (Exception e) {
          LOG.error("Server Error occurred in reading " + resource.getResourceName(), e);
-         return entityList;
       }
 
-      return entityList;
+      return rows;
    }
 
    /**
@@ -354,7 +420,7 @@ public class CommonDataProcessing {
     * @param id            unique ID of the object
     * @return unique URI identifier for the entity / id
     */
-   private static URI createId(String entitySetName, Object id) {
+   public static URI createId(String entitySetName, Object id) {
       try {
          return new URI(entitySetName + "('" + id + "')");
       } catch (URISyntaxException e) {
@@ -370,9 +436,8 @@ public class CommonDataProcessing {
       Property expandResourceKey = sourceEntity.getProperty(edmNavigationProperty.getName() + "Key");
       boolean isCollection = edmNavigationProperty.isCollection();
       ResourceInfo expandResource = resourceLookup.get(expandEdmEntityType.getName());
-      LOG.info("ResourceName: " + sourceResource.getResourceName());
-      LOG.info("ResourceRecordKey: " + sourceKey);
-      LOG.info("expandResource.getResourceName(): " + expandResource.getResourceName());
+      DiagnosticLog.log("Expanding {} {} into {}", sourceResource.getResourceName(), sourceKey,
+            expandResource.getResourceName());
       if (isCollection) {
          switch (expandResource.getResourceName()) {
             case "Media":
@@ -385,35 +450,24 @@ public class CommonDataProcessing {
                      .append("ResourceName", sourceResource.getResourceName())
                      .append("ResourceRecordKey", sourceKey);
 
-               LOG.info("=== Media Expansion Debug ===");
-               LOG.info("MongoDB expand query for Media: {}", query.toJson());
-               LOG.info("Source Resource Name: {}", sourceResource.getResourceName());
-               LOG.info("Source Resource Key: {}", sourceKey);
-               LOG.info("Collection to query: {}", expandResource.getTableName().toLowerCase());
+               DiagnosticLog.log("MongoDB expand query for {}: {}", expandResource.getResourceName(), query);
 
                try {
                   // Use lowercase collection name for MongoDB
                   String collectionName = expandResource.getTableName().toLowerCase();
-                  LOG.info("Using collection name: {}", collectionName);
-                  MongoCollection<Document> collection = MongoDBManager.getDatabase()
-                        .getCollection(collectionName);
-
-                  LOG.info("Executing find operation on collection");
-                  collection.find(query).forEach(doc -> {
-                     try {
-                        LOG.info("Found media document: {}", doc.toJson());
-                        Entity expandEntity = CommonDataProcessing.getEntityFromDocument(doc, expandResource);
-                        navigationTargetEntityCollection.getEntities().add(expandEntity);
-                        LOG.info("Successfully added media document to response");
-                     } catch (Exception e) {
-                        LOG.error("Error processing media document: {}", e.getMessage(), e);
-                     }
+                  MongoCollection<Entity> collection =
+                        expandResource.getEntityCollection(MongoDBManager.getDatabase(), collectionName);
+
+                  collection.find(query).forEach(expandEntity -> {
+                     DiagnosticLog.log("Found media entity: {}", expandEntity.getId());
+                     navigationTargetEntityCollection.getEntities().add(expandEntity);
                   });
 
                   if (navigationTargetEntityCollection.getEntities().isEmpty()) {
-                     LOG.info("No media documents found for query: {}", query.toJson());
+                     DiagnosticLog.log("No media documents found for query: {}", query);
                   } else {
-                     LOG.info("Found {} media documents", navigationTargetEntityCollection.getEntities().size());
+                     DiagnosticLog.log("Found {} media documents",
+                           navigationTargetEntityCollection.getEntities().size());
                   }
                } catch (Exception e) {
                   LOG.error("Error querying MongoDB for Media: {}", e.getMessage(), e);
@@ -426,17 +480,10 @@ public class CommonDataProcessing {
                try {
                   // Use lowercase collection name for MongoDB
                   String collectionName = expandResource.getTableName().toLowerCase();
-                  MongoCollection<Document> collection = MongoDBManager.getDatabase()
-                        .getCollection(collectionName);
-
-                  collection.find(defaultQuery).forEach(doc -> {
-                     try {
-                        Entity expandEntity = CommonDataProcessing.getEntityFromDocument(doc, expandResource);
-                        navigationTargetEntityCollection.getEntities().add(expandEntity);
-                     } catch (Exception e) {
-                        LOG.error("Error processing document: {}", e.getMessage());
-                     }
-                  });
+                  MongoCollection<Entity> collection =
+                        expandResource.getEntityCollection(MongoDBManager.getDatabase(), collectionName);
+
+                  collection.find(defaultQuery).forEach(navigationTargetEntityCollection.getEntities()::add);
                } catch (Exception e) {
                   LOG.error("Error querying MongoDB: {}", e.getMessage());
                }
@@ -447,17 +494,10 @@ public class CommonDataProcessing {
          try {
             // Use lowercase collection name for MongoDB
             String collectionName = expandResource.getTableName().toLowerCase();
-            MongoCollection<Document> collection = MongoDBManager.getDatabase()
-                  .getCollection(collectionName);
+            MongoCollection<Entity> collection =
+                  expandResource.getEntityCollection(MongoDBManager.getDatabase(), collectionName);
 
-            collection.find(query).forEach(doc -> {
-               try {
-                  Entity expandEntity = CommonDataProcessing.getEntityFromDocument(doc, expandResource);
-                  navigationTargetEntityCollection.getEntities().add(expandEntity);
-               } catch (Exception e) {
-                  LOG.error("Error processing document: {}", e.getMessage());
-               }
-            });
+            collection.find(query).forEach(navigationTargetEntityCollection.getEntities()::add);
          } catch (Exception e) {
             LOG.error("Error querying MongoDB: {}", e.getMessage());
          }
@@ -466,153 +506,15 @@ public class CommonDataProcessing {
       return navigationTargetEntityCollection;
    }
 
+   /**
+    * Builds an Entity from a MongoDB document using the resource's compiled mapper
+    *
+    * @param doc      The MongoDB document
+    * @param resource The resource we're making an Entity for
+    * @return An Entity representing the document
+    */
    public static Entity getEntityFromDocument(Document doc, ResourceInfo resource) {
-      Entity entity = new Entity();
-      String primaryFieldName = resource.getPrimaryKeyName();
-      String lookupKey = null;
-
-      for (FieldInfo field : resource.getFieldList()) {
-         String fieldName = field.getODATAFieldName();
-         Object value = getFieldValueFromDocument(field, doc);
-
-         if (primaryFieldName != null && primaryFieldName.equals(field.getFieldName())) {
-            lookupKey = value != null ? value.toString() : null;
-         }
-
-         if (field.isCollection()) {
-            entity.addProperty(new Property(null, fieldName, ValueType.COLLECTION_PRIMITIVE, value));
-         } else if (field.getType().equals(EdmPrimitiveTypeKind.Date.getFullQualifiedName())) {
-            // Special handling for Edm.Date type
-            // Creating property for Edm.Date field
-            if (value != null) {
-               try {
-                  // Ensure the value is in the correct format
-                  SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-                  dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
-                  dateFormat.setLenient(false);
-
-                  Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
-
-                  if (value instanceof String) {
-                     // Parsing string date for field
-                     Date parsedDate = dateFormat.parse((String) value);
-                     cal.setTime(parsedDate);
-                  } else if (value instanceof Date) {
-                     // Converting Date to Calendar for field
-                     cal.setTime((Date) value);
-                  } else {
-                     // Unexpected value type for Edm.Date field
-                     value.getClass().getName();
-                     throw new ODataRuntimeException("Invalid value type for field " + fieldName);
-                  }
-
-                  // Normalize to midnight UTC
-                  cal.set(Calendar.HOUR_OF_DAY, 0);
-                  cal.set(Calendar.MINUTE, 0);
-                  cal.set(Calendar.SECOND, 0);
-                  cal.set(Calendar.MILLISECOND, 0);
-
-                  // Create a java.sql.Date which is more appropriate for Edm.Date
-                  java.sql.Date sqlDate = new java.sql.Date(cal.getTimeInMillis());
-                  entity.addProperty(new Property(null, fieldName, ValueType.PRIMITIVE, sqlDate));
-               } catch (Exception e) {
-                  throw new ODataRuntimeException(
-                        "Invalid date format for field " + fieldName + ". Expected format: yyyy-MM-dd");
-               }
-            } else {
-               LOG.debug("Setting null date property for field: {}", fieldName);
-               entity.addProperty(new Property(null, fieldName, ValueType.PRIMITIVE, null));
-            }
-         } else {
-            entity.addProperty(new Property(null, fieldName, ValueType.PRIMITIVE, value));
-         }
-      }
-
-      if (lookupKey != null) {
-         entity.setId(createId(resource.getResourcesName(), lookupKey));
-      }
-
-      return entity;
-   }
-
-   private static Object getFieldValueFromDocument(FieldInfo field, Document doc) {
-      String fieldName = field.getFieldName();
-      Object value = doc.get(fieldName);
-
-      if (value == null) {
-         return null;
-      }
-
-      if (field instanceof EnumFieldInfo) {
-         @SuppressWarnings("unchecked")
-         HashMap<String, HashMap<String, String>> lookupCache = LookupDefinition.getLookupCache();
-         HashMap<String, String> lookup = lookupCache.get(value);
-
-         if (lookup == null) {
-            return value;
-         }
-
-         return lookup.get("LegacyODataValue");
-      }
-
-      // Handle Edm.Date type fields
-      if (field.getType().equals(EdmPrimitiveTypeKind.Date.getFullQualifiedName())) {
-
-         if (value == null) {
-            return null;
-         }
-
-         SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-         dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
-         dateFormat.setLenient(false);
-
-         try {
-            String result;
-            if (value instanceof Date) {
-               // "Converting Date object to string for field
-               // Convert to UTC midnight for consistent date handling
-               Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
-               cal.setTime((Date) value);
-               cal.set(Calendar.HOUR_OF_DAY, 0);
-               cal.set(Calendar.MINUTE, 0);
-               cal.set(Calendar.SECOND, 0);
-               cal.set(Calendar.MILLISECOND, 0);
-               result = dateFormat.format(cal.getTime());
-            } else if (value instanceof String) {
-               // "Validating string date format for field
-               // Parse to validate the format
-               Date parsedDate = dateFormat.parse((String) value);
-               // Format back to ensure consistent format
-               result = dateFormat.format(parsedDate);
-            } else {
-               // LOG.error("Unexpected value type for Edm.Date field
-               throw new ODataRuntimeException(
-                     "Invalid value type for field " + fieldName + ". Expected Date or String in yyyy-MM-dd format");
-            }
-            // Successfully processed date field: {} with result
-            return result;
-         } catch (Exception e) {
-            LOG.error("Error processing date field {}: {} - Error: {}", fieldName, value, e.getMessage());
-            throw new ODataRuntimeException(
-                  "Invalid date format for field " + fieldName + ". Expected format: yyyy-MM-dd");
-         }
-      }
-
-      // Handle DateTimeOffset fields
-      if (field.getType().equals(EdmPrimitiveTypeKind.DateTimeOffset.getFullQualifiedName())) {
-         if (value instanceof Date) {
-            return value;
-         } else if (value instanceof String) {
-            try {
-               return Date.from(Instant.parse((String) value));
-            } catch (DateTimeParseException e) {
-               LOG.error("Invalid datetime format for field {}: {}", fieldName, value);
-               return null;
-            }
-         }
-      }
-
-      return value;
+      return resource.getDocumentMapper().map(doc);
    }
 
    public static void getEntityValues(Document doc, HashMap<String, HashMap<String, Object>> entities,
@@ -627,12 +529,11 @@ public class CommonDataProcessing {
          entities.put(resourceRecordKey, enumValues);
       }
 
-      @SuppressWarnings("unchecked")
-      HashMap<String, HashMap<String, String>> lookupCache = LookupDefinition.getLookupCache();
-      HashMap<String, String> lookup = lookupCache.get(lookupValue);
+      LookupDictionary dictionary = LookupDefinition.getDictionary();
+      int valueId = dictionary.getValueIdByKey(lookupValue);
 
-      if (lookup != null) {
-         String legacyValue = lookup.get("LegacyODataValue");
+      if (valueId != LookupDictionary.NOT_FOUND) {
+         String legacyValue = dictionary.getLegacyODataValue(valueId);
          if (legacyValue != null) {
             enumValues.put(fieldName, legacyValue);
          }
@@ -0,0 +1,348 @@
+package org.reso.service.data.common;
+
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.data.Property;
+import org.apache.olingo.commons.api.data.ValueType;
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind;
+import org.apache.olingo.commons.api.edm.FullQualifiedName;
+import org.apache.olingo.commons.api.ex.ODataRuntimeException;
+import org.bson.Document;
+import org.bson.types.Decimal128;
+import org.reso.service.data.definition.LookupDefinition;
+import org.reso.service.data.definition.LookupDictionary;
+import org.reso.service.data.meta.EnumFieldInfo;
+import org.reso.service.data.meta.FieldInfo;
+import org.reso.service.data.meta.ResourceInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.text.ParsePosition;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Maps MongoDB documents of one resource to Olingo Entities.
+ * <p>
+ * The field list is compiled once into parallel arrays of names, value types and type-specialized converters,
+ * so mapping a document is a single loop without type comparisons or per-field allocations beyond the
+ * Property itself. Instances are immutable and thread-safe.
+ */
+public final class DocumentEntityMapper {
+   private static final Logger LOG = LoggerFactory.getLogger(DocumentEntityMapper.class);
+   private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("uuuu-M-d")
+         .withResolverStyle(ResolverStyle.STRICT);
+
+   /**
+    * Converts a non-null raw document value to the value handed to Olingo.
+    */
+   interface FieldConverter {
+      Object convert(Object value);
+   }
+
+   private static final FieldConverter PASS_THROUGH = value -> value;
+
+   // Only integral values are converted; a fractional one is not an Int64 and is left out rather than truncated
+   private static final FieldConverter INT64 = value -> {
+      if (!(value instanceof Number) || value instanceof Long) {
+         return value;
+      }
+      Long exact = exactLong((Number) value);
+      if (exact == null) {
+         LOG.error("Invalid Int64 value {}", value);
+      }
+      return exact;
+   };
+
+   private static final FieldConverter DECIMAL = value -> (value instanceof Decimal128)
+         ? ((Decimal128) value).bigDecimalValue()
+         : value;
+
+   private static final FieldConverter ENUM = value -> (value instanceof String)
+         ? resolveEnum((String) value)
+         : value;
+
+   // Edm.Date values are stored as ISO text, which toLocalDate reads back
+   private static final FieldConverter STORED_DATE = value -> (value instanceof Date)
+         ? Instant.ofEpochMilli(((Date) value).getTime()).atZone(ZoneOffset.UTC).toLocalDate().toString()
+         : (value instanceof LocalDate) ? value.toString() : value;
+
+   /**
+    * @return The value as a long, or null when it is not a whole number within the range of a long
+    */
+   static Long exactLong(Number value) {
+      if (value instanceof Long) {
+         return (Long) value;
+      }
+      if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+         return value.longValue();
+      }
+      try {
+         BigDecimal decimal;
+         if (value instanceof Decimal128) {
+            decimal = ((Decimal128) value).bigDecimalValue();
+         } else if (value instanceof Double || value instanceof Float) {
+            decimal = BigDecimal.valueOf(value.doubleValue());
+         } else {
+            decimal = new BigDecimal(value.toString());
+         }
+         return decimal.longValueExact();
+      } catch (ArithmeticException | NumberFormatException e) {
+         // Fractional, out of range, NaN or infinite
+         return null;
+      }
+   }
+
+   private final String entitySetName;
+   private final String[] documentNames;
+   private final String[] odataNames;
+   private final ValueType[] valueTypes;
+   private final FieldConverter[] converters;
+   private final FieldConverter[] storedConverters;
+   private final int primaryKeyIndex;
+   private final HashMap<String, Integer> indexByDocumentName;
+   private final HashMap<String, Integer> indexByOdataName;
+
+   private DocumentEntityMapper(String entitySetName, String[] documentNames, String[] odataNames,
+         ValueType[] valueTypes, FieldConverter[] converters, FieldConverter[] storedConverters,
+         int primaryKeyIndex) {
+      this.entitySetName = entitySetName;
+      this.documentNames = documentNames;
+      this.odataNames = odataNames;
+      this.valueTypes = valueTypes;
+      this.converters = converters;
+      this.storedConverters = storedConverters;
+      this.primaryKeyIndex = primaryKeyIndex;
+      this.indexByDocumentName = new HashMap<>(documentNames.length * 2);
+      this.indexByOdataName = new HashMap<>(documentNames.length * 2);
+      for (int i = 0; i < documentNames.length; i++) {
+         indexByDocumentName.putIfAbsent(documentNames[i], i);
+         indexByOdataName.putIfAbsent(odataNames[i], i);
+      }
+   }
+
+   /**
+    * Compiles the mapper for a resource. Call after the resource's field list is complete.
+    *
+    * @param resource The resource
+    * @return The compiled mapper
+    */
+   public static DocumentEntityMapper compile(ResourceInfo resource) {
+      ArrayList<FieldInfo> fields = resource.getFieldList();
+      int size = fields == null ? 0 : fields.size();
+
+      String[] documentNames = new String[size];
+      String[] odataNames = new String[size];
+      ValueType[] valueTypes = new ValueType[size];
+      FieldConverter[] converters = new FieldConverter[size];
+      FieldConverter[] storedConverters = new FieldConverter[size];
+      int primaryKeyIndex = -1;
+      String primaryKeyName = resource.getPrimaryKeyName();
+
+      for (int i = 0; i < size; i++) {
+         FieldInfo field = fields.get(i);
+         documentNames[i] = field.getFieldName();
+         odataNames[i] = field.getODATAFieldName();
+         valueTypes[i] = field.isCollection() ? ValueType.COLLECTION_PRIMITIVE : ValueType.PRIMITIVE;
+         converters[i] = converterFor(field);
+         storedConverters[i] = storedConverterFor(field);
+
+         if (primaryKeyIndex < 0 && field.getFieldName().equals(primaryKeyName)) {
+            primaryKeyIndex = i;
+         }
+      }
+
+      return new DocumentEntityMapper(resource.getResourcesName(), documentNames, odataNames, valueTypes,
+            converters, storedConverters, primaryKeyIndex);
+   }
+
+   private static FieldConverter converterFor(FieldInfo field) {
+      if (field instanceof EnumFieldInfo) {
+         return field.isCollection() ? PASS_THROUGH : ENUM;
+      }
+      if (field.isCollection()) {
+         return PASS_THROUGH;
+      }
+
+      FullQualifiedName type = field.getType();
+      if (type.equals(EdmPrimitiveTypeKind.Int64.getFullQualifiedName())) {
+         return INT64;
+      } else if (type.equals(EdmPrimitiveTypeKind.Decimal.getFullQualifiedName())) {
+         return DECIMAL;
+      } else if (type.equals(EdmPrimitiveTypeKind.Date.getFullQualifiedName())) {
+         String fieldName = field.getODATAFieldName();
+         return value -> toSqlDate(fieldName, value);
+      } else if (type.equals(EdmPrimitiveTypeKind.DateTimeOffset.getFullQualifiedName())) {
+         String fieldName = field.getODATAFieldName();
+         return value -> toDateTimeOffset(fieldName, value);
+      }
+      return PASS_THROUGH;
+   }
+
+   // The reverse of converterFor, for the values it changes in a way that is read back differently
+   private static FieldConverter storedConverterFor(FieldInfo field) {
+      if (field.isCollection()) {
+         return PASS_THROUGH;
+      }
+      if (field instanceof EnumFieldInfo) {
+         String lookupName = ((EnumFieldInfo) field).getLookupName();
+         return value -> (value instanceof String) ? lookupKeyOf(lookupName, (String) value) : value;
+      }
+      if (field.getType().equals(EdmPrimitiveTypeKind.Date.getFullQualifiedName())) {
+         return STORED_DATE;
+      }
+      return PASS_THROUGH;
+   }
+
+   /**
+    * Maps one document.
+    *
+    * @param doc The MongoDB document
+    * @return The Entity
+    */
+   public Entity map(Document doc) {
+      return map(doc, null);
+   }
+
+   /**
+    * Maps raw values that were decoded in field order, see {@link #indexOf(String)}.
+    *
+    * @param values The raw value of every field, null where the document has none
+    * @return The Entity
+    */
+   Entity mapValues(Object[] values) {
+      return map(null, values);
+   }
+
+   private Entity map(Document doc, Object[] values) {
+      Entity entity = new Entity();
+      List<Property> properties = entity.getProperties();
+      if (properties instanceof ArrayList) {
+         ((ArrayList<Property>) properties).ensureCapacity(converters.length);
+      }
+      String lookupKey = null;
+
+      for (int i = 0; i < converters.length; i++) {
+         Object value = values != null ? values[i] : doc.get(documentNames[i]);
+         if (value != null) {
+            value = converters[i].convert(value);
+            if (i == primaryKeyIndex && value != null) {
+               lookupKey = value.toString();
+            }
+         }
+         properties.add(new Property(null, odataNames[i], valueTypes[i], value));
+      }
+
+      if (lookupKey != null) {
+         entity.setId(CommonDataProcessing.createId(entitySetName, lookupKey));
+      }
+
+      return entity;
+   }
+
+   public int getFieldCount() {
+      return converters.length;
+   }
+
+   /**
+    * @param odataName The name of a property
+    * @return The name the property is stored under, or the property name when the resource does not define it
+    */
+   String documentNameOf(String odataName) {
+      Integer index = indexByOdataName.get(odataName);
+      return index == null ? odataName : documentNames[index];
+   }
+
+   /**
+    * @param odataName The name of a property
+    * @param value     The value an entity holds for it
+    * @return The value to store, which maps back to {@code value}; enum values become their LookupKey and
+    * Edm.Date values yyyy-MM-dd text
+    */
+   Object storedValueOf(String odataName, Object value) {
+      Integer index = indexByOdataName.get(odataName);
+      return index == null || value == null ? value : storedConverters[index].convert(value);
+   }
+
+   /**
+    * @param documentName The stored field name
+    * @return The field's position, or -1 if the resource does not have the field
+    */
+   int indexOf(String documentName) {
+      Integer index = indexByDocumentName.get(documentName);
+      return index == null ? -1 : index;
+   }
+
+   /**
+    * Resolves a stored LookupKey to the value exposed through OData.
+    *
+    * @param lookupKey The stored key
+    * @return The legacy OData value, the lookup value, or the key itself when it is not a known lookup
+    */
+   static String resolveEnum(String lookupKey) {
+      LookupDictionary dictionary = LookupDefinition.getDictionary();
+      int valueId = dictionary.getValueIdByKey(lookupKey);
+      if (valueId == LookupDictionary.NOT_FOUND) {
+         return lookupKey;
+      }
+      return dictionary.getODataValue(valueId);
+   }
+
+   /**
+    * The reverse of {@link #resolveEnum(String)}.
+    *
+    * @param lookupName The LookupName of the field
+    * @param odataValue The value exposed through OData
+    * @return The LookupKey, or the value itself when it is not a known lookup
+    */
+   static String lookupKeyOf(String lookupName, String odataValue) {
+      LookupDictionary dictionary = LookupDefinition.getDictionary();
+      int valueId = dictionary.getValueIdByODataValue(dictionary.getNameId(lookupName), odataValue);
+      return valueId == LookupDictionary.NOT_FOUND ? odataValue : dictionary.getLookupKey(valueId);
+   }
+
+   // Edm.Date values are normalized to midnight UTC
+   private static java.sql.Date toSqlDate(String fieldName, Object value) {
+      LocalDate date = toLocalDate(fieldName, value);
+      return new java.sql.Date(date.atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli());
+   }
+
+   static LocalDate toLocalDate(String fieldName, Object value) {
+      LocalDate date;
+      if (value instanceof Date) {
+         date = ((Date) value).toInstant().atZone(ZoneOffset.UTC).toLocalDate();
+      } else if (value instanceof String) {
+         try {
+            date = LocalDate.from(DATE_FORMAT.parse((String) value, new ParsePosition(0)));
+         } catch (RuntimeException e) {
+            LOG.error("Error processing date field {}: {} - Error: {}", fieldName, value, e.getMessage());
+            throw new ODataRuntimeException(
+                  "Invalid date format for field " + fieldName + ". Expected format: yyyy-MM-dd");
+         }
+      } else {
+         throw new ODataRuntimeException(
+               "Invalid value type for field " + fieldName + ". Expected Date or String in yyyy-MM-dd format");
+      }
+      return date;
+   }
+
+   private static Object toDateTimeOffset(String fieldName, Object value) {
+      if (value instanceof String) {
+         try {
+            return Date.from(Instant.parse((String) value));
+         } catch (DateTimeParseException e) {
+            LOG.error("Invalid datetime format for field {}: {}", fieldName, value);
+            return null;
+         }
+      }
+      return value;
+   }
+}
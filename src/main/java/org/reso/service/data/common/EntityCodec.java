@@ -0,0 +1,137 @@
+package org.reso.service.data.common;
+
+import com.mongodb.MongoClientSettings;
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.data.Property;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.BsonTypeClassMap;
+import org.bson.codecs.BsonTypeCodecMap;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Decodes the documents of one resource directly into Olingo Entities, and encodes Entities back into documents.
+ * <p>
+ * Fields are read from the BsonReader into their slot of the resource's {@link DocumentEntityMapper}, so
+ * {@code collection.find(filter)} on a collection from {@link #getCodecRegistry()} yields ready entities
+ * without building a Document first. Fields the resource does not define are skipped unread.
+ */
+public final class EntityCodec implements Codec<Entity> {
+   private static final CodecRegistry DEFAULT_REGISTRY = MongoClientSettings.getDefaultCodecRegistry();
+   private static final BsonTypeCodecMap VALUE_CODECS = new BsonTypeCodecMap(new BsonTypeClassMap(), DEFAULT_REGISTRY);
+
+   private final DocumentEntityMapper mapper;
+   private final CodecRegistry codecRegistry;
+
+   public EntityCodec(DocumentEntityMapper mapper) {
+      this.mapper = mapper;
+      this.codecRegistry = CodecRegistries.fromRegistries(CodecRegistries.fromCodecs(this), DEFAULT_REGISTRY);
+   }
+
+   /**
+    * @return The default registry with this codec registered for Entity
+    */
+   public CodecRegistry getCodecRegistry() {
+      return codecRegistry;
+   }
+
+   @Override
+   public Entity decode(BsonReader reader, DecoderContext decoderContext) {
+      Object[] values = new Object[mapper.getFieldCount()];
+
+      reader.readStartDocument();
+      while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+         int index = mapper.indexOf(reader.readName());
+         if (index < 0) {
+            reader.skipValue();
+         } else {
+            values[index] = readValue(reader, decoderContext);
+         }
+      }
+      reader.readEndDocument();
+
+      return mapper.mapValues(values);
+   }
+
+   // Produces the same Java values as Document decoding
+   private static Object readValue(BsonReader reader, DecoderContext decoderContext) {
+      BsonType type = reader.getCurrentBsonType();
+      switch (type) {
+         case NULL:
+            reader.readNull();
+            return null;
+         case STRING:
+            return reader.readString();
+         case INT32:
+            return reader.readInt32();
+         case INT64:
+            return reader.readInt64();
+         case DOUBLE:
+            return reader.readDouble();
+         case BOOLEAN:
+            return reader.readBoolean();
+         case ARRAY:
+            List<Object> list = new ArrayList<>();
+            reader.readStartArray();
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+               list.add(readValue(reader, decoderContext));
+            }
+            reader.readEndArray();
+            return list;
+         default:
+            return VALUE_CODECS.get(type).decode(reader, decoderContext);
+      }
+   }
+
+   /**
+    * Writes the entity's properties under their stored names, as stored values that decode back to the entity:
+    * enum values as their LookupKey, Edm.Date values as yyyy-MM-dd text, other dates as BSON dates and collections
+    * as arrays, anything else through the default codec of its class.
+    */
+   @Override
+   public void encode(BsonWriter writer, Entity value, EncoderContext encoderContext) {
+      writer.writeStartDocument();
+      for (Property property : value.getProperties()) {
+         writer.writeName(mapper.documentNameOf(property.getName()));
+         writeValue(writer, mapper.storedValueOf(property.getName(), property.getValue()), encoderContext);
+      }
+      writer.writeEndDocument();
+   }
+
+   @SuppressWarnings({"unchecked", "rawtypes"})
+   private static void writeValue(BsonWriter writer, Object value, EncoderContext encoderContext) {
+      if (value == null) {
+         writer.writeNull();
+      } else if (value instanceof Collection) {
+         writer.writeStartArray();
+         for (Object item : (Collection<?>) value) {
+            writeValue(writer, item, encoderContext);
+         }
+         writer.writeEndArray();
+      } else if (value instanceof Date) {
+         // Also java.sql.Date and Timestamp, which have no codec of their own
+         writer.writeDateTime(((Date) value).getTime());
+      } else if (value instanceof Calendar) {
+         writer.writeDateTime(((Calendar) value).getTimeInMillis());
+      } else {
+         Codec codec = DEFAULT_REGISTRY.get(value.getClass());
+         encoderContext.encodeWithChildContext(codec, writer, value);
+      }
+   }
+
+   @Override
+   public Class<Entity> getEncoderClass() {
+      return Entity.class;
+   }
+}
@@ -0,0 +1,377 @@
+package org.reso.service.data.common;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import org.apache.olingo.commons.api.edm.EdmPrimitiveType;
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeException;
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind;
+import org.apache.olingo.commons.api.edm.FullQualifiedName;
+import org.apache.olingo.commons.api.ex.ODataRuntimeException;
+import org.apache.olingo.commons.core.edm.primitivetype.EdmPrimitiveTypeFactory;
+import org.apache.olingo.server.api.uri.UriInfoResource;
+import org.apache.olingo.server.api.uri.UriResource;
+import org.apache.olingo.server.api.uri.UriResourceProperty;
+import org.apache.olingo.server.api.uri.queryoption.SelectItem;
+import org.apache.olingo.server.api.uri.queryoption.SelectOption;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonType;
+import org.bson.RawBsonDocument;
+import org.bson.io.ByteBufferBsonInput;
+import org.bson.types.Decimal128;
+import org.reso.service.data.meta.EnumFieldInfo;
+import org.reso.service.data.meta.FieldInfo;
+import org.reso.service.data.meta.ResourceInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Writes an OData JSON (odata.metadata=minimal) entity collection straight from raw BSON documents.
+ * <p>
+ * Values are read from the BSON bytes and written to a streaming generator, with the same enum and date
+ * conversions as {@link DocumentEntityMapper}, so neither a Document nor an Olingo Entity is built per row.
+ * Properties are written in document order; properties missing from a document are written as null.
+ * Instances are immutable and thread-safe.
+ */
+public final class RawBsonJsonWriter {
+   private static final Logger LOG = LoggerFactory.getLogger(RawBsonJsonWriter.class);
+   // A page that fails part way must not be closed into valid JSON, or the client takes it for a complete one
+   private static final JsonFactory JSON_FACTORY = new JsonFactory()
+         .configure(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT, false);
+   private static final EdmPrimitiveType DATE_TIME_OFFSET =
+         EdmPrimitiveTypeFactory.getInstance(EdmPrimitiveTypeKind.DateTimeOffset);
+
+   private static final byte KIND_DEFAULT = 0;
+   private static final byte KIND_INT64 = 1;
+   private static final byte KIND_DATE = 2;
+   private static final byte KIND_DATE_TIME_OFFSET = 3;
+   private static final byte KIND_ENUM = 4;
+   private static final byte KIND_COLLECTION = 5;
+
+   private final String[] odataNames;
+   private final SerializedString[] jsonNames;
+   private final byte[] kinds;
+   private final Integer[] precisions;
+   private final HashMap<String, Integer> indexByDocumentName;
+   private final HashMap<String, Integer> indexByODataName;
+
+   private RawBsonJsonWriter(String[] odataNames, byte[] kinds, Integer[] precisions,
+         HashMap<String, Integer> indexByDocumentName, HashMap<String, Integer> indexByODataName) {
+      this.odataNames = odataNames;
+      this.kinds = kinds;
+      this.precisions = precisions;
+      this.indexByDocumentName = indexByDocumentName;
+      this.indexByODataName = indexByODataName;
+      this.jsonNames = new SerializedString[odataNames.length];
+      for (int i = 0; i < odataNames.length; i++) {
+         jsonNames[i] = new SerializedString(odataNames[i]);
+      }
+   }
+
+   /**
+    * Compiles the writer for a resource. Call after the resource's field list is complete.
+    *
+    * @param resource The resource
+    * @return The compiled writer
+    */
+   public static RawBsonJsonWriter compile(ResourceInfo resource) {
+      ArrayList<FieldInfo> fields = resource.getFieldList();
+      int size = fields == null ? 0 : fields.size();
+
+      String[] odataNames = new String[size];
+      byte[] kinds = new byte[size];
+      Integer[] precisions = new Integer[size];
+      HashMap<String, Integer> indexByDocumentName = new HashMap<>(size * 2);
+      HashMap<String, Integer> indexByODataName = new HashMap<>(size * 2);
+
+      for (int i = 0; i < size; i++) {
+         FieldInfo field = fields.get(i);
+         odataNames[i] = field.getODATAFieldName();
+         kinds[i] = kindOf(field);
+         precisions[i] = field.getPrecision();
+         indexByDocumentName.putIfAbsent(field.getFieldName(), i);
+         indexByODataName.putIfAbsent(field.getODATAFieldName(), i);
+      }
+
+      return new RawBsonJsonWriter(odataNames, kinds, precisions, indexByDocumentName, indexByODataName);
+   }
+
+   private static byte kindOf(FieldInfo field) {
+      // Collections are passed through as-is, as in DocumentEntityMapper
+      if (field.isCollection()) {
+         return KIND_COLLECTION;
+      }
+      if (field instanceof EnumFieldInfo) {
+         return KIND_ENUM;
+      }
+
+      FullQualifiedName type = field.getType();
+      if (type.equals(EdmPrimitiveTypeKind.Int64.getFullQualifiedName())) {
+         return KIND_INT64;
+      } else if (type.equals(EdmPrimitiveTypeKind.Date.getFullQualifiedName())) {
+         return KIND_DATE;
+      } else if (type.equals(EdmPrimitiveTypeKind.DateTimeOffset.getFullQualifiedName())) {
+         return KIND_DATE_TIME_OFFSET;
+      }
+      return KIND_DEFAULT;
+   }
+
+   /**
+    * Resolves $select to a per-field mask.
+    *
+    * @param selectOption The $select option, may be null
+    * @return true for every field that should be written
+    */
+   public boolean[] getSelection(SelectOption selectOption) {
+      boolean[] selected = new boolean[odataNames.length];
+      if (selectOption == null) {
+         Arrays.fill(selected, true);
+         return selected;
+      }
+
+      for (SelectItem item : selectOption.getSelectItems()) {
+         if (item.isStar()) {
+            Arrays.fill(selected, true);
+            return selected;
+         }
+         UriInfoResource resourcePath = item.getResourcePath();
+         if (resourcePath == null) {
+            continue;
+         }
+         List<UriResource> parts = resourcePath.getUriResourceParts();
+         if (!parts.isEmpty() && parts.get(0) instanceof UriResourceProperty) {
+            Integer index = indexByODataName.get(((UriResourceProperty) parts.get(0)).getProperty().getName());
+            if (index != null) {
+               selected[index] = true;
+            }
+         }
+      }
+      return selected;
+   }
+
+   /**
+    * Writes the whole collection response.
+    *
+    * @param out        The target stream, closed when done
+    * @param contextUrl The @odata.context value
+    * @param documents  The documents to write
+    * @param selected   The field mask from {@link #getSelection(SelectOption)}
+    * @param nextLink   The @odata.nextLink value, or null
+    * @return The number of entities written
+    * @throws IOException If writing fails
+    */
+   public int writeCollection(OutputStream out, String contextUrl, Iterator<RawBsonDocument> documents,
+         boolean[] selected, String nextLink) throws IOException {
+      int count = 0;
+      try (JsonGenerator json = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+         json.writeStartObject();
+         json.writeStringField("@odata.context", contextUrl);
+         json.writeArrayFieldStart("value");
+
+         boolean[] seen = new boolean[odataNames.length];
+         while (documents.hasNext()) {
+            writeEntity(json, documents.next(), selected, seen);
+            count++;
+         }
+
+         json.writeEndArray();
+         if (nextLink != null) {
+            json.writeStringField("@odata.nextLink", nextLink);
+         }
+         json.writeEndObject();
+      }
+      return count;
+   }
+
+   private void writeEntity(JsonGenerator json, RawBsonDocument doc, boolean[] selected, boolean[] seen)
+         throws IOException {
+      Arrays.fill(seen, false);
+      json.writeStartObject();
+
+      try (BsonBinaryReader reader = new BsonBinaryReader(new ByteBufferBsonInput(doc.getByteBuffer()))) {
+         reader.readStartDocument();
+         while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            Integer index = indexByDocumentName.get(reader.readName());
+            if (index == null || !selected[index] || seen[index]) {
+               reader.skipValue();
+               continue;
+            }
+            int i = index;
+            seen[i] = true;
+            json.writeFieldName(jsonNames[i]);
+            writeValue(json, reader, i);
+         }
+         reader.readEndDocument();
+      }
+
+      for (int i = 0; i < seen.length; i++) {
+         if (selected[i] && !seen[i]) {
+            json.writeFieldName(jsonNames[i]);
+            json.writeNull();
+         }
+      }
+      json.writeEndObject();
+   }
+
+   private void writeValue(JsonGenerator json, BsonBinaryReader reader, int i) throws IOException {
+      BsonType type = reader.getCurrentBsonType();
+      if (type == BsonType.NULL) {
+         reader.readNull();
+         json.writeNull();
+         return;
+      }
+
+      switch (kinds[i]) {
+         case KIND_ENUM:
+            if (type == BsonType.STRING) {
+               json.writeString(DocumentEntityMapper.resolveEnum(reader.readString()));
+               return;
+            }
+            break;
+         case KIND_INT64:
+            if (type == BsonType.INT32) {
+               json.writeNumber((long) reader.readInt32());
+               return;
+            } else if (type == BsonType.INT64) {
+               json.writeNumber(reader.readInt64());
+               return;
+            } else if (type == BsonType.DOUBLE) {
+               // Whole numbers are written as integers, anything else unchanged rather than truncated
+               double value = reader.readDouble();
+               Long exact = DocumentEntityMapper.exactLong(value);
+               if (exact != null) {
+                  json.writeNumber(exact);
+               } else {
+                  json.writeNumber(value);
+               }
+               return;
+            } else if (type == BsonType.DECIMAL128) {
+               Decimal128 value = reader.readDecimal128();
+               Long exact = DocumentEntityMapper.exactLong(value);
+               if (exact != null) {
+                  json.writeNumber(exact);
+               } else {
+                  json.writeNumber(value.bigDecimalValue());
+               }
+               return;
+            }
+            break;
+         case KIND_DATE:
+            writeDate(json, reader, type, i);
+            return;
+         case KIND_DATE_TIME_OFFSET:
+            writeDateTimeOffset(json, reader, type, i);
+            return;
+         case KIND_COLLECTION:
+            if (type != BsonType.ARRAY) {
+               reader.skipValue();
+               json.writeNull();
+               return;
+            }
+            break;
+         default:
+            break;
+      }
+      writeRaw(json, reader, type);
+   }
+
+   // Edm.Date is written as yyyy-MM-dd, whether stored as a string or a BSON date
+   private void writeDate(JsonGenerator json, BsonBinaryReader reader, BsonType type, int i) throws IOException {
+      Object value;
+      if (type == BsonType.STRING) {
+         value = reader.readString();
+      } else if (type == BsonType.DATE_TIME) {
+         value = new java.util.Date(reader.readDateTime());
+      } else {
+         reader.skipValue();
+         throw new ODataRuntimeException("Invalid value type for field " + odataNames[i]
+               + ". Expected Date or String in yyyy-MM-dd format");
+      }
+      json.writeString(DocumentEntityMapper.toLocalDate(odataNames[i], value).toString());
+   }
+
+   // Edm.DateTimeOffset is formatted by Olingo's own type, with the field's precision, as the serializer would
+   private void writeDateTimeOffset(JsonGenerator json, BsonBinaryReader reader, BsonType type, int i)
+         throws IOException {
+      Date value;
+      if (type == BsonType.DATE_TIME) {
+         value = new Date(reader.readDateTime());
+      } else if (type == BsonType.STRING) {
+         String text = reader.readString();
+         try {
+            value = Date.from(Instant.parse(text));
+         } catch (DateTimeParseException e) {
+            LOG.error("Invalid datetime format for field {}: {}", odataNames[i], text);
+            json.writeNull();
+            return;
+         }
+      } else {
+         writeRaw(json, reader, type);
+         return;
+      }
+      try {
+         json.writeString(DATE_TIME_OFFSET.valueToString(value, true, null, precisions[i], null, true));
+      } catch (EdmPrimitiveTypeException e) {
+         LOG.error("Cannot write field {} as DateTimeOffset: {}", odataNames[i], e.getMessage());
+         json.writeNull();
+      }
+   }
+
+   private static void writeRaw(JsonGenerator json, BsonBinaryReader reader, BsonType type) throws IOException {
+      switch (type) {
+         case STRING:
+            json.writeString(reader.readString());
+            break;
+         case INT32:
+            json.writeNumber(reader.readInt32());
+            break;
+         case INT64:
+            json.writeNumber(reader.readInt64());
+            break;
+         case DOUBLE:
+            json.writeNumber(reader.readDouble());
+            break;
+         case DECIMAL128:
+            json.writeNumber(reader.readDecimal128().bigDecimalValue());
+            break;
+         case BOOLEAN:
+            json.writeBoolean(reader.readBoolean());
+            break;
+         case DATE_TIME:
+            json.writeString(Instant.ofEpochMilli(reader.readDateTime()).toString());
+            break;
+         case OBJECT_ID:
+            json.writeString(reader.readObjectId().toHexString());
+            break;
+         case NULL:
+            reader.readNull();
+            json.writeNull();
+            break;
+         case ARRAY:
+            reader.readStartArray();
+            json.writeStartArray();
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+               writeRaw(json, reader, reader.getCurrentBsonType());
+            }
+            reader.readEndArray();
+            json.writeEndArray();
+            break;
+         default:
+            // Embedded documents and other BSON types have no primitive OData representation
+            reader.skipValue();
+            json.writeNull();
+      }
+   }
+}
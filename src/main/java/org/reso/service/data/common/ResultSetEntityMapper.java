@@ -0,0 +1,234 @@
+package org.reso.service.data.common;
+
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.data.Property;
+import org.apache.olingo.commons.api.data.ValueType;
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind;
+import org.apache.olingo.commons.api.edm.FullQualifiedName;
+import org.reso.service.data.meta.EnumFieldInfo;
+import org.reso.service.data.meta.FieldInfo;
+import org.reso.service.data.meta.ResourceInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Maps the rows of one SQL result set to Olingo Entities.
+ * <p>
+ * The resource's fields are matched to the result's columns once, from its ResultSetMetaData, into parallel arrays
+ * of column indexes, names and typed readers. Mapping a row is then a single loop of getters by index: fields
+ * without a column are left out instead of failing a lookup by name on every row, and no types are compared per
+ * value. Compile one mapper per result set; an instance only holds what it was compiled from.
+ */
+public final class ResultSetEntityMapper {
+   private static final Logger LOG = LoggerFactory.getLogger(ResultSetEntityMapper.class);
+
+   /**
+    * Reads the value of one column of the current row.
+    */
+   interface ColumnReader {
+      Object read(ResultSet resultSet, int column) throws SQLException;
+   }
+
+   // The primitive getters return false or 0 for NULL, as getFieldValueFromRow always did
+   private static final ColumnReader STRING = ResultSet::getString;
+   private static final ColumnReader STRING_COLLECTION = (resultSet, column) -> toList(resultSet.getString(column));
+   private static final ColumnReader BOOLEAN = ResultSet::getBoolean;
+   private static final ColumnReader DECIMAL = ResultSet::getBigDecimal;
+   private static final ColumnReader DOUBLE = ResultSet::getDouble;
+   private static final ColumnReader INT32 = ResultSet::getInt;
+   private static final ColumnReader INT64 = ResultSet::getLong;
+   private static final ColumnReader DATE = (resultSet, column) -> {
+      java.sql.Date sqlDate = resultSet.getDate(column);
+      return sqlDate == null ? null : sqlDate.toLocalDate().toString();
+   };
+   private static final ColumnReader TIMESTAMP = ResultSet::getTimestamp;
+   private static final ColumnReader UNSUPPORTED = (resultSet, column) -> null;
+
+   private final String entitySetName;
+   private final int[] columns;
+   private final String[] odataNames;
+   private final ValueType[] valueTypes;
+   private final ColumnReader[] readers;
+   private final int primaryKeyColumn;
+   private final String primaryKeyName;
+
+   private ResultSetEntityMapper(String entitySetName, int[] columns, String[] odataNames, ValueType[] valueTypes,
+         ColumnReader[] readers, int primaryKeyColumn, String primaryKeyName) {
+      this.entitySetName = entitySetName;
+      this.columns = columns;
+      this.odataNames = odataNames;
+      this.valueTypes = valueTypes;
+      this.readers = readers;
+      this.primaryKeyColumn = primaryKeyColumn;
+      this.primaryKeyName = primaryKeyName;
+   }
+
+   /**
+    * Compiles the mapper for the columns of a result set.
+    *
+    * @param resource The resource the rows belong to
+    * @param metaData The metadata of the result set
+    * @return The compiled mapper
+    * @throws SQLException in case of SQL error reading the metadata
+    */
+   public static ResultSetEntityMapper compile(ResourceInfo resource, ResultSetMetaData metaData)
+         throws SQLException {
+      // Column lookups by name are case insensitive in JDBC
+      Map<String, Integer> columnByName = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+      for (int column = metaData.getColumnCount(); column >= 1; column--) {
+         columnByName.put(metaData.getColumnLabel(column), column);
+      }
+
+      ArrayList<FieldInfo> fields = resource.getFieldList();
+      int size = fields == null ? 0 : fields.size();
+      int[] columns = new int[size];
+      String[] odataNames = new String[size];
+      ValueType[] valueTypes = new ValueType[size];
+      ColumnReader[] readers = new ColumnReader[size];
+      int count = 0;
+      int absent = 0;
+
+      for (int i = 0; i < size; i++) {
+         FieldInfo field = fields.get(i);
+         // Enum values come from the lookup_value table, see setEntityEnums
+         if (field instanceof EnumFieldInfo) {
+            continue;
+         }
+         Integer column = columnByName.get(field.getFieldName());
+         if (column == null) {
+            absent++;
+            continue;
+         }
+         columns[count] = column;
+         odataNames[count] = field.getODATAFieldName();
+         valueTypes[count] = valueTypeOf(field);
+         readers[count] = readerFor(field);
+         count++;
+      }
+
+      if (absent > 0) {
+         LOG.debug("{} fields of {} have no column in the result", absent, resource.getResourceName());
+      }
+
+      Integer primaryKeyColumn = resource.getPrimaryKeyName() == null
+            ? null
+            : columnByName.get(resource.getPrimaryKeyName());
+      return new ResultSetEntityMapper(resource.getResourcesName(), Arrays.copyOf(columns, count),
+            Arrays.copyOf(odataNames, count), Arrays.copyOf(valueTypes, count), Arrays.copyOf(readers, count),
+            primaryKeyColumn == null ? -1 : primaryKeyColumn, resource.getPrimaryKeyName());
+   }
+
+   private static ValueType valueTypeOf(FieldInfo field) {
+      if (!field.isCollection()) {
+         return ValueType.PRIMITIVE;
+      }
+      return field.getType().equals(EdmPrimitiveTypeKind.String.getFullQualifiedName())
+            ? ValueType.COLLECTION_PRIMITIVE
+            : ValueType.ENUM;
+   }
+
+   private static ColumnReader readerFor(FieldInfo field) {
+      FullQualifiedName type = field.getType();
+      if (type.equals(EdmPrimitiveTypeKind.String.getFullQualifiedName())) {
+         return field.isCollection() ? STRING_COLLECTION : STRING;
+      } else if (type.equals(EdmPrimitiveTypeKind.Boolean.getFullQualifiedName())) {
+         return BOOLEAN;
+      } else if (type.equals(EdmPrimitiveTypeKind.Decimal.getFullQualifiedName())) {
+         return DECIMAL;
+      } else if (type.equals(EdmPrimitiveTypeKind.Double.getFullQualifiedName())) {
+         return DOUBLE;
+      } else if (type.equals(EdmPrimitiveTypeKind.Int32.getFullQualifiedName())) {
+         return INT32;
+      } else if (type.equals(EdmPrimitiveTypeKind.Int64.getFullQualifiedName())) {
+         return INT64;
+      } else if (type.equals(EdmPrimitiveTypeKind.Date.getFullQualifiedName())) {
+         return DATE;
+      } else if (type.equals(EdmPrimitiveTypeKind.DateTimeOffset.getFullQualifiedName())) {
+         return TIMESTAMP;
+      }
+      LOG.debug("Field Name: {} Field type: {} is not read from SQL", field.getFieldName(), type);
+      return UNSUPPORTED;
+   }
+
+   // Collections are stored as JSON-like text, e.g. ["a","b"]
+   private static List<String> toList(String value) {
+      if (value == null) {
+         return null;
+      }
+      String str = value.replaceAll("\\[|\\]|\"", "");
+      if (str.isEmpty()) {
+         return new ArrayList<>();
+      }
+      return Arrays.asList(Arrays.stream(str.split(",")).map(String::trim).toArray(String[]::new));
+   }
+
+   /**
+    * Maps the current row of the result set.
+    *
+    * @param resultSet    The result set the mapper was compiled for, positioned on a row
+    * @param selectLookup An optional lookup of the OData field names to fill in
+    * @return The Entity
+    * @throws SQLException in case of SQL error from the data source
+    */
+   public Entity mapRow(ResultSet resultSet, HashMap<String, Boolean> selectLookup) throws SQLException {
+      Entity entity = new Entity();
+      for (int i = 0; i < columns.length; i++) {
+         if (selectLookup == null || selectLookup.containsKey(odataNames[i])) {
+            entity.addProperty(new Property(null, odataNames[i], valueTypes[i],
+                  readers[i].read(resultSet, columns[i])));
+         }
+      }
+      String key = selectedKey(resultSet, selectLookup);
+      if (key != null) {
+         entity.setId(CommonDataProcessing.createId(entitySetName, key));
+      }
+      return entity;
+   }
+
+   /**
+    * Maps the current row of the result set to a HashMap keyed by OData field name.
+    *
+    * @param resultSet    The result set the mapper was compiled for, positioned on a row
+    * @param selectLookup An optional lookup of the OData field names to fill in
+    * @return The HashMap representation of the row
+    * @throws SQLException in case of SQL error from the data source
+    */
+   public HashMap<String, Object> mapRowToMap(ResultSet resultSet, HashMap<String, Boolean> selectLookup)
+         throws SQLException {
+      HashMap<String, Object> values = new HashMap<>(columns.length * 2);
+      for (int i = 0; i < columns.length; i++) {
+         if (selectLookup == null || selectLookup.containsKey(odataNames[i])) {
+            values.put(odataNames[i], readers[i].read(resultSet, columns[i]));
+         }
+      }
+      String key = selectedKey(resultSet, selectLookup);
+      if (key != null) {
+         values.put("ID", CommonDataProcessing.createId(entitySetName, key));
+      }
+      return values;
+   }
+
+   private String selectedKey(ResultSet resultSet, HashMap<String, Boolean> selectLookup) throws SQLException {
+      if (selectLookup == null || primaryKeyColumn < 0 || selectLookup.get(primaryKeyName) == null) {
+         return null;
+      }
+      return resultSet.getString(primaryKeyColumn);
+   }
+
+   /**
+    * @return The number of fields read from each row
+    */
+   public int getColumnCount() {
+      return columns.length;
+   }
+}
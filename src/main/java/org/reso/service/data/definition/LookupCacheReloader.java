@@ -0,0 +1,136 @@
+package org.reso.service.data.definition;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Rebuilds the lookup dictionary in the background and publishes it through
+ * {@link LookupDefinition#publish(LookupDictionary)}.
+ * <p>
+ * Reloads are requested either by a change stream on the lookup collection or by an admin call. Bursts of
+ * requests are coalesced into a single rebuild. The enum types advertised in $metadata are not affected;
+ * only the values resolved while reading data are refreshed.
+ */
+public class LookupCacheReloader {
+   private static final Logger LOG = LoggerFactory.getLogger(LookupCacheReloader.class);
+   private static final long RELOAD_DELAY_MS = 500;
+   private static final long WATCH_RETRY_DELAY_MS = 5000;
+   // "$changeStream stage is only supported on replica sets"
+   private static final int CHANGE_STREAM_NOT_SUPPORTED = 40573;
+
+   private final MongoClient mongoClient;
+   private final LookupDefinition defn;
+   private final ScheduledExecutorService executor;
+   private final AtomicBoolean reloadPending = new AtomicBoolean(false);
+   private volatile boolean running = false;
+   private volatile long lastReloadMillis = 0;
+   private Thread watcher = null;
+
+   public LookupCacheReloader(MongoClient mongoClient, LookupDefinition defn) {
+      this.mongoClient = mongoClient;
+      this.defn = defn;
+      this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+         Thread thread = new Thread(runnable, "lookup-cache-reload");
+         thread.setDaemon(true);
+         return thread;
+      });
+   }
+
+   /**
+    * Starts watching the lookup collection for changes.
+    *
+    * @param watchChanges false to only reload on explicit requests
+    */
+   public synchronized void start(boolean watchChanges) {
+      running = true;
+      if (watchChanges && watcher == null) {
+         watcher = new Thread(this::watchLookupCollection, "lookup-change-stream");
+         watcher.setDaemon(true);
+         watcher.start();
+      }
+   }
+
+   public synchronized void stop() {
+      running = false;
+      if (watcher != null) {
+         watcher.interrupt();
+         watcher = null;
+      }
+      executor.shutdownNow();
+   }
+
+   /**
+    * Schedules a rebuild unless one is already pending.
+    *
+    * @return true if a new rebuild was scheduled
+    */
+   public boolean requestReload() {
+      if (!running || !reloadPending.compareAndSet(false, true)) {
+         return false;
+      }
+      executor.schedule(this::reload, RELOAD_DELAY_MS, TimeUnit.MILLISECONDS);
+      return true;
+   }
+
+   public long getLastReloadMillis() {
+      return lastReloadMillis;
+   }
+
+   private void reload() {
+      reloadPending.set(false);
+      try {
+         LookupDictionary dictionary = LookupDefinition.buildDictionary(mongoClient, defn);
+         LookupDefinition.publish(dictionary);
+         lastReloadMillis = System.currentTimeMillis();
+      } catch (Exception e) {
+         // Keep serving the previous snapshot
+         LOG.error("Error reloading lookup cache, keeping the previous snapshot", e);
+      }
+   }
+
+   private void watchLookupCollection() {
+      MongoCollection<Document> collection = mongoClient.getDatabase("reso").getCollection(defn.getTableName());
+
+      while (running) {
+         try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = collection.watch()
+               .maxAwaitTime(1, TimeUnit.SECONDS)
+               .cursor()) {
+            LOG.info("Watching {} for lookup changes", collection.getNamespace());
+            while (running) {
+               if (cursor.tryNext() != null) {
+                  requestReload();
+               }
+            }
+         } catch (MongoCommandException e) {
+            if (e.getErrorCode() == CHANGE_STREAM_NOT_SUPPORTED) {
+               LOG.warn("Change streams are not available, lookup cache will only reload on request");
+               return;
+            }
+            LOG.error("Lookup change stream failed: {}", e.getMessage());
+         } catch (Exception e) {
+            if (!running) {
+               return;
+            }
+            LOG.error("Lookup change stream failed: {}", e.getMessage());
+         }
+
+         try {
+            Thread.sleep(WATCH_RETRY_DELAY_MS);
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+         }
+      }
+   }
+}
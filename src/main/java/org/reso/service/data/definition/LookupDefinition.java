@@ -15,7 +15,6 @@ import org.slf4j.LoggerFactory;
 
 import java.sql.Connection;
 import java.util.ArrayList;
-import java.util.HashMap;
 
 import static org.reso.service.data.common.CommonDataProcessing.loadAllResource;
 
@@ -23,8 +22,8 @@ public class LookupDefinition extends GenericResourceInfo {
    private static final Logger LOG = LoggerFactory.getLogger(LookupDefinition.class);
    private static volatile ArrayList<FieldInfo> fieldList = null;
    private static final Object fieldListLock = new Object();
-   private static HashMap<String, HashMap<String, String>> lookupCache = new HashMap<>();
-   private static HashMap<String, HashMap<String, String>> reverseLookupCache = new HashMap<>();
+   // Readers always see a complete snapshot; reloads publish a new one with a single write.
+   private static volatile LookupDictionary dictionary = LookupDictionary.EMPTY;
    private static final String METADATA_DISPLAYNAME = "RESO.OData.Metadata.DisplayName";
    private static final String LOOKUP = "lookup";
    private static final String LOOKUP_KEY = "LookupKey";
@@ -83,31 +82,48 @@ public class LookupDefinition extends GenericResourceInfo {
 
    public static void loadCache(MongoClient mongoClient, LookupDefinition defn) {
       try {
-         MongoCollection<Document> collection = mongoClient.getDatabase("reso").getCollection(defn.getTableName());
-         MongoCursor<Document> cursor = collection.find().iterator();
+         publish(buildDictionary(mongoClient, defn));
+      } catch (Exception e) {
+         LOG.error("Error loading lookup cache from MongoDB", e);
+      }
+   }
 
+   /**
+    * Reads the whole lookup collection into a new dictionary without touching the published one.
+    *
+    * @param mongoClient The MongoDB client
+    * @param defn        The Lookup resource definition
+    * @return The new dictionary
+    */
+   public static LookupDictionary buildDictionary(MongoClient mongoClient, LookupDefinition defn) {
+      LookupDictionary.Builder builder = new LookupDictionary.Builder();
+      MongoCollection<Document> collection = mongoClient.getDatabase("reso").getCollection(defn.getTableName());
+
+      try (MongoCursor<Document> cursor = collection.find().iterator()) {
          while (cursor.hasNext()) {
             Document doc = cursor.next();
-            String lookupName = doc.getString(LOOKUP_NAME);
-            String lookupValue = doc.getString(LOOKUP_VALUE);
-            String lookupKey = doc.getString(LOOKUP_KEY);
-
-            lookupCache.putIfAbsent(lookupName, new HashMap<>());
-            lookupCache.get(lookupName).put(lookupKey, lookupValue);
-
-            reverseLookupCache.putIfAbsent(lookupName, new HashMap<>());
-            reverseLookupCache.get(lookupName).put(lookupValue, lookupKey);
+            builder.add(doc.getString(LOOKUP_NAME),
+                  doc.getString(LOOKUP_KEY),
+                  doc.getString(LOOKUP_VALUE),
+                  doc.getString(STANDARD_LOOKUP_VALUE),
+                  doc.getString(LEGACY_ODATA_VALUE));
          }
-      } catch (Exception e) {
-         LOG.error("Error loading lookup cache from MongoDB", e);
       }
+
+      return builder.build();
    }
 
-   public static HashMap<String, HashMap<String, String>> getLookupCache() {
-      return LookupDefinition.lookupCache;
+   /**
+    * Atomically replaces the dictionary seen by readers.
+    *
+    * @param newDictionary The fully built dictionary
+    */
+   public static void publish(LookupDictionary newDictionary) {
+      dictionary = newDictionary;
+      LOG.info("Loaded {} lookup values for {} lookup names", newDictionary.size(), newDictionary.getNameCount());
    }
 
-   public static HashMap<String, HashMap<String, String>> getReverseLookupCache() {
-      return LookupDefinition.reverseLookupCache;
+   public static LookupDictionary getDictionary() {
+      return LookupDefinition.dictionary;
    }
 }
@@ -0,0 +1,218 @@
+package org.reso.service.data.definition;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Read-only, integer-coded view of the lookup collection.
+ * <p>
+ * Every LookupName and every lookup value gets a dense int id. The attributes of a value
+ * (LookupKey, LookupValue, StandardLookupValue, LegacyODataValue) live in parallel arrays
+ * indexed by that id, so resolving a value is a single hash probe followed by array reads.
+ * Instances are immutable once built and are safe to share between request threads.
+ */
+public final class LookupDictionary {
+   public static final int NOT_FOUND = -1;
+
+   public static final LookupDictionary EMPTY = new Builder().build();
+
+   // LookupName <-> name id
+   private final HashMap<String, Integer> nameIds;
+   private final String[] names;
+
+   // LookupKey -> value id, and per name id: LookupValue -> value id and OData value -> value id
+   private final HashMap<String, Integer> keyIds;
+   private final List<HashMap<String, Integer>> valueIdsByName;
+   private final List<HashMap<String, Integer>> odataValueIdsByName;
+
+   // Parallel arrays indexed by value id
+   private final int[] valueNameIds;
+   private final String[] lookupKeys;
+   private final String[] lookupValues;
+   private final String[] standardLookupValues;
+   private final String[] legacyODataValues;
+
+   private LookupDictionary(Builder builder) {
+      this.nameIds = new HashMap<>(builder.nameIds);
+      this.names = builder.names.toArray(new String[0]);
+      this.keyIds = new HashMap<>(builder.keyIds);
+
+      ArrayList<HashMap<String, Integer>> byName = new ArrayList<>(builder.valueIdsByName.size());
+      for (HashMap<String, Integer> values : builder.valueIdsByName) {
+         byName.add(new HashMap<>(values));
+      }
+      this.valueIdsByName = Collections.unmodifiableList(byName);
+      ArrayList<HashMap<String, Integer>> odataByName = new ArrayList<>(builder.odataValueIdsByName.size());
+      for (HashMap<String, Integer> values : builder.odataValueIdsByName) {
+         odataByName.add(new HashMap<>(values));
+      }
+      this.odataValueIdsByName = Collections.unmodifiableList(odataByName);
+
+      int size = builder.lookupKeys.size();
+      this.valueNameIds = new int[size];
+      for (int i = 0; i < size; i++) {
+         this.valueNameIds[i] = builder.valueNameIds.get(i);
+      }
+      this.lookupKeys = builder.lookupKeys.toArray(new String[0]);
+      this.lookupValues = builder.lookupValues.toArray(new String[0]);
+      this.standardLookupValues = builder.standardLookupValues.toArray(new String[0]);
+      this.legacyODataValues = builder.legacyODataValues.toArray(new String[0]);
+   }
+
+   /**
+    * Accessors
+    */
+
+   public int size() {
+      return lookupKeys.length;
+   }
+
+   public int getNameCount() {
+      return names.length;
+   }
+
+   public int getNameId(String lookupName) {
+      Integer id = lookupName == null ? null : nameIds.get(lookupName);
+      return id == null ? NOT_FOUND : id;
+   }
+
+   public String getName(int nameId) {
+      return names[nameId];
+   }
+
+   /**
+    * @param lookupKey The LookupKey stored on documents and lookup_value rows
+    * @return The value id, or NOT_FOUND
+    */
+   public int getValueIdByKey(String lookupKey) {
+      Integer id = lookupKey == null ? null : keyIds.get(lookupKey);
+      return id == null ? NOT_FOUND : id;
+   }
+
+   /**
+    * @param nameId      The id of the LookupName the value belongs to
+    * @param lookupValue The human-friendly LookupValue
+    * @return The value id, or NOT_FOUND
+    */
+   public int getValueId(int nameId, String lookupValue) {
+      if (nameId < 0 || nameId >= names.length || lookupValue == null) {
+         return NOT_FOUND;
+      }
+      Integer id = valueIdsByName.get(nameId).get(lookupValue);
+      return id == null ? NOT_FOUND : id;
+   }
+
+   /**
+    * @param nameId     The id of the LookupName the value belongs to
+    * @param odataValue A value as exposed through OData, see {@link #getODataValue(int)}
+    * @return The value id, or NOT_FOUND
+    */
+   public int getValueIdByODataValue(int nameId, String odataValue) {
+      if (nameId < 0 || nameId >= names.length || odataValue == null) {
+         return NOT_FOUND;
+      }
+      Integer id = odataValueIdsByName.get(nameId).get(odataValue);
+      return id == null ? NOT_FOUND : id;
+   }
+
+   public int getNameIdOfValue(int valueId) {
+      return valueNameIds[valueId];
+   }
+
+   public String getLookupKey(int valueId) {
+      return lookupKeys[valueId];
+   }
+
+   public String getLookupValue(int valueId) {
+      return lookupValues[valueId];
+   }
+
+   public String getStandardLookupValue(int valueId) {
+      return standardLookupValues[valueId];
+   }
+
+   public String getLegacyODataValue(int valueId) {
+      return legacyODataValues[valueId];
+   }
+
+   /**
+    * @return The value exposed through OData: the LegacyODataValue, or the LookupValue when there is none
+    */
+   public String getODataValue(int valueId) {
+      String legacyValue = legacyODataValues[valueId];
+      return legacyValue != null ? legacyValue : lookupValues[valueId];
+   }
+
+   /**
+    * Reverse lookup used when building enum metadata: LookupName + LookupValue to LookupKey.
+    *
+    * @param lookupName  The LookupName
+    * @param lookupValue The LookupValue
+    * @return The LookupKey, or null if unknown
+    */
+   public String findLookupKey(String lookupName, String lookupValue) {
+      int valueId = getValueId(getNameId(lookupName), lookupValue);
+      return valueId == NOT_FOUND ? null : lookupKeys[valueId];
+   }
+
+   /**
+    * Collects lookup rows and assigns ids in insertion order.
+    */
+   public static class Builder {
+      private final HashMap<String, Integer> nameIds = new HashMap<>();
+      private final ArrayList<String> names = new ArrayList<>();
+      private final HashMap<String, Integer> keyIds = new HashMap<>();
+      private final ArrayList<HashMap<String, Integer>> valueIdsByName = new ArrayList<>();
+      private final ArrayList<HashMap<String, Integer>> odataValueIdsByName = new ArrayList<>();
+
+      private final ArrayList<Integer> valueNameIds = new ArrayList<>();
+      private final ArrayList<String> lookupKeys = new ArrayList<>();
+      private final ArrayList<String> lookupValues = new ArrayList<>();
+      private final ArrayList<String> standardLookupValues = new ArrayList<>();
+      private final ArrayList<String> legacyODataValues = new ArrayList<>();
+
+      /**
+       * Adds a lookup row. Rows without a LookupName or LookupKey, and repeated LookupKeys, are ignored.
+       *
+       * @return true if the row was added
+       */
+      public boolean add(String lookupName, String lookupKey, String lookupValue, String standardLookupValue,
+            String legacyODataValue) {
+         if (lookupName == null || lookupKey == null || keyIds.containsKey(lookupKey)) {
+            return false;
+         }
+
+         Integer nameId = nameIds.get(lookupName);
+         if (nameId == null) {
+            nameId = names.size();
+            nameIds.put(lookupName, nameId);
+            names.add(lookupName);
+            valueIdsByName.add(new HashMap<>());
+            odataValueIdsByName.add(new HashMap<>());
+         }
+
+         int valueId = lookupKeys.size();
+         keyIds.put(lookupKey, valueId);
+         if (lookupValue != null) {
+            valueIdsByName.get(nameId).put(lookupValue, valueId);
+         }
+         String odataValue = legacyODataValue != null ? legacyODataValue : lookupValue;
+         if (odataValue != null) {
+            odataValueIdsByName.get(nameId).put(odataValue, valueId);
+         }
+
+         valueNameIds.add(nameId);
+         lookupKeys.add(lookupKey);
+         lookupValues.add(lookupValue);
+         standardLookupValues.add(standardLookupValue);
+         legacyODataValues.add(legacyODataValue);
+         return true;
+      }
+
+      public LookupDictionary build() {
+         return new LookupDictionary(this);
+      }
+   }
+}
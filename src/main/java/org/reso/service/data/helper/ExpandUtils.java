@@ -5,8 +5,11 @@ import org.apache.olingo.commons.api.data.*;
 import org.apache.olingo.server.api.uri.*;
 import org.apache.olingo.server.api.uri.queryoption.*;
 import org.bson.Document;
-import org.reso.service.data.common.CommonDataProcessing;
 import org.reso.service.data.meta.ResourceInfo;
+import org.reso.service.data.mongodb.IndexAdvisor;
+import org.reso.service.data.mongodb.SlowQueryLog;
+import org.reso.service.diagnostics.DiagnosticLog;
+import org.reso.service.metrics.MetricsRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -309,6 +312,7 @@ public class ExpandUtils {
          return;
       }
 
+      long start = System.nanoTime();
       try {
          MongoDatabase database = mongoClient.getDatabase("reso");
 
@@ -319,6 +323,9 @@ public class ExpandUtils {
          }
       } catch (Exception e) {
          LOG.error("Error in handleMongoExpand: {}", e.getMessage(), e);
+      } finally {
+         MetricsRegistry.getInstance().histogram("reso_expand_duration_seconds", "Time spent resolving $expand",
+               "resource", sourceResource.getResourceName()).observeNanos(System.nanoTime() - start);
       }
    }
 
@@ -394,30 +401,35 @@ public class ExpandUtils {
 
    private EntityCollection executeNavigationQuery(MongoDatabase database, NavigationConfig config,
          Document query, String navPropertyName) {
-      LOG.info("Querying {} with filter: {} (last modified: {})",
-            config.targetCollection,
-            query.toJson(),
-            new java.util.Date(config.modificationTimestamp));
-      MongoCollection<Document> collection = database.getCollection(config.targetCollection);
+      if (DiagnosticLog.isEnabled()) {
+         DiagnosticLog.log("Querying {} with filter: {} (last modified: {})",
+               config.targetCollection,
+               query,
+               new java.util.Date(config.modificationTimestamp));
+      }
       EntityCollection expandEntities = new EntityCollection();
 
-      try (MongoCursor<Document> cursor = collection.find(query).maxTime(5000, TimeUnit.MILLISECONDS).iterator()) {
-         while (cursor.hasNext()) {
-            Document doc = cursor.next();
-            LOG.info("Found {} document: {}", navPropertyName, doc.toJson());
-
-            String resourceName = ResourceMapping.getResourceName(config.targetCollection, navPropertyName);
-            ResourceInfo expandResource = resourceLookup.get(resourceName);
+      String resourceName = ResourceMapping.getResourceName(config.targetCollection, navPropertyName);
+      ResourceInfo expandResource = resourceLookup.get(resourceName);
+      if (expandResource == null) {
+         LOG.error("Resource not found for expansion: {} (looking up as {})", navPropertyName, resourceName);
+         return expandEntities;
+      }
 
-            if (expandResource == null) {
-               LOG.error("Resource not found for expansion: {} (looking up as {})", navPropertyName, resourceName);
-               continue;
+      MongoCollection<Entity> collection = expandResource.getEntityCollection(database, config.targetCollection);
+      IndexAdvisor.getInstance().record(config.targetCollection, query, null);
+      long queryStart = System.nanoTime();
+      try (MongoCursor<Entity> cursor = collection.find(query).maxTime(5000, TimeUnit.MILLISECONDS).iterator()) {
+         while (cursor.hasNext()) {
+            Entity expandEntity = cursor.next();
+            if (DiagnosticLog.isEnabled()) {
+               DiagnosticLog.log("Found {} document: {}", navPropertyName, expandEntity.getId());
             }
-
-            Entity expandEntity = CommonDataProcessing.getEntityFromDocument(doc, expandResource);
             expandEntities.getEntities().add(expandEntity);
          }
       }
+      SlowQueryLog.getInstance().record(collection, query, null, null, 0, 0,
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - queryStart));
 
       return expandEntities;
    }
@@ -431,18 +443,37 @@ public class ExpandUtils {
       if (!expandEntities.getEntities().isEmpty()) {
          if (isCollection) {
             link.setInlineEntitySet(expandEntities);
-            LOG.info("Added {} {} items to entity", expandEntities.getEntities().size(), navPropertyName);
+            DiagnosticLog.log("Added {} {} items to entity", expandEntities.getEntities().size(), navPropertyName);
          } else {
             link.setInlineEntity(expandEntities.getEntities().get(0));
-            LOG.info("Added {} entity", navPropertyName);
+            DiagnosticLog.log("Added {} entity", navPropertyName);
          }
       } else {
-         LOG.warn("No {} entities found", navPropertyName);
+         DiagnosticLog.log("No {} entities found", navPropertyName);
       }
 
       sourceEntity.getNavigationLinks().add(link);
    }
 
+   /**
+    * The fields each navigation looks its target up by, for index management.
+    *
+    * @return The key field lists per target collection
+    */
+   public static Map<String, Set<List<String>>> getNavigationLookupKeys() {
+      Map<String, Set<List<String>>> keys = new TreeMap<>();
+      for (NavigationConfig config : NAVIGATION_CONFIGS.values()) {
+         if (config.targetCollection == null || config.sourceKey == null) {
+            continue;
+         }
+         List<String> fields = config.sourceKey.contains(",")
+               ? Arrays.asList("ResourceName", "ResourceRecordKey")
+               : Collections.singletonList(config.targetKey != null ? config.targetKey : config.sourceKey);
+         keys.computeIfAbsent(config.targetCollection, key -> new LinkedHashSet<>()).add(fields);
+      }
+      return keys;
+   }
+
    // Add a new helper method to log all navigation configurations
    public void logNavigationConfigurations() {
       LOG.info("Listing all navigation configurations:");
@@ -6,7 +6,6 @@ import org.apache.olingo.commons.api.edm.provider.annotation.CsdlConstantExpress
 import org.reso.service.data.definition.LookupDefinition;
 
 import java.util.ArrayList;
-import java.util.Optional;
 
 public class EnumValueInfo
 {
@@ -25,10 +24,7 @@ public class EnumValueInfo
    }
 
    public String getKey(String fieldName) {
-      return Optional.ofNullable(LookupDefinition.getReverseLookupCache())
-         .map(cache -> cache.get(fieldName))
-         .map(innerMap -> innerMap.get(value))
-         .orElse(null);
+      return LookupDefinition.getDictionary().findLookupKey(fieldName, value);
    }
 
    public void addAnnotation(String annotation, String term)
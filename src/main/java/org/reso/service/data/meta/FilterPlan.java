@@ -0,0 +1,373 @@
+package org.reso.service.data.meta;
+
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind;
+import org.apache.olingo.commons.api.edm.FullQualifiedName;
+import org.apache.olingo.commons.api.http.HttpStatusCode;
+import com.mongodb.client.model.Collation;
+import org.apache.olingo.server.api.ODataApplicationException;
+import org.bson.BsonRegularExpression;
+import org.bson.Document;
+import org.bson.types.MinKey;
+
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A compiled $filter with its literals lifted out into parameters.
+ * <p>
+ * The template is a tree of Documents and Lists in which every literal is a {@link Param}. Binding copies
+ * the tree and replaces each Param with its literal, parsed and converted for the property it is compared
+ * with. Plans are immutable once built and can be shared between requests.
+ */
+public final class FilterPlan {
+    private final Document template;
+    private final List<Param> params;
+    private final Collation collation;
+
+    FilterPlan(Document template, List<Param> params, Collation collation) {
+        this.template = template;
+        this.params = params;
+        this.collation = collation;
+    }
+
+    /**
+     * A literal in the filter. Literals are numbered in the order they appear in the $filter text; a literal used
+     * by a string function may appear in the template in several derived forms that share its number.
+     */
+    static final class Param {
+        static final byte FORM_VALUE = 0;
+        // tolower()/toupper() equality under a case-insensitive collation
+        static final byte FORM_FOLDED = 1;
+        static final byte FORM_EXACT_REGEX = 2;
+        static final byte FORM_PREFIX_REGEX = 3;
+        static final byte FORM_SUFFIX_REGEX = 4;
+        static final byte FORM_CONTAINS_REGEX = 5;
+        static final byte FORM_REVERSED_PREFIX_REGEX = 6;
+        // A whole condition: {"_search.Field.grams": {"$all": [...]}}, or {} when the literal is too short
+        static final byte FORM_GRAMS_CONDITION = 7;
+
+        // Matches nothing, for tolower()/toupper() comparisons with a literal that is not in that case
+        private static final String NEVER = "(?!)";
+
+        final int index;
+        final FullQualifiedName literalType;
+        final String sourceText;
+        final boolean enumValue;
+        final boolean now;
+        final byte form;
+        FieldInfo targetField = null;
+        String targetPath = null;
+        boolean negated = false;
+        // 'l' for tolower(), 'u' for toupper()
+        char fold = 0;
+        String shadowPath = null;
+        // The plan depends on the literal itself, e.g. "startswith(...) eq true"
+        boolean fixed = false;
+
+        private Param(int index, FullQualifiedName literalType, String sourceText, boolean enumValue, boolean now,
+                      byte form) {
+            this.index = index;
+            this.literalType = literalType;
+            this.sourceText = sourceText;
+            this.enumValue = enumValue;
+            this.now = now;
+            this.form = form;
+        }
+
+        /**
+         * @param literalType The EDM type of the literal, null for the null literal
+         */
+        static Param literal(int index, FullQualifiedName literalType, String text) {
+            return new Param(index, literalType, text, false, false, FORM_VALUE);
+        }
+
+        static Param enumMember(int index, String value) {
+            return new Param(index, null, "'" + value.replace("'", "''") + "'", true, false, FORM_VALUE);
+        }
+
+        // now() is evaluated on every bind
+        static Param now() {
+            return new Param(-1, null, null, false, true, FORM_VALUE);
+        }
+
+        /**
+         * @return The same literal, bound in another form
+         */
+        Param derive(byte form, char fold) {
+            Param derived = new Param(index, literalType, sourceText, enumValue, now, form);
+            derived.targetField = targetField;
+            derived.targetPath = targetPath;
+            derived.negated = negated;
+            derived.fold = fold;
+            return derived;
+        }
+
+        void target(FieldInfo field, String path) {
+            this.targetField = field;
+            this.targetPath = path;
+        }
+
+        /**
+         * Whether a literal token of the $filter text can take the place of this parameter, i.e. it is of the
+         * same lexical kind as the literal the plan was compiled from and so parses to the same type.
+         */
+        boolean matches(String token) {
+            if (fixed) {
+                return token.equals(sourceText);
+            }
+            char kind = FilterPlanCache.kindOf(token);
+            if (enumValue) {
+                return kind == FilterPlanCache.KIND_QUALIFIED || kind == FilterPlanCache.KIND_STRING;
+            }
+            return kind == FilterPlanCache.kindOf(sourceText);
+        }
+
+        Object resolve(String text) throws ODataApplicationException {
+            Object value;
+            if (now) {
+                value = new Date();
+            } else if (enumValue) {
+                value = unquote(text.substring(text.indexOf('\'')));
+            } else {
+                value = literalValue(literalType, text);
+            }
+
+            if (negated) {
+                if (value instanceof Long) {
+                    value = -(Long) value;
+                } else if (value instanceof Double) {
+                    value = -(Double) value;
+                } else {
+                    throw new ODataApplicationException("'-' can only be applied to numeric literals",
+                            HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH);
+                }
+            }
+            if (form == FORM_VALUE) {
+                return coerce(targetField, targetPath, value);
+            }
+
+            if (!(value instanceof String)) {
+                throw new ODataApplicationException("String functions require a string literal",
+                        HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH);
+            }
+            String string = (String) value;
+            boolean folded = fold == 0 || string.equals(fold == 'l'
+                    ? string.toLowerCase(Locale.ROOT) : string.toUpperCase(Locale.ROOT));
+            String options = fold == 0 ? "" : "i";
+
+            switch (form) {
+                case FORM_FOLDED:
+                    // Nothing equals MinKey, so "eq" matches nothing and "ne" everything
+                    return folded ? string : new MinKey();
+                case FORM_EXACT_REGEX:
+                    return regex(folded ? "^" + escapeRegex(string) + "$" : NEVER, options);
+                case FORM_PREFIX_REGEX:
+                    return regex(folded ? "^" + escapeRegex(string) : NEVER, options);
+                case FORM_SUFFIX_REGEX:
+                    return regex(folded ? escapeRegex(string) + "$" : NEVER, options);
+                case FORM_CONTAINS_REGEX:
+                    return regex(folded ? escapeRegex(string) : NEVER, options);
+                case FORM_REVERSED_PREFIX_REGEX:
+                    return regex(folded ? "^" + escapeRegex(SearchShadowFields.reversed(string)) : NEVER, "");
+                default:
+                    List<String> grams = SearchShadowFields.grams(string, SearchShadowFields.MAX_QUERY_GRAMS);
+                    return grams.isEmpty() ? new Document() : new Document(shadowPath, new Document("$all", grams));
+            }
+        }
+
+        private static BsonRegularExpression regex(String pattern, String options) {
+            return new BsonRegularExpression(pattern, options);
+        }
+    }
+
+    public int getParameterCount() {
+        return params.size();
+    }
+
+    /**
+     * Whether this plan was compiled from a filter with the same literal layout, so it can be bound to them.
+     *
+     * @param literals The literal tokens of a $filter text, in order
+     * @return true if every literal lines up with a parameter
+     */
+    boolean matches(List<String> literals) {
+        if (literals.size() != params.size()) {
+            return false;
+        }
+        for (int i = 0; i < literals.size(); i++) {
+            if (!params.get(i).matches(literals.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The collation the filter must run with, or null
+     */
+    public Collation getCollation() {
+        return collation;
+    }
+
+    /**
+     * @return The filter with the literals it was compiled from
+     */
+    MongoFilter bindSource() throws ODataApplicationException {
+        List<String> literals = new ArrayList<>(params.size());
+        for (Param param : params) {
+            literals.add(param.sourceText);
+        }
+        return bind(literals);
+    }
+
+    /**
+     * Binds the plan to the literals of another filter of the same shape.
+     *
+     * @param literals The literal tokens, in the order of {@link #matches(List)}
+     * @return The MongoDB filter
+     * @throws ODataApplicationException If a literal is not valid for its property
+     */
+    public MongoFilter bind(List<String> literals) throws ODataApplicationException {
+        return new MongoFilter((Document) copy(template, literals), collation);
+    }
+
+    private static Object copy(Object node, List<String> literals) throws ODataApplicationException {
+        if (node instanceof Param) {
+            Param param = (Param) node;
+            return param.resolve(param.index < 0 ? null : literals.get(param.index));
+        } else if (node instanceof Document) {
+            Document source = (Document) node;
+            Document target = new Document();
+            for (Map.Entry<String, Object> entry : source.entrySet()) {
+                target.put(entry.getKey(), copy(entry.getValue(), literals));
+            }
+            return target;
+        } else if (node instanceof List) {
+            List<?> source = (List<?>) node;
+            List<Object> target = new ArrayList<>(source.size());
+            for (Object item : source) {
+                target.add(copy(item, literals));
+            }
+            return target;
+        }
+        return node;
+    }
+
+    static Object literalValue(FullQualifiedName type, String text) throws ODataApplicationException {
+        if (type == null) {
+            return null;
+        }
+        try {
+            if (type.equals(EdmPrimitiveTypeKind.String.getFullQualifiedName())) {
+                return unquote(text);
+            } else if (type.equals(EdmPrimitiveTypeKind.Boolean.getFullQualifiedName())) {
+                return Boolean.parseBoolean(text);
+            } else if (type.equals(EdmPrimitiveTypeKind.SByte.getFullQualifiedName())
+                    || type.equals(EdmPrimitiveTypeKind.Byte.getFullQualifiedName())
+                    || type.equals(EdmPrimitiveTypeKind.Int16.getFullQualifiedName())
+                    || type.equals(EdmPrimitiveTypeKind.Int32.getFullQualifiedName())
+                    || type.equals(EdmPrimitiveTypeKind.Int64.getFullQualifiedName())) {
+                return Long.parseLong(text);
+            } else if (type.equals(EdmPrimitiveTypeKind.Decimal.getFullQualifiedName())
+                    || type.equals(EdmPrimitiveTypeKind.Double.getFullQualifiedName())
+                    || type.equals(EdmPrimitiveTypeKind.Single.getFullQualifiedName())) {
+                return Double.parseDouble(text);
+            } else if (type.equals(EdmPrimitiveTypeKind.Date.getFullQualifiedName())) {
+                return parseDate(text, null);
+            } else if (type.equals(EdmPrimitiveTypeKind.DateTimeOffset.getFullQualifiedName())) {
+                return parseDateTimeOffset(text, null);
+            }
+        } catch (NumberFormatException e) {
+            throw new ODataApplicationException("Invalid literal: " + text,
+                    HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH, e);
+        }
+        return unquote(text);
+    }
+
+    /**
+     * Converts a literal to the representation stored for the property.
+     */
+    static Object coerce(FieldInfo field, String path, Object value) throws ODataApplicationException {
+        if (value == null || field == null) {
+            return value;
+        }
+
+        FullQualifiedName type = field.getType();
+        if (type.equals(EdmPrimitiveTypeKind.Decimal.getFullQualifiedName())
+                || type.equals(EdmPrimitiveTypeKind.Double.getFullQualifiedName())
+                || type.equals(EdmPrimitiveTypeKind.Single.getFullQualifiedName())) {
+            if (value instanceof Number) {
+                return ((Number) value).doubleValue();
+            }
+        } else if (type.equals(EdmPrimitiveTypeKind.Date.getFullQualifiedName())) {
+            if (value instanceof String) {
+                return parseDate((String) value, path);
+            }
+        } else if (type.equals(EdmPrimitiveTypeKind.DateTimeOffset.getFullQualifiedName())) {
+            if (value instanceof String) {
+                return parseDateTimeOffset((String) value, path);
+            }
+        } else if (type.equals(EdmPrimitiveTypeKind.String.getFullQualifiedName())) {
+            if (value instanceof Number) {
+                return String.valueOf(value);
+            }
+        }
+        return value;
+    }
+
+    // Edm.Date values are compared at midnight UTC
+    private static Date parseDate(String text, String fieldName) throws ODataApplicationException {
+        try {
+            LocalDate date = LocalDate.parse(unquote(text));
+            return Date.from(date.atStartOfDay(ZoneOffset.UTC).toInstant());
+        } catch (DateTimeParseException e) {
+            throw new ODataApplicationException(
+                    (fieldName == null ? "Invalid date format" : "Invalid date format for field '" + fieldName + "'")
+                            + ". Expected format: yyyy-MM-dd",
+                    HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH, e);
+        }
+    }
+
+    private static Date parseDateTimeOffset(String text, String fieldName) throws ODataApplicationException {
+        String value = unquote(text);
+        try {
+            if (value.matches("^\\d+$")) { // timestamp millis
+                return new Date(Long.parseLong(value));
+            } else if (value.length() == 10) {
+                return parseDate(value, fieldName);
+            }
+            return Date.from(OffsetDateTime.parse(value).toInstant());
+        } catch (DateTimeParseException e) {
+            throw new ODataApplicationException(
+                    "Invalid value for field '" + (fieldName == null ? "" : fieldName) + "': " + text,
+                    HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH, e);
+        }
+    }
+
+    static String escapeRegex(String text) {
+        StringBuilder escaped = new StringBuilder(text.length() + 8);
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if ("\\^$.|?*+()[]{}".indexOf(c) >= 0) {
+                escaped.append('\\');
+            }
+            escaped.append(c);
+        }
+        return escaped.toString();
+    }
+
+    // 'O''Brien' -> O'Brien
+    static String unquote(String text) {
+        if (text.length() >= 2 && text.charAt(0) == '\'' && text.charAt(text.length() - 1) == '\'') {
+            return text.substring(1, text.length() - 1).replace("''", "'");
+        }
+        return text;
+    }
+}
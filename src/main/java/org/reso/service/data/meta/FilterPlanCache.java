@@ -0,0 +1,189 @@
+package org.reso.service.data.meta;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A bounded LRU cache of compiled {@link FilterPlan}s, keyed by the shape of the $filter text.
+ * <p>
+ * The shape is the filter text with every literal replaced by a placeholder tagged with the literal's kind,
+ * so "ListPrice gt 100000" and "ListPrice gt 250000" share a plan while "ListPrice gt 1.5" does not.
+ * The capacity per resource is read from FILTER_PLAN_CACHE_SIZE (default 256, 0 disables the cache).
+ */
+public final class FilterPlanCache {
+    private static final int DEFAULT_CAPACITY =
+            Integer.parseInt(System.getenv().getOrDefault("FILTER_PLAN_CACHE_SIZE", "256"));
+
+    static final char KIND_STRING = 's';
+    static final char KIND_QUALIFIED = 'q';
+    static final char KIND_DATE_TIME = 't';
+    static final char KIND_DATE = 'd';
+    static final char KIND_GUID = 'g';
+    static final char KIND_INTEGER = 'i';
+    static final char KIND_NEGATIVE_INTEGER = 'j';
+    static final char KIND_BIG_INTEGER = 'b';
+    static final char KIND_DECIMAL = 'n';
+    static final char KIND_BOOLEAN = 'l';
+    static final char KIND_NULL = '0';
+    static final char KIND_OTHER = '?';
+
+    // Alternation order matters: quoted strings first so their contents are never tokenized,
+    // then the literals that start with digits, longest form first.
+    private static final Pattern LITERAL = Pattern.compile(
+            "(?<string>'(?:[^']|'')*')"
+                    + "|(?<qualified>(?<![\\w.])[A-Za-z_][\\w.]*'(?:[^']|'')*')"
+                    + "|(?<guid>(?<![\\w.])[0-9A-Fa-f]{8}-[0-9A-Fa-f]{4}-[0-9A-Fa-f]{4}-[0-9A-Fa-f]{4}-[0-9A-Fa-f]{12}(?![\\w.]))"
+                    + "|(?<datetime>(?<![\\w.])\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}(?::\\d{2}(?:\\.\\d+)?)?(?:Z|[+-]\\d{2}:\\d{2})(?![\\w.]))"
+                    + "|(?<date>(?<![\\w.])\\d{4}-\\d{2}-\\d{2}(?![\\w.]))"
+                    + "|(?<number>(?<![\\w.])-?\\d+(?:\\.\\d+)?(?:[eE][+-]?\\d+)?(?![\\w.]))"
+                    + "|(?<keyword>(?<![\\w.])(?:true|false|null)(?![\\w.']))");
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final int capacity;
+    private final LinkedHashMap<String, FilterPlan> plans;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public FilterPlanCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public FilterPlanCache(int capacity) {
+        this.capacity = Math.max(capacity, 0);
+        this.plans = new LinkedHashMap<String, FilterPlan>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, FilterPlan> eldest) {
+                if (size() > FilterPlanCache.this.capacity) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param shape The normalized filter text from {@link #normalize(String, List)}
+     * @return The cached plan, or null
+     */
+    public FilterPlan get(String shape) {
+        FilterPlan plan;
+        synchronized (plans) {
+            plan = plans.get(shape);
+        }
+        if (plan == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return plan;
+    }
+
+    public void put(String shape, FilterPlan plan) {
+        if (capacity == 0) {
+            return;
+        }
+        synchronized (plans) {
+            plans.put(shape, plan);
+        }
+    }
+
+    public void clear() {
+        synchronized (plans) {
+            plans.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (plans) {
+            return plans.size();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0.0 : (double) hitCount / total;
+    }
+
+    /**
+     * Replaces the literals of a $filter with kind-tagged placeholders.
+     *
+     * @param text        The $filter text
+     * @param literalsOut Receives the literal tokens in the order they appear
+     * @return The shape of the filter
+     */
+    public static String normalize(String text, List<String> literalsOut) {
+        Matcher matcher = LITERAL.matcher(text);
+        StringBuilder shape = new StringBuilder(text.length());
+        int last = 0;
+        while (matcher.find()) {
+            String token = matcher.group();
+            shape.append(WHITESPACE.matcher(text.substring(last, matcher.start())).replaceAll(" "));
+            shape.append('?').append(kindOf(token));
+            literalsOut.add(token);
+            last = matcher.end();
+        }
+        shape.append(WHITESPACE.matcher(text.substring(last)).replaceAll(" "));
+        return shape.toString().trim();
+    }
+
+    /**
+     * Classifies a literal token. Tokens of the same kind are parsed by Olingo to the same EDM type family.
+     */
+    static char kindOf(String token) {
+        if (token == null || token.isEmpty()) {
+            return KIND_OTHER;
+        }
+        Matcher matcher = LITERAL.matcher(token);
+        if (!matcher.matches()) {
+            return KIND_OTHER;
+        }
+        if (matcher.group("string") != null) {
+            return KIND_STRING;
+        } else if (matcher.group("qualified") != null) {
+            return KIND_QUALIFIED;
+        } else if (matcher.group("guid") != null) {
+            return KIND_GUID;
+        } else if (matcher.group("datetime") != null) {
+            return KIND_DATE_TIME;
+        } else if (matcher.group("date") != null) {
+            return KIND_DATE;
+        } else if (matcher.group("number") != null) {
+            if (token.indexOf('.') >= 0 || token.indexOf('e') >= 0 || token.indexOf('E') >= 0) {
+                return KIND_DECIMAL;
+            }
+            try {
+                Long.parseLong(token);
+            } catch (NumberFormatException e) {
+                return KIND_BIG_INTEGER;
+            }
+            return token.charAt(0) == '-' ? KIND_NEGATIVE_INTEGER : KIND_INTEGER;
+        } else if ("null".equals(token)) {
+            return KIND_NULL;
+        }
+        return KIND_BOOLEAN;
+    }
+}
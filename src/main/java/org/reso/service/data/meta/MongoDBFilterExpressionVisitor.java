@@ -1,6 +1,5 @@
 package org.reso.service.data.meta;
 
-import org.apache.olingo.commons.api.edm.Edm;
 import org.apache.olingo.commons.api.edm.EdmEnumType;
 import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind;
 import org.apache.olingo.commons.api.edm.EdmType;
@@ -11,219 +10,211 @@ import org.apache.olingo.server.api.uri.UriResourceLambdaAll;
 import org.apache.olingo.server.api.uri.UriResourceLambdaAny;
 import org.apache.olingo.server.api.uri.UriResourceLambdaVariable;
 import org.apache.olingo.server.api.uri.UriResourcePrimitiveProperty;
+import org.apache.olingo.server.api.uri.queryoption.FilterOption;
 import org.apache.olingo.server.api.uri.queryoption.expression.*;
 import org.bson.Document;
-import org.bson.conversions.Bson;
-import org.reso.service.data.GenericEntityCollectionProcessor;
+import org.reso.service.data.meta.FilterPlan.Param;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.mongodb.client.model.Filters;
-
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.time.Instant;
-import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.text.SimpleDateFormat;
-import java.text.ParseException;
-import java.util.Calendar;
-import java.util.TimeZone;
-
-public class MongoDBFilterExpressionVisitor implements ExpressionVisitor<String> {
-    private static final Logger LOG = LoggerFactory.getLogger(GenericEntityCollectionProcessor.class);
-    private final String entityAlias;
+
+/**
+ * Compiles $filter into a MongoDB filter.
+ * <p>
+ * Every node evaluates to a typed value: a {@link FieldRef} for properties, a {@link Param} for literals,
+ * an {@link ElementPredicate} for comparisons on a lambda variable, and a Document for conditions. Literals
+ * stay parameters in the compiled {@link FilterPlan}; they are converted to the type of the property they are
+ * compared with when the plan is bound, so plans can be cached per filter shape.
+ * <p>
+ * String functions are compiled so that an index can answer them: startswith() becomes an anchored prefix regex,
+ * contains() and endswith() use the trigram and reversed shadow fields of {@link SearchShadowFields} when the
+ * property has them and they are ready, and tolower()/toupper() equality runs under a case-insensitive collation
+ * when no other string comparison in the filter would be affected by it, or as a case-insensitive regex otherwise.
+ */
+public class MongoDBFilterExpressionVisitor implements ExpressionVisitor<Object> {
+    private static final Logger LOG = LoggerFactory.getLogger(MongoDBFilterExpressionVisitor.class);
+
+    /**
+     * The longest list accepted by the "in" operator, shared with the SQL visitors.
+     */
+    public static final int MAX_IN_VALUES =
+            Integer.parseInt(System.getenv().getOrDefault("FILTER_IN_MAX_VALUES", "1000"));
+
     private final ResourceInfo resourceInfo;
+    private final boolean caseInsensitiveCollation;
+    private final List<Param> params = new ArrayList<>();
+
+    // String comparisons seen, to decide whether the filter can run under a case-insensitive collation
+    private int foldedComparisons = 0;
+    private int caseSensitiveComparisons = 0;
+
+    // The lambda variable in scope and the collection property it ranges over
+    private String lambdaVariable = null;
+    private FieldRef lambdaField = null;
 
     public MongoDBFilterExpressionVisitor(ResourceInfo resourceInfo) {
-        this.entityAlias = resourceInfo.getTableName();
+        this(resourceInfo, false);
+    }
+
+    private MongoDBFilterExpressionVisitor(ResourceInfo resourceInfo, boolean caseInsensitiveCollation) {
         this.resourceInfo = resourceInfo;
+        this.caseInsensitiveCollation = caseInsensitiveCollation;
     }
 
-    @Override
-    public String visitBinaryOperator(BinaryOperatorKind operator, String left, String right)
+    /**
+     * Compiles a $filter, reusing the resource's cached plan when a filter of the same shape was seen before.
+     *
+     * @param filterOption The $filter option
+     * @param resourceInfo The resource being queried
+     * @return The MongoDB filter
+     * @throws ExpressionVisitException   If Olingo fails to walk the expression
+     * @throws ODataApplicationException If the expression cannot be expressed as a MongoDB filter
+     */
+    public static MongoFilter compile(FilterOption filterOption, ResourceInfo resourceInfo)
             throws ExpressionVisitException, ODataApplicationException {
-        LOG.info("Binary Operator - Kind: {}, Left: {}, Right: {}", operator, left, right);
+        String text = filterOption.getText();
+        if (text == null) {
+            return compile(filterOption.getExpression(), resourceInfo);
+        }
 
-        // Remove '{collectionName}.' prefix from left and right sides
-        left = left.replace(entityAlias + ".", "").trim();
-        right = right.replace(entityAlias + ".", "").trim(); // Ensure right side is also sanitized
+        FilterPlanCache cache = resourceInfo.getFilterPlanCache();
+        List<String> literals = new ArrayList<>();
+        String shape = FilterPlanCache.normalize(text, literals);
 
-        LOG.info("Sanitized Left: {}, Sanitized Right: {}", left, right); // Debug logging
+        FilterPlan plan = cache.get(shape);
+        if (plan != null && plan.matches(literals)) {
+            return plan.bind(literals);
+        }
 
-        // Check if left or right is empty after sanitization
-        if (left.isEmpty() || right.isEmpty()) {
-            throw new ODataApplicationException("Invalid filter expression: left or right side is empty.",
-                    HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH);
+        plan = compilePlan(filterOption.getExpression(), resourceInfo);
+        // Only shapes whose literal tokens line up with the parsed literals can be rebound from text
+        if (plan.matches(literals)) {
+            cache.put(shape, plan);
+        } else {
+            LOG.debug("Filter shape is not cacheable: {}", shape);
         }
+        return plan.bindSource();
+    }
 
-        if (operator == BinaryOperatorKind.AND) {
-            Document leftDoc = Document.parse(left);
-            Document rightDoc = Document.parse(right);
-            LOG.info("AND operation - Left Doc: {}, Right Doc: {}", leftDoc.toJson(), rightDoc.toJson());
-            return new Document("$and", Arrays.asList(Document.parse(left), Document.parse(right))).toJson();
+    /**
+     * Compiles a $filter expression without the plan cache.
+     *
+     * @param expression   The expression from the FilterOption
+     * @param resourceInfo The resource being queried
+     * @return The MongoDB filter
+     * @throws ExpressionVisitException   If Olingo fails to walk the expression
+     * @throws ODataApplicationException If the expression cannot be expressed as a MongoDB filter
+     */
+    public static MongoFilter compile(Expression expression, ResourceInfo resourceInfo)
+            throws ExpressionVisitException, ODataApplicationException {
+        return compilePlan(expression, resourceInfo).bindSource();
+    }
+
+    static FilterPlan compilePlan(Expression expression, ResourceInfo resourceInfo)
+            throws ExpressionVisitException, ODataApplicationException {
+        MongoDBFilterExpressionVisitor visitor = new MongoDBFilterExpressionVisitor(resourceInfo);
+        Document template = visitor.asCondition(expression.accept(visitor));
+
+        if (visitor.foldedComparisons > 0 && visitor.caseSensitiveComparisons == 0) {
+            // Recompile with tolower()/toupper() equality as plain equality under the collation
+            visitor = new MongoDBFilterExpressionVisitor(resourceInfo, true);
+            template = visitor.asCondition(expression.accept(visitor));
+            LOG.debug("MongoDB filter plan for {}: {} (case-insensitive)", resourceInfo.getResourceName(), template);
+            return new FilterPlan(template, visitor.params, MongoFilter.CASE_INSENSITIVE);
+        }
+
+        LOG.debug("MongoDB filter plan for {}: {}", resourceInfo.getResourceName(), template);
+        return new FilterPlan(template, visitor.params, null);
+    }
+
+    /**
+     * A property, or the current element of a lambda over a collection property, possibly wrapped in
+     * tolower() ('l') or toupper() ('u').
+     */
+    static final class FieldRef {
+        final String path;
+        final FieldInfo field;
+        final boolean element;
+        final char fold;
+
+        FieldRef(String path, FieldInfo field, boolean element) {
+            this(path, field, element, (char) 0);
+        }
+
+        FieldRef(String path, FieldInfo field, boolean element, char fold) {
+            this.path = path;
+            this.field = field;
+            this.element = element;
+            this.fold = fold;
         }
+    }
+
+    /**
+     * Conditions on a single element of a collection property, e.g. {"$gt": 1, "$lt": 5}.
+     */
+    static final class ElementPredicate {
+        final FieldRef field;
+        final Document operators;
 
-        String mongoOperator;
+        ElementPredicate(FieldRef field, Document operators) {
+            this.field = field;
+            this.operators = operators;
+        }
+
+        // x eq a, or x in (a, b)
+        boolean isMembership() {
+            return operators.size() == 1
+                    && (operators.containsKey("$eq") || operators.containsKey("$in"));
+        }
+
+        List<Object> members() {
+            List<Object> members = new ArrayList<>();
+            for (Map.Entry<String, Object> entry : operators.entrySet()) {
+                if ("$in".equals(entry.getKey())) {
+                    members.addAll((List<?>) entry.getValue());
+                } else {
+                    members.add(entry.getValue());
+                }
+            }
+            return members;
+        }
+    }
+
+    @Override
+    public Object visitBinaryOperator(BinaryOperatorKind operator, Object left, Object right)
+            throws ExpressionVisitException, ODataApplicationException {
         switch (operator) {
+            case AND:
+                return and(left, right);
+            case OR:
+                return or(left, right);
             case EQ:
-                mongoOperator = "$eq";
-                break;
             case NE:
-                mongoOperator = "$ne";
-                break;
             case GT:
-                mongoOperator = "$gt";
-                break;
+            case GE:
             case LT:
-                mongoOperator = "$lt";
-                break;
             case LE:
-                mongoOperator = "$lte";
-                break;
-            case GE:
-                mongoOperator = "$gte";
-                break;
+                return compare(operator, left, right);
             case HAS:
-                mongoOperator = "$all";
-                break;
-            case AND:
-                return new Document("$and", Arrays.asList(Document.parse(left), Document.parse(right))).toJson();
-            case OR:
-                return new Document("$or", Arrays.asList(Document.parse(left), Document.parse(right))).toJson();
+                return has(left, right);
             default:
-                throw new ODataApplicationException(
-                        "Unsupported operator: " + operator,
-                        HttpStatusCode.BAD_REQUEST.getStatusCode(),
-                        Locale.ENGLISH);
-        }
-
-        boolean isIntegerField = false;
-        boolean isDecimalField = false;
-        boolean isDateTimeOffsetField = false;
-        boolean isDateField = false;
-        boolean isCollectionField = false;
-        boolean isEnumField = false;
-
-        FieldInfo targetField = null;
-        if (resourceInfo.getFieldList() != null) {
-            for (FieldInfo field : resourceInfo.getFieldList()) {
-                if (field.getFieldName().equals(left)) {
-                    targetField = field;
-                    if (field.getType().equals(EdmPrimitiveTypeKind.Int32.getFullQualifiedName()) ||
-                            field.getType().equals(EdmPrimitiveTypeKind.Int64.getFullQualifiedName())) {
-                        isIntegerField = true;
-                    } else if (field.getType().equals(EdmPrimitiveTypeKind.Decimal.getFullQualifiedName()) ||
-                            field.getType().equals(EdmPrimitiveTypeKind.Double.getFullQualifiedName()) ||
-                            field.getType().equals(EdmPrimitiveTypeKind.Single.getFullQualifiedName())) {
-                        isDecimalField = true;
-                    } else if (field.getType().equals(EdmPrimitiveTypeKind.DateTimeOffset.getFullQualifiedName())) {
-                        isDateTimeOffsetField = true;
-                    } else if (field.getType().equals(EdmPrimitiveTypeKind.Date.getFullQualifiedName())) {
-                        isDateField = true;
-                    } else if (field.isCollection()) {
-                        isCollectionField = true;
-                    }
-                    if (field instanceof EnumFieldInfo) {
-                        isEnumField = true;
-                    }
-                    break;
-                }
-            }
-        }
-
-        Object rightValue = right;
-        if(right == "NULL") {
-          rightValue = null;
-        } else {
-          if (isEnumField) {
-              rightValue = right.substring(right.indexOf("'") + 1, right.lastIndexOf("'"));
-          }
-          try {
-              if (isIntegerField) {
-                  rightValue = Long.parseLong(right.trim());
-              } else if (isDecimalField) {
-                  rightValue = Double.parseDouble(right.trim());
-              } else if (isDateTimeOffsetField) {
-                  right = right.trim().replace("'", "").replace("\"", "");
-                  if (right.matches("^\\d+$")) { // timestamp millis
-                      rightValue = new Date(Long.parseLong(right));
-                  } else {
-                      rightValue = Date.from(Instant.parse(right));
-                  }
-              } else if (isDateField) {
-                  right = right.trim().replace("'", "").replace("\"", "");
-                  try {
-                      SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-                      dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
-                      dateFormat.setLenient(false);
-                      Date parsedDate = dateFormat.parse(right);
-
-                      // For MongoDB queries, we need to set the time to midnight UTC
-                      Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
-                      cal.setTime(parsedDate);
-                      cal.set(Calendar.HOUR_OF_DAY, 0);
-                      cal.set(Calendar.MINUTE, 0);
-                      cal.set(Calendar.SECOND, 0);
-                      cal.set(Calendar.MILLISECOND, 0);
-                      rightValue = cal.getTime();
-
-                      LOG.info("Parsed date value for MongoDB query: {}", rightValue);
-                  } catch (ParseException e) {
-                      throw new ODataApplicationException(
-                              "Invalid date format for field '" + left + "'. Expected format: yyyy-MM-dd",
-                              HttpStatusCode.BAD_REQUEST.getStatusCode(),
-                              Locale.ENGLISH,
-                              e);
-                  }
-              } else {
-                  rightValue = right.replace("'", "").replace("\"", "");
-              }
-          } catch (Exception e) {
-              throw new ODataApplicationException(
-                      "Invalid value for field '" + left + "': " + right,
-                      HttpStatusCode.BAD_REQUEST.getStatusCode(),
-                      Locale.ENGLISH,
-                      e);
-          }
-        }    
-        Document comparison;
-        if (operator == BinaryOperatorKind.HAS) {
-            if (isCollectionField) {
-                if (isEnumField) {
-                    // For enum collections, we use $in to check if the value exists in the array
-                    comparison = new Document(left, new Document("$in", Arrays.asList(rightValue)));
-                    LOG.info("Has Filter for enum: {}", comparison.toJson());
-                } else {
-                    // For non-enum collections, use $elemMatch
-                    comparison = new Document(left, new Document("$elemMatch", new Document("$eq", rightValue)));
-                    LOG.info("Has Filter for non-enum: {}", comparison.toJson());
-                }
-            } else {
-                throw new ODataApplicationException(
-                        "Operator 'has' can only be used with collection fields.",
-                        HttpStatusCode.BAD_REQUEST.getStatusCode(),
-                        Locale.ENGLISH);
-            }
-        } else {
-            comparison = new Document(left, new Document(mongoOperator, rightValue));
+                throw new ODataApplicationException("Unsupported operator: " + operator,
+                        HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH);
         }
-
-        LOG.info("MongoDB Filter Expression: {}", comparison.toJson());
-
-        return comparison.toJson();
     }
 
     @Override
-    public String visitBinaryOperator(BinaryOperatorKind operator, String s, List<String> list)
+    public Object visitBinaryOperator(BinaryOperatorKind operator, Object left, List<Object> right)
             throws ExpressionVisitException, ODataApplicationException {
-        // String strOperator = BINARY_OPERATORS.get(operator);
+        if (operator == BinaryOperatorKind.IN) {
+            return in(left, right);
+        }
         throw new ODataApplicationException("Unsupported binary operation: " + operator.name(),
                 operator == BinaryOperatorKind.HAS ? HttpStatusCode.NOT_IMPLEMENTED.getStatusCode()
                         : HttpStatusCode.BAD_REQUEST.getStatusCode(),
@@ -231,13 +222,23 @@ public class MongoDBFilterExpressionVisitor implements ExpressionVisitor<String>
     }
 
     @Override
-    public String visitUnaryOperator(UnaryOperatorKind operator, String operand)
+    public Object visitUnaryOperator(UnaryOperatorKind operator, Object operand)
             throws ExpressionVisitException, ODataApplicationException {
         switch (operator) {
             case NOT:
-                return new Document("$nor", Arrays.asList(Document.parse(operand))).toJson();
+                if (operand instanceof ElementPredicate) {
+                    throw new ODataApplicationException("'not' is not supported inside any/all",
+                            HttpStatusCode.NOT_IMPLEMENTED.getStatusCode(), Locale.ENGLISH);
+                }
+                return new Document("$nor", Arrays.asList(asCondition(operand)));
             case MINUS:
-                return "-" + operand;
+                if (operand instanceof Param) {
+                    Param param = (Param) operand;
+                    param.negated = !param.negated;
+                    return param;
+                }
+                throw new ODataApplicationException("'-' can only be applied to numeric literals",
+                        HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH);
             default:
                 throw new ODataApplicationException("Unsupported unary operator: " + operator.name(),
                         HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH);
@@ -245,11 +246,27 @@ public class MongoDBFilterExpressionVisitor implements ExpressionVisitor<String>
     }
 
     @Override
-    public String visitMethodCall(MethodKind methodCall, List<String> parameters)
+    public Object visitMethodCall(MethodKind methodCall, List<Object> parameters)
             throws ExpressionVisitException, ODataApplicationException {
-
-        if (methodCall == MethodKind.NOW) {
-            return String.valueOf(System.currentTimeMillis());
+        switch (methodCall) {
+            case NOW:
+                return Param.now();
+            case TOLOWER:
+            case TOUPPER:
+                if (parameters.size() == 1 && parameters.get(0) instanceof FieldRef
+                        && ((FieldRef) parameters.get(0)).fold == 0) {
+                    FieldRef ref = (FieldRef) parameters.get(0);
+                    return new FieldRef(ref.path, ref.field, ref.element, methodCall == MethodKind.TOLOWER ? 'l' : 'u');
+                }
+                throw new ODataApplicationException(methodCall.name().toLowerCase(Locale.ENGLISH)
+                        + "() can only be applied to a property",
+                        HttpStatusCode.NOT_IMPLEMENTED.getStatusCode(), Locale.ENGLISH);
+            case STARTSWITH:
+            case ENDSWITH:
+            case CONTAINS:
+                return stringFunction(methodCall, parameters);
+            default:
+                break;
         }
 
         throw new ODataApplicationException("Unsupported method call: " + methodCall.name(),
@@ -257,174 +274,431 @@ public class MongoDBFilterExpressionVisitor implements ExpressionVisitor<String>
     }
 
     @Override
-    public String visitLiteral(Literal literal) throws ExpressionVisitException, ODataApplicationException {
-        String literalAsString = literal.getText();
-        if (literal.getType() == null) {
-            return "NULL";
-        }
-
-        // Handle both DateTimeOffset and Date types
-        if (literal.getType().getFullQualifiedName().equals(EdmPrimitiveTypeKind.DateTimeOffset.getFullQualifiedName())
-                ||
-                literal.getType().getFullQualifiedName().equals(EdmPrimitiveTypeKind.Date.getFullQualifiedName())) {
-            // Remove quotes if present
-            literalAsString = literalAsString.replace("'", "").replace("\"", "");
-            try {
-                // Validate the date format
-                SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-                dateFormat.setLenient(false);
-                // Parse to validate
-                dateFormat.parse(literalAsString);
-                // For MongoDB queries, we need to wrap the date in quotes
-                return "'" + literalAsString + "'";
-            } catch (ParseException e) {
-                LOG.error("Invalid date format for literal: {}", literalAsString);
-                throw new ODataApplicationException(
-                        "Invalid date format. Expected format: yyyy-MM-dd",
-                        HttpStatusCode.BAD_REQUEST.getStatusCode(),
-                        Locale.ENGLISH,
-                        e);
-            }
-        }
-
-        // Debug logging for literals
-        LOG.info("Processing Literal: {}", literalAsString);
-        return literalAsString.replace(entityAlias + ".", ""); // Remove '{collectionName}.' prefix if it exists
+    public Object visitLiteral(Literal literal) throws ExpressionVisitException, ODataApplicationException {
+        EdmType type = literal.getType();
+        Param param = Param.literal(params.size(), type == null ? null : type.getFullQualifiedName(),
+                literal.getText());
+        params.add(param);
+        return param;
     }
 
     @Override
-    public String visitMember(Member member) throws ExpressionVisitException, ODataApplicationException {
+    public Object visitMember(Member member) throws ExpressionVisitException, ODataApplicationException {
         List<UriResource> resources = member.getResourcePath().getUriResourceParts();
         UriResource first = resources.get(0);
-        List<String> segments = new ArrayList<>();
-        UriResource second = null;
 
-        if (first instanceof UriResourcePrimitiveProperty) {
+        if (first instanceof UriResourceLambdaVariable) {
+            String variableName = ((UriResourceLambdaVariable) first).getVariableName();
+            if (resources.size() == 1 && variableName.equals(lambdaVariable)) {
+                return new FieldRef(lambdaField.path, lambdaField.field, true);
+            }
+        } else if (first instanceof UriResourcePrimitiveProperty) {
+            String propertyName = ((UriResourcePrimitiveProperty) first).getProperty().getName();
+            FieldInfo field = resourceInfo.getField(propertyName);
+            FieldRef ref = new FieldRef(field == null ? propertyName : field.getFieldName(), field, false);
 
-            UriResourcePrimitiveProperty primitiveProperty = (UriResourcePrimitiveProperty) first;
-            String propertyName = primitiveProperty.getProperty().getName();
             if (resources.size() == 1) {
-                return entityAlias + "." + primitiveProperty.getProperty().getName();
-            } else {
-                second = resources.get(1);
+                return ref;
             }
 
+            UriResource second = resources.get(1);
             if (resources.size() == 2 && second instanceof UriResourceLambdaAny) {
-
                 UriResourceLambdaAny any = (UriResourceLambdaAny) second;
-                String x = this.visitLambdaExpression("ANY", any.getLambdaVariable(), any.getExpression());
-                return x.replaceAll("enum", primitiveProperty.getProperty().getName());
+                return lambda("any", any.getLambdaVariable(), any.getExpression(), ref);
             } else if (resources.size() == 2 && second instanceof UriResourceLambdaAll) {
                 UriResourceLambdaAll all = (UriResourceLambdaAll) second;
-                String x = this.visitLambdaExpression("ALL", all.getLambdaVariable(), all.getExpression());
-                x += " }}";
-                x = x.replaceAll("enum", primitiveProperty.getProperty().getName());
-                x = x.replaceFirst("\\$eq", "\\$not\": { \"\\$elemMatch\": { \"\\$ne");
-                LOG.info("x: " + x);
-                return x;
+                return lambda("all", all.getLambdaVariable(), all.getExpression(), ref);
             }
-
-        } else if (first instanceof UriResourceLambdaVariable) {
-            return ((UriResourceLambdaVariable) first).getVariableName();
         }
-        return segments.stream().reduce((a, b) -> a + " " + b).orElse("");
+
+        throw new ODataApplicationException("Unsupported property path in filter: " + member.getResourcePath(),
+                HttpStatusCode.NOT_IMPLEMENTED.getStatusCode(), Locale.ENGLISH);
     }
 
     @Override
-    public String visitEnum(EdmEnumType type, List<String> enumValues)
+    public Object visitEnum(EdmEnumType type, List<String> enumValues)
             throws ExpressionVisitException, ODataApplicationException {
-        return "'" + enumValues.get(0) + "'";
+        Param param = Param.enumMember(params.size(), enumValues.get(0));
+        params.add(param);
+        return param;
     }
 
     @Override
-    public String visitLambdaExpression(String lambdaFunction, String lambdaVariable, Expression expression)
+    public Object visitLambdaExpression(String lambdaFunction, String lambdaVariable, Expression expression)
             throws ExpressionVisitException, ODataApplicationException {
-        LOG.info("Lambda Expression Processing:");
-        LOG.info("  Function: {}", lambdaFunction);
-        LOG.info("  Variable: {}", lambdaVariable);
-        LOG.info("  Expression: {}", expression);
-
-        if ("all".toUpperCase().equals(lambdaFunction.toUpperCase())
-                || "any".toUpperCase().equals(lambdaFunction.toUpperCase())) {
-            try {
-                // Extract field name and value from the expression
-                String fieldName = null;
-                String value = null;
-
-                // The field name should come from the parent context where the lambda is used
-                // We'll pass it through string replacement later with COLUMN_NAME placeholder
-                fieldName = "COLUMN_NAME"; // This will be replaced later when processing the member
-
-                LOG.info("  Field name: {}", fieldName);
-
-                // Find the corresponding field info
-                FieldInfo targetField = null;
-                if (fieldName != null && this.resourceInfo.getFieldList() != null) {
-                    for (FieldInfo field : this.resourceInfo.getFieldList()) {
-                        if (field.getFieldName().equals(fieldName)) {
-                            targetField = field;
-                            break;
-                        }
-                    }
-                }
-
-                if (targetField != null && targetField.isCollection()) {
-                    Document query = new Document();
-
-                    // Get the value being compared against
-                    String result = expression.accept(this);
-                    if (targetField instanceof EnumFieldInfo) {
-                        value = result.substring(result.indexOf("'") + 1, result.lastIndexOf("'"));
-                    } else {
-                        // For string collections, remove property. prefix and quotes
-                        value = result.replace(entityAlias + ".", "").trim().replace("'", "");
-                    }
-                    LOG.info("  Value to match: {}", value);
-
-                    // Create appropriate MongoDB query based on the lambda function
-                    if ("all".equals(lambdaFunction)) {
-                        query.put(fieldName, new Document("$all", Arrays.asList(value)));
-                    } else { // "any"
-                        query.put(fieldName, value);
-                    }
-                    LOG.info("  Generated query: {}", query.toJson());
-
-                    return query.toJson();
-                }
-            } catch (Exception e) {
-                LOG.error("Error processing lambda expression", e);
-                throw new ODataApplicationException(
-                        "Error processing lambda expression: " + e.getMessage(),
-                        HttpStatusCode.INTERNAL_SERVER_ERROR.getStatusCode(),
-                        Locale.ENGLISH);
-            }
+        if (lambdaField == null) {
+            throw new ODataApplicationException("Lambda expressions must follow a collection property",
+                    HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH);
         }
-
-        // Get the value being compared against
-        String result = expression.accept(this);
-        return result;
+        return lambda(lambdaFunction, lambdaVariable, expression, lambdaField);
     }
 
     @Override
-    public String visitAlias(String aliasName) throws ExpressionVisitException, ODataApplicationException {
+    public Object visitAlias(String aliasName) throws ExpressionVisitException, ODataApplicationException {
         throw new ODataApplicationException("Aliases are not implemented",
                 HttpStatusCode.NOT_IMPLEMENTED.getStatusCode(), Locale.ENGLISH);
     }
 
     @Override
-    public String visitTypeLiteral(EdmType type) throws ExpressionVisitException, ODataApplicationException {
+    public Object visitTypeLiteral(EdmType type) throws ExpressionVisitException, ODataApplicationException {
         throw new ODataApplicationException("Type literals are not implemented",
                 HttpStatusCode.NOT_IMPLEMENTED.getStatusCode(), Locale.ENGLISH);
     }
 
     @Override
-    public String visitLambdaReference(String variableName) throws ExpressionVisitException, ODataApplicationException {
+    public Object visitLambdaReference(String variableName) throws ExpressionVisitException, ODataApplicationException {
         throw new ODataApplicationException("Lambda references are not implemented",
                 HttpStatusCode.NOT_IMPLEMENTED.getStatusCode(), Locale.ENGLISH);
     }
 
-    private String extractFromStringValue(String val) {
-        return val.substring(1, val.length() - 1);
+    /**
+     * any(): some element matches, which an $elemMatch answers from a multikey index.
+     * all(): no element fails, i.e. {$not: {$elemMatch: negated}}; this also holds for empty or missing arrays.
+     * Bodies whose negation is not a single operator on the element are not implemented.
+     */
+    private Object lambda(String lambdaFunction, String variable, Expression expression, FieldRef collection)
+            throws ExpressionVisitException, ODataApplicationException {
+        if (collection.field != null && !collection.field.isCollection()) {
+            throw new ODataApplicationException("Lambda expressions can only be used with collection fields.",
+                    HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH);
+        }
+
+        String outerVariable = this.lambdaVariable;
+        FieldRef outerField = this.lambdaField;
+        Object inner;
+        try {
+            this.lambdaVariable = variable;
+            this.lambdaField = collection;
+            inner = expression.accept(this);
+        } finally {
+            this.lambdaVariable = outerVariable;
+            this.lambdaField = outerField;
+        }
+
+        if ("any".equalsIgnoreCase(lambdaFunction)) {
+            return asCondition(inner);
+        }
+
+        if (inner instanceof ElementPredicate) {
+            ElementPredicate predicate = (ElementPredicate) inner;
+            if (predicate.isMembership()) {
+                return notElemMatch(collection.path, new Document("$nin", predicate.members()));
+            }
+            if (predicate.operators.size() == 1) {
+                String operator = predicate.operators.keySet().iterator().next();
+                String negated = negate(operator);
+                if (negated != null) {
+                    return notElemMatch(collection.path, new Document(negated, predicate.operators.get(operator)));
+                }
+            }
+        }
+        throw new ODataApplicationException("Unsupported condition inside all()",
+                HttpStatusCode.NOT_IMPLEMENTED.getStatusCode(), Locale.ENGLISH);
+    }
+
+    private Object and(Object left, Object right) throws ODataApplicationException {
+        if (left instanceof ElementPredicate && right instanceof ElementPredicate) {
+            ElementPredicate l = (ElementPredicate) left;
+            ElementPredicate r = (ElementPredicate) right;
+            if (Collections.disjoint(l.operators.keySet(), r.operators.keySet())) {
+                Document operators = new Document(l.operators);
+                operators.putAll(r.operators);
+                return new ElementPredicate(l.field, operators);
+            }
+            // Two $elemMatch conditions could be met by different elements
+            throw new ODataApplicationException("Repeated operators are not supported inside any/all",
+                    HttpStatusCode.NOT_IMPLEMENTED.getStatusCode(), Locale.ENGLISH);
+        }
+        return new Document("$and", Arrays.asList(asCondition(left), asCondition(right)));
+    }
+
+    private Object or(Object left, Object right) throws ODataApplicationException {
+        if (left instanceof ElementPredicate && right instanceof ElementPredicate
+                && ((ElementPredicate) left).isMembership() && ((ElementPredicate) right).isMembership()) {
+            List<Object> members = ((ElementPredicate) left).members();
+            members.addAll(((ElementPredicate) right).members());
+            return new ElementPredicate(((ElementPredicate) left).field, new Document("$in", members));
+        }
+
+        // "City eq 'A' or City eq 'B'" is one $in, which uses a single index scan instead of an $or per branch
+        String path = membershipPath(left);
+        if (path != null && path.equals(membershipPath(right))) {
+            List<Object> members = members((Document) ((Document) left).get(path));
+            members.addAll(members((Document) ((Document) right).get(path)));
+            return new Document(path, new Document("$in", members));
+        }
+        return new Document("$or", Arrays.asList(asCondition(left), asCondition(right)));
+    }
+
+    // The path of a {path: {$eq: v}} or {path: {$in: [...]}} condition
+    private static String membershipPath(Object node) {
+        if (!(node instanceof Document) || ((Document) node).size() != 1) {
+            return null;
+        }
+        Map.Entry<String, Object> entry = ((Document) node).entrySet().iterator().next();
+        if (entry.getKey().startsWith("$") || !(entry.getValue() instanceof Document)) {
+            return null;
+        }
+        Document operators = (Document) entry.getValue();
+        return operators.size() == 1 && (operators.containsKey("$eq") || operators.containsKey("$in"))
+                ? entry.getKey() : null;
+    }
+
+    private static List<Object> members(Document operators) {
+        List<Object> members = new ArrayList<>();
+        if (operators.containsKey("$in")) {
+            members.addAll((List<?>) operators.get("$in"));
+        } else {
+            members.add(operators.get("$eq"));
+        }
+        return members;
+    }
+
+    /**
+     * ListingKey in ('a', 'b'): a single $in, with every value typed for the property.
+     */
+    private Object in(Object left, List<Object> right) throws ODataApplicationException {
+        if (!(left instanceof FieldRef) || ((FieldRef) left).fold != 0) {
+            throw new ODataApplicationException("Operator 'in' requires a property on the left",
+                    HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH);
+        }
+        if (right.size() > MAX_IN_VALUES) {
+            throw new ODataApplicationException("Operator 'in' accepts at most " + MAX_IN_VALUES + " values",
+                    HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH);
+        }
+
+        FieldRef ref = (FieldRef) left;
+        List<Object> values = new ArrayList<>(right.size());
+        for (Object item : right) {
+            if (!(item instanceof Param)) {
+                throw new ODataApplicationException("Operator 'in' requires a list of literals",
+                        HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH);
+            }
+            Param value = (Param) item;
+            value.target(ref.field, ref.path);
+            values.add(value);
+        }
+        if (!values.isEmpty() && isStringComparison(ref, (Param) values.get(0))) {
+            caseSensitiveComparisons++;
+        }
+
+        Document condition = new Document("$in", values);
+        if (ref.element) {
+            return new ElementPredicate(ref, condition);
+        }
+        return new Document(ref.path, condition);
+    }
+
+    private Object compare(BinaryOperatorKind operator, Object left, Object right) throws ODataApplicationException {
+        // Normalize "literal op property" to "property op literal"
+        if (left instanceof Param && !(right instanceof Param)) {
+            return compare(flip(operator), right, left);
+        }
+        if ((left instanceof Document || left instanceof ElementPredicate) && right instanceof Param
+                && (operator == BinaryOperatorKind.EQ || operator == BinaryOperatorKind.NE)) {
+            return compareCondition(operator, left, (Param) right);
+        }
+        if (!(left instanceof FieldRef) || !(right instanceof Param)) {
+            throw new ODataApplicationException("Comparisons must be between a property and a literal",
+                    HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH);
+        }
+
+        FieldRef ref = (FieldRef) left;
+        Param value = (Param) right;
+        value.target(ref.field, ref.path);
+
+        Document condition;
+        if (ref.fold != 0) {
+            condition = foldedCondition(operator, ref, value);
+        } else {
+            if (isStringComparison(ref, value)) {
+                caseSensitiveComparisons++;
+            }
+            condition = new Document(mongoOperator(operator), value);
+        }
+        if (ref.element) {
+            return new ElementPredicate(ref, condition);
+        }
+        return new Document(ref.path, condition);
+    }
+
+    /**
+     * tolower(Field) eq 'abc': plain equality under the case-insensitive collation when the whole filter runs
+     * with it, a case-insensitive anchored regex otherwise.
+     */
+    private Document foldedCondition(BinaryOperatorKind operator, FieldRef ref, Param value)
+            throws ODataApplicationException {
+        if (operator != BinaryOperatorKind.EQ && operator != BinaryOperatorKind.NE) {
+            throw new ODataApplicationException("tolower()/toupper() can only be compared with eq or ne",
+                    HttpStatusCode.NOT_IMPLEMENTED.getStatusCode(), Locale.ENGLISH);
+        }
+        foldedComparisons++;
+
+        if (caseInsensitiveCollation) {
+            return new Document(mongoOperator(operator), value.derive(Param.FORM_FOLDED, ref.fold));
+        }
+        Param regex = value.derive(Param.FORM_EXACT_REGEX, ref.fold);
+        return operator == BinaryOperatorKind.EQ ? new Document("$regex", regex) : new Document("$not", regex);
+    }
+
+    // "startswith(City, 'Aus') eq true"
+    private Object compareCondition(BinaryOperatorKind operator, Object condition, Param value)
+            throws ODataApplicationException {
+        if (value.literalType == null
+                || !value.literalType.equals(EdmPrimitiveTypeKind.Boolean.getFullQualifiedName())) {
+            throw new ODataApplicationException("Conditions can only be compared with true or false",
+                    HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH);
+        }
+        // The shape of the filter depends on the literal, so a cached plan must only be reused for the same one
+        value.fixed = true;
+
+        boolean expected = Boolean.parseBoolean(value.sourceText) == (operator == BinaryOperatorKind.EQ);
+        if (expected) {
+            return condition;
+        } else if (condition instanceof ElementPredicate) {
+            throw new ODataApplicationException("'not' is not supported inside any/all",
+                    HttpStatusCode.NOT_IMPLEMENTED.getStatusCode(), Locale.ENGLISH);
+        }
+        return new Document("$nor", Arrays.asList(condition));
+    }
+
+    private Object stringFunction(MethodKind method, List<Object> parameters) throws ODataApplicationException {
+        if (parameters.size() != 2 || !(parameters.get(0) instanceof FieldRef)
+                || !(parameters.get(1) instanceof Param)) {
+            throw new ODataApplicationException(method.name().toLowerCase(Locale.ENGLISH)
+                    + "() requires a property and a string literal",
+                    HttpStatusCode.NOT_IMPLEMENTED.getStatusCode(), Locale.ENGLISH);
+        }
+        FieldRef ref = (FieldRef) parameters.get(0);
+        Param value = (Param) parameters.get(1);
+        value.target(ref.field, ref.path);
+        // Regexes only use indexes built with the simple collation
+        caseSensitiveComparisons++;
+
+        byte form = method == MethodKind.STARTSWITH ? Param.FORM_PREFIX_REGEX
+                : method == MethodKind.ENDSWITH ? Param.FORM_SUFFIX_REGEX : Param.FORM_CONTAINS_REGEX;
+        Document match = new Document("$regex", value.derive(form, ref.fold));
+        if (ref.element) {
+            return new ElementPredicate(ref, match);
+        }
+
+        Document condition = new Document(ref.path, match);
+        if (method == MethodKind.STARTSWITH || !SearchShadowFields.isShadowed(resourceInfo, ref.field)
+                || !SearchShadowFields.isReady(resourceInfo)) {
+            return condition;
+        }
+
+        // Narrow with the indexed shadow field, then recheck the property itself
+        Object narrowing;
+        if (method == MethodKind.ENDSWITH) {
+            narrowing = new Document(SearchShadowFields.reversedPath(ref.field),
+                    new Document("$regex", value.derive(Param.FORM_REVERSED_PREFIX_REGEX, ref.fold)));
+        } else {
+            Param grams = value.derive(Param.FORM_GRAMS_CONDITION, ref.fold);
+            grams.shadowPath = SearchShadowFields.gramsPath(ref.field);
+            narrowing = grams;
+        }
+        return new Document("$and", Arrays.asList(narrowing, condition));
+    }
+
+    private static boolean isStringComparison(FieldRef ref, Param value) {
+        if (ref.field != null) {
+            return ref.field instanceof EnumFieldInfo
+                    || ref.field.getType().equals(EdmPrimitiveTypeKind.String.getFullQualifiedName());
+        }
+        return value.enumValue || (value.literalType != null
+                && value.literalType.equals(EdmPrimitiveTypeKind.String.getFullQualifiedName()));
+    }
+
+    private Object has(Object left, Object right) throws ODataApplicationException {
+        if (!(left instanceof FieldRef) || !(right instanceof Param)) {
+            throw new ODataApplicationException("Operator 'has' requires a property and an enumeration value.",
+                    HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH);
+        }
+        FieldRef ref = (FieldRef) left;
+        if (ref.field == null || !ref.field.isCollection()) {
+            throw new ODataApplicationException("Operator 'has' can only be used with collection fields.",
+                    HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH);
+        }
+
+        caseSensitiveComparisons++;
+        if (ref.field instanceof EnumFieldInfo) {
+            return new Document(ref.path, new Document("$in", Arrays.asList(right)));
+        }
+        return new Document(ref.path, new Document("$elemMatch", new Document("$eq", right)));
+    }
+
+    /**
+     * Turns a node into a condition that can stand on its own.
+     */
+    private Document asCondition(Object node) throws ODataApplicationException {
+        if (node instanceof Document) {
+            return (Document) node;
+        } else if (node instanceof ElementPredicate) {
+            ElementPredicate predicate = (ElementPredicate) node;
+            return new Document(predicate.field.path, new Document("$elemMatch", predicate.operators));
+        } else if (node instanceof FieldRef && !((FieldRef) node).element && ((FieldRef) node).field != null
+                && ((FieldRef) node).field.getType().equals(EdmPrimitiveTypeKind.Boolean.getFullQualifiedName())) {
+            return new Document(((FieldRef) node).path, true);
+        }
+        throw new ODataApplicationException("Filter expression does not evaluate to a condition",
+                HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH);
     }
 
+    private static Document notElemMatch(String path, Document elementCondition) {
+        return new Document(path, new Document("$not", new Document("$elemMatch", elementCondition)));
+    }
+
+    private static String mongoOperator(BinaryOperatorKind operator) {
+        switch (operator) {
+            case EQ:
+                return "$eq";
+            case NE:
+                return "$ne";
+            case GT:
+                return "$gt";
+            case GE:
+                return "$gte";
+            case LT:
+                return "$lt";
+            default:
+                return "$lte";
+        }
+    }
+
+    private static String negate(String mongoOperator) {
+        switch (mongoOperator) {
+            case "$eq":
+                return "$ne";
+            case "$ne":
+                return "$eq";
+            case "$gt":
+                return "$lte";
+            case "$gte":
+                return "$lt";
+            case "$lt":
+                return "$gte";
+            case "$lte":
+                return "$gt";
+            case "$regex":
+                return "$not";
+            default:
+                return null;
+        }
+    }
+
+    private static BinaryOperatorKind flip(BinaryOperatorKind operator) {
+        switch (operator) {
+            case GT:
+                return BinaryOperatorKind.LT;
+            case GE:
+                return BinaryOperatorKind.LE;
+            case LT:
+                return BinaryOperatorKind.GT;
+            case LE:
+                return BinaryOperatorKind.GE;
+            default:
+                return operator;
+        }
+    }
 }
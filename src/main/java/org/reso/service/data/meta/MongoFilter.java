@@ -0,0 +1,61 @@
+package org.reso.service.data.meta;
+
+import com.mongodb.client.model.Collation;
+import com.mongodb.client.model.CollationStrength;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+
+/**
+ * A compiled $filter together with the collation it must be run with.
+ * <p>
+ * Filters whose only string comparisons are tolower()/toupper() equality are compiled to plain equality
+ * under a case-insensitive collation, so an index built with the same collation answers them.
+ */
+public final class MongoFilter implements Bson {
+    /**
+     * Case-insensitive, accent-sensitive collation; indexes meant for tolower()/toupper() filters use it too.
+     */
+    public static final Collation CASE_INSENSITIVE = Collation.builder()
+            .locale(System.getenv().getOrDefault("SEARCH_COLLATION_LOCALE", "en"))
+            .collationStrength(CollationStrength.SECONDARY)
+            .build();
+
+    private final Document filter;
+    private final Collation collation;
+
+    public MongoFilter(Document filter, Collation collation) {
+        this.filter = filter;
+        this.collation = collation;
+    }
+
+    public Document getFilter() {
+        return filter;
+    }
+
+    /**
+     * @return The collation to run the query with, or null for the collection default
+     */
+    public Collation getCollation() {
+        return collation;
+    }
+
+    /**
+     * @param filter Any filter
+     * @return The collation a compiled filter needs, or null
+     */
+    public static Collation collationOf(Bson filter) {
+        return filter instanceof MongoFilter ? ((MongoFilter) filter).collation : null;
+    }
+
+    @Override
+    public <TDocument> BsonDocument toBsonDocument(Class<TDocument> documentClass, CodecRegistry codecRegistry) {
+        return filter.toBsonDocument(documentClass, codecRegistry);
+    }
+
+    @Override
+    public String toString() {
+        return collation == null ? filter.toJson() : filter.toJson() + " collation " + collation.asDocument().toJson();
+    }
+}
@@ -14,6 +14,7 @@ import org.apache.olingo.server.api.uri.queryoption.expression.Literal;
 import org.apache.olingo.server.api.uri.queryoption.expression.Member;
 import org.apache.olingo.server.api.uri.queryoption.expression.MethodKind;
 import org.apache.olingo.server.api.uri.queryoption.expression.UnaryOperatorKind;
+import org.reso.service.data.sql.SqlParameters;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -48,10 +49,19 @@ public class MySQLFilterExpressionVisitor implements ExpressionVisitor<String> {
 
     private final String entityAlias;
     private final ResourceInfo resourceInfo;
+    private final List<Object> bindings;
 
     public MySQLFilterExpressionVisitor(ResourceInfo resourceInfo) {
+        this(resourceInfo, null);
+    }
+
+    /**
+     * @param bindings Receives the literal values in order, rendered as '?' placeholders; null renders them inline
+     */
+    public MySQLFilterExpressionVisitor(ResourceInfo resourceInfo, List<Object> bindings) {
         this.entityAlias = resourceInfo.getTableName();
         this.resourceInfo = resourceInfo;
+        this.bindings = bindings;
     }
 
     @Override
@@ -69,20 +79,23 @@ public class MySQLFilterExpressionVisitor implements ExpressionVisitor<String> {
             String[] parts = left.split("\\.");
             FieldInfo field = resourceInfo.getFieldList().stream()
                     .filter(fieldInfo -> fieldInfo.getFieldName().equals(parts[1])).findFirst().get();
-            boolean isSingle = !field.isCollection() && !field.isFlags();
-            String unformatted = " EXISTS (SELECT 1 FROM lookup_value AS v JOIN lookup AS l ON l.LookupKey = v.LookupKey WHERE v.FieldName = 'COLUMN_NAME' AND v.ResourceRecordKey = TABLE_NAME.PRIMARY_KEY_NAME AND l.LegacyOdataValue = "
-                    + right + ")";
-            return unformatted.replaceAll("COLUMN_NAME", parts[1]).replaceAll("TABLE_NAME", parts[0])
-                    .replaceAll("PRIMARY_KEY_NAME", resourceInfo.getPrimaryKeyName());
+            return " " + lookupSemiJoin(parts[0], field.getFieldName(), "l.LegacyOdataValue = " + right);
         }
         return left + strOperator + right;
     }
 
-    // @TODO I'm unsure where this would be called.
+    // "left in (a, b, ...)"
     @Override
     public String visitBinaryOperator(BinaryOperatorKind operator, String s, List<String> list)
             throws ExpressionVisitException, ODataApplicationException {
-        String strOperator = BINARY_OPERATORS.get(operator);
+        if (operator == BinaryOperatorKind.IN) {
+            if (list.isEmpty() || list.size() > MongoDBFilterExpressionVisitor.MAX_IN_VALUES) {
+                throw new ODataApplicationException("Operator 'in' accepts 1 to "
+                        + MongoDBFilterExpressionVisitor.MAX_IN_VALUES + " values",
+                        HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH);
+            }
+            return s + " IN (" + String.join(", ", list) + ")";
+        }
         throw new ODataApplicationException("Unsupported binary operation: " + operator.name(),
                 operator == BinaryOperatorKind.HAS ? HttpStatusCode.NOT_IMPLEMENTED.getStatusCode()
                         : HttpStatusCode.BAD_REQUEST.getStatusCode(),
@@ -109,15 +122,14 @@ public class MySQLFilterExpressionVisitor implements ExpressionVisitor<String> {
             return "CURRENT_DATE";
         }
         String firstEntityParam = parameters.get(0);
-        String secondEntityParam = parameters.size() > 1 ? extractFromStringValue(parameters.get(1)) : null;
 
         switch (methodCall) {
             case CONTAINS:
-                return String.format("%s LIKE '%%%s%%'", firstEntityParam, secondEntityParam);
+                return like(methodCall, firstEntityParam, parameters.get(1), "%", "%");
             case STARTSWITH:
-                return String.format("%s LIKE '%s%%'", firstEntityParam, secondEntityParam);
+                return like(methodCall, firstEntityParam, parameters.get(1), "", "%");
             case ENDSWITH:
-                return String.format("%s LIKE '%%%s'", firstEntityParam, secondEntityParam);
+                return like(methodCall, firstEntityParam, parameters.get(1), "%", "");
             case DAY:
                 return String.format("DAY(%s)", firstEntityParam);
             case MONTH:
@@ -130,11 +142,32 @@ public class MySQLFilterExpressionVisitor implements ExpressionVisitor<String> {
         }
     }
 
+    private String like(MethodKind methodCall, String column, String pattern, String prefix, String suffix)
+            throws ODataApplicationException {
+        if (bindings == null) {
+            return column + " LIKE '" + prefix + extractFromStringValue(pattern) + suffix + "'";
+        }
+        if (!"?".equals(pattern) || bindings.isEmpty()) {
+            throw new ODataApplicationException(methodCall + " expects a string literal",
+                    HttpStatusCode.NOT_IMPLEMENTED.getStatusCode(), Locale.ENGLISH);
+        }
+        // The pattern literal was the last value bound
+        int last = bindings.size() - 1;
+        bindings.set(last, prefix + SqlParameters.escapeLike(String.valueOf(bindings.get(last))) + suffix);
+        return column + " LIKE ?";
+    }
+
     @Override
     public String visitLiteral(Literal literal) throws ExpressionVisitException, ODataApplicationException {
         String literalAsString = literal.getText();
         if (literal.getType() == null) {
-            literalAsString = "NULL";
+            return "NULL";
+        }
+        if (bindings != null) {
+            Object value = SqlParameters.literalValue(literal);
+            // MySQL stores GUIDs as text and Connector/J has no UUID binding
+            bindings.add(value instanceof UUID ? value.toString() : value);
+            return "?";
         }
         if (literal.getType().getFullQualifiedName()
                 .equals(EdmPrimitiveTypeKind.DateTimeOffset.getFullQualifiedName())) {
@@ -182,6 +215,10 @@ public class MySQLFilterExpressionVisitor implements ExpressionVisitor<String> {
     @Override
     public String visitEnum(EdmEnumType type, List<String> enumValues)
             throws ExpressionVisitException, ODataApplicationException {
+        if (bindings != null) {
+            bindings.add(enumValues.get(0));
+            return "?";
+        }
         return "'" + enumValues.get(0) + "'";
     }
 
@@ -195,21 +232,33 @@ public class MySQLFilterExpressionVisitor implements ExpressionVisitor<String> {
         } catch (Exception e) {
             LOG.error("Error checking if mongo: " + e.getMessage());
         }
-        String x = expression.accept(new MySQLFilterExpressionVisitor(resourceInfo));
-        String n = "NOT";
-        if (lambdaFunction.equals("ANY")) {
-            n = "";
-        }
-        if (lookupType.equals("STRING")) {
+        String x = expression.accept(new MySQLFilterExpressionVisitor(resourceInfo, bindings));
+        // any() keeps the records with an element matching the body, all() drops those with an element failing it
+        boolean any = lambdaFunction.equals("ANY");
+        String n = any ? "" : "NOT ";
+        if ("STRING".equals(lookupType)) {
             if (isMongo)
                 return n + " EXISTS (SELECT 1 FROM UNWIND(TABLE_NAME as p WITH PATH => COLUMN_NAME)  WHERE TABLE_NAME.PRIMARY_KEY_NAME = p.PRIMARY_KEY_NAME AND "
                         + n + " COLUMN_NAME " + x + ")";
             else
-                return n + "EXISTS (SELECT 1 FROM TABLE_NAME as p CROSS JOIN JSON_TABLE( p.COLUMN_NAME, '$[*]' COLUMNS ( value VARCHAR(255) PATH '$' ) ) AS jt WHERE p.PRIMARY_KEY_NAME = TABLE_NAME.PRIMARY_KEY_NAME and "
-                        + n + " value " + x + ")";
+                return "TABLE_NAME.PRIMARY_KEY_NAME " + (any ? "IN" : "NOT IN") + " (SELECT p.PRIMARY_KEY_NAME"
+                        + " FROM TABLE_NAME AS p CROSS JOIN JSON_TABLE(p.COLUMN_NAME, '$[*]'"
+                        + " COLUMNS (value VARCHAR(255) PATH '$')) AS jt WHERE " + n + "value " + x + ")";
         }
-        return n + " EXISTS (SELECT 1 FROM lookup_value AS v JOIN lookup AS l ON l.LookupKey = v.LookupKey WHERE v.FieldName = 'COLUMN_NAME' AND v.ResourceRecordKey = TABLE_NAME.PRIMARY_KEY_NAME AND "
-                + n + " l.LegacyOdataValue " + x + ")";
+        // A NULL key in the subquery would make NOT IN unknown for every record
+        return n + lookupSemiJoin("TABLE_NAME", "COLUMN_NAME",
+                (any ? "" : "v.ResourceRecordKey IS NOT NULL AND NOT ") + "l.LegacyOdataValue " + x);
+    }
+
+    /**
+     * "key IN (keys of the records with a matching lookup value)" rather than a correlated EXISTS: MySQL runs the
+     * subquery once as a semi-join, driven by the lookup_value index on FieldName, instead of once per row. Lambdas
+     * over JSON array columns are semi-joins the same way, through JSON_TABLE.
+     */
+    private String lookupSemiJoin(String table, String fieldName, String condition) {
+        return table + "." + resourceInfo.getPrimaryKeyName() + " IN (SELECT v.ResourceRecordKey"
+                + " FROM lookup_value AS v JOIN lookup AS l ON l.LookupKey = v.LookupKey"
+                + " WHERE v.FieldName = '" + fieldName + "' AND " + condition + ")";
     }
 
     @Override
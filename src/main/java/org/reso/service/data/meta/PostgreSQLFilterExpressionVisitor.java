@@ -9,6 +9,7 @@ import org.apache.olingo.server.api.ODataApplicationException;
 import org.apache.olingo.server.api.uri.UriResource;
 import org.apache.olingo.server.api.uri.UriResourcePrimitiveProperty;
 import org.apache.olingo.server.api.uri.queryoption.expression.*;
+import org.reso.service.data.sql.SqlParameters;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,10 +41,19 @@ public class PostgreSQLFilterExpressionVisitor implements ExpressionVisitor<Stri
 
    private final String       entityAlias;
    private final ResourceInfo resourceInfo;
+   private final List<Object> bindings;
 
    public PostgreSQLFilterExpressionVisitor(ResourceInfo resourceInfo) {
+      this(resourceInfo, null);
+   }
+
+   /**
+    * @param bindings Receives the literal values in order, rendered as '?' placeholders; null renders them inline
+    */
+   public PostgreSQLFilterExpressionVisitor(ResourceInfo resourceInfo, List<Object> bindings) {
       this.entityAlias = resourceInfo.getTableName();
       this.resourceInfo = resourceInfo;
+      this.bindings = bindings;
    }
 
    @Override
@@ -60,11 +70,20 @@ public class PostgreSQLFilterExpressionVisitor implements ExpressionVisitor<Stri
       return left + strOperator + right;
    }
 
-   // @TODO I'm unsure where this would be called.
+   // "left in (a, b, ...)"
    @Override public String visitBinaryOperator(BinaryOperatorKind operator, String s, List<String> list)
             throws ExpressionVisitException, ODataApplicationException
    {
-      String strOperator = BINARY_OPERATORS.get(operator);
+      if (operator == BinaryOperatorKind.IN)
+      {
+         if (list.isEmpty() || list.size() > MongoDBFilterExpressionVisitor.MAX_IN_VALUES)
+         {
+            throw new ODataApplicationException("Operator 'in' accepts 1 to "
+                                                + MongoDBFilterExpressionVisitor.MAX_IN_VALUES + " values",
+                                                HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH);
+         }
+         return s + " IN (" + String.join(", ", list) + ")";
+      }
       throw new ODataApplicationException("Unsupported binary operation: " + operator.name(),
                                           operator == BinaryOperatorKind.HAS ?
                                                    HttpStatusCode.NOT_IMPLEMENTED.getStatusCode() :
@@ -93,11 +112,11 @@ public class PostgreSQLFilterExpressionVisitor implements ExpressionVisitor<Stri
       String firsEntityParam = parameters.get(0);
       switch (methodCall) {
          case CONTAINS:
-            return firsEntityParam + " LIKE '%" + extractFromStringValue(parameters.get(1)) + "%'";
+            return like(methodCall, firsEntityParam, parameters.get(1), "%", "%");
          case STARTSWITH:
-            return firsEntityParam + " LIKE '" + extractFromStringValue(parameters.get(1)) + "%'";
+            return like(methodCall, firsEntityParam, parameters.get(1), "", "%");
          case ENDSWITH:
-            return firsEntityParam + " LIKE '%" + extractFromStringValue(parameters.get(1));
+            return like(methodCall, firsEntityParam, parameters.get(1), "%", "");
          case DAY:
             return "DAY(" + firsEntityParam + ")";
          case MONTH:
@@ -109,11 +128,30 @@ public class PostgreSQLFilterExpressionVisitor implements ExpressionVisitor<Stri
                                           HttpStatusCode.NOT_IMPLEMENTED.getStatusCode(), Locale.ENGLISH);
    }
 
+   private String like(MethodKind methodCall, String column, String pattern, String prefix, String suffix)
+            throws ODataApplicationException {
+      if (bindings == null) {
+         return column + " LIKE '" + prefix + extractFromStringValue(pattern) + suffix + "'";
+      }
+      if (!"?".equals(pattern) || bindings.isEmpty()) {
+         throw new ODataApplicationException(methodCall + " expects a string literal",
+                                             HttpStatusCode.NOT_IMPLEMENTED.getStatusCode(), Locale.ENGLISH);
+      }
+      // The pattern literal was the last value bound
+      int last = bindings.size() - 1;
+      bindings.set(last, prefix + SqlParameters.escapeLike(String.valueOf(bindings.get(last))) + suffix);
+      return column + " LIKE ?";
+   }
+
    @Override
    public String visitLiteral(Literal literal) throws ExpressionVisitException, ODataApplicationException {
       String literalAsString = literal.getText();
       if (literal.getType() == null) {
-         literalAsString = "NULL";
+         return "NULL";
+      }
+      if (bindings != null) {
+         bindings.add(SqlParameters.literalValue(literal));
+         return "?";
       }
       if (literal.getType().getFullQualifiedName().equals( EdmPrimitiveTypeKind.DateTimeOffset.getFullQualifiedName() ) )
       {
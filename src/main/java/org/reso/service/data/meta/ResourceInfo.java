@@ -9,6 +9,8 @@ import org.bson.BsonDocument;
 import org.bson.Document;
 import org.bson.conversions.Bson;
 import com.mongodb.client.MongoIterable;
+import com.mongodb.client.model.Collation;
+import com.mongodb.client.model.CountOptions;
 import com.mongodb.client.model.Sorts;
 import org.apache.olingo.commons.api.data.Entity;
 import org.apache.olingo.commons.api.data.EntityCollection;
@@ -19,13 +21,18 @@ import org.apache.olingo.commons.api.edm.FullQualifiedName;
 import org.apache.olingo.server.api.ODataApplicationException;
 import org.apache.olingo.server.api.uri.UriInfo;
 import org.apache.olingo.server.api.uri.UriParameter;
-import org.reso.service.data.common.CommonDataProcessing;
+import org.reso.service.data.common.DocumentEntityMapper;
+import org.reso.service.data.common.EntityCodec;
+import org.reso.service.data.common.RawBsonJsonWriter;
+import org.reso.service.data.sql.ConnectionPool;
+import org.reso.service.diagnostics.DiagnosticLog;
 import org.reso.service.servlet.RESOservlet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
@@ -36,14 +43,16 @@ public class ResourceInfo {
     protected String resourcesName;
     protected FullQualifiedName fqn;
     protected String primaryKeyName;
+    private volatile DocumentEntityMapper documentMapper = null;
+    private volatile EntityCodec entityCodec = null;
+    private volatile Map<String, FieldInfo> fieldsByName = null;
+    private volatile RawBsonJsonWriter rawJsonWriter = null;
+    private final FilterPlanCache filterPlanCache = new FilterPlanCache();
 
     protected static final Logger LOG = LoggerFactory.getLogger(ResourceInfo.class);
     private static MongoClient mongoClient = null;
     private static String syncConnStr = System.getenv().getOrDefault("MONGO_SYNC_CONNECTION_STR", "");
     private static final String DB_TYPE = System.getenv().getOrDefault("DB_TYPE", "mongodb").toLowerCase();
-    private static final String MYSQL_URL = System.getenv().getOrDefault("JDBC_URL", "jdbc:mysql://mysql-db:3306/reso");
-    private static final String MYSQL_USER = System.getenv().getOrDefault("DB_USERNAME", "root");
-    private static final String MYSQL_PASSWORD = System.getenv().getOrDefault("DB_PASSWORD", "root");
 
     /**
      * Accessors
@@ -69,10 +78,91 @@ public class ResourceInfo {
         return null;
     }
 
+    /**
+     * Looks up a field by its OData name.
+     *
+     * @param fieldName The OData field name
+     * @return The field, or null if the resource does not have it
+     */
+    public FieldInfo getField(String fieldName) {
+        Map<String, FieldInfo> fields = this.fieldsByName;
+        if (fields == null) {
+            fields = new HashMap<>();
+            ArrayList<FieldInfo> fieldList = getFieldList();
+            if (fieldList != null) {
+                for (FieldInfo field : fieldList) {
+                    fields.putIfAbsent(field.getODATAFieldName(), field);
+                }
+            }
+            this.fieldsByName = fields;
+        }
+        return fields.get(fieldName);
+    }
+
     public Boolean useCustomDatasource() {
         return false;
     }
 
+    /**
+     * Compiles the document mapper, entity codec and raw JSON writer for this resource. Called once the field
+     * list and primary key are known.
+     */
+    public void compileDocumentMapper() {
+        DocumentEntityMapper mapper = DocumentEntityMapper.compile(this);
+        this.documentMapper = mapper;
+        this.entityCodec = new EntityCodec(mapper);
+        this.rawJsonWriter = RawBsonJsonWriter.compile(this);
+        // Cached filter plans refer to the previous field definitions
+        this.fieldsByName = null;
+        this.filterPlanCache.clear();
+    }
+
+    public DocumentEntityMapper getDocumentMapper() {
+        DocumentEntityMapper mapper = this.documentMapper;
+        if (mapper == null) {
+            mapper = DocumentEntityMapper.compile(this);
+            this.documentMapper = mapper;
+        }
+        return mapper;
+    }
+
+    public EntityCodec getEntityCodec() {
+        EntityCodec codec = this.entityCodec;
+        if (codec == null) {
+            codec = new EntityCodec(getDocumentMapper());
+            this.entityCodec = codec;
+        }
+        return codec;
+    }
+
+    /**
+     * Returns a collection of this resource that decodes its documents straight into Entities.
+     *
+     * @param database       The database
+     * @param collectionName The collection holding this resource's documents
+     * @return The collection
+     */
+    public MongoCollection<Entity> getEntityCollection(MongoDatabase database, String collectionName) {
+        return database.getCollection(collectionName, Entity.class)
+                .withCodecRegistry(getEntityCodec().getCodecRegistry());
+    }
+
+    public RawBsonJsonWriter getRawJsonWriter() {
+        RawBsonJsonWriter writer = this.rawJsonWriter;
+        if (writer == null) {
+            writer = RawBsonJsonWriter.compile(this);
+            this.rawJsonWriter = writer;
+        }
+        return writer;
+    }
+
+    /**
+     * @return The compiled $filter plans of this resource
+     */
+    public FilterPlanCache getFilterPlanCache() {
+        return filterPlanCache;
+    }
+
     public FullQualifiedName getFqn(String namespace) {
         if (this.fqn == null)
             this.fqn = new FullQualifiedName(namespace, getResourceName());
@@ -112,10 +202,7 @@ public class ResourceInfo {
 
     private static Connection getMySQLConnection() {
         try {
-            Class.forName("com.mysql.cj.jdbc.Driver");
-            Connection conn = DriverManager.getConnection(MYSQL_URL, MYSQL_USER, MYSQL_PASSWORD);
-            LOG.info("Successfully connected to MySQL");
-            return conn;
+            return ConnectionPool.primary().getConnection();
         } catch (Exception e) {
             LOG.error("Failed to connect to MySQL: " + e.getMessage(), e);
             return null;
@@ -184,7 +271,7 @@ public class ResourceInfo {
             ArrayList<Document> indexDocs = collection.listIndexes().into(new ArrayList<Document>());
 
             for (Document indexDoc : indexDocs) {
-                LOG.info("Index Document: " + indexDoc.toJson());
+                LOG.debug("Index Document: {}", indexDoc.toJson());
                 Boolean isUnique = indexDoc.getBoolean("unique", false);
                 Document keyDoc = (Document) indexDoc.get("key");
 
@@ -245,17 +332,17 @@ public class ResourceInfo {
 
         try {
             MongoDatabase mongoDatabase = mongoClient.getDatabase("reso");
-            MongoCollection<Document> collection = mongoDatabase.getCollection(this.getTableName());
-            FindIterable<Document> results;
+            MongoCollection<Entity> collection = getEntityCollection(mongoDatabase, this.getTableName());
+            FindIterable<Entity> results;
 
             if (filter != null) {
-                results = collection.find(filter).sort(sort).skip(skip).limit(limit);
+                results = collection.find(filter).collation(MongoFilter.collationOf(filter))
+                        .sort(sort).skip(skip).limit(limit);
             } else {
                 results = collection.find().sort(sort).skip(skip).limit(limit);
             }
 
-            for (Document doc : results) {
-                Entity ent = CommonDataProcessing.getEntityFromDocument(doc, this);
+            for (Entity ent : results) {
                 entityList.add(ent);
             }
         } catch (Exception e) {
@@ -271,8 +358,9 @@ public class ResourceInfo {
 
         MongoClient mongoClient = getMongoClient();
         MongoDatabase mongoDatabase = mongoClient.getDatabase("reso");
-        MongoCollection<Document> collection = mongoDatabase.getCollection(this.tableName);
-        FindIterable<Document> iterable = (filter == null) ? collection.find() : collection.find(filter);
+        MongoCollection<Entity> collection = getEntityCollection(mongoDatabase, this.tableName);
+        FindIterable<Entity> iterable = (filter == null) ? collection.find()
+                : collection.find(filter).collation(MongoFilter.collationOf(filter));
 
         if (sort != null) {
             iterable = iterable.sort(sort);
@@ -280,8 +368,8 @@ public class ResourceInfo {
 
         iterable = iterable.skip(skip).limit(limit);
 
-        for (Document doc : iterable) {
-            entities.add(CommonDataProcessing.getEntityFromDocument(doc, this));
+        for (Entity ent : iterable) {
+            entities.add(ent);
         }
 
         return entityCollection;
@@ -293,8 +381,15 @@ public class ResourceInfo {
         MongoCollection<Document> collection = mongoDatabase.getCollection(this.tableName);
 
         try {
-            long count = (filter == null) ? collection.countDocuments() : collection.countDocuments(filter);
-            LOG.info("Count result for collection {}: {}", this.tableName, count);
+            long count;
+            if (filter == null) {
+                count = collection.countDocuments();
+            } else {
+                Collation collation = MongoFilter.collationOf(filter);
+                count = collation == null ? collection.countDocuments(filter)
+                        : collection.countDocuments(filter, new CountOptions().collation(collation));
+            }
+            DiagnosticLog.log("Count result for collection {}: {}", this.tableName, count);
             return (int) count;
         } catch (Exception e) {
             LOG.error("Error counting documents in collection {}", this.tableName, e);
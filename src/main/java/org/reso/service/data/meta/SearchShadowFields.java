@@ -0,0 +1,172 @@
+package org.reso.service.data.meta;
+
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shadow fields that let contains() and endswith() filters use an index.
+ * <p>
+ * For every string field named in SEARCH_SHADOW_FIELDS (comma separated, either "Field" or "Resource.Field")
+ * documents carry a "_search.&lt;Field&gt;" sub-document with the lowercased trigrams of the value and the
+ * lowercased value reversed. A multikey index on the trigrams narrows contains(), an index on the reversed value
+ * turns endswith() into a prefix scan; both are rechecked against the field itself with a regex. Every distinct
+ * trigram is stored, since a document missing one of the trigrams of a query would not be found.
+ * <p>
+ * Narrowing starts once a resource is ready, i.e. once SearchShadowBackfill has given the documents written before
+ * the fields were configured their shadow fields.
+ */
+public final class SearchShadowFields {
+    public static final String ROOT = "_search";
+    static final int GRAM_SIZE = 3;
+    // Enough trigrams to be selective without making $all evaluate a long list per candidate
+    static final int MAX_QUERY_GRAMS = 16;
+
+    private static final Set<String> CONFIGURED = parse(System.getenv().getOrDefault("SEARCH_SHADOW_FIELDS", ""));
+    // Names of the resources whose documents all carry their shadow fields
+    private static final Set<String> READY = ConcurrentHashMap.newKeySet();
+
+    private SearchShadowFields() {
+    }
+
+    private static Set<String> parse(String value) {
+        Set<String> names = new HashSet<>();
+        for (String name : value.split(",")) {
+            if (!name.trim().isEmpty()) {
+                names.add(name.trim());
+            }
+        }
+        return Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * @return true if the field is a string field with shadow fields maintained for it
+     */
+    public static boolean isShadowed(ResourceInfo resource, FieldInfo field) {
+        if (field == null || field.isCollection() || field instanceof EnumFieldInfo
+                || !field.getType().equals(EdmPrimitiveTypeKind.String.getFullQualifiedName())) {
+            return false;
+        }
+        String name = field.getODATAFieldName();
+        return CONFIGURED.contains(name) || CONFIGURED.contains(resource.getResourceName() + "." + name);
+    }
+
+    /**
+     * @return The fields of the resource with shadow fields, in field list order
+     */
+    public static List<FieldInfo> shadowedFields(ResourceInfo resource) {
+        List<FieldInfo> fields = new ArrayList<>();
+        if (CONFIGURED.isEmpty() || resource.getFieldList() == null) {
+            return fields;
+        }
+        for (FieldInfo field : resource.getFieldList()) {
+            if (isShadowed(resource, field)) {
+                fields.add(field);
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * @return true once every document of the resource has its shadow fields, so filters may be narrowed by them
+     */
+    public static boolean isReady(ResourceInfo resource) {
+        return READY.contains(resource.getResourceName());
+    }
+
+    /**
+     * Lets filters of the resource be narrowed by its shadow fields. Plans compiled before are dropped, so they are
+     * compiled again with the narrowing.
+     */
+    public static void markReady(ResourceInfo resource) {
+        if (READY.add(resource.getResourceName())) {
+            resource.getFilterPlanCache().clear();
+        }
+    }
+
+    public static String gramsPath(FieldInfo field) {
+        return ROOT + "." + field.getFieldName() + ".grams";
+    }
+
+    public static String reversedPath(FieldInfo field) {
+        return ROOT + "." + field.getFieldName() + ".rev";
+    }
+
+    /**
+     * @return The distinct lowercased trigrams of the value, at most max of them, spread over the whole value
+     */
+    public static List<String> grams(String value, int max) {
+        String lower = value.toLowerCase(Locale.ROOT);
+        int[] codePoints = lower.codePoints().toArray();
+        if (codePoints.length < GRAM_SIZE) {
+            return Collections.emptyList();
+        }
+
+        LinkedHashSet<String> grams = new LinkedHashSet<>();
+        for (int i = 0; i + GRAM_SIZE <= codePoints.length; i++) {
+            grams.add(new String(codePoints, i, GRAM_SIZE));
+        }
+        if (grams.size() <= max) {
+            return new ArrayList<>(grams);
+        }
+
+        List<String> all = new ArrayList<>(grams);
+        List<String> sampled = new ArrayList<>(max);
+        for (int i = 0; i < max; i++) {
+            sampled.add(all.get((int) ((long) i * all.size() / max)));
+        }
+        return sampled;
+    }
+
+    public static String reversed(String value) {
+        return new StringBuilder(value.toLowerCase(Locale.ROOT)).reverse().toString();
+    }
+
+    /**
+     * Adds the shadow fields of a resource to a document about to be written.
+     *
+     * @param resource The resource
+     * @param document The document, keyed by database field names
+     */
+    public static void apply(ResourceInfo resource, Document document) {
+        Document search = shadowOf(resource, document);
+        if (!search.isEmpty()) {
+            document.append(ROOT, search);
+        }
+    }
+
+    /**
+     * @param resource The resource
+     * @param document The document, keyed by database field names
+     * @return The value of the document's "_search" sub-document, empty when it has no shadowed values
+     */
+    public static Document shadowOf(ResourceInfo resource, Document document) {
+        Document search = new Document();
+        for (FieldInfo field : shadowedFields(resource)) {
+            Object value = document.get(field.getFieldName());
+            if (value instanceof String) {
+                search.append(field.getFieldName(), new Document()
+                        .append("grams", grams((String) value, Integer.MAX_VALUE))
+                        .append("rev", reversed((String) value)));
+            }
+        }
+        return search;
+    }
+
+    /**
+     * @return The configured field names, for index management
+     */
+    public static List<String> getConfiguredNames() {
+        List<String> names = new ArrayList<>(CONFIGURED);
+        Collections.sort(names);
+        return names;
+    }
+}
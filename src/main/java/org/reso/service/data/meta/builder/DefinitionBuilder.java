@@ -5,6 +5,7 @@ import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind;
 import org.apache.olingo.commons.api.edm.FullQualifiedName;
 import org.reso.service.data.meta.*;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
@@ -55,7 +56,9 @@ public class DefinitionBuilder {
 
    public void openFile() {
       try {
-         reader = new JsonReader(new FileReader("webapps/" + fileName));
+         // Deployed reports live under webapps; tools outside the container pass a path of their own
+         File file = new File("webapps/" + fileName);
+         reader = new JsonReader(new FileReader(file.exists() ? file : new File(fileName)));
       } catch (FileNotFoundException e) {
          LOG.info("ERROR:", e.getMessage());
          e.printStackTrace();
@@ -0,0 +1,363 @@
+package org.reso.service.data.mongodb;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteManyModel;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.reso.service.data.common.CommonDataProcessing;
+import org.reso.service.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Upserts newline-delimited JSON records into a resource's collection in batches.
+ * <p>
+ * Each record is validated and converted by a {@link DocumentConverter}; invalid records are reported by line and
+ * skipped. A batch is one unordered bulkWrite of replace-upserts keyed on the primary key, followed by one ordered
+ * bulkWrite that replaces the lookup_value rows of the batch's records that were written. Batches hold
+ * INGEST_BATCH_SIZE (1000) records unless the caller asks for another size.
+ */
+public final class BulkIngest {
+    private static final Logger LOG = LoggerFactory.getLogger(BulkIngest.class);
+    public static final int DEFAULT_BATCH_SIZE =
+            Integer.parseInt(System.getenv().getOrDefault("INGEST_BATCH_SIZE", "1000"));
+    public static final int MAX_BATCH_SIZE = 10000;
+    // Errors kept per report; the counts stay exact
+    private static final int MAX_ERRORS = 100;
+    private static final ReplaceOptions UPSERT = new ReplaceOptions().upsert(true);
+    private static final TypeReference<Map<String, Object>> RECORD = new TypeReference<Map<String, Object>>() {
+    };
+
+    private final ObjectMapper json = new ObjectMapper().enable(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS);
+    private final DocumentConverter converter;
+    private final MongoCollection<Document> collection;
+    private final MongoCollection<Document> lookupValues;
+    private final boolean hasEnums;
+    private final int batchSize;
+
+    public BulkIngest(MongoDatabase database, DocumentConverter converter, int batchSize) {
+        this.converter = converter;
+        this.collection = database.getCollection(converter.getResource().getTableName());
+        this.lookupValues = database.getCollection("lookup_value");
+        this.hasEnums = !CommonDataProcessing.gatherEnumFields(converter.getResource()).isEmpty();
+        this.batchSize = Math.max(1, Math.min(batchSize, MAX_BATCH_SIZE));
+    }
+
+    public Report ingest(Reader input) throws IOException {
+        String resourceName = converter.getResource().getResourceName();
+        Report report = new Report(resourceName);
+        BufferedReader reader = input instanceof BufferedReader ? (BufferedReader) input : new BufferedReader(input);
+        List<Document> batch = new ArrayList<>(batchSize);
+        List<Integer> lines = new ArrayList<>(batchSize);
+        int lineNumber = 0;
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            report.received++;
+
+            List<String> errors = new ArrayList<>();
+            Document document = null;
+            try {
+                document = converter.convert(json.readValue(line, RECORD), errors);
+            } catch (JsonProcessingException e) {
+                errors.add("Invalid JSON: " + e.getOriginalMessage());
+            }
+            if (document == null) {
+                report.reject("line " + lineNumber + ": " + String.join("; ", errors));
+                continue;
+            }
+
+            batch.add(document);
+            lines.add(lineNumber);
+            if (batch.size() == batchSize) {
+                report.add(write(report.batches.size() + 1, batch, lines));
+                batch = new ArrayList<>(batchSize);
+                lines = new ArrayList<>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            report.add(write(report.batches.size() + 1, batch, lines));
+        }
+
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        metrics.counter("reso_ingest_records_total", "Records received for bulk ingest", "resource", resourceName,
+                "result", "written").add(report.upserted + report.modified + report.unchanged);
+        metrics.counter("reso_ingest_records_total", "Records received for bulk ingest", "resource", resourceName,
+                "result", "rejected").add(report.rejected);
+        LOG.info("Ingested {}: {} received, {} upserted, {} modified, {} rejected in {} batches", resourceName,
+                report.received, report.upserted, report.modified, report.rejected, report.batches.size());
+        return report;
+    }
+
+    /**
+     * Upserts documents already converted by the converter as one batch.
+     *
+     * @param number The number reported for the batch
+     * @param documents The documents
+     * @return The outcome of the batch
+     */
+    public BatchResult upsert(int number, List<Document> documents) {
+        return write(number, documents, null);
+    }
+
+    // lines: the input line of each document, if read by ingest
+    private BatchResult write(int number, List<Document> batch, List<Integer> lines) {
+        long start = System.nanoTime();
+        String primaryKeyName = converter.getResource().getPrimaryKeyName();
+        BatchResult result = new BatchResult(number, batch.size());
+
+        List<WriteModel<Document>> upserts = new ArrayList<>(batch.size());
+        for (Document document : batch) {
+            upserts.add(new ReplaceOneModel<>(Filters.eq(primaryKeyName, document.get(primaryKeyName)), document,
+                    UPSERT));
+        }
+
+        Set<Integer> failed = new HashSet<>();
+        try {
+            result.setCounts(collection.bulkWrite(upserts, new BulkWriteOptions().ordered(false)));
+        } catch (MongoBulkWriteException e) {
+            // Unordered: everything but the failed records was written
+            result.setCounts(e.getWriteResult());
+            for (BulkWriteError error : e.getWriteErrors()) {
+                failed.add(error.getIndex());
+                if (result.errors.size() < MAX_ERRORS) {
+                    result.errors.add((lines == null ? "record " + (error.getIndex() + 1) : "line "
+                            + lines.get(error.getIndex())) + ": " + error.getMessage());
+                }
+            }
+        } catch (MongoException e) {
+            LOG.error("Bulk ingest batch {} into {} failed", number, collection.getNamespace(), e);
+            result.failed = batch.size();
+            result.firstFailed = 0;
+            result.batchFailed = true;
+            result.errors.add("Batch failed: " + e.getMessage());
+            result.millis = (System.nanoTime() - start) / 1_000_000;
+            return result;
+        }
+        result.failed = failed.size();
+        result.firstFailed = failed.isEmpty() ? -1 : Collections.min(failed);
+
+        if (hasEnums) {
+            writeEnumRows(batch, failed, result);
+        }
+        result.millis = (System.nanoTime() - start) / 1_000_000;
+        MetricsRegistry.getInstance().histogram("reso_ingest_batch_seconds", "Time to write one bulk ingest batch",
+                "resource", converter.getResource().getResourceName()).observeNanos(System.nanoTime() - start);
+        return result;
+    }
+
+    // Replaces the lookup_value rows of the written records: ordered, so the delete runs before the inserts
+    private void writeEnumRows(List<Document> batch, Set<Integer> failed, BatchResult result) {
+        String primaryKeyName = converter.getResource().getPrimaryKeyName();
+        String resourceName = converter.getResource().getResourcesName();
+        List<Object> keys = new ArrayList<>();
+        List<WriteModel<Document>> inserts = new ArrayList<>();
+
+        for (int i = 0; i < batch.size(); i++) {
+            if (failed.contains(i)) {
+                continue;
+            }
+            Object key = batch.get(i).get(primaryKeyName);
+            keys.add(key);
+            for (Map.Entry<String, List<String>> field : converter.enumKeys(batch.get(i)).entrySet()) {
+                for (String lookupKey : field.getValue()) {
+                    inserts.add(new InsertOneModel<>(new Document("FieldName", field.getKey())
+                            .append("LookupKey", lookupKey)
+                            .append("ResourceName", resourceName)
+                            .append("ResourceRecordKey", key)));
+                }
+            }
+        }
+        if (keys.isEmpty()) {
+            return;
+        }
+
+        List<WriteModel<Document>> models = new ArrayList<>(inserts.size() + 1);
+        models.add(new DeleteManyModel<>(Filters.and(Filters.eq("ResourceName", resourceName),
+                Filters.in("ResourceRecordKey", keys))));
+        models.addAll(inserts);
+        try {
+            lookupValues.bulkWrite(models, new BulkWriteOptions().ordered(true));
+            result.enumRows = inserts.size();
+        } catch (MongoException e) {
+            LOG.error("Writing lookup_value rows for {} failed", collection.getNamespace(), e);
+            result.errors.add("Enum values failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The outcome of one ingest request.
+     */
+    public static final class Report {
+        private final String resource;
+        private int received = 0;
+        private int rejected = 0;
+        private int upserted = 0;
+        private int modified = 0;
+        private int unchanged = 0;
+        private int failed = 0;
+        private final List<String> errors = new ArrayList<>();
+        private final List<BatchResult> batches = new ArrayList<>();
+
+        Report(String resource) {
+            this.resource = resource;
+        }
+
+        void reject(String error) {
+            rejected++;
+            if (errors.size() < MAX_ERRORS) {
+                errors.add(error);
+            }
+        }
+
+        void add(BatchResult batch) {
+            batches.add(batch);
+            upserted += batch.upserted;
+            modified += batch.modified;
+            unchanged += batch.matched - batch.modified;
+            failed += batch.failed;
+        }
+
+        public String getResource() {
+            return resource;
+        }
+
+        public int getReceived() {
+            return received;
+        }
+
+        public int getRejected() {
+            return rejected;
+        }
+
+        public int getUpserted() {
+            return upserted;
+        }
+
+        public int getModified() {
+            return modified;
+        }
+
+        public int getUnchanged() {
+            return unchanged;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        public List<String> getErrors() {
+            return errors;
+        }
+
+        public List<BatchResult> getBatches() {
+            return batches;
+        }
+    }
+
+    /**
+     * The outcome of one bulkWrite.
+     */
+    public static final class BatchResult {
+        private final int batch;
+        private final int records;
+        private int upserted = 0;
+        private int matched = 0;
+        private int modified = 0;
+        private int failed = 0;
+        private int firstFailed = -1;
+        private int enumRows = 0;
+        private boolean batchFailed = false;
+        private long millis = 0;
+        private final List<String> errors = new ArrayList<>();
+
+        BatchResult(int batch, int records) {
+            this.batch = batch;
+            this.records = records;
+        }
+
+        void setCounts(BulkWriteResult result) {
+            upserted = result.getUpserts().size();
+            matched = result.getMatchedCount();
+            modified = result.getModifiedCount();
+        }
+
+        public int getBatch() {
+            return batch;
+        }
+
+        public int getRecords() {
+            return records;
+        }
+
+        public int getUpserted() {
+            return upserted;
+        }
+
+        public int getMatched() {
+            return matched;
+        }
+
+        public int getModified() {
+            return modified;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        /**
+         * @return The index in the batch of the first record that was not written, or -1 when all were
+         */
+        public int getFirstFailed() {
+            return firstFailed;
+        }
+
+        public int getEnumRows() {
+            return enumRows;
+        }
+
+        /**
+         * @return true when nothing of the batch was written, e.g. because the server was unreachable
+         */
+        public boolean isBatchFailed() {
+            return batchFailed;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        public List<String> getErrors() {
+            return errors;
+        }
+    }
+}
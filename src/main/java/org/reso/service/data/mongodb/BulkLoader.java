@@ -0,0 +1,277 @@
+package org.reso.service.data.mongodb;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.InsertManyOptions;
+import org.bson.Document;
+import org.reso.service.data.definition.LookupDefinition;
+import org.reso.service.data.meta.ResourceInfo;
+import org.reso.service.data.meta.builder.DefinitionBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Seeds MongoDB from JSON exports: ./gradlew bulkLoad --args='[--drop] &lt;file or directory&gt;...'
+ * <p>
+ * Each file holds one collection, named after the file: property.json or property.ndjson load into property. A file
+ * is either a JSON array of documents or one document per line, and is read as a stream, so its size does not
+ * matter. Collections of a resource in the metadata report (CERT_REPORT_FILENAME) are converted by a
+ * {@link DocumentConverter}, like bulk ingest; others, e.g. lookup, are loaded as they are and before the rest, so
+ * enum values can be checked against the lookups being loaded. --drop empties the collections first but keeps their
+ * indexes, since the unique primary key indexes of the init scripts are what the server finds the keys by.
+ * <p>
+ * Batches of LOADER_BATCH_SIZE (1000) documents are inserted unordered by LOADER_THREADS (the number of processors)
+ * writers. The recommended indexes are created once the data is in, which is faster than maintaining them during
+ * the load, and the rate of every collection is reported.
+ */
+public final class BulkLoader {
+    private static final Logger LOG = LoggerFactory.getLogger(BulkLoader.class);
+    private static final int BATCH_SIZE =
+            Integer.parseInt(System.getenv().getOrDefault("LOADER_BATCH_SIZE", "1000"));
+    private static final int THREADS = Integer.parseInt(System.getenv().getOrDefault("LOADER_THREADS",
+            String.valueOf(Runtime.getRuntime().availableProcessors())));
+    private static final TypeReference<Map<String, Object>> RECORD = new TypeReference<Map<String, Object>>() {
+    };
+
+    private final ObjectMapper json = new ObjectMapper().enable(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS);
+    private final MongoDatabase database;
+    private final Map<String, ResourceInfo> resourcesByCollection = new HashMap<>();
+    private final ExecutorService writers = Executors.newFixedThreadPool(THREADS);
+    // Bounds the batches parsed ahead of the writers
+    private final Semaphore inFlight = new Semaphore(THREADS * 2);
+
+    BulkLoader(MongoDatabase database, List<ResourceInfo> resources) {
+        this.database = database;
+        for (ResourceInfo resource : resources) {
+            if (resource.getTableName() != null && resource.getFieldList() != null) {
+                resourcesByCollection.put(resource.getTableName().toLowerCase(Locale.ENGLISH), resource);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean drop = false;
+        List<File> files = new ArrayList<>();
+        for (String arg : args) {
+            if ("--drop".equals(arg)) {
+                drop = true;
+            } else {
+                File file = new File(arg);
+                File[] children = file.listFiles((dir, name) -> name.endsWith(".json") || name.endsWith(".ndjson"));
+                if (children != null) {
+                    Arrays.sort(children);
+                    files.addAll(Arrays.asList(children));
+                } else {
+                    files.add(file);
+                }
+            }
+        }
+        if (files.isEmpty()) {
+            System.err.println("Usage: BulkLoader [--drop] <file or directory>...");
+            System.exit(2);
+        }
+
+        String reportFile = System.getenv().getOrDefault("CERT_REPORT_FILENAME",
+                "RESODataDictionary-2.0.metadata-report.json");
+        List<ResourceInfo> resources = new DefinitionBuilder(reportFile).readResources();
+        String uri = System.getenv().getOrDefault("SPRING_DATA_MONGODB_URI", "mongodb://localhost:27017/reso");
+
+        try (MongoClient client = MongoClients.create(uri)) {
+            BulkLoader loader = new BulkLoader(client.getDatabase("reso"), resources);
+            try {
+                loader.run(client, files, drop, resources);
+            } finally {
+                loader.writers.shutdownNow();
+            }
+        }
+    }
+
+    private void run(MongoClient client, List<File> files, boolean drop, List<ResourceInfo> resources)
+            throws IOException, InterruptedException, ExecutionException {
+        List<File> plain = new ArrayList<>();
+        List<File> converted = new ArrayList<>();
+        for (File file : files) {
+            (resourcesByCollection.containsKey(collectionName(file)) ? converted : plain).add(file);
+        }
+
+        long start = System.nanoTime();
+        List<Result> results = new ArrayList<>(load(plain, drop));
+        if (database.getCollection("lookup").estimatedDocumentCount() > 0) {
+            LookupDefinition.loadCache(client, new LookupDefinition());
+        }
+        // As at server startup, so DocumentConverter checks the primary key the collections are keyed by
+        for (File file : converted) {
+            resourcesByCollection.get(collectionName(file)).findMongoPrimaryKey(client);
+        }
+        results.addAll(load(converted, drop));
+        long loadNanos = System.nanoTime() - start;
+
+        long indexStart = System.nanoTime();
+        IndexAdvisor.getInstance().seedDefaults(resources);
+        int indexes = IndexAdvisor.getInstance().createMissing(database).size();
+        long indexNanos = System.nanoTime() - indexStart;
+
+        long total = 0;
+        for (Result result : results) {
+            total += result.inserted.sum();
+            System.out.println(result);
+        }
+        System.out.printf(Locale.ENGLISH, "Loaded %d documents in %.1f s (%.0f docs/s), created %d indexes in %.1f s%n",
+                total, loadNanos / 1e9, total / Math.max(loadNanos / 1e9, 1e-9), indexes, indexNanos / 1e9);
+    }
+
+    // Loads the files with the writers, then waits for all of their batches
+    private List<Result> load(List<File> files, boolean drop)
+            throws IOException, InterruptedException, ExecutionException {
+        List<Result> results = new ArrayList<>();
+        List<Future<?>> batches = new ArrayList<>();
+        for (File file : files) {
+            Result result = new Result(collectionName(file));
+            results.add(result);
+            MongoCollection<Document> collection = database.getCollection(result.collection);
+            if (drop) {
+                collection.deleteMany(new Document());
+            }
+            read(file, result, collection, batches);
+        }
+        for (Future<?> batch : batches) {
+            batch.get();
+        }
+        return results;
+    }
+
+    private void read(File file, Result result, MongoCollection<Document> collection, List<Future<?>> batches)
+            throws IOException, InterruptedException {
+        ResourceInfo resource = resourcesByCollection.get(result.collection);
+        DocumentConverter converter = resource == null ? null : new DocumentConverter(resource);
+        LOG.info("Loading {} into {}", file, result.collection);
+
+        try (JsonParser parser = json.getFactory().createParser(file)) {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_ARRAY) {
+                token = parser.nextToken();
+            }
+            List<Object> batch = new ArrayList<>(BATCH_SIZE);
+            while (token == JsonToken.START_OBJECT) {
+                // Plain collections are parsed as Extended JSON, so their ids and dates keep their types
+                batch.add(converter == null
+                        ? Document.parse(parser.readValueAsTree().toString())
+                        : json.readValue(parser, RECORD));
+                if (batch.size() == BATCH_SIZE) {
+                    batches.add(submit(batch, converter, collection, result));
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+                token = parser.nextToken();
+            }
+            if (!batch.isEmpty()) {
+                batches.add(submit(batch, converter, collection, result));
+            }
+        }
+    }
+
+    private Future<?> submit(List<Object> batch, DocumentConverter converter, MongoCollection<Document> collection,
+                             Result result) throws InterruptedException {
+        inFlight.acquire();
+        try {
+            return writers.submit(() -> {
+                try {
+                    insert(batch, converter, collection, result);
+                } finally {
+                    result.finished.accumulateAndGet(System.nanoTime(), Math::max);
+                    inFlight.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    // Conversion runs here rather than in the reader, so it is spread over the writers too
+    @SuppressWarnings("unchecked")
+    private void insert(List<Object> batch, DocumentConverter converter, MongoCollection<Document> collection,
+                        Result result) {
+        List<Document> documents = new ArrayList<>(batch.size());
+        List<String> errors = new ArrayList<>();
+        for (Object record : batch) {
+            Document document = converter == null
+                    ? (Document) record
+                    : converter.convert((Map<String, Object>) record, errors);
+            if (document != null) {
+                documents.add(document);
+            }
+        }
+        result.rejected.add(batch.size() - documents.size());
+        if (!errors.isEmpty()) {
+            LOG.warn("{}: rejected {} documents, e.g. {}", result.collection, batch.size() - documents.size(),
+                    errors.get(0));
+        }
+        if (documents.isEmpty()) {
+            return;
+        }
+
+        try {
+            collection.insertMany(documents, new InsertManyOptions().ordered(false));
+            result.inserted.add(documents.size());
+        } catch (MongoBulkWriteException e) {
+            // Unordered: everything but the failed documents was written
+            result.inserted.add(documents.size() - e.getWriteErrors().size());
+            result.failed.add(e.getWriteErrors().size());
+            LOG.warn("{}: {} documents failed, e.g. {}", result.collection, e.getWriteErrors().size(),
+                    e.getWriteErrors().get(0).getMessage());
+        }
+    }
+
+    private static String collectionName(File file) {
+        String name = file.getName();
+        int dot = name.indexOf('.');
+        return (dot < 0 ? name : name.substring(0, dot)).toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * The counts of one collection, added to by the writers.
+     */
+    private static final class Result {
+        private final String collection;
+        private final long start = System.nanoTime();
+        private final LongAdder inserted = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final AtomicLong finished = new AtomicLong(System.nanoTime());
+
+        Result(String collection) {
+            this.collection = collection;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = Math.max((finished.get() - start) / 1e9, 1e-9);
+            return String.format(Locale.ENGLISH, "%-32s %9d inserted %7d rejected %7d failed %8.1f s %9.0f docs/s",
+                    collection, inserted.sum(), rejected.sum(), failed.sum(), seconds, inserted.sum() / seconds);
+        }
+    }
+}
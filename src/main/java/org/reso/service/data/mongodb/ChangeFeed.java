@@ -0,0 +1,540 @@
+package org.reso.service.data.mongodb;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.FullDocumentBeforeChange;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.reso.service.data.common.CommonDataProcessing;
+import org.reso.service.data.meta.MongoFilter;
+import org.reso.service.data.meta.ResourceInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Fans the changes of one collection out to any number of subscribers from a single change stream.
+ * <p>
+ * The stream is opened by the first subscriber and closed once the feed has had none for a minute. Each change is
+ * rendered once and offered to every subscriber whose filter it matches. Changes are taken from the stream in batches
+ * of up to CHANGE_FEED_BATCH (100) and a filter is evaluated once per batch, with a single lookup of the batch's _ids,
+ * however many subscribers share it, and before the lock that orders deliveries is taken. A delete carries the key
+ * and @odata.id of the deleted entity, taken from the pre-image when the collection keeps them, or else from the
+ * last CHANGE_FEED_KEYS (10000) documents the feed has seen. A
+ * subscriber holds at most CHANGE_FEED_BUFFER (256) undelivered changes and is marked overflowed past that, so a slow
+ * client cannot hold the others up; its listener is told whenever there is something to deliver, so no thread waits
+ * on an idle subscriber. The last CHANGE_FEED_REPLAY (1000) changes are kept, so a client that reconnects with the id
+ * of the last change it saw picks up where it left off.
+ */
+public final class ChangeFeed {
+    private static final Logger LOG = LoggerFactory.getLogger(ChangeFeed.class);
+    private static final int BUFFER_SIZE =
+            Integer.parseInt(System.getenv().getOrDefault("CHANGE_FEED_BUFFER", "256"));
+    private static final int REPLAY_SIZE =
+            Integer.parseInt(System.getenv().getOrDefault("CHANGE_FEED_REPLAY", "1000"));
+    private static final int BATCH_SIZE =
+            Integer.parseInt(System.getenv().getOrDefault("CHANGE_FEED_BATCH", "100"));
+    private static final int KEY_CACHE_SIZE =
+            Integer.parseInt(System.getenv().getOrDefault("CHANGE_FEED_KEYS", "10000"));
+    private static final long IDLE_MS = 60_000;
+    private static final long RETRY_DELAY_MS = 5000;
+    // "$changeStream stage is only supported on replica sets"
+    private static final int CHANGE_STREAM_NOT_SUPPORTED = 40573;
+    private static final ConcurrentHashMap<String, ChangeFeed> FEEDS = new ConcurrentHashMap<>();
+
+    private final MongoDatabase database;
+    private final MongoCollection<Document> collection;
+    private final ResourceInfo resource;
+    private final Function<Document, String> render;
+    private final CopyOnWriteArrayList<Subscription> subscribers = new CopyOnWriteArrayList<>();
+    // Guards the replay buffer and orders a subscriber's replay before its live changes
+    private final Object lock = new Object();
+    private final ArrayDeque<Event> replay = new ArrayDeque<>();
+    // The keys of recently seen documents by _id, for deletes without a pre-image
+    private final Map<BsonValue, Object> keys = new LinkedHashMap<BsonValue, Object>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<BsonValue, Object> eldest) {
+            return size() > KEY_CACHE_SIZE;
+        }
+    };
+    private Thread watcher = null;
+    private volatile String failure = null;
+    private volatile long idleSince = 0;
+
+    private ChangeFeed(MongoDatabase database, ResourceInfo resource, Function<Document, String> render) {
+        this.database = database;
+        this.collection = database.getCollection(resource.getTableName());
+        this.resource = resource;
+        this.render = render;
+    }
+
+    /**
+     * @param render Writes a changed document as the JSON sent to subscribers
+     * @return The feed of the resource's collection, shared by all its subscribers
+     */
+    public static ChangeFeed forResource(MongoDatabase database, ResourceInfo resource,
+                                         Function<Document, String> render) {
+        return FEEDS.computeIfAbsent(resource.getResourceName(),
+                name -> new ChangeFeed(database, resource, render));
+    }
+
+    /**
+     * One change read from the stream, before it is rendered.
+     */
+    public static final class Change {
+        private final String id;
+        private final String operation;
+        private final BsonValue documentId;
+        private final Document document;
+
+        private Change(String id, String operation, BsonValue documentId, Document document) {
+            this.id = id;
+            this.operation = operation;
+            this.documentId = documentId;
+            this.document = document;
+        }
+
+        /**
+         * @param operation insert, update or replace
+         * @param document  The document as it is after the change
+         */
+        public static Change of(String id, String operation, BsonValue documentId, Document document) {
+            return new Change(id, operation, documentId, document);
+        }
+
+        /**
+         * @param before The document as it was before the delete, or null when the collection keeps no pre-images
+         */
+        public static Change delete(String id, BsonValue documentId, Document before) {
+            return new Change(id, "delete", documentId, before);
+        }
+
+        static Change of(ChangeStreamDocument<Document> change) {
+            BsonValue documentId = change.getDocumentKey() == null ? null : change.getDocumentKey().get("_id");
+            String id = change.getResumeToken().toJson();
+            switch (change.getOperationType()) {
+                case INSERT:
+                case UPDATE:
+                case REPLACE:
+                    // Null when the document was deleted again before the lookup
+                    return change.getFullDocument() == null ? null
+                            : of(id, change.getOperationType().getValue(), documentId, change.getFullDocument());
+                case DELETE:
+                    return delete(id, documentId, change.getFullDocumentBeforeChange());
+                default:
+                    return null;
+            }
+        }
+    }
+
+    /**
+     * One change as sent to subscribers.
+     */
+    public static final class Event {
+        private final String id;
+        private final String operation;
+        private final String data;
+        private final BsonValue documentId;
+
+        Event(String id, String operation, String data, BsonValue documentId) {
+            this.id = id;
+            this.operation = operation;
+            this.data = data;
+            this.documentId = documentId;
+        }
+
+        /**
+         * @return The resume token of the change
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * @return insert, update, replace or delete
+         */
+        public String getOperation() {
+            return operation;
+        }
+
+        /**
+         * @return The entity, or the key and @odata.id of a deleted entity
+         */
+        public String getData() {
+            return data;
+        }
+    }
+
+    /**
+     * A subscriber's queue of undelivered changes. Close it to unsubscribe.
+     */
+    public final class Subscription implements AutoCloseable {
+        private final Bson filter;
+        private final String filterKey;
+        private final Runnable listener;
+        private final ArrayBlockingQueue<Event> queue = new ArrayBlockingQueue<>(Math.max(1, BUFFER_SIZE));
+        private volatile boolean overflowed = false;
+        private boolean replayed = true;
+        // Live changes that arrive while the missed ones are matched, guarded by the feed's lock
+        private List<Event> held = null;
+
+        private Subscription(Bson filter, String filterKey, Runnable listener) {
+            this.filter = filter;
+            this.filterKey = filterKey;
+            this.listener = listener;
+        }
+
+        // Called with the feed's lock held
+        private void deliver(Event event) {
+            if (held != null) {
+                held.add(event);
+            } else {
+                offer(event);
+            }
+        }
+
+        private void offer(Event event) {
+            if (!overflowed && !queue.offer(event)) {
+                overflowed = true;
+            }
+            listener.run();
+        }
+
+        /**
+         * @return The next change, or null when there is none
+         */
+        public Event poll() {
+            return queue.poll();
+        }
+
+        /**
+         * @return true once a change had to be dropped; the client should reconnect from the last change it saw
+         */
+        public boolean isOverflowed() {
+            return overflowed;
+        }
+
+        public boolean isEmpty() {
+            return queue.isEmpty();
+        }
+
+        /**
+         * @return false when the change to resume after is no longer kept and changes may have been missed
+         */
+        public boolean isReplayed() {
+            return replayed;
+        }
+
+        /**
+         * @return Why the feed stopped, or null while it runs
+         */
+        public String getFailure() {
+            return failure;
+        }
+
+        @Override
+        public void close() {
+            subscribers.remove(this);
+            if (subscribers.isEmpty()) {
+                idleSince = System.currentTimeMillis();
+            }
+        }
+    }
+
+    /**
+     * @param filter      The compiled $filter, or null for every change
+     * @param filterKey   The $filter text; subscribers with the same text share its evaluation
+     * @param lastEventId The id of the last change the client saw, or null for changes from now on
+     * @param listener    Told, on the feed's thread, whenever a change is queued or the feed fails; it must not block
+     * @return The subscription
+     */
+    public Subscription subscribe(Bson filter, String filterKey, String lastEventId, Runnable listener) {
+        Subscription subscription = new Subscription(filter, filter == null ? null : filterKey, listener);
+        List<Event> missed = new ArrayList<>();
+        synchronized (lock) {
+            if (lastEventId != null) {
+                boolean found = false;
+                for (Event event : replay) {
+                    if (found) {
+                        missed.add(event);
+                    } else {
+                        found = event.id.equals(lastEventId);
+                    }
+                }
+                subscription.replayed = found;
+                subscription.held = new ArrayList<>();
+            }
+            subscribers.add(subscription);
+            idleSince = 0;
+            if (watcher == null || !watcher.isAlive()) {
+                failure = null;
+                watcher = new Thread(this::watch, "change-feed-" + collection.getNamespace().getCollectionName());
+                watcher.setDaemon(true);
+                watcher.start();
+            }
+        }
+
+        if (subscription.held != null) {
+            // The missed changes are matched outside the lock, live ones are held back until they are queued
+            try {
+                Map<String, Set<BsonValue>> matching = new HashMap<>();
+                if (subscription.filter != null) {
+                    matching.put(subscription.filterKey, matchingIds(subscription.filter, missed));
+                }
+                for (Event event : missed) {
+                    if (matches(subscription, event, matching)) {
+                        subscription.offer(event);
+                    }
+                }
+            } finally {
+                synchronized (lock) {
+                    for (Event event : subscription.held) {
+                        subscription.offer(event);
+                    }
+                    subscription.held = null;
+                }
+            }
+        }
+        return subscription;
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    private void watch() {
+        LOG.info("Opening the change feed of {}", collection.getNamespace());
+        enablePreImages();
+        while (true) {
+            ChangeStreamIterable<Document> stream = collection.watch()
+                    .fullDocument(FullDocument.UPDATE_LOOKUP)
+                    .fullDocumentBeforeChange(FullDocumentBeforeChange.WHEN_AVAILABLE)
+                    .maxAwaitTime(1, TimeUnit.SECONDS);
+            try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = stream.cursor()) {
+                while (true) {
+                    ChangeStreamDocument<Document> next = cursor.tryNext();
+                    if (next == null) {
+                        if (stopIfIdle()) {
+                            return;
+                        }
+                        continue;
+                    }
+                    // Takes what the stream already holds without waiting for more
+                    List<Change> changes = new ArrayList<>();
+                    while (next != null) {
+                        Change change = Change.of(next);
+                        if (change != null) {
+                            changes.add(change);
+                        }
+                        next = changes.size() < BATCH_SIZE && cursor.available() > 0 ? cursor.tryNext() : null;
+                    }
+                    publish(changes);
+                }
+            } catch (MongoCommandException e) {
+                if (e.getErrorCode() == CHANGE_STREAM_NOT_SUPPORTED) {
+                    LOG.warn("Change streams are not available, {} has no change feed", collection.getNamespace());
+                    failure = "change streams are not available";
+                    stop();
+                    for (Subscription subscription : subscribers) {
+                        subscription.listener.run();
+                    }
+                    return;
+                }
+                LOG.error("Change feed of {} failed: {}", collection.getNamespace(), e.getMessage());
+            } catch (Exception e) {
+                LOG.error("Change feed of {} failed: {}", collection.getNamespace(), e.getMessage());
+            }
+
+            // Changes made while the stream is down are not seen, so resuming clients must start over
+            synchronized (lock) {
+                replay.clear();
+            }
+            try {
+                Thread.sleep(RETRY_DELAY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (stopIfIdle()) {
+                return;
+            }
+        }
+    }
+
+    // Without pre-images the keys of deleted documents come from the documents seen before
+    private void enablePreImages() {
+        try {
+            database.runCommand(new Document("collMod", collection.getNamespace().getCollectionName())
+                    .append("changeStreamPreAndPostImages", new Document("enabled", true)));
+        } catch (Exception e) {
+            LOG.debug("Could not turn on pre-images for {}: {}", collection.getNamespace(), e.getMessage());
+        }
+    }
+
+    private boolean stopIfIdle() {
+        synchronized (lock) {
+            if (!subscribers.isEmpty() || System.currentTimeMillis() - idleSince < IDLE_MS) {
+                return false;
+            }
+            stop();
+            LOG.info("Closed the idle change feed of {}", collection.getNamespace());
+            return true;
+        }
+    }
+
+    // Called with the lock held or by the watcher itself
+    private void stop() {
+        synchronized (lock) {
+            watcher = null;
+            // A later subscriber cannot tell what happened in between
+            replay.clear();
+        }
+    }
+
+    /**
+     * Renders the changes, in order, and offers them to the subscribers whose filters they match.
+     */
+    public void publish(List<Change> changes) {
+        List<Event> events = new ArrayList<>();
+        for (Change change : changes) {
+            Event event = toEvent(change);
+            if (event != null) {
+                events.add(event);
+            }
+        }
+        if (events.isEmpty()) {
+            return;
+        }
+
+        // Filters are evaluated outside the lock; subscribers that joined meanwhile are evaluated in another round
+        Map<String, Set<BsonValue>> matching = new HashMap<>();
+        while (true) {
+            for (Subscription subscription : subscribers) {
+                if (subscription.filter != null && !matching.containsKey(subscription.filterKey)) {
+                    matching.put(subscription.filterKey, matchingIds(subscription.filter, events));
+                }
+            }
+            synchronized (lock) {
+                if (!isDecided(matching)) {
+                    continue;
+                }
+                for (Event event : events) {
+                    replay.addLast(event);
+                    if (replay.size() > REPLAY_SIZE) {
+                        replay.removeFirst();
+                    }
+                    for (Subscription subscription : subscribers) {
+                        if (matches(subscription, event, matching)) {
+                            subscription.deliver(event);
+                        }
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+    private boolean isDecided(Map<String, Set<BsonValue>> matching) {
+        for (Subscription subscription : subscribers) {
+            if (subscription.filter != null && !matching.containsKey(subscription.filterKey)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Event toEvent(Change change) {
+        String data;
+        if ("delete".equals(change.operation)) {
+            data = deletedKey(change);
+        } else {
+            remember(change.documentId, change.document);
+            try {
+                data = render.apply(change.document);
+            } catch (RuntimeException e) {
+                LOG.error("Could not render a change of {}: {}", collection.getNamespace(), e.getMessage());
+                return null;
+            }
+        }
+        return new Event(change.id, change.operation, data, change.documentId);
+    }
+
+    private void remember(BsonValue documentId, Document document) {
+        Object key = document.get(resource.getPrimaryKeyName());
+        if (documentId != null && key != null) {
+            synchronized (keys) {
+                keys.put(documentId, key);
+            }
+        }
+    }
+
+    // The OData key of a deleted entity, or its _id when the key is no longer known
+    private String deletedKey(Change change) {
+        Object key = change.document == null ? null : change.document.get(resource.getPrimaryKeyName());
+        if (change.documentId != null) {
+            synchronized (keys) {
+                Object seen = keys.remove(change.documentId);
+                key = key == null ? seen : key;
+            }
+        }
+        if (key == null) {
+            LOG.debug("The key of a document deleted from {} is not known", collection.getNamespace());
+            return new BsonDocument("_id", change.documentId).toJson();
+        }
+        return new Document(resource.getPrimaryKeyName(), key)
+                .append("@odata.id", CommonDataProcessing.createId(resource.getResourcesName(), key).toString())
+                .toJson();
+    }
+
+    // Deletes cannot be matched against a document that is gone, so every subscriber sees them
+    private static boolean matches(Subscription subscription, Event event, Map<String, Set<BsonValue>> matching) {
+        if (subscription.filter == null || event.documentId == null || "delete".equals(event.operation)) {
+            return true;
+        }
+        return matching.get(subscription.filterKey).contains(event.documentId);
+    }
+
+    // The _ids of the changed documents that match the filter now, in a single lookup
+    private Set<BsonValue> matchingIds(Bson filter, List<Event> events) {
+        List<BsonValue> ids = new ArrayList<>();
+        for (Event event : events) {
+            if (event.documentId != null && !"delete".equals(event.operation)) {
+                ids.add(event.documentId);
+            }
+        }
+        if (ids.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Set<BsonValue> matching = new HashSet<>();
+        for (BsonDocument document : collection
+                .find(Filters.and(Filters.in("_id", ids), filter), BsonDocument.class)
+                .collation(MongoFilter.collationOf(filter))
+                .projection(Projections.include("_id"))) {
+            matching.add(document.get("_id"));
+        }
+        return matching;
+    }
+}
@@ -0,0 +1,281 @@
+package org.reso.service.data.mongodb;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocumentBeforeChange;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.reso.service.data.meta.FieldInfo;
+import org.reso.service.data.meta.ResourceInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a tombstone for every entity deleted from a tracked collection, so $deltatoken responses can report deletes.
+ * <p>
+ * One change stream on the database feeds the delta_tombstone collection, where a tombstone holds the resource, the
+ * primary key of the deleted document, read from its pre-image, and the time of the delete. Tombstones are kept for
+ * DELTA_RETENTION_HOURS (168) by a TTL index; a delta token older than that, or older than a restart that could not
+ * resume the stream, no longer covers every delete and is refused. The tombstone _id is the resume token of the
+ * delete, which orders tombstones by cluster time and lets every server watching the same database write the same
+ * tombstone once.
+ * <p>
+ * Pre-images are turned on for the tracked collections where the server allows it (MongoDB 6.0 and later); deletes
+ * without one cannot be reported. Change streams need a replica set; without one only changes are reported.
+ */
+public final class DeltaLog {
+    private static final Logger LOG = LoggerFactory.getLogger(DeltaLog.class);
+    public static final String TIMESTAMP_FIELD = "ModificationTimestamp";
+    private static final long RETENTION_HOURS =
+            Long.parseLong(System.getenv().getOrDefault("DELTA_RETENTION_HOURS", "168"));
+    private static final String TOMBSTONES = "delta_tombstone";
+    private static final String STATE = "delta_log_state";
+    private static final long RETRY_DELAY_MS = 5000;
+    private static final long SAVE_INTERVAL_MS = 10_000;
+    // "$changeStream stage is only supported on replica sets"
+    private static final int CHANGE_STREAM_NOT_SUPPORTED = 40573;
+    // The resume token is no longer in the oplog
+    private static final int CHANGE_STREAM_HISTORY_LOST = 286;
+    private static final int DUPLICATE_KEY = 11000;
+
+    private final MongoDatabase database;
+    private final MongoCollection<Document> tombstones;
+    private final MongoCollection<Document> state;
+    private final Map<String, ResourceInfo> tracked = new HashMap<>();
+    private Thread watcher = null;
+    private volatile boolean running = false;
+    private volatile boolean available = false;
+    private volatile long since = Long.MAX_VALUE;
+
+    public DeltaLog(MongoDatabase database, Collection<ResourceInfo> resources) {
+        this.database = database;
+        this.tombstones = database.getCollection(TOMBSTONES);
+        this.state = database.getCollection(STATE);
+        for (ResourceInfo resource : resources) {
+            // A tombstone is reported by primary key, which documents keyed by _id alone do not have
+            if (timestampField(resource) != null && !"_id".equals(resource.getPrimaryKeyName())) {
+                tracked.put(resource.getTableName().toLowerCase(), resource);
+            }
+        }
+    }
+
+    /**
+     * @return The stored name of the resource's ModificationTimestamp, or null when it has none
+     */
+    public static String timestampField(ResourceInfo resource) {
+        if (resource.getTableName() == null || resource.getFieldList() == null) {
+            return null;
+        }
+        for (FieldInfo field : resource.getFieldList()) {
+            if (TIMESTAMP_FIELD.equals(field.getODATAFieldName())) {
+                return field.getFieldName();
+            }
+        }
+        return null;
+    }
+
+    public synchronized void start() {
+        if (running || tracked.isEmpty()) {
+            return;
+        }
+        running = true;
+        tombstones.createIndex(Indexes.ascending("resource", "_id"));
+        tombstones.createIndex(Indexes.ascending("deletedAt"),
+                new IndexOptions().expireAfter(RETENTION_HOURS, TimeUnit.HOURS));
+        for (ResourceInfo resource : tracked.values()) {
+            enablePreImages(resource.getTableName());
+        }
+        watcher = new Thread(this::watch, "delta-log");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (watcher != null) {
+            watcher.interrupt();
+            watcher = null;
+        }
+    }
+
+    private void enablePreImages(String collection) {
+        try {
+            database.runCommand(new Document("collMod", collection)
+                    .append("changeStreamPreAndPostImages", new Document("enabled", true)));
+        } catch (Exception e) {
+            LOG.debug("Could not turn on pre-images for {}: {}", collection, e.getMessage());
+        }
+    }
+
+    /**
+     * @return Whether deletes of the resource are logged
+     */
+    public boolean isTracked(ResourceInfo resource) {
+        return available && resource.getTableName() != null
+                && tracked.containsKey(resource.getTableName().toLowerCase());
+    }
+
+    /**
+     * @param issuedAt When a token first looked for tombstones, in epoch milliseconds
+     * @return false when tombstones after the token may have expired or were never written
+     */
+    public boolean covers(long issuedAt) {
+        if (!available) {
+            return true;
+        }
+        return issuedAt >= since && System.currentTimeMillis() - issuedAt < TimeUnit.HOURS.toMillis(RETENTION_HOURS);
+    }
+
+    /**
+     * @return The id of the resource's latest tombstone, or "" when it has none
+     */
+    public String head(ResourceInfo resource) {
+        Document last = tombstones.find(Filters.eq("resource", resource.getResourceName()))
+                .sort(Sorts.descending("_id"))
+                .projection(Projections.include("_id"))
+                .first();
+        return last == null ? "" : last.getString("_id");
+    }
+
+    /**
+     * @return Up to limit tombstones of the resource after the given one, in the order they were written
+     */
+    public List<Document> after(ResourceInfo resource, String tombstone, int limit) {
+        return tombstones.find(Filters.and(Filters.eq("resource", resource.getResourceName()),
+                        Filters.gt("_id", tombstone)))
+                .sort(Sorts.ascending("_id"))
+                .limit(limit)
+                .into(new ArrayList<>());
+    }
+
+    private void watch() {
+        while (running) {
+            Document saved = state.find(Filters.eq("_id", TOMBSTONES)).first();
+            Document stored = saved == null ? null : saved.get("resumeToken", Document.class);
+            BsonDocument resumeToken = stored == null ? null : stored.toBsonDocument();
+            try {
+                follow(resumeToken, saved);
+            } catch (MongoCommandException e) {
+                if (e.getErrorCode() == CHANGE_STREAM_NOT_SUPPORTED) {
+                    LOG.warn("Change streams are not available, delta responses will not report deletes");
+                    available = false;
+                    return;
+                }
+                if (e.getErrorCode() == CHANGE_STREAM_HISTORY_LOST && resumeToken != null) {
+                    LOG.warn("The delta log cannot resume, deletes since it stopped are lost: {}", e.getMessage());
+                    state.deleteOne(Filters.eq("_id", TOMBSTONES));
+                    continue;
+                }
+                LOG.error("Delta log failed: {}", e.getMessage());
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                LOG.error("Delta log failed: {}", e.getMessage());
+            }
+            try {
+                Thread.sleep(RETRY_DELAY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void follow(BsonDocument resumeToken, Document saved) {
+        List<String> collections = new ArrayList<>();
+        for (ResourceInfo resource : tracked.values()) {
+            collections.add(resource.getTableName());
+        }
+        ChangeStreamIterable<Document> stream = database.watch(Collections.singletonList(
+                        Aggregates.match(Filters.and(Filters.eq("operationType", "delete"),
+                                Filters.in("ns.coll", collections)))))
+                .fullDocumentBeforeChange(FullDocumentBeforeChange.WHEN_AVAILABLE)
+                .maxAwaitTime(1, TimeUnit.SECONDS);
+        if (resumeToken != null) {
+            stream = stream.resumeAfter(resumeToken);
+        }
+
+        try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = stream.cursor()) {
+            if (resumeToken == null) {
+                // Tokens issued before now may have missed deletes
+                since = System.currentTimeMillis();
+                save(cursor.getResumeToken(), since);
+            } else {
+                since = saved.getLong("since") == null ? System.currentTimeMillis() : saved.getLong("since");
+            }
+            available = true;
+            LOG.info("Logging deletes of {} collections for delta responses", collections.size());
+
+            long savedAt = System.currentTimeMillis();
+            while (running) {
+                ChangeStreamDocument<Document> change = cursor.tryNext();
+                if (change != null) {
+                    record(change);
+                }
+                if (System.currentTimeMillis() - savedAt >= SAVE_INTERVAL_MS && cursor.getResumeToken() != null) {
+                    save(cursor.getResumeToken(), since);
+                    savedAt = System.currentTimeMillis();
+                }
+            }
+        }
+    }
+
+    private void save(BsonDocument resumeToken, long since) {
+        if (resumeToken == null) {
+            return;
+        }
+        state.replaceOne(Filters.eq("_id", TOMBSTONES),
+                new Document("_id", TOMBSTONES).append("resumeToken", resumeToken).append("since", since),
+                new ReplaceOptions().upsert(true));
+    }
+
+    private void record(ChangeStreamDocument<Document> change) {
+        if (change.getNamespace() == null) {
+            return;
+        }
+        ResourceInfo resource = tracked.get(change.getNamespace().getCollectionName().toLowerCase());
+        if (resource == null) {
+            return;
+        }
+        Document before = change.getFullDocumentBeforeChange();
+        if (before == null || before.get(resource.getPrimaryKeyName()) == null) {
+            LOG.debug("A delete from {} has no pre-image and is not logged", change.getNamespace());
+            return;
+        }
+        Date deletedAt = change.getClusterTime() == null ? new Date()
+                : new Date(change.getClusterTime().getTime() * 1000L);
+        try {
+            tombstones.insertOne(new Document("_id", change.getResumeToken().getString("_data").getValue())
+                    .append("resource", resource.getResourceName())
+                    .append("key", before.get(resource.getPrimaryKeyName()))
+                    .append("deletedAt", deletedAt));
+        } catch (MongoWriteException e) {
+            // Another server logged it already
+            if (e.getError().getCode() != DUPLICATE_KEY) {
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package org.reso.service.data.mongodb;
+
+import org.bson.Document;
+import org.bson.json.JsonParseException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+
+/**
+ * The position a $deltatoken stands for: the ModificationTimestamp and _id of the last entity sent, which the next
+ * entities follow in that order, and the last tombstone of {@link DeltaLog} sent. A token in the next link of a first
+ * read is marked initial: its pages are still the collection, not changes to it. The token is the position as
+ * Extended JSON in URL safe Base64, so _id values of any type survive the round trip.
+ */
+public final class DeltaToken {
+    private final Date timestamp;
+    private final Object afterId;
+    private final String tombstone;
+    private final long issuedAt;
+    private final boolean initial;
+
+    /**
+     * @param timestamp The ModificationTimestamp of the last entity sent, or null when none with one was sent
+     * @param afterId   The _id of the last entity sent, or null when none was sent
+     * @param tombstone The id of the last tombstone sent, or "" for all the log holds
+     * @param issuedAt  When the tombstones after it were first looked for, in epoch milliseconds
+     */
+    public DeltaToken(Date timestamp, Object afterId, String tombstone, long issuedAt) {
+        this(timestamp, afterId, tombstone, issuedAt, false);
+    }
+
+    /**
+     * @param initial Whether the position is within the first read of the collection
+     */
+    public DeltaToken(Date timestamp, Object afterId, String tombstone, long issuedAt, boolean initial) {
+        this.timestamp = timestamp;
+        this.afterId = afterId;
+        this.tombstone = tombstone == null ? "" : tombstone;
+        this.issuedAt = issuedAt;
+        this.initial = initial;
+    }
+
+    /**
+     * @return The position, or null when the token was not issued by this service
+     */
+    public static DeltaToken decode(String token) {
+        try {
+            Document document = Document.parse(new String(Base64.getUrlDecoder().decode(token),
+                    StandardCharsets.UTF_8));
+            Object issuedAt = document.get("t");
+            if (!(issuedAt instanceof Number) || !(document.get("d") instanceof String)) {
+                return null;
+            }
+            return new DeltaToken(document.getDate("s"), document.get("a"), document.getString("d"),
+                    ((Number) issuedAt).longValue(), Boolean.TRUE.equals(document.get("i")));
+        } catch (IllegalArgumentException | JsonParseException | ClassCastException e) {
+            return null;
+        }
+    }
+
+    public String encode() {
+        Document document = new Document("s", timestamp).append("a", afterId).append("d", tombstone)
+                .append("t", issuedAt);
+        if (initial) {
+            document.append("i", true);
+        }
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(document.toJson().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return The position after the entity with the given ModificationTimestamp and _id
+     */
+    public DeltaToken afterEntity(Date timestamp, Object id) {
+        return new DeltaToken(timestamp, id, tombstone, issuedAt, initial);
+    }
+
+    /**
+     * @return The position after the given tombstone
+     */
+    public DeltaToken afterTombstone(String id) {
+        return new DeltaToken(timestamp, afterId, id, issuedAt, initial);
+    }
+
+    /**
+     * @return The same position as a delta link, issued at the given time
+     */
+    public DeltaToken issued(long at) {
+        return new DeltaToken(timestamp, afterId, tombstone, at, false);
+    }
+
+    public Date getTimestamp() {
+        return timestamp;
+    }
+
+    public Object getAfterId() {
+        return afterId;
+    }
+
+    public String getTombstone() {
+        return tombstone;
+    }
+
+    public long getIssuedAt() {
+        return issuedAt;
+    }
+
+    public boolean isInitial() {
+        return initial;
+    }
+}
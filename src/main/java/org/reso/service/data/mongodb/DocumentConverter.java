@@ -0,0 +1,245 @@
+package org.reso.service.data.mongodb;
+
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind;
+import org.apache.olingo.commons.api.edm.FullQualifiedName;
+import org.bson.Document;
+import org.bson.types.Decimal128;
+import org.bson.types.ObjectId;
+import org.reso.service.data.definition.LookupDefinition;
+import org.reso.service.data.definition.LookupDictionary;
+import org.reso.service.data.meta.EnumFieldInfo;
+import org.reso.service.data.meta.FieldInfo;
+import org.reso.service.data.meta.ResourceInfo;
+import org.reso.service.data.meta.SearchShadowFields;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Validates JSON records against a resource's field metadata and converts them to the documents the service reads.
+ * <p>
+ * Values are stored the way the read path expects them: integers as Int32/Int64, decimals as Decimal128,
+ * DateTimeOffset as a BSON date, Edm.Date as its ISO text and enum values as their LookupKey. An enum value may be
+ * given as its LookupKey or its LookupValue. Extended JSON values and _id, as written by mongoexport, are accepted
+ * too. Search shadow fields are added to every converted document.
+ */
+public final class DocumentConverter {
+    private final ResourceInfo resource;
+    private final HashMap<String, FieldInfo> fieldsByName = new HashMap<>();
+
+    public DocumentConverter(ResourceInfo resource) {
+        this.resource = resource;
+        for (FieldInfo field : resource.getFieldList()) {
+            fieldsByName.put(field.getFieldName(), field);
+        }
+    }
+
+    public ResourceInfo getResource() {
+        return resource;
+    }
+
+    /**
+     * @param record The parsed JSON record
+     * @param errors Receives a message per invalid field
+     * @return The document, or null when the record is invalid
+     */
+    public Document convert(Map<String, Object> record, List<String> errors) {
+        int errorCount = errors.size();
+        Document document = new Document();
+        for (Map.Entry<String, Object> entry : record.entrySet()) {
+            String name = entry.getKey();
+            // Search shadow fields of a copied document are derived again below
+            if (name.startsWith("@odata.") || SearchShadowFields.ROOT.equals(name)) {
+                continue;
+            }
+            if ("_id".equals(name)) {
+                // Kept as exported, so a reloaded collection keeps its ids
+                Object id = unwrap(entry.getValue());
+                try {
+                    document.append(name, isObjectId(entry.getValue()) ? new ObjectId(id.toString()) : id);
+                } catch (IllegalArgumentException e) {
+                    errors.add(name + ": " + e.getMessage());
+                }
+                continue;
+            }
+            FieldInfo field = fieldsByName.get(name);
+            if (field == null) {
+                errors.add("Unknown field " + name);
+                continue;
+            }
+            try {
+                document.append(name, convertField(field, entry.getValue()));
+            } catch (IllegalArgumentException | ArithmeticException e) {
+                // ArithmeticException: an integer out of the field's range
+                errors.add(name + ": " + e.getMessage());
+            }
+        }
+
+        String primaryKeyName = resource.getPrimaryKeyName();
+        if (primaryKeyName != null && document.get(primaryKeyName) == null) {
+            errors.add("Missing " + primaryKeyName);
+        }
+        if (errors.size() > errorCount) {
+            return null;
+        }
+        SearchShadowFields.apply(resource, document);
+        return document;
+    }
+
+    /**
+     * @return The value of each enum field of a converted document as a list of LookupKeys
+     */
+    public Map<String, List<String>> enumKeys(Document document) {
+        Map<String, List<String>> keys = new HashMap<>();
+        for (Map.Entry<String, Object> entry : document.entrySet()) {
+            FieldInfo field = fieldsByName.get(entry.getKey());
+            Object value = entry.getValue();
+            if (field instanceof EnumFieldInfo && value != null) {
+                List<String> fieldKeys = new ArrayList<>();
+                if (value instanceof List) {
+                    for (Object key : (List<?>) value) {
+                        fieldKeys.add(key.toString());
+                    }
+                } else {
+                    fieldKeys.add(value.toString());
+                }
+                keys.put(field.getFieldName(), fieldKeys);
+            }
+        }
+        return keys;
+    }
+
+    private Object convertField(FieldInfo field, Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (field.isCollection()) {
+            if (!(value instanceof List)) {
+                throw new IllegalArgumentException("expected an array");
+            }
+            List<Object> values = new ArrayList<>();
+            for (Object item : (List<?>) value) {
+                values.add(item == null ? null : convertValue(field, unwrap(item)));
+            }
+            return values;
+        }
+        return convertValue(field, unwrap(value));
+    }
+
+    // A mongoexport writes some values as Extended JSON, e.g. {"$date": "..."} or {"$numberDecimal": "..."}
+    private static Object unwrap(Object value) {
+        if (!(value instanceof Map) || ((Map<?, ?>) value).size() != 1) {
+            return value;
+        }
+        Map.Entry<?, ?> wrapper = ((Map<?, ?>) value).entrySet().iterator().next();
+        Object inner = unwrap(wrapper.getValue());
+        switch (wrapper.getKey().toString()) {
+            case "$numberDecimal":
+            case "$numberDouble":
+            case "$numberLong":
+            case "$numberInt":
+                return new BigDecimal(inner.toString());
+            case "$date":
+            case "$oid":
+                return inner;
+            default:
+                return value;
+        }
+    }
+
+    private static boolean isObjectId(Object value) {
+        return value instanceof Map && ((Map<?, ?>) value).containsKey("$oid");
+    }
+
+    private Object convertValue(FieldInfo field, Object value) {
+        if (field instanceof EnumFieldInfo) {
+            return lookupKey((EnumFieldInfo) field, expect(value, String.class));
+        }
+
+        FullQualifiedName type = field.getType();
+        if (type.equals(EdmPrimitiveTypeKind.String.getFullQualifiedName())) {
+            String text = expect(value, String.class);
+            if (field.getMaxLength() != null && text.length() > field.getMaxLength()) {
+                throw new IllegalArgumentException("longer than " + field.getMaxLength());
+            }
+            return text;
+        } else if (type.equals(EdmPrimitiveTypeKind.Boolean.getFullQualifiedName())) {
+            return expect(value, Boolean.class);
+        } else if (type.equals(EdmPrimitiveTypeKind.Int64.getFullQualifiedName())) {
+            return integer(value).longValueExact();
+        } else if (type.equals(EdmPrimitiveTypeKind.Int32.getFullQualifiedName())
+                || type.equals(EdmPrimitiveTypeKind.Int16.getFullQualifiedName())
+                || type.equals(EdmPrimitiveTypeKind.Byte.getFullQualifiedName())
+                || type.equals(EdmPrimitiveTypeKind.SByte.getFullQualifiedName())) {
+            return integer(value).intValueExact();
+        } else if (type.equals(EdmPrimitiveTypeKind.Decimal.getFullQualifiedName())) {
+            return new Decimal128(decimal(value));
+        } else if (type.equals(EdmPrimitiveTypeKind.Double.getFullQualifiedName())
+                || type.equals(EdmPrimitiveTypeKind.Single.getFullQualifiedName())) {
+            return expect(value, Number.class).doubleValue();
+        } else if (type.equals(EdmPrimitiveTypeKind.Date.getFullQualifiedName())) {
+            try {
+                return LocalDate.parse(expect(value, String.class)).toString();
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("expected a date like 2024-01-31");
+            }
+        } else if (type.equals(EdmPrimitiveTypeKind.DateTimeOffset.getFullQualifiedName())) {
+            if (value instanceof Date) {
+                return value;
+            }
+            if (value instanceof Number) {
+                // Extended JSON dates before 1970 or after 9999 are epoch milliseconds
+                return new Date(((Number) value).longValue());
+            }
+            try {
+                return Date.from(OffsetDateTime.parse(expect(value, String.class)).toInstant());
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("expected a timestamp like 2024-01-31T12:00:00Z");
+            }
+        }
+        return value;
+    }
+
+    private static String lookupKey(EnumFieldInfo field, String value) {
+        LookupDictionary dictionary = LookupDefinition.getDictionary();
+        // Before the lookups are loaded nothing can be checked
+        if (dictionary.size() == 0 || dictionary.getValueIdByKey(value) != LookupDictionary.NOT_FOUND) {
+            return value;
+        }
+        String key = dictionary.findLookupKey(field.getLookupName(), value);
+        if (key == null) {
+            throw new IllegalArgumentException("unknown " + field.getLookupName() + " value " + value);
+        }
+        return key;
+    }
+
+    private static BigInteger integer(Object value) {
+        BigDecimal number = decimal(value);
+        try {
+            return number.toBigIntegerExact();
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("expected an integer");
+        }
+    }
+
+    private static BigDecimal decimal(Object value) {
+        Number number = expect(value, Number.class);
+        return number instanceof BigDecimal ? (BigDecimal) number : new BigDecimal(number.toString());
+    }
+
+    private static <T> T expect(Object value, Class<T> type) {
+        if (!type.isInstance(value)) {
+            throw new IllegalArgumentException("expected " + type.getSimpleName().toLowerCase()
+                    + " but got " + value.getClass().getSimpleName().toLowerCase());
+        }
+        return type.cast(value);
+    }
+}
@@ -0,0 +1,476 @@
+package org.reso.service.data.mongodb;
+
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexOptions;
+import org.bson.BsonRegularExpression;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.reso.service.data.helper.ExpandUtils;
+import org.reso.service.data.meta.FieldInfo;
+import org.reso.service.data.meta.MongoFilter;
+import org.reso.service.data.meta.ResourceInfo;
+import org.reso.service.data.meta.SearchShadowFields;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Records the field shapes queries filter and sort on, and compares them with the indexes MongoDB has.
+ * <p>
+ * Every shape is turned into the compound index that would serve it, keys ordered equality first, then sort in
+ * its directions, then the first range field. Shapes come from observed queries and from seeds: the navigation keys
+ * of ExpandNavigationConfig.json, ModificationTimestamp, the search shadow fields and the usual Property filters.
+ * Missing indexes are reported, and can be created in the background on request, most used first, or at startup
+ * (MONGO_AUTO_INDEXES); a collection is never taken past MongoDB's limit of 64 indexes.
+ */
+public final class IndexAdvisor {
+    private static final Logger LOG = LoggerFactory.getLogger(IndexAdvisor.class);
+    private static final IndexAdvisor INSTANCE = new IndexAdvisor();
+
+    // Observed shapes are bounded so that ad-hoc filters cannot grow the advisor without limit
+    private static final int MAX_SHAPES_PER_COLLECTION = 256;
+    private static final String SOURCE_OBSERVED = "observed";
+    private static final int MAX_INDEXES_PER_COLLECTION = 64;
+
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, IndexShape>> shapes = new ConcurrentHashMap<>();
+    private Thread builder = null;
+
+    public static IndexAdvisor getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * The compound index serving one query shape.
+     */
+    public static final class IndexShape {
+        final String collection;
+        final List<String> equality;
+        // Sort fields in order, with 1 or -1
+        final Document sort;
+        final String range;
+        final boolean caseInsensitive;
+        final String source;
+        final LongAdder uses = new LongAdder();
+
+        IndexShape(String collection, List<String> equality, Document sort, String range,
+                   boolean caseInsensitive, String source) {
+            this.collection = collection;
+            this.equality = equality;
+            this.sort = sort;
+            this.range = range;
+            this.caseInsensitive = caseInsensitive;
+            this.source = source;
+        }
+
+        List<String> keys() {
+            List<String> keys = new ArrayList<>(equality);
+            for (String field : sort.keySet()) {
+                if (!keys.contains(field)) {
+                    keys.add(field);
+                }
+            }
+            if (range != null && !keys.contains(range)) {
+                keys.add(range);
+            }
+            return keys;
+        }
+
+        String id() {
+            return indexKeys().toJson() + (caseInsensitive ? " ci" : "");
+        }
+
+        Document indexKeys() {
+            Document keys = new Document();
+            for (String key : keys()) {
+                keys.append(key, equality.contains(key) ? 1 : sort.get(key, 1));
+            }
+            return keys;
+        }
+
+        /**
+         * Whether an index, as returned by listIndexes, can serve this shape.
+         */
+        boolean isServedBy(Document index) {
+            Document indexKeys = (Document) index.get("key");
+            if (indexKeys == null) {
+                return false;
+            }
+            List<String> keys = new ArrayList<>(indexKeys.keySet());
+            List<String> wanted = keys();
+            if (keys.size() < wanted.size()) {
+                return false;
+            }
+
+            // Equality fields may come in any order, the rest must follow in order
+            int equalityCount = new HashSet<>(equality).size();
+            if (!new HashSet<>(keys.subList(0, equalityCount)).equals(new HashSet<>(equality))) {
+                return false;
+            }
+            if (!keys.subList(equalityCount, wanted.size()).equals(wanted.subList(equalityCount, wanted.size()))) {
+                return false;
+            }
+
+            // The index is walked forwards or backwards, so the sort directions must all agree with it or all differ
+            int walk = 0;
+            for (Map.Entry<String, Object> entry : sort.entrySet()) {
+                if (equality.contains(entry.getKey())) {
+                    continue;
+                }
+                int relative = direction(indexKeys.get(entry.getKey())) * (Integer) entry.getValue();
+                if (relative == 0 || (walk != 0 && relative != walk)) {
+                    return false;
+                }
+                walk = relative;
+            }
+            return caseInsensitive == isCaseInsensitive((Document) index.get("collation"));
+        }
+
+        /**
+         * @return How often the shape was queried
+         */
+        public long getUses() {
+            return uses.sum();
+        }
+
+        /**
+         * @return The keys of the index serving the shape
+         */
+        public Document getIndexKeys() {
+            return indexKeys();
+        }
+
+        Map<String, Object> describe() {
+            Map<String, Object> description = new LinkedHashMap<>();
+            description.put("keys", indexKeys());
+            description.put("caseInsensitive", caseInsensitive);
+            description.put("source", source);
+            description.put("uses", uses.sum());
+            return description;
+        }
+    }
+
+    // 1 or -1 for an ascending or descending key, 0 for text, hashed and other special keys
+    private static int direction(Object value) {
+        if (value instanceof BsonValue && ((BsonValue) value).isNumber()) {
+            return Integer.signum(((BsonValue) value).asNumber().intValue());
+        } else if (value instanceof Number) {
+            return Integer.signum(((Number) value).intValue());
+        }
+        return 0;
+    }
+
+    private static boolean isCaseInsensitive(Document collation) {
+        if (collation == null || "simple".equals(collation.getString("locale"))) {
+            return false;
+        }
+        Object strength = collation.get("strength");
+        return strength instanceof Number && ((Number) strength).intValue() <= 2;
+    }
+
+    /**
+     * Records the shape of a query.
+     *
+     * @param collection The collection queried
+     * @param filter     The filter, may be null
+     * @param sort       The sort, may be null
+     */
+    public void record(String collection, Bson filter, Bson sort) {
+        List<String> equality = new ArrayList<>();
+        List<String> range = new ArrayList<>();
+        if (filter != null) {
+            Map<String, ?> document = filter instanceof MongoFilter ? ((MongoFilter) filter).getFilter()
+                    : filter instanceof Document ? (Document) filter : filter.toBsonDocument();
+            collect(document, equality, range);
+        }
+        Document sortFields = new Document();
+        if (sort != null) {
+            Map<String, ?> document = sort instanceof Document ? (Document) sort : sort.toBsonDocument();
+            for (Map.Entry<String, ?> entry : document.entrySet()) {
+                sortFields.append(entry.getKey(), direction(entry.getValue()) < 0 ? -1 : 1);
+            }
+        }
+        if (equality.isEmpty() && range.isEmpty() && sortFields.isEmpty()) {
+            return;
+        }
+
+        Collections.sort(equality);
+        add(new IndexShape(collection, equality, sortFields, range.isEmpty() ? null : range.get(0),
+                MongoFilter.collationOf(filter) != null, SOURCE_OBSERVED));
+    }
+
+    // Only conjunctions are collected; each $or branch would need an index of its own
+    private static void collect(Map<String, ?> filter, List<String> equality, List<String> range) {
+        for (Map.Entry<String, ?> entry : filter.entrySet()) {
+            String path = entry.getKey();
+            Object value = entry.getValue();
+            if ("$and".equals(path) && value instanceof List) {
+                for (Object item : (List<?>) value) {
+                    if (item instanceof Map) {
+                        collect((Map<String, ?>) item, equality, range);
+                    }
+                }
+            } else if (path.startsWith("$")) {
+                continue;
+            } else if (value instanceof Map) {
+                collectOperators(path, (Map<String, ?>) value, equality, range);
+            } else if (isPrefixRegex(value)) {
+                addOnce(range, path);
+            } else if (!isRegex(value)) {
+                addOnce(equality, path);
+            }
+        }
+    }
+
+    private static void collectOperators(String path, Map<String, ?> operators, List<String> equality,
+                                         List<String> range) {
+        for (Map.Entry<String, ?> operator : operators.entrySet()) {
+            switch (operator.getKey()) {
+                case "$eq":
+                case "$in":
+                case "$all":
+                case "$elemMatch":
+                    addOnce(equality, path);
+                    return;
+                case "$gt":
+                case "$gte":
+                case "$lt":
+                case "$lte":
+                    addOnce(range, path);
+                    break;
+                case "$regex":
+                    if (isPrefixRegex(operator.getValue())) {
+                        addOnce(range, path);
+                    }
+                    break;
+                default:
+                    // $ne, $nin, $not and $exists are not selective enough to index for
+                    break;
+            }
+        }
+    }
+
+    private static boolean isRegex(Object value) {
+        return value instanceof Pattern || value instanceof BsonRegularExpression;
+    }
+
+    // An anchored, case-sensitive regex is answered with an index range
+    private static boolean isPrefixRegex(Object value) {
+        if (value instanceof BsonRegularExpression) {
+            BsonRegularExpression regex = (BsonRegularExpression) value;
+            return regex.getPattern().startsWith("^") && !regex.getOptions().contains("i");
+        } else if (value instanceof Pattern) {
+            Pattern pattern = (Pattern) value;
+            return pattern.pattern().startsWith("^") && (pattern.flags() & Pattern.CASE_INSENSITIVE) == 0;
+        }
+        return false;
+    }
+
+    private static void addOnce(List<String> fields, String field) {
+        if (!fields.contains(field)) {
+            fields.add(field);
+        }
+    }
+
+    private void add(IndexShape shape) {
+        ConcurrentHashMap<String, IndexShape> byId =
+                shapes.computeIfAbsent(shape.collection, key -> new ConcurrentHashMap<>());
+        IndexShape existing = byId.get(shape.id());
+        if (existing == null) {
+            if (SOURCE_OBSERVED.equals(shape.source) && byId.size() >= MAX_SHAPES_PER_COLLECTION) {
+                return;
+            }
+            existing = byId.putIfAbsent(shape.id(), shape);
+            if (existing == null) {
+                existing = shape;
+            }
+        }
+        existing.uses.increment();
+    }
+
+    private void seed(String collection, List<String> equality, String range, String source) {
+        IndexShape shape = new IndexShape(collection, equality, new Document(), range, false, source);
+        shapes.computeIfAbsent(collection, key -> new ConcurrentHashMap<>()).putIfAbsent(shape.id(), shape);
+    }
+
+    /**
+     * Seeds the shapes known without any traffic.
+     *
+     * @param resources The resources served
+     */
+    public void seedDefaults(Collection<ResourceInfo> resources) {
+        for (Map.Entry<String, Set<List<String>>> entry : ExpandUtils.getNavigationLookupKeys().entrySet()) {
+            for (List<String> keys : entry.getValue()) {
+                seed(entry.getKey(), keys, null, "expand");
+            }
+        }
+        seed("lookup_value", Arrays.asList("ResourceName", "ResourceRecordKey"), null, "expand");
+
+        for (ResourceInfo resource : resources) {
+            if (resource.getTableName() == null || resource.getFieldList() == null) {
+                continue;
+            }
+            String collection = resource.getTableName().toLowerCase();
+            for (FieldInfo field : resource.getFieldList()) {
+                String name = field.getODATAFieldName();
+                if ("ModificationTimestamp".equals(name)) {
+                    seed(collection, Collections.emptyList(), field.getFieldName(), "replication");
+                } else if ("Property".equals(resource.getResourceName())
+                        && ("StandardStatus".equals(name) || "City".equals(name))) {
+                    seed(collection, Collections.singletonList(field.getFieldName()), null, "common filter");
+                } else if ("Property".equals(resource.getResourceName()) && "ListPrice".equals(name)) {
+                    seed(collection, Collections.emptyList(), field.getFieldName(), "common filter");
+                }
+                if (SearchShadowFields.isShadowed(resource, field)) {
+                    seed(collection, Collections.singletonList(SearchShadowFields.gramsPath(field)), null, "search");
+                    seed(collection, Collections.emptyList(), SearchShadowFields.reversedPath(field), "search");
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The recommended indexes no existing index serves, per collection
+     */
+    public Map<String, List<IndexShape>> findMissing(MongoDatabase database) {
+        Set<String> existingCollections = new HashSet<>();
+        database.listCollectionNames().into(existingCollections);
+
+        Map<String, List<IndexShape>> missing = new TreeMap<>();
+        for (Map.Entry<String, ConcurrentHashMap<String, IndexShape>> entry : shapes.entrySet()) {
+            if (!existingCollections.contains(entry.getKey())) {
+                continue;
+            }
+            List<Document> indexes = database.getCollection(entry.getKey()).listIndexes().into(new ArrayList<>());
+            for (IndexShape shape : entry.getValue().values()) {
+                if (indexes.stream().noneMatch(shape::isServedBy)) {
+                    missing.computeIfAbsent(entry.getKey(), key -> new ArrayList<>()).add(shape);
+                }
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * @return The existing and missing indexes of every collection with recorded shapes
+     */
+    public List<Map<String, Object>> report(MongoDatabase database) {
+        Map<String, List<IndexShape>> missing = findMissing(database);
+        List<Map<String, Object>> report = new ArrayList<>();
+        for (String collection : new TreeMap<>(shapes).keySet()) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("collection", collection);
+            List<Object> existing = new ArrayList<>();
+            for (Document index : database.getCollection(collection).listIndexes()) {
+                existing.add(index.get("key"));
+            }
+            entry.put("indexes", existing);
+            List<Map<String, Object>> recommended = new ArrayList<>();
+            for (IndexShape shape : missing.getOrDefault(collection, Collections.emptyList())) {
+                recommended.add(shape.describe());
+            }
+            entry.put("missing", recommended);
+            report.add(entry);
+        }
+        return report;
+    }
+
+    /**
+     * Creates every missing index.
+     *
+     * @param database The database
+     * @return The keys of the indexes created
+     */
+    public List<Document> createMissing(MongoDatabase database) {
+        return createMissing(database, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates the most used missing indexes. Shapes served by an index created before them are skipped, and no
+     * collection is taken past 64 indexes.
+     *
+     * @param database The database
+     * @param limit    The most indexes to create
+     * @return The keys of the indexes created
+     */
+    public List<Document> createMissing(MongoDatabase database, int limit) {
+        List<IndexShape> candidates = new ArrayList<>();
+        for (List<IndexShape> missing : findMissing(database).values()) {
+            candidates.addAll(missing);
+        }
+        candidates.sort(Comparator.comparingLong(IndexShape::getUses).reversed());
+
+        Map<String, List<Document>> indexes = new LinkedHashMap<>();
+        List<Document> created = new ArrayList<>();
+        for (IndexShape shape : candidates) {
+            if (created.size() >= limit) {
+                break;
+            }
+            List<Document> existing = indexes.computeIfAbsent(shape.collection,
+                    name -> database.getCollection(name).listIndexes().into(new ArrayList<>()));
+            if (existing.stream().anyMatch(shape::isServedBy)) {
+                continue;
+            }
+            if (existing.size() >= MAX_INDEXES_PER_COLLECTION) {
+                LOG.warn("Not creating index {} on {}: the collection has {} indexes", shape.indexKeys().toJson(),
+                        shape.collection, existing.size());
+                continue;
+            }
+
+            IndexOptions options = new IndexOptions();
+            Document index = new Document("key", shape.indexKeys());
+            if (shape.caseInsensitive) {
+                options.collation(MongoFilter.CASE_INSENSITIVE);
+                index.append("collation", Document.parse(MongoFilter.CASE_INSENSITIVE.asDocument().toJson()));
+            }
+            try {
+                String name = database.getCollection(shape.collection).createIndex(shape.indexKeys(), options);
+                LOG.info("Created index {} on {} ({})", name, shape.collection, shape.source);
+                existing.add(index);
+                created.add(new Document("collection", shape.collection).append("keys", shape.indexKeys()));
+            } catch (Exception e) {
+                LOG.error("Could not create index {} on {}: {}", shape.indexKeys().toJson(), shape.collection,
+                        e.getMessage());
+            }
+        }
+        return created;
+    }
+
+    /**
+     * Creates the most used missing indexes on a background thread, unless a build is already running.
+     *
+     * @param database The database
+     * @param limit    The most indexes to create
+     * @return true if the build was started
+     */
+    public synchronized boolean createMissingInBackground(MongoDatabase database, int limit) {
+        if (builder != null && builder.isAlive()) {
+            return false;
+        }
+        // Index builds can take a while on large collections
+        builder = new Thread(() -> {
+            try {
+                createMissing(database, limit);
+            } catch (Exception e) {
+                LOG.error("Error creating indexes: " + e.getMessage());
+            }
+        }, "index-builder");
+        builder.setDaemon(true);
+        builder.start();
+        return true;
+    }
+}
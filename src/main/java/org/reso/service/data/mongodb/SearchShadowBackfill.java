@@ -0,0 +1,148 @@
+package org.reso.service.data.mongodb;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.reso.service.data.meta.FieldInfo;
+import org.reso.service.data.meta.ResourceInfo;
+import org.reso.service.data.meta.SearchShadowFields;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Gives the documents written before SEARCH_SHADOW_FIELDS was configured their {@link SearchShadowFields}, then marks
+ * the resource ready so contains() and endswith() are narrowed by them.
+ * <p>
+ * The fields each collection was backfilled for are kept in the search_shadow_state collection; a collection whose
+ * stored fields are the configured ones is ready at once. A document is only updated while its shadowed values are
+ * still the ones read, so a concurrent write, which brings its own shadow fields, is never overwritten with stale
+ * ones.
+ */
+public final class SearchShadowBackfill {
+    private static final Logger LOG = LoggerFactory.getLogger(SearchShadowBackfill.class);
+    private static final String STATE = "search_shadow_state";
+    private static final int BATCH_SIZE = 1000;
+
+    private final MongoDatabase database;
+    private final List<ResourceInfo> resources = new ArrayList<>();
+    private Thread worker = null;
+    private volatile boolean running = false;
+
+    public SearchShadowBackfill(MongoDatabase database, Collection<ResourceInfo> resources) {
+        this.database = database;
+        for (ResourceInfo resource : resources) {
+            if (resource.getTableName() != null && !SearchShadowFields.shadowedFields(resource).isEmpty()) {
+                this.resources.add(resource);
+            }
+        }
+    }
+
+    public synchronized void start() {
+        if (running || resources.isEmpty()) {
+            return;
+        }
+        running = true;
+        worker = new Thread(this::run, "search-shadow-backfill");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+            worker = null;
+        }
+    }
+
+    private void run() {
+        for (ResourceInfo resource : resources) {
+            if (!running) {
+                return;
+            }
+            try {
+                backfill(resource);
+            } catch (Exception e) {
+                LOG.error("Backfilling the search shadow fields of {} failed, its contains() and endswith() filters"
+                        + " stay unnarrowed: {}", resource.getResourceName(), e.getMessage());
+            }
+        }
+    }
+
+    private void backfill(ResourceInfo resource) {
+        List<FieldInfo> fields = SearchShadowFields.shadowedFields(resource);
+        List<String> names = new ArrayList<>();
+        for (FieldInfo field : fields) {
+            names.add(field.getFieldName());
+        }
+        Collections.sort(names);
+
+        String collectionName = resource.getTableName().toLowerCase(Locale.ENGLISH);
+        MongoCollection<Document> state = database.getCollection(STATE);
+        Document marker = state.find(Filters.eq("_id", collectionName)).first();
+        if (marker != null && names.equals(marker.getList("fields", String.class))) {
+            SearchShadowFields.markReady(resource);
+            return;
+        }
+
+        LOG.info("Backfilling the search shadow fields {} of {}", names, collectionName);
+        MongoCollection<Document> collection = database.getCollection(collectionName);
+        List<WriteModel<Document>> batch = new ArrayList<>(BATCH_SIZE);
+        long updated = 0;
+        try (MongoCursor<Document> cursor = collection.find()
+                .projection(Projections.include(names))
+                .batchSize(BATCH_SIZE)
+                .iterator()) {
+            while (cursor.hasNext()) {
+                if (!running) {
+                    return;
+                }
+                Document document = cursor.next();
+                List<Bson> unchanged = new ArrayList<>();
+                unchanged.add(Filters.eq("_id", document.get("_id")));
+                for (String name : names) {
+                    unchanged.add(Filters.eq(name, document.get(name)));
+                }
+                Document shadow = SearchShadowFields.shadowOf(resource, document);
+                batch.add(new UpdateOneModel<>(Filters.and(unchanged), shadow.isEmpty()
+                        ? Updates.unset(SearchShadowFields.ROOT)
+                        : Updates.set(SearchShadowFields.ROOT, shadow)));
+                if (batch.size() == BATCH_SIZE) {
+                    updated += write(collection, batch);
+                }
+            }
+        }
+        updated += write(collection, batch);
+
+        state.replaceOne(Filters.eq("_id", collectionName),
+                new Document("_id", collectionName).append("fields", names).append("completedAt", new Date()),
+                new ReplaceOptions().upsert(true));
+        SearchShadowFields.markReady(resource);
+        LOG.info("Backfilled the search shadow fields of {} documents in {}", updated, collectionName);
+    }
+
+    private static long write(MongoCollection<Document> collection, List<WriteModel<Document>> batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        long modified = collection.bulkWrite(batch, new BulkWriteOptions().ordered(false)).getModifiedCount();
+        batch.clear();
+        return modified;
+    }
+}
@@ -0,0 +1,215 @@
+package org.reso.service.data.mongodb;
+
+import com.mongodb.ExplainVerbosity;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.reso.service.data.meta.MongoFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the most recent queries that ran longer than SLOW_QUERY_MS (default 1000) in a ring buffer of
+ * SLOW_QUERY_LOG_SIZE entries (default 100).
+ * <p>
+ * Each slow query is explained again with executionStats on a background thread, so the entry shows how many
+ * keys and documents the plan examined and which plan won, without delaying the request that was slow.
+ */
+public final class SlowQueryLog {
+    private static final Logger LOG = LoggerFactory.getLogger(SlowQueryLog.class);
+    private static final SlowQueryLog INSTANCE = new SlowQueryLog(
+            Long.parseLong(System.getenv().getOrDefault("SLOW_QUERY_MS", "1000")),
+            Integer.parseInt(System.getenv().getOrDefault("SLOW_QUERY_LOG_SIZE", "100")));
+
+    private final long thresholdMillis;
+    private final Entry[] entries;
+    private long next = 0;
+
+    // One explain at a time; when queries are slow because the server is overloaded, explains are dropped
+    private final ThreadPoolExecutor explainer = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(16), runnable -> {
+                Thread thread = new Thread(runnable, "slow-query-explain");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    SlowQueryLog(long thresholdMillis, int capacity) {
+        this.thresholdMillis = thresholdMillis;
+        this.entries = new Entry[Math.max(capacity, 1)];
+    }
+
+    public static SlowQueryLog getInstance() {
+        return INSTANCE;
+    }
+
+    public long getThresholdMillis() {
+        return thresholdMillis;
+    }
+
+    /**
+     * One slow query. The explain fields are filled in when the background explain completes.
+     */
+    public static final class Entry {
+        final Instant time = Instant.now();
+        final String collection;
+        final String filter;
+        final String sort;
+        final String projection;
+        final int skip;
+        final int limit;
+        final long elapsedMillis;
+        volatile Long docsExamined = null;
+        volatile Long keysExamined = null;
+        volatile Long returned = null;
+        volatile String winningPlan = null;
+        volatile String explainError = null;
+
+        Entry(String collection, Bson filter, Bson sort, Bson projection, int skip, int limit, long elapsedMillis) {
+            this.collection = collection;
+            this.filter = filter == null ? null : filter.toString();
+            this.sort = sort == null ? null : sort.toString();
+            this.projection = projection == null ? null : projection.toString();
+            this.skip = skip;
+            this.limit = limit;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        Map<String, Object> describe() {
+            Map<String, Object> description = new LinkedHashMap<>();
+            description.put("time", time.toString());
+            description.put("collection", collection);
+            description.put("filter", filter);
+            description.put("sort", sort);
+            description.put("projection", projection);
+            description.put("skip", skip);
+            description.put("limit", limit);
+            description.put("elapsedMillis", elapsedMillis);
+            description.put("docsExamined", docsExamined);
+            description.put("keysExamined", keysExamined);
+            description.put("returned", returned);
+            description.put("winningPlan", winningPlan);
+            description.put("explainError", explainError);
+            return description;
+        }
+    }
+
+    /**
+     * Records a find if it was slow.
+     *
+     * @param collection    The collection queried
+     * @param filter        The filter, may be null
+     * @param sort          The sort, may be null
+     * @param projection    The projection, may be null
+     * @param skip          The number of documents skipped
+     * @param limit         The limit, 0 for none
+     * @param elapsedMillis How long the query took, including iterating the cursor
+     */
+    public void record(MongoCollection<?> collection, Bson filter, Bson sort, Bson projection, int skip, int limit,
+                       long elapsedMillis) {
+        if (elapsedMillis < thresholdMillis) {
+            return;
+        }
+
+        Entry entry = new Entry(collection.getNamespace().getCollectionName(), filter, sort, projection, skip, limit,
+                elapsedMillis);
+        synchronized (entries) {
+            entries[(int) (next++ % entries.length)] = entry;
+        }
+        LOG.warn("Slow query on {} took {} ms: {}", entry.collection, elapsedMillis, entry.filter);
+
+        try {
+            explainer.execute(() -> explain(collection, filter, sort, projection, skip, limit, entry));
+        } catch (RejectedExecutionException e) {
+            entry.explainError = "explain skipped, too many pending";
+        }
+    }
+
+    private static void explain(MongoCollection<?> collection, Bson filter, Bson sort, Bson projection, int skip,
+                                int limit, Entry entry) {
+        try {
+            FindIterable<Document> find = collection.withDocumentClass(Document.class)
+                    .find(filter == null ? new Document() : filter)
+                    .collation(MongoFilter.collationOf(filter))
+                    .skip(skip)
+                    .limit(limit);
+            if (sort != null) {
+                find = find.sort(sort);
+            }
+            if (projection != null) {
+                find = find.projection(projection);
+            }
+
+            Document explain = find.explain(ExplainVerbosity.EXECUTION_STATS);
+            Document stats = (Document) explain.get("executionStats");
+            if (stats != null) {
+                entry.docsExamined = toLong(stats.get("totalDocsExamined"));
+                entry.keysExamined = toLong(stats.get("totalKeysExamined"));
+                entry.returned = toLong(stats.get("nReturned"));
+            }
+            Document planner = (Document) explain.get("queryPlanner");
+            if (planner != null) {
+                entry.winningPlan = describePlan((Document) planner.get("winningPlan"));
+            }
+        } catch (Exception e) {
+            entry.explainError = e.getMessage();
+            LOG.debug("Explain of slow query failed", e);
+        }
+    }
+
+    private static Long toLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : null;
+    }
+
+    // LIMIT <- FETCH <- IXSCAN ListPrice_1
+    static String describePlan(Document stage) {
+        StringBuilder plan = new StringBuilder();
+        while (stage != null) {
+            // Newer servers wrap the classic plan in queryPlan
+            if (stage.containsKey("queryPlan")) {
+                stage = (Document) stage.get("queryPlan");
+                continue;
+            }
+            if (plan.length() > 0) {
+                plan.append(" <- ");
+            }
+            plan.append(stage.getString("stage"));
+            if (stage.containsKey("indexName")) {
+                plan.append(' ').append(stage.getString("indexName"));
+            }
+            Object input = stage.get("inputStage");
+            if (input == null && stage.get("inputStages") instanceof List) {
+                List<?> inputs = (List<?>) stage.get("inputStages");
+                input = inputs.isEmpty() ? null : inputs.get(0);
+                if (inputs.size() > 1) {
+                    plan.append(" (").append(inputs.size()).append(" inputs)");
+                }
+            }
+            stage = (Document) input;
+        }
+        return plan.toString();
+    }
+
+    /**
+     * @return The recorded slow queries, newest first
+     */
+    public List<Map<String, Object>> getEntries() {
+        List<Map<String, Object>> result = new ArrayList<>();
+        synchronized (entries) {
+            for (long i = next - 1; i >= 0 && i >= next - entries.length; i--) {
+                result.add(entries[(int) (i % entries.length)].describe());
+            }
+        }
+        return result;
+    }
+}
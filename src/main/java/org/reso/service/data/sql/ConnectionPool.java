@@ -0,0 +1,418 @@
+package org.reso.service.data.sql;
+
+import org.reso.service.metrics.Histogram;
+import org.reso.service.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded pool of JDBC connections for the MySQL and PostgreSQL backends.
+ * <p>
+ * Connections are handed out as proxies whose close() returns them to the pool. Idle connections are validated
+ * before reuse once they have been idle for a while, and connections held longer than the leak threshold are
+ * reported with the stack trace of the code that borrowed them. Reads can be routed to a replica with
+ * JDBC_REPLICA_URL; without one they share the primary pool.
+ * <p>
+ * Each connection keeps its prepared statements in a {@link StatementCache}, so prepareStatement() with SQL the
+ * connection has seen before hands back the existing statement.
+ * <p>
+ * Configuration: JDBC_URL, DB_USERNAME, DB_PASSWORD, JDBC_REPLICA_URL, JDBC_POOL_SIZE (10),
+ * JDBC_POOL_TIMEOUT_MS (5000), JDBC_VALIDATE_IDLE_MS (30000), JDBC_LEAK_THRESHOLD_MS (60000),
+ * JDBC_STATEMENT_CACHE_SIZE (64, 0 to disable). MySQL URLs get useCursorFetch=true unless they set it.
+ */
+public final class ConnectionPool {
+    private static final Logger LOG = LoggerFactory.getLogger(ConnectionPool.class);
+
+    private static final Map<String, String> ENV = System.getenv();
+    private static final int POOL_SIZE = Integer.parseInt(ENV.getOrDefault("JDBC_POOL_SIZE", "10"));
+    private static final long ACQUIRE_TIMEOUT_MS = Long.parseLong(ENV.getOrDefault("JDBC_POOL_TIMEOUT_MS", "5000"));
+    private static final long VALIDATE_IDLE_MS = Long.parseLong(ENV.getOrDefault("JDBC_VALIDATE_IDLE_MS", "30000"));
+    private static final long LEAK_THRESHOLD_MS =
+            Long.parseLong(ENV.getOrDefault("JDBC_LEAK_THRESHOLD_MS", "60000"));
+    private static final int STATEMENT_CACHE_SIZE =
+            Integer.parseInt(ENV.getOrDefault("JDBC_STATEMENT_CACHE_SIZE", "64"));
+    private static final int NETWORK_TIMEOUT_MS = 5000;
+
+    // Shared by every connection for setNetworkTimeout, instead of an executor per connection. Both are started with
+    // the first pool and stopped by shutdown()
+    private static volatile ExecutorService timeoutExecutor;
+    private static ScheduledExecutorService leakDetector;
+
+    private static volatile ConnectionPool primary;
+    private static volatile ConnectionPool replica;
+
+    private final String name;
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxSize;
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PhysicalConnection> idle = new LinkedBlockingDeque<>();
+    private final Map<PhysicalConnection, Lease> leased = new ConcurrentHashMap<>();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder leaks = new LongAdder();
+    private final LongAdder statementHits = new LongAdder();
+    private final LongAdder statementMisses = new LongAdder();
+    private final Histogram acquireTime;
+    private volatile boolean closed = false;
+
+    private static final class PhysicalConnection {
+        final Connection connection;
+        final StatementCache statements;
+        long lastUsedMillis = System.currentTimeMillis();
+
+        PhysicalConnection(Connection connection, StatementCache statements) {
+            this.connection = connection;
+            this.statements = statements;
+        }
+    }
+
+    private static final class Lease {
+        final long borrowedMillis = System.currentTimeMillis();
+        final Thread thread = Thread.currentThread();
+        final Throwable borrowedAt = new Throwable("Connection borrowed here");
+        volatile boolean reported = false;
+    }
+
+    ConnectionPool(String name, String url, String user, String password, int maxSize) {
+        this.name = name;
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.permits = new Semaphore(maxSize, true);
+
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        this.acquireTime = metrics.histogram("reso_jdbc_acquire_seconds", "Time spent waiting for a pooled connection",
+                "pool", name);
+        metrics.gauge("reso_jdbc_connections_active", "Pooled connections in use", leased::size, "pool", name);
+        metrics.gauge("reso_jdbc_connections_idle", "Pooled connections idle", idle::size, "pool", name);
+        metrics.gauge("reso_jdbc_connections_created", "Physical connections opened", created::sum, "pool", name);
+        metrics.gauge("reso_jdbc_acquire_timeouts", "Connection requests that timed out", timeouts::sum,
+                "pool", name);
+        metrics.gauge("reso_jdbc_leaks_detected", "Connections held past the leak threshold", leaks::sum,
+                "pool", name);
+        metrics.gauge("reso_jdbc_statement_cache_hits", "Prepared statements reused", statementHits::sum,
+                "pool", name);
+        metrics.gauge("reso_jdbc_statement_cache_misses", "Prepared statements created", statementMisses::sum,
+                "pool", name);
+    }
+
+    /**
+     * @return The pool for writes, and for reads when no replica is configured
+     */
+    public static ConnectionPool primary() {
+        if (primary == null) {
+            synchronized (ConnectionPool.class) {
+                if (primary == null) {
+                    primary = create("primary", ENV.getOrDefault("JDBC_URL", "jdbc:mysql://mysql-db:3306/reso"));
+                }
+            }
+        }
+        return primary;
+    }
+
+    /**
+     * @return The replica pool when JDBC_REPLICA_URL is set, otherwise the primary pool
+     */
+    public static ConnectionPool forReads() {
+        String replicaUrl = ENV.getOrDefault("JDBC_REPLICA_URL", "");
+        if (replicaUrl.isEmpty()) {
+            return primary();
+        }
+        if (replica == null) {
+            synchronized (ConnectionPool.class) {
+                if (replica == null) {
+                    replica = create("replica", replicaUrl);
+                }
+            }
+        }
+        return replica;
+    }
+
+    // Called holding the class lock
+    private static ConnectionPool create(String name, String url) {
+        if (timeoutExecutor == null) {
+            timeoutExecutor = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "jdbc-network-timeout");
+                thread.setDaemon(true);
+                return thread;
+            });
+            leakDetector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "jdbc-leak-detector");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        url = withCursorFetch(url);
+        ConnectionPool pool = new ConnectionPool(name, url, ENV.getOrDefault("DB_USERNAME", "root"),
+                ENV.getOrDefault("DB_PASSWORD", "root"), POOL_SIZE);
+        leakDetector.scheduleWithFixedDelay(pool::detectLeaks, LEAK_THRESHOLD_MS, Math.max(1000, LEAK_THRESHOLD_MS / 4),
+                TimeUnit.MILLISECONDS);
+        LOG.info("JDBC pool '{}' for {} with up to {} connections", name, url.replaceAll("//[^@/]+@", "//****@"),
+                POOL_SIZE);
+        return pool;
+    }
+
+    /**
+     * Connector/J ignores the fetch size of a {@link SqlCursor} and reads the whole result unless useCursorFetch is
+     * on. A useCursorFetch the URL already sets, in any case and to any value, is left as it is.
+     */
+    static String withCursorFetch(String url) {
+        if (!url.startsWith("jdbc:mysql:") || hasParameter(url, "useCursorFetch")) {
+            return url;
+        }
+        return url + (url.contains("?") ? "&" : "?") + "useCursorFetch=true";
+    }
+
+    private static boolean hasParameter(String url, String name) {
+        int query = url.indexOf('?');
+        if (query < 0) {
+            return false;
+        }
+        for (String parameter : url.substring(query + 1).split("&")) {
+            int equals = parameter.indexOf('=');
+            if ((equals < 0 ? parameter : parameter.substring(0, equals)).trim().equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Closes both pools and stops their threads, e.g. when the web application is stopped.
+     */
+    public static synchronized void shutdown() {
+        if (primary != null) {
+            primary.close();
+            primary = null;
+        }
+        if (replica != null) {
+            replica.close();
+            replica = null;
+        }
+        if (timeoutExecutor != null) {
+            leakDetector.shutdownNow();
+            timeoutExecutor.shutdownNow();
+            leakDetector = null;
+            timeoutExecutor = null;
+        }
+    }
+
+    /**
+     * Borrows a connection; close it to give it back.
+     *
+     * @throws SQLTimeoutException If no connection frees up within JDBC_POOL_TIMEOUT_MS
+     */
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool '" + name + "' is closed");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(ACQUIRE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                timeouts.increment();
+                throw new SQLTimeoutException("No connection available in pool '" + name + "' after "
+                        + ACQUIRE_TIMEOUT_MS + " ms (" + maxSize + " in use)");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a connection", e);
+        }
+
+        try {
+            PhysicalConnection physical = takeIdle();
+            if (physical == null) {
+                physical = open();
+            }
+            leased.put(physical, new Lease());
+            acquireTime.observeNanos(System.nanoTime() - start);
+            return wrap(physical);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private PhysicalConnection takeIdle() {
+        PhysicalConnection physical;
+        // Most recently used first, so surplus connections age out at the tail
+        while ((physical = idle.pollFirst()) != null) {
+            if (System.currentTimeMillis() - physical.lastUsedMillis < VALIDATE_IDLE_MS || isValid(physical)) {
+                return physical;
+            }
+            discard(physical);
+        }
+        return null;
+    }
+
+    private static boolean isValid(PhysicalConnection physical) {
+        try {
+            return physical.connection.isValid(2);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private PhysicalConnection open() throws SQLException {
+        Connection connection = DriverManager.getConnection(url, user, password);
+        // Null once shutdown() has run
+        ExecutorService executor = timeoutExecutor;
+        if (executor != null) {
+            try {
+                connection.setNetworkTimeout(executor, NETWORK_TIMEOUT_MS);
+            } catch (SQLException | AbstractMethodError e) {
+                LOG.debug("Driver does not support network timeouts: {}", e.getMessage());
+            }
+        }
+        created.increment();
+        StatementCache statements = STATEMENT_CACHE_SIZE > 0
+                ? new StatementCache(connection, STATEMENT_CACHE_SIZE, statementHits, statementMisses)
+                : null;
+        return new PhysicalConnection(connection, statements);
+    }
+
+    private void release(PhysicalConnection physical) {
+        if (leased.remove(physical) == null) {
+            return; // Already returned
+        }
+        try {
+            boolean reusable = !closed && !physical.connection.isClosed();
+            if (reusable) {
+                if (!physical.connection.getAutoCommit()) {
+                    physical.connection.rollback();
+                    physical.connection.setAutoCommit(true);
+                }
+                if (physical.connection.isReadOnly()) {
+                    physical.connection.setReadOnly(false);
+                }
+                physical.lastUsedMillis = System.currentTimeMillis();
+                idle.offerFirst(physical);
+            } else {
+                discard(physical);
+            }
+        } catch (SQLException e) {
+            LOG.warn("Discarding connection from pool '{}': {}", name, e.getMessage());
+            discard(physical);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private static void discard(PhysicalConnection physical) {
+        try {
+            if (physical.statements != null) {
+                physical.statements.clear();
+            }
+            physical.connection.close();
+        } catch (SQLException e) {
+            LOG.debug("Error closing discarded connection: {}", e.getMessage());
+        }
+    }
+
+    private void detectLeaks() {
+        long now = System.currentTimeMillis();
+        for (Lease lease : leased.values()) {
+            if (!lease.reported && now - lease.borrowedMillis > LEAK_THRESHOLD_MS) {
+                lease.reported = true;
+                leaks.increment();
+                LOG.warn("Connection from pool '{}' held by {} for {} ms, possible leak", name, lease.thread.getName(),
+                        now - lease.borrowedMillis, lease.borrowedAt);
+            }
+        }
+    }
+
+    void close() {
+        closed = true;
+        PhysicalConnection physical;
+        while ((physical = idle.pollFirst()) != null) {
+            discard(physical);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getActive() {
+        return leased.size();
+    }
+
+    public int getIdle() {
+        return idle.size();
+    }
+
+    private Connection wrap(PhysicalConnection physical) {
+        return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new PooledHandler(physical));
+    }
+
+    /**
+     * Forwards everything to the physical connection except close(), which returns it to the pool once.
+     */
+    private final class PooledHandler implements InvocationHandler {
+        private final PhysicalConnection physical;
+        private boolean returned = false;
+
+        PooledHandler(PhysicalConnection physical) {
+            this.physical = physical;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        release(physical);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || physical.connection.isClosed();
+                case "unwrap":
+                    if (args != null && ((Class<?>) args[0]).isInstance(proxy)) {
+                        return proxy;
+                    }
+                    break;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled(" + name + ")" + physical.connection;
+                default:
+                    break;
+            }
+            if (returned) {
+                throw new SQLException("Connection has been returned to pool '" + name + "'");
+            }
+            if ("prepareStatement".equals(method.getName()) && args.length == 1 && physical.statements != null) {
+                return physical.statements.prepare((String) args[0], (Connection) proxy);
+            }
+            try {
+                return method.invoke(physical.connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
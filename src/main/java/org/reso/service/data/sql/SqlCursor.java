@@ -0,0 +1,90 @@
+package org.reso.service.data.sql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * A forward-only, read-only query result. Reads of more than SQL_FETCH_SIZE (500) rows, such as a large page or a
+ * whole table, are streamed: the driver fetches a batch at a time, so only one batch is in memory instead of the
+ * full result. Smaller reads are fetched in one round trip as before.
+ * <p>
+ * PostgreSQL only honours the fetch size inside a transaction, so a streamed cursor turns autocommit off and turns
+ * it back on when it is closed, before the connection goes back to the pool. MySQL needs useCursorFetch=true on the
+ * JDBC URL, which {@link ConnectionPool} adds to MySQL URLs that do not set it.
+ */
+public final class SqlCursor implements AutoCloseable {
+    public static final int FETCH_SIZE = Integer.parseInt(System.getenv().getOrDefault("SQL_FETCH_SIZE", "500"));
+
+    private final Connection connection;
+    private final PreparedStatement statement;
+    private final ResultSet resultSet;
+    private final boolean restoreAutoCommit;
+
+    private SqlCursor(Connection connection, PreparedStatement statement, ResultSet resultSet,
+                      boolean restoreAutoCommit) {
+        this.connection = connection;
+        this.statement = statement;
+        this.resultSet = resultSet;
+        this.restoreAutoCommit = restoreAutoCommit;
+    }
+
+    /**
+     * Runs the query. The connection stays with the caller and must stay open until the cursor is closed.
+     *
+     * @param maxRows The most rows the query returns, 0 or less when it is not bounded
+     */
+    public static SqlCursor open(Connection connection, SqlQuery query, int maxRows) throws SQLException {
+        boolean streamed = maxRows <= 0 || maxRows > FETCH_SIZE;
+        boolean restoreAutoCommit = streamed && connection.getAutoCommit() && isPostgres(connection);
+        if (restoreAutoCommit) {
+            connection.setAutoCommit(false);
+        }
+        PreparedStatement statement = null;
+        try {
+            statement = query.prepare(connection);
+            // Statements are cached per connection, so a bounded read resets what a streamed one set
+            statement.setFetchSize(streamed ? FETCH_SIZE : 0);
+            return new SqlCursor(connection, statement, statement.executeQuery(), restoreAutoCommit);
+        } catch (SQLException | RuntimeException e) {
+            try {
+                if (statement != null) {
+                    statement.close();
+                }
+            } finally {
+                if (restoreAutoCommit) {
+                    connection.setAutoCommit(true);
+                }
+            }
+            throw e;
+        }
+    }
+
+    private static boolean isPostgres(Connection connection) throws SQLException {
+        return connection.getMetaData().getDatabaseProductName().toLowerCase().contains("postgres");
+    }
+
+    public boolean next() throws SQLException {
+        return resultSet.next();
+    }
+
+    public ResultSet getResultSet() {
+        return resultSet;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try {
+            resultSet.close();
+        } finally {
+            try {
+                statement.close();
+            } finally {
+                if (restoreAutoCommit && !connection.isClosed()) {
+                    connection.setAutoCommit(true);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package org.reso.service.data.sql;
+
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.data.EntityIterator;
+import org.apache.olingo.commons.api.data.Property;
+import org.apache.olingo.commons.api.ex.ODataRuntimeException;
+import org.reso.service.data.common.CommonDataProcessing;
+import org.reso.service.data.common.ResultSetEntityMapper;
+import org.reso.service.data.meta.ResourceInfo;
+import org.reso.service.metrics.StageTimer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+/**
+ * Hands the rows of a {@link SqlCursor} to the streaming serializer one entity at a time. Rows are mapped a fetch-sized
+ * batch ahead, so the enum values of a batch are read with one query.
+ * <p>
+ * The iterator owns the cursor and its connection and closes both once the last row has been read. A response that
+ * is abandoned part way, e.g. when the client disconnects, is closed by {@link #closeAbandoned()} at the end of the
+ * request.
+ */
+public final class SqlEntityIterator extends EntityIterator implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(SqlEntityIterator.class);
+    private static final ThreadLocal<SqlEntityIterator> OPEN = new ThreadLocal<>();
+    private static final int BATCH_SIZE = Math.max(1, SqlCursor.FETCH_SIZE);
+
+    private final Connection connection;
+    private final SqlCursor cursor;
+    private final ResourceInfo resource;
+    private final ResultSetEntityMapper mapper;
+    private final int limit;
+    private final boolean keyset;
+    private Integer count = null;
+    private URI next = null;
+    private Function<String, URI> skipTokenLink = null;
+    private String nextSkipToken = null;
+    private Entity last = null;
+    private int returned = 0;
+    private final ArrayDeque<Entity> buffer = new ArrayDeque<>();
+    private boolean closed = false;
+    private long findNanos = 0;
+    private long mapNanos = 0;
+
+    /**
+     * @param limit  The page size; with {@code keyset} the cursor reads one row more to tell whether a next page
+     *               exists
+     * @param keyset The page is read by primary key and its next link carries a $skiptoken
+     */
+    public SqlEntityIterator(Connection connection, SqlCursor cursor, ResourceInfo resource, int limit,
+                             boolean keyset) throws SQLException {
+        this.connection = connection;
+        this.cursor = cursor;
+        this.resource = resource;
+        this.mapper = ResultSetEntityMapper.compile(resource, cursor.getResultSet().getMetaData());
+        this.limit = limit;
+        this.keyset = keyset;
+        OPEN.set(this);
+    }
+
+    public void setCount(Integer count) {
+        this.count = count;
+    }
+
+    public void setNext(URI next) {
+        this.next = next;
+    }
+
+    /**
+     * @param skipTokenLink Builds the next link from the primary key of the last row of a keyset page
+     */
+    public void setSkipTokenLink(Function<String, URI> skipTokenLink) {
+        this.skipTokenLink = skipTokenLink;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (buffer.isEmpty() && !closed) {
+            fill();
+        }
+        return !buffer.isEmpty();
+    }
+
+    @Override
+    public Entity next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return buffer.poll();
+    }
+
+    // Reads the next batch of rows and resolves their enum values with one query
+    private void fill() {
+        List<Entity> batch = new ArrayList<>();
+        boolean exhausted = false;
+        try {
+            while (batch.size() < BATCH_SIZE) {
+                long findStart = System.nanoTime();
+                boolean row = cursor.next();
+                findNanos += System.nanoTime() - findStart;
+                if (row && keyset && returned == limit) {
+                    Property key = last.getProperty(resource.getPrimaryKeyName());
+                    nextSkipToken = key == null || key.getValue() == null ? null : key.getValue().toString();
+                    row = false;
+                }
+                if (!row) {
+                    exhausted = true;
+                    break;
+                }
+                long mapStart = System.nanoTime();
+                last = mapper.mapRow(cursor.getResultSet(), null);
+                batch.add(last);
+                returned++;
+                mapNanos += System.nanoTime() - mapStart;
+            }
+        } catch (SQLException e) {
+            close();
+            throw new ODataRuntimeException("Error reading " + resource.getResourceName(), e);
+        }
+        long enumStart = System.nanoTime();
+        CommonDataProcessing.resolveEnums(connection, resource, batch);
+        mapNanos += System.nanoTime() - enumStart;
+        buffer.addAll(batch);
+        if (exhausted) {
+            close();
+        }
+    }
+
+    @Override
+    public Integer getCount() {
+        return count;
+    }
+
+    /**
+     * Known once the rows have been read, which is when the serializer writes the next link.
+     */
+    @Override
+    public URI getNext() {
+        if (!keyset) {
+            return next;
+        }
+        return nextSkipToken == null || skipTokenLink == null ? null : skipTokenLink.apply(nextSkipToken);
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        // Summed over the rows, so a page adds one sample to each stage's histogram
+        StageTimer.add(StageTimer.FIND, findNanos);
+        StageTimer.add(StageTimer.MAP, mapNanos);
+        if (OPEN.get() == this) {
+            OPEN.remove();
+        }
+        try {
+            cursor.close();
+        } catch (SQLException e) {
+            LOG.debug("Error closing cursor: {}", e.getMessage());
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            LOG.debug("Error returning connection: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Closes the iterator the current request left unfinished, if any.
+     */
+    public static void closeAbandoned() {
+        SqlEntityIterator iterator = OPEN.get();
+        if (iterator != null) {
+            iterator.close();
+        }
+    }
+}
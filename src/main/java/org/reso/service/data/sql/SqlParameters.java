@@ -0,0 +1,105 @@
+package org.reso.service.data.sql;
+
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind;
+import org.apache.olingo.commons.api.edm.FullQualifiedName;
+import org.apache.olingo.server.api.uri.queryoption.expression.Literal;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Converts OData literals into JDBC parameter values and binds them.
+ */
+public final class SqlParameters {
+    private SqlParameters() {
+    }
+
+    /**
+     * @return The literal as a String, Long, BigDecimal, Boolean, OffsetDateTime, LocalDate, LocalTime or UUID, ready
+     * for {@link PreparedStatement#setObject}. Temporal values and GUIDs are typed, as PostgreSQL does not compare
+     * them with a bound varchar.
+     */
+    public static Object literalValue(Literal literal) {
+        String text = literal.getText();
+        FullQualifiedName type = literal.getType().getFullQualifiedName();
+        if (type.equals(EdmPrimitiveTypeKind.String.getFullQualifiedName())) {
+            return unquote(text);
+        }
+        if (type.equals(EdmPrimitiveTypeKind.Boolean.getFullQualifiedName())) {
+            return Boolean.valueOf(text);
+        }
+        if (isInteger(type)) {
+            return Long.valueOf(text);
+        }
+        if (type.equals(EdmPrimitiveTypeKind.Decimal.getFullQualifiedName())
+                || type.equals(EdmPrimitiveTypeKind.Double.getFullQualifiedName())
+                || type.equals(EdmPrimitiveTypeKind.Single.getFullQualifiedName())) {
+            return new BigDecimal(text);
+        }
+        try {
+            if (type.equals(EdmPrimitiveTypeKind.DateTimeOffset.getFullQualifiedName())) {
+                return OffsetDateTime.parse(text);
+            }
+            if (type.equals(EdmPrimitiveTypeKind.Date.getFullQualifiedName())) {
+                return LocalDate.parse(text);
+            }
+            if (type.equals(EdmPrimitiveTypeKind.TimeOfDay.getFullQualifiedName())) {
+                return LocalTime.parse(text);
+            }
+            if (type.equals(EdmPrimitiveTypeKind.Guid.getFullQualifiedName())) {
+                return UUID.fromString(text);
+            }
+        } catch (DateTimeParseException | IllegalArgumentException e) {
+            // Compared as its text, as before
+        }
+        return text;
+    }
+
+    /**
+     * @return The value of a key predicate or $skiptoken, typed after the field it is compared with
+     */
+    public static Object keyValue(String text, FullQualifiedName type) {
+        if (text.length() >= 2 && text.startsWith("'") && text.endsWith("'")) {
+            return unquote(text);
+        }
+        if (type != null && isInteger(type)) {
+            return Long.valueOf(text);
+        }
+        return text;
+    }
+
+    static boolean isInteger(FullQualifiedName type) {
+        return type.equals(EdmPrimitiveTypeKind.Int64.getFullQualifiedName())
+                || type.equals(EdmPrimitiveTypeKind.Int32.getFullQualifiedName())
+                || type.equals(EdmPrimitiveTypeKind.Int16.getFullQualifiedName())
+                || type.equals(EdmPrimitiveTypeKind.Byte.getFullQualifiedName())
+                || type.equals(EdmPrimitiveTypeKind.SByte.getFullQualifiedName());
+    }
+
+    private static String unquote(String text) {
+        if (text.length() >= 2 && text.startsWith("'") && text.endsWith("'")) {
+            return text.substring(1, text.length() - 1).replace("''", "'");
+        }
+        return text;
+    }
+
+    /**
+     * Escapes the LIKE wildcards in a value, with backslash as the escape character of both MySQL and PostgreSQL.
+     */
+    public static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    public static void bind(PreparedStatement statement, List<Object> parameters) throws SQLException {
+        for (int i = 0; i < parameters.size(); i++) {
+            statement.setObject(i + 1, parameters.get(i));
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package org.reso.service.data.sql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A SQL statement with '?' placeholders and the values bound to them, in order.
+ */
+public final class SqlQuery {
+    private final String sql;
+    private final List<Object> parameters;
+
+    public SqlQuery(String sql, List<Object> parameters) {
+        this.sql = sql;
+        this.parameters = Collections.unmodifiableList(parameters);
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public List<Object> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Prepares the statement and binds the parameters. Pooled connections hand out cached statements, so the same
+     * SQL text is only parsed once per connection.
+     */
+    public PreparedStatement prepare(Connection connection) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sql);
+        try {
+            SqlParameters.bind(statement, parameters);
+        } catch (SQLException | RuntimeException e) {
+            statement.close();
+            throw e;
+        }
+        return statement;
+    }
+
+    @Override
+    public String toString() {
+        return sql + " " + parameters;
+    }
+}
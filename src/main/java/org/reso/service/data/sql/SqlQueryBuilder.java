@@ -0,0 +1,214 @@
+package org.reso.service.data.sql;
+
+import org.apache.olingo.commons.api.edm.FullQualifiedName;
+import org.apache.olingo.commons.api.http.HttpStatusCode;
+import org.apache.olingo.server.api.ODataApplicationException;
+import org.apache.olingo.server.api.uri.UriParameter;
+import org.apache.olingo.server.api.uri.UriResource;
+import org.apache.olingo.server.api.uri.UriResourcePrimitiveProperty;
+import org.apache.olingo.server.api.uri.queryoption.FilterOption;
+import org.apache.olingo.server.api.uri.queryoption.OrderByItem;
+import org.apache.olingo.server.api.uri.queryoption.OrderByOption;
+import org.apache.olingo.server.api.uri.queryoption.expression.Expression;
+import org.apache.olingo.server.api.uri.queryoption.expression.ExpressionVisitException;
+import org.apache.olingo.server.api.uri.queryoption.expression.Member;
+import org.reso.service.data.meta.FieldInfo;
+import org.reso.service.data.meta.MySQLFilterExpressionVisitor;
+import org.reso.service.data.meta.PostgreSQLFilterExpressionVisitor;
+import org.reso.service.data.meta.ResourceInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Builds the SELECT and count statements of a collection request for MySQL or PostgreSQL.
+ * <p>
+ * Every value from the request is bound as a parameter, LIMIT and OFFSET included, so a query shape has a single
+ * SQL text the database can keep a plan for. Pages are either offset based or, with {@link #after(String)}, keyset
+ * based on the primary key.
+ */
+public final class SqlQueryBuilder {
+    public enum Dialect {
+        MYSQL, POSTGRES;
+
+        public static Dialect of(String dbType) {
+            return "postgres".equalsIgnoreCase(dbType) ? POSTGRES : MYSQL;
+        }
+    }
+
+    private final ResourceInfo resource;
+    private final Dialect dialect;
+    private String where = null;
+    private final List<Object> whereParameters = new ArrayList<>();
+    private final List<String> orderBy = new ArrayList<>();
+    private Object afterKey = null;
+    private int limit = -1;
+    private int offset = 0;
+
+    public SqlQueryBuilder(ResourceInfo resource, Dialect dialect) {
+        this.resource = resource;
+        this.dialect = dialect;
+    }
+
+    public SqlQueryBuilder filter(FilterOption filterOption) throws ExpressionVisitException, ODataApplicationException {
+        if (filterOption != null) {
+            List<Object> parameters = new ArrayList<>();
+            where = filterOption.getExpression().accept(dialect == Dialect.POSTGRES
+                    ? new PostgreSQLFilterExpressionVisitor(resource, parameters)
+                    : new MySQLFilterExpressionVisitor(resource, parameters));
+            whereParameters.addAll(parameters);
+        }
+        return this;
+    }
+
+    /**
+     * Orders by the primitive properties of $orderby; anything else is rejected, since it would be put in the SQL
+     * text.
+     */
+    public SqlQueryBuilder orderBy(OrderByOption orderByOption) throws ODataApplicationException {
+        if (orderByOption == null) {
+            return this;
+        }
+        for (OrderByItem item : orderByOption.getOrders()) {
+            Expression expression = item.getExpression();
+            UriResource property = expression instanceof Member
+                    ? ((Member) expression).getResourcePath().getUriResourceParts().get(0)
+                    : null;
+            if (!(property instanceof UriResourcePrimitiveProperty)) {
+                throw new ODataApplicationException("Only properties can be used in $orderby",
+                        HttpStatusCode.NOT_IMPLEMENTED.getStatusCode(), Locale.ENGLISH);
+            }
+            String name = ((UriResourcePrimitiveProperty) property).getProperty().getName();
+            orderBy.add(column(name) + (item.isDescending() ? " DESC" : ""));
+        }
+        return this;
+    }
+
+    /**
+     * Keyset pagination: only rows whose primary key sorts after {@code skipToken}, in primary key order.
+     *
+     * @param skipToken The primary key of the last row of the previous page, or null for the first page
+     */
+    public SqlQueryBuilder after(String skipToken) throws ODataApplicationException {
+        orderBy.clear();
+        orderBy.add(column(resource.getPrimaryKeyName()));
+        if (skipToken != null) {
+            try {
+                afterKey = SqlParameters.keyValue(skipToken, fieldType(resource.getPrimaryKeyName()));
+            } catch (NumberFormatException e) {
+                throw new ODataApplicationException("Invalid $skiptoken", HttpStatusCode.BAD_REQUEST.getStatusCode(),
+                        Locale.ENGLISH);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Applies $top, $skip, $orderby and $skiptoken. Without $orderby or $skip the page is read by primary key: an
+     * index range scan instead of an OFFSET that reads and discards every earlier row. Keyset pages ask for one row
+     * more than $top, which tells whether there is a next page. A $skiptoken only continues such a page, so it is
+     * rejected with $orderby or $skip rather than ignored.
+     *
+     * @param top       Rows in the page
+     * @param skip      The $skip value, 0 without one
+     * @param skipToken The $skiptoken value, or null
+     * @return Whether the page is read by primary key
+     */
+    public boolean paginate(int top, int skip, OrderByOption orderByOption, String skipToken)
+            throws ODataApplicationException {
+        boolean keyset = top > 0 && skip == 0 && resource.getPrimaryKeyName() != null
+                && (orderByOption == null || orderByOption.getOrders().isEmpty());
+        if (keyset) {
+            after(skipToken).page(top + 1, 0);
+        } else if (skipToken != null) {
+            throw new ODataApplicationException("$skiptoken cannot be combined with $orderby or $skip",
+                    HttpStatusCode.BAD_REQUEST.getStatusCode(), Locale.ENGLISH);
+        } else {
+            orderBy(orderByOption).page(top, skip);
+        }
+        return keyset;
+    }
+
+    /**
+     * @param limit  Rows to return; 0 or less for no limit
+     * @param offset Rows to skip
+     */
+    public SqlQueryBuilder page(int limit, int offset) {
+        this.limit = limit;
+        this.offset = offset;
+        return this;
+    }
+
+    public SqlQuery count() {
+        StringBuilder sql = new StringBuilder("SELECT count(*) AS rowcount FROM ").append(resource.getTableName());
+        List<Object> parameters = new ArrayList<>();
+        appendWhere(sql, parameters, false);
+        return new SqlQuery(sql.toString(), parameters);
+    }
+
+    public SqlQuery select() {
+        StringBuilder sql = new StringBuilder("SELECT * FROM ").append(resource.getTableName());
+        List<Object> parameters = new ArrayList<>();
+        appendWhere(sql, parameters, true);
+        if (!orderBy.isEmpty()) {
+            sql.append(" ORDER BY ").append(String.join(", ", orderBy));
+        }
+        if (limit > 0) {
+            // MySQL's "LIMIT offset, count" form is easy to get backwards; both dialects accept LIMIT ... OFFSET
+            sql.append(" LIMIT ? OFFSET ?");
+            parameters.add(limit);
+            parameters.add(offset);
+        } else if (offset > 0) {
+            // MySQL has no OFFSET without LIMIT; its documented workaround is the largest LIMIT
+            sql.append(dialect == Dialect.POSTGRES ? " OFFSET ?" : " LIMIT 18446744073709551615 OFFSET ?");
+            parameters.add(offset);
+        }
+        return new SqlQuery(sql.toString(), parameters);
+    }
+
+    private void appendWhere(StringBuilder sql, List<Object> parameters, boolean withKeyset) {
+        boolean keyset = withKeyset && afterKey != null;
+        if (where == null && !keyset) {
+            return;
+        }
+        sql.append(" WHERE ");
+        if (where != null) {
+            sql.append(keyset ? "(" + where + ")" : where);
+            parameters.addAll(whereParameters);
+        }
+        if (keyset) {
+            sql.append(where != null ? " AND " : "").append(column(resource.getPrimaryKeyName())).append(" > ?");
+            parameters.add(afterKey);
+        }
+    }
+
+    private String column(String name) {
+        return resource.getTableName() + "." + name;
+    }
+
+    private FullQualifiedName fieldType(String name) {
+        for (FieldInfo field : resource.getFieldList()) {
+            if (name.equals(field.getFieldName()) || name.equals(field.getODATAFieldName())) {
+                return field.getType();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return SELECT * of the row matching the key predicates of an entity request
+     */
+    public static SqlQuery selectByKey(ResourceInfo resource, List<UriParameter> keyPredicates) {
+        StringBuilder sql = new StringBuilder("SELECT * FROM ").append(resource.getTableName());
+        List<Object> parameters = new ArrayList<>();
+        SqlQueryBuilder builder = new SqlQueryBuilder(resource, Dialect.MYSQL);
+        String separator = " WHERE ";
+        for (UriParameter key : keyPredicates) {
+            sql.append(separator).append(key.getName()).append(" = ?");
+            parameters.add(SqlParameters.keyValue(key.getText(), builder.fieldType(key.getName())));
+            separator = " AND ";
+        }
+        return new SqlQuery(sql.toString(), parameters);
+    }
+}
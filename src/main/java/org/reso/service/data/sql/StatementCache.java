@@ -0,0 +1,138 @@
+package org.reso.service.data.sql;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The prepared statements of one pooled connection, least recently used evicted first.
+ * <p>
+ * A statement is taken out of the cache while it is in use and put back when the caller closes it, so two uses of
+ * the same SQL at once simply prepare a second statement. Only the connection's borrower touches the cache, one
+ * thread at a time.
+ */
+final class StatementCache {
+    private static final Logger LOG = LoggerFactory.getLogger(StatementCache.class);
+
+    private final Connection connection;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LinkedHashMap<String, PreparedStatement> statements;
+
+    StatementCache(Connection connection, int capacity, LongAdder hits, LongAdder misses) {
+        this.connection = connection;
+        this.hits = hits;
+        this.misses = misses;
+        this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > capacity) {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param owner The pooled connection the statement reports as its connection
+     */
+    PreparedStatement prepare(String sql, Connection owner) throws SQLException {
+        PreparedStatement statement = statements.remove(sql);
+        if (statement == null || statement.isClosed()) {
+            misses.increment();
+            statement = connection.prepareStatement(sql);
+        } else {
+            hits.increment();
+        }
+        return (PreparedStatement) Proxy.newProxyInstance(StatementCache.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, new CachedHandler(sql, statement, owner));
+    }
+
+    private void giveBack(String sql, PreparedStatement statement) {
+        try {
+            statement.clearParameters();
+            statement.clearWarnings();
+            statement.setFetchSize(0);
+        } catch (SQLException e) {
+            closeQuietly(statement);
+            return;
+        }
+        PreparedStatement previous = statements.put(sql, statement);
+        if (previous != null && previous != statement) {
+            closeQuietly(previous);
+        }
+    }
+
+    void clear() {
+        for (PreparedStatement statement : statements.values()) {
+            closeQuietly(statement);
+        }
+        statements.clear();
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            LOG.debug("Error closing cached statement: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Forwards to the cached statement; close() returns it to the cache instead of closing it.
+     */
+    private final class CachedHandler implements InvocationHandler {
+        private final String sql;
+        private final PreparedStatement statement;
+        private final Connection owner;
+        private boolean returned = false;
+
+        CachedHandler(String sql, PreparedStatement statement, Connection owner) {
+            this.sql = sql;
+            this.statement = statement;
+            this.owner = owner;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        giveBack(sql, statement);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || statement.isClosed();
+                case "getConnection":
+                    return owner;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    break;
+            }
+            if (returned) {
+                throw new SQLException("Statement has been closed");
+            }
+            try {
+                return method.invoke(statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
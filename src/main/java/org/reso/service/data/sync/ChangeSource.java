@@ -0,0 +1,33 @@
+package org.reso.service.data.sync;
+
+import org.reso.service.data.meta.ResourceInfo;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where the sync engine reads changed records from. Any source that can list a resource's records in
+ * ModificationTimestamp and primary key order will do, e.g. a file based stand-in for local runs.
+ */
+public interface ChangeSource extends AutoCloseable {
+
+    /**
+     * @param resource The resource
+     * @param keyName  The primary key of the resource at the source
+     * @param after    The checkpoint to read after, or null to read from the start
+     * @param limit    The most records to return
+     * @return The records changed after the checkpoint, in ModificationTimestamp then primary key order
+     * @throws IOException when the source cannot be read
+     */
+    List<Map<String, Object>> fetch(ResourceInfo resource, String keyName, SyncCheckpoint after, int limit)
+            throws IOException;
+
+    /**
+     * @return The source, for logs and status, without credentials
+     */
+    String describe();
+
+    @Override
+    void close();
+}
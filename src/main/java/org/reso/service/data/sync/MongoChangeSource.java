@@ -0,0 +1,56 @@
+package org.reso.service.data.sync;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.reso.service.data.meta.ResourceInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads changes from another MongoDB holding the same collections, e.g. the Atlas cluster the init scripts copy
+ * from. A range on ModificationTimestamp is served by the replication index the index advisor recommends.
+ */
+public final class MongoChangeSource implements ChangeSource {
+    private final String description;
+    private final MongoClient client;
+    private final MongoDatabase database;
+
+    public MongoChangeSource(String uri) {
+        ConnectionString connection = new ConnectionString(uri);
+        this.description = "mongodb://" + String.join(",", connection.getHosts());
+        this.client = MongoClients.create(connection);
+        this.database = client.getDatabase(connection.getDatabase() == null ? "reso" : connection.getDatabase());
+    }
+
+    @Override
+    public List<Map<String, Object>> fetch(ResourceInfo resource, String keyName, SyncCheckpoint after, int limit) {
+        String timestamp = SyncCheckpoint.TIMESTAMP_FIELD;
+        Bson filter = after == null
+                ? Filters.exists(timestamp)
+                : Filters.or(Filters.gt(timestamp, after.getTimestamp()),
+                        Filters.and(Filters.eq(timestamp, after.getTimestamp()), Filters.gt(keyName, after.getKey())));
+        return database.getCollection(resource.getTableName())
+                .find(filter)
+                .sort(Sorts.ascending(timestamp, keyName))
+                .limit(limit)
+                .into(new ArrayList<Map<String, Object>>());
+    }
+
+    @Override
+    public String describe() {
+        return description;
+    }
+
+    @Override
+    public void close() {
+        client.close();
+    }
+}
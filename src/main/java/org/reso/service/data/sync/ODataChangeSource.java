@@ -0,0 +1,117 @@
+package org.reso.service.data.sync;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.reso.service.data.meta.ResourceInfo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads changes from a RESO Web API server, one $filter/$orderby/$top query per batch. A server that pages the
+ * result itself is followed through @odata.nextLink until the batch is complete.
+ */
+public final class ODataChangeSource implements ChangeSource {
+    private static final TypeReference<Map<String, Object>> PAGE = new TypeReference<Map<String, Object>>() {
+    };
+
+    private final ObjectMapper json = new ObjectMapper().enable(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS);
+    private final CloseableHttpClient client = HttpClients.createDefault();
+    private final String serviceUrl;
+    private final String token;
+
+    /**
+     * @param serviceUrl The service root, e.g. https://example.com/2.0.0
+     * @param token      The bearer token, or null
+     */
+    public ODataChangeSource(String serviceUrl, String token) {
+        this.serviceUrl = serviceUrl.endsWith("/") ? serviceUrl.substring(0, serviceUrl.length() - 1) : serviceUrl;
+        this.token = token;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Map<String, Object>> fetch(ResourceInfo resource, String keyName, SyncCheckpoint after, int limit)
+            throws IOException {
+        String timestamp = SyncCheckpoint.TIMESTAMP_FIELD;
+        StringBuilder url = new StringBuilder(serviceUrl).append('/').append(resource.getResourceName())
+                .append("?$orderby=").append(encode(timestamp + " asc," + keyName + " asc"))
+                .append("&$top=").append(limit);
+        if (after != null) {
+            String since = DateTimeFormatter.ISO_INSTANT.format(after.getTimestamp().toInstant());
+            url.append("&$filter=").append(encode(timestamp + " gt " + since + " or (" + timestamp + " eq " + since
+                    + " and " + keyName + " gt " + literal(after.getKey()) + ")"));
+        }
+
+        List<Map<String, Object>> records = new ArrayList<>();
+        URI next = URI.create(url.toString());
+        while (next != null) {
+            Map<String, Object> page = get(resource, next);
+            Object value = page.get("value");
+            if (value instanceof List) {
+                records.addAll((List<Map<String, Object>>) value);
+            }
+            // The link may be relative to the page it came from
+            Object nextLink = page.get("@odata.nextLink");
+            next = nextLink instanceof String ? next.resolve((String) nextLink) : null;
+        }
+        return records;
+    }
+
+    private Map<String, Object> get(ResourceInfo resource, URI url) throws IOException {
+        HttpGet get = new HttpGet(url);
+        get.setHeader(HttpHeaders.ACCEPT, "application/json");
+        if (token != null) {
+            get.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + token);
+        }
+        try (CloseableHttpResponse response = client.execute(get)) {
+            int status = response.getStatusLine().getStatusCode();
+            if (status != 200 || response.getEntity() == null) {
+                throw new IOException("GET " + resource.getResourceName() + " answered " + status);
+            }
+            try (InputStream body = response.getEntity().getContent()) {
+                Map<String, Object> page = json.readValue(body, PAGE);
+                return page == null ? new HashMap<>() : page;
+            }
+        }
+    }
+
+    private static String literal(Object key) {
+        if (key instanceof Number) {
+            return key.toString();
+        }
+        return "'" + String.valueOf(key).replace("'", "''") + "'";
+    }
+
+    private static String encode(String value) throws UnsupportedEncodingException {
+        return URLEncoder.encode(value, "UTF-8").replace("+", "%20");
+    }
+
+    @Override
+    public String describe() {
+        return serviceUrl;
+    }
+
+    @Override
+    public void close() {
+        try {
+            client.close();
+        } catch (IOException e) {
+            // Nothing left to release
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.reso.service.data.sync;
+
+import org.bson.Document;
+import org.reso.service.data.mongodb.DeltaLog;
+
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * The position of a resource's sync: the ModificationTimestamp and primary key of the last record applied. Records
+ * are read in that order, so the next batch starts right after the checkpoint even when many records share a
+ * timestamp.
+ */
+public final class SyncCheckpoint {
+    public static final String TIMESTAMP_FIELD = DeltaLog.TIMESTAMP_FIELD;
+
+    private final Date timestamp;
+    private final Object key;
+
+    public SyncCheckpoint(Date timestamp, Object key) {
+        this.timestamp = timestamp;
+        this.key = key;
+    }
+
+    /**
+     * @param record  A record as read from the source
+     * @param keyName The name of its primary key
+     * @return The checkpoint after the record, or null when it has no usable ModificationTimestamp
+     */
+    public static SyncCheckpoint after(Map<String, Object> record, String keyName) {
+        Object value = record.get(TIMESTAMP_FIELD);
+        Date timestamp = null;
+        if (value instanceof Date) {
+            timestamp = (Date) value;
+        } else if (value != null) {
+            try {
+                timestamp = Date.from(OffsetDateTime.parse(value.toString()).toInstant());
+            } catch (DateTimeParseException e) {
+                return null;
+            }
+        }
+        return timestamp == null ? null : new SyncCheckpoint(timestamp, record.get(keyName));
+    }
+
+    public static SyncCheckpoint fromDocument(Document document) {
+        if (document == null || document.getDate("timestamp") == null) {
+            return null;
+        }
+        return new SyncCheckpoint(document.getDate("timestamp"), document.get("key"));
+    }
+
+    public Document toDocument() {
+        return new Document("timestamp", timestamp).append("key", key);
+    }
+
+    public Date getTimestamp() {
+        return timestamp;
+    }
+
+    public Object getKey() {
+        return key;
+    }
+}
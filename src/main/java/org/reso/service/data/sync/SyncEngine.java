@@ -0,0 +1,264 @@
+package org.reso.service.data.sync;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+import org.bson.Document;
+import org.reso.service.data.meta.ResourceInfo;
+import org.reso.service.data.mongodb.BulkIngest;
+import org.reso.service.data.mongodb.DeltaLog;
+import org.reso.service.data.mongodb.DocumentConverter;
+import org.reso.service.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the collections in step with an upstream {@link ChangeSource}, one worker per resource.
+ * <p>
+ * Every SYNC_INTERVAL_MS (5000) a worker reads the records changed after its checkpoint in batches of
+ * SYNC_BATCH_SIZE (500), upserts each batch through {@link BulkIngest} and stores the new checkpoint in the
+ * sync_checkpoint collection, until a short batch shows it has caught up. A restarted server resumes from the stored
+ * checkpoints; a failed batch is read again on the next poll, and a record the collection refuses holds the
+ * checkpoint before it, so it and the records after it are read again until it is written. The source is
+ * SYNC_SOURCE_URI for another MongoDB or
+ * SYNC_SOURCE_URL (with SYNC_SOURCE_TOKEN) for a RESO Web API server; SYNC_RESOURCES limits the resources synced.
+ * <p>
+ * Only changes are seen: records deleted at the source stay until the next full load.
+ */
+public final class SyncEngine {
+    private static final Logger LOG = LoggerFactory.getLogger(SyncEngine.class);
+    private static final long INTERVAL_MS =
+            Long.parseLong(System.getenv().getOrDefault("SYNC_INTERVAL_MS", "5000"));
+    private static final int BATCH_SIZE = Integer.parseInt(System.getenv().getOrDefault("SYNC_BATCH_SIZE", "500"));
+    private static final String CHECKPOINTS = "sync_checkpoint";
+
+    private final ChangeSource source;
+    private final MongoCollection<Document> checkpoints;
+    private final List<Worker> workers = new ArrayList<>();
+    private ScheduledExecutorService executor = null;
+    private volatile boolean running = false;
+
+    public SyncEngine(ChangeSource source, MongoDatabase database, Collection<ResourceInfo> resources,
+                      Set<String> only) {
+        this.source = source;
+        this.checkpoints = database.getCollection(CHECKPOINTS);
+        for (ResourceInfo resource : resources) {
+            if (only != null && !only.contains(resource.getResourceName())) {
+                continue;
+            }
+            String keyName = resource.getPrimaryKeyName();
+            if (keyName == null || DeltaLog.timestampField(resource) == null) {
+                continue;
+            }
+            if ("_id".equals(keyName) && source instanceof ODataChangeSource) {
+                // Web API records carry no _id to match them by
+                LOG.warn("Not syncing {}: it has no unique key to match records by", resource.getResourceName());
+                continue;
+            }
+            workers.add(new Worker(resource, keyName, database));
+        }
+    }
+
+    /**
+     * @return The engine for the configured source, or null when none is configured
+     */
+    public static SyncEngine fromEnvironment(MongoDatabase database, Collection<ResourceInfo> resources) {
+        Map<String, String> env = System.getenv();
+        ChangeSource source;
+        if (env.get("SYNC_SOURCE_URI") != null) {
+            source = new MongoChangeSource(env.get("SYNC_SOURCE_URI"));
+        } else if (env.get("SYNC_SOURCE_URL") != null) {
+            source = new ODataChangeSource(env.get("SYNC_SOURCE_URL"), env.get("SYNC_SOURCE_TOKEN"));
+        } else {
+            return null;
+        }
+        String only = env.get("SYNC_RESOURCES");
+        return new SyncEngine(source, database, resources,
+                only == null ? null : new HashSet<>(Arrays.asList(only.split("\\s*,\\s*"))));
+    }
+
+    public synchronized void start() {
+        if (running || workers.isEmpty()) {
+            return;
+        }
+        running = true;
+        executor = Executors.newScheduledThreadPool(workers.size(), runnable -> {
+            Thread thread = new Thread(runnable, "sync-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        for (Worker worker : workers) {
+            String name = worker.resource.getResourceName();
+            worker.checkpoint = SyncCheckpoint.fromDocument(checkpoints.find(Filters.eq("_id", name)).first());
+            metrics.gauge("reso_sync_lag_seconds", "Seconds the collection may be behind the sync source",
+                    worker::getLagSeconds, "resource", name);
+            executor.scheduleWithFixedDelay(worker::poll, 0, INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+        LOG.info("Syncing {} resources from {}", workers.size(), source.describe());
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        source.close();
+    }
+
+    /**
+     * @return The checkpoint, lag and counts of every resource synced
+     */
+    public List<Map<String, Object>> status() {
+        List<Map<String, Object>> status = new ArrayList<>();
+        for (Worker worker : workers) {
+            SyncCheckpoint checkpoint = worker.checkpoint;
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("resource", worker.resource.getResourceName());
+            entry.put("source", source.describe());
+            entry.put("checkpoint", checkpoint == null ? null : checkpoint.getTimestamp().toInstant().toString());
+            entry.put("checkpointKey", checkpoint == null ? null : String.valueOf(checkpoint.getKey()));
+            entry.put("lagSeconds", worker.getLagSeconds());
+            entry.put("applied", worker.applied.sum());
+            entry.put("rejected", worker.rejected.sum());
+            entry.put("failed", worker.failed.sum());
+            entry.put("errors", worker.errors.sum());
+            entry.put("lastError", worker.lastError);
+            status.add(entry);
+        }
+        return status;
+    }
+
+    private final class Worker {
+        private final ResourceInfo resource;
+        private final String keyName;
+        private final BulkIngest ingest;
+        private final DocumentConverter converter;
+        private final LongAdder applied;
+        private final LongAdder rejected;
+        private final LongAdder failed;
+        private final LongAdder errors;
+        private volatile SyncCheckpoint checkpoint = null;
+        private volatile long caughtUpAt = 0;
+        private volatile String lastError = null;
+        private int batches = 0;
+
+        Worker(ResourceInfo resource, String keyName, MongoDatabase database) {
+            this.resource = resource;
+            this.keyName = keyName;
+            this.converter = new DocumentConverter(resource);
+            this.ingest = new BulkIngest(database, converter, BATCH_SIZE);
+            MetricsRegistry metrics = MetricsRegistry.getInstance();
+            String name = resource.getResourceName();
+            this.applied = metrics.counter("reso_sync_records_total", "Records read from the sync source",
+                    "resource", name, "result", "applied");
+            this.rejected = metrics.counter("reso_sync_records_total", "Records read from the sync source",
+                    "resource", name, "result", "rejected");
+            this.failed = metrics.counter("reso_sync_records_total", "Records read from the sync source",
+                    "resource", name, "result", "failed");
+            this.errors = metrics.counter("reso_sync_errors_total", "Sync polls that failed", "resource", name);
+        }
+
+        // The mirror is current as of the last poll that caught up, or at least as of the last change applied
+        double getLagSeconds() {
+            SyncCheckpoint current = checkpoint;
+            long since = Math.max(caughtUpAt, current == null ? 0 : current.getTimestamp().getTime());
+            return since == 0 ? Double.NaN : (System.currentTimeMillis() - since) / 1000.0;
+        }
+
+        void poll() {
+            long pollStart = System.currentTimeMillis();
+            try {
+                while (running) {
+                    List<Map<String, Object>> records = source.fetch(resource, keyName, checkpoint, BATCH_SIZE);
+                    if (!records.isEmpty()) {
+                        apply(records);
+                    }
+                    if (records.size() < BATCH_SIZE) {
+                        caughtUpAt = pollStart;
+                        return;
+                    }
+                }
+            } catch (Exception e) {
+                // Retried from the last stored checkpoint on the next poll
+                errors.increment();
+                lastError = e.getMessage();
+                LOG.error("Sync of {} from {} failed: {}", resource.getResourceName(), source.describe(),
+                        e.getMessage());
+            }
+        }
+
+        private void apply(List<Map<String, Object>> records) {
+            List<Document> documents = new ArrayList<>(records.size());
+            // The index in records of each document
+            List<Integer> positions = new ArrayList<>(records.size());
+            List<String> invalid = new ArrayList<>();
+            for (int i = 0; i < records.size(); i++) {
+                Document document = converter.convert(records.get(i), invalid);
+                if (document != null) {
+                    documents.add(document);
+                    positions.add(i);
+                }
+            }
+            if (documents.size() < records.size()) {
+                // Skipped rather than retried: they would fail the same way every time
+                rejected.add(records.size() - documents.size());
+                LOG.warn("Sync of {} skipped {} invalid records, e.g. {}", resource.getResourceName(),
+                        records.size() - documents.size(), invalid.isEmpty() ? "" : invalid.get(0));
+            }
+
+            // The checkpoint may only pass records that were written
+            int end = records.size();
+            String failure = null;
+            if (!documents.isEmpty()) {
+                BulkIngest.BatchResult result = ingest.upsert(++batches, documents);
+                if (result.isBatchFailed()) {
+                    throw new IllegalStateException(String.join("; ", result.getErrors()));
+                }
+                applied.add(documents.size() - result.getFailed());
+                if (result.getFailed() > 0) {
+                    failed.add(result.getFailed());
+                    end = positions.get(result.getFirstFailed());
+                    failure = result.getFailed() + " records were not written: "
+                            + String.join("; ", result.getErrors());
+                }
+            }
+
+            SyncCheckpoint next = null;
+            for (int i = end - 1; i >= 0 && next == null; i--) {
+                next = SyncCheckpoint.after(records.get(i), keyName);
+            }
+            if (next != null) {
+                checkpoints.replaceOne(Filters.eq("_id", resource.getResourceName()),
+                        next.toDocument().append("_id", resource.getResourceName()).append("updated", new Date()),
+                        new ReplaceOptions().upsert(true));
+                checkpoint = next;
+            }
+            if (failure != null) {
+                // Read again from the held checkpoint on the next poll
+                throw new IllegalStateException(failure);
+            }
+            if (next == null) {
+                // Only records without a ModificationTimestamp, which a checkpoint cannot get past
+                throw new IllegalStateException("no record of the batch has a ModificationTimestamp");
+            }
+        }
+    }
+}
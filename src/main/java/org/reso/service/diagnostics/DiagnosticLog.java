@@ -0,0 +1,130 @@
+package org.reso.service.diagnostics;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Detailed per-request logging for the query paths: every document found, every expansion query, every filter.
+ * <p>
+ * It is off unless the request asks for it with the {@value #HEADER} header or is picked by DIAGNOSTIC_SAMPLE_RATE
+ * (0 to 1, default 0). Messages of such requests are put on a bounded queue and written by a single background
+ * thread to the "org.reso.diagnostics" logger, tagged with a request id, so request threads never wait on logging.
+ * When the queue is full messages are dropped and counted. Documents passed as arguments are rendered as JSON on
+ * the background thread.
+ */
+public final class DiagnosticLog {
+    private static final Logger LOG = LoggerFactory.getLogger("org.reso.diagnostics");
+
+    public static final String HEADER = "X-RESO-Diagnostics";
+    public static final String ID_HEADER = "X-RESO-Diagnostics-Id";
+
+    private static final double SAMPLE_RATE =
+            Double.parseDouble(System.getenv().getOrDefault("DIAGNOSTIC_SAMPLE_RATE", "0"));
+    private static final int QUEUE_SIZE =
+            Integer.parseInt(System.getenv().getOrDefault("DIAGNOSTIC_QUEUE_SIZE", "4096"));
+
+    private static final ThreadLocal<String> REQUEST_ID = new ThreadLocal<>();
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+    private static final LongAdder DROPPED = new LongAdder();
+    private static final BlockingQueue<Message> QUEUE = new ArrayBlockingQueue<>(QUEUE_SIZE);
+
+    static {
+        Thread writer = new Thread(DiagnosticLog::drain, "diagnostic-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private static final class Message {
+        final String requestId;
+        final String format;
+        final Object[] args;
+
+        Message(String requestId, String format, Object[] args) {
+            this.requestId = requestId;
+            this.format = format;
+            this.args = args;
+        }
+    }
+
+    private DiagnosticLog() {
+    }
+
+    /**
+     * Decides whether the request on the current thread is logged.
+     *
+     * @param headerValue The value of the {@value #HEADER} request header, may be null
+     * @return The id the request is logged under, or null if it is not logged
+     */
+    public static String begin(String headerValue) {
+        boolean requested = "true".equalsIgnoreCase(headerValue) || "1".equals(headerValue);
+        if (!requested && (SAMPLE_RATE <= 0 || ThreadLocalRandom.current().nextDouble() >= SAMPLE_RATE)) {
+            REQUEST_ID.remove();
+            return null;
+        }
+        String requestId = Long.toHexString(SEQUENCE.incrementAndGet());
+        REQUEST_ID.set(requestId);
+        return requestId;
+    }
+
+    public static void end() {
+        REQUEST_ID.remove();
+    }
+
+    /**
+     * @return Whether the request on the current thread is logged; guard any costly argument with it
+     */
+    public static boolean isEnabled() {
+        return REQUEST_ID.get() != null;
+    }
+
+    /**
+     * @param format An SLF4J message format
+     * @param args   The arguments, formatted on the background thread
+     */
+    public static void log(String format, Object... args) {
+        String requestId = REQUEST_ID.get();
+        if (requestId == null) {
+            return;
+        }
+        if (!QUEUE.offer(new Message(requestId, format, args))) {
+            DROPPED.increment();
+        }
+    }
+
+    public static long getDropped() {
+        return DROPPED.sum();
+    }
+
+    public static int getQueued() {
+        return QUEUE.size();
+    }
+
+    private static void drain() {
+        while (true) {
+            Message message;
+            try {
+                message = QUEUE.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                Object[] args = new Object[message.args.length + 1];
+                args[0] = message.requestId;
+                for (int i = 0; i < message.args.length; i++) {
+                    Object arg = message.args[i];
+                    args[i + 1] = arg instanceof Document ? ((Document) arg).toJson() : arg;
+                }
+                LOG.info("[{}] " + message.format, args);
+            } catch (RuntimeException e) {
+                LOG.warn("Could not write diagnostic message: {}", e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package org.reso.service.metrics;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Adds the bytes written to a response body to a counter, for bodies that are streamed rather than read by the
+ * container.
+ */
+public final class CountingOutputStream extends FilterOutputStream {
+    private final LongAdder counter;
+
+    public CountingOutputStream(OutputStream out, LongAdder counter) {
+        super(out);
+        this.counter = counter;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        counter.increment();
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        // FilterOutputStream would write the bytes one at a time
+        out.write(buffer, offset, length);
+        counter.add(length);
+    }
+}
@@ -0,0 +1,233 @@
+package org.reso.service.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * The process-wide metrics: counters, histograms and gauges, each a family of labelled series.
+ * <p>
+ * Counters and histograms are LongAdder based, so recording on request threads never takes a lock.
+ * The registry is written in the Prometheus text format by {@link org.reso.service.servlet.MetricsServlet} and published over JMX
+ * as the "org.reso:type=Metrics" MBean.
+ */
+public final class MetricsRegistry {
+    private static final Logger LOG = LoggerFactory.getLogger(MetricsRegistry.class);
+    private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+    static final String OBJECT_NAME = "org.reso:type=Metrics";
+
+    public static final String REQUESTS = "reso_requests_total";
+    public static final String REQUEST_ERRORS = "reso_request_errors_total";
+    public static final String REQUEST_DURATION = "reso_request_duration_seconds";
+    public static final String RESPONSE_BYTES = "reso_response_bytes_total";
+
+    private enum Type {
+        COUNTER, HISTOGRAM, GAUGE
+    }
+
+    private static final class Family {
+        final String name;
+        final String help;
+        final Type type;
+        // Series keyed by their rendered label set, e.g. {resource="Property",operation="list"}
+        final ConcurrentHashMap<String, Object> series = new ConcurrentHashMap<>();
+
+        Family(String name, String help, Type type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Family> families = new ConcurrentHashMap<>();
+
+    public static MetricsRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    private Family family(String name, String help, Type type) {
+        Family family = families.get(name);
+        if (family == null) {
+            family = families.computeIfAbsent(name, key -> new Family(name, help, type));
+        }
+        if (family.type != type) {
+            throw new IllegalArgumentException("Metric " + name + " is a " + family.type);
+        }
+        return family;
+    }
+
+    /**
+     * @param labels Label names and values, alternating
+     */
+    public LongAdder counter(String name, String help, String... labels) {
+        Family family = family(name, help, Type.COUNTER);
+        String key = labelSet(labels);
+        Object counter = family.series.get(key);
+        return (LongAdder) (counter != null ? counter : family.series.computeIfAbsent(key, k -> new LongAdder()));
+    }
+
+    public Histogram histogram(String name, String help, String... labels) {
+        Family family = family(name, help, Type.HISTOGRAM);
+        String key = labelSet(labels);
+        Object histogram = family.series.get(key);
+        return (Histogram) (histogram != null ? histogram : family.series.computeIfAbsent(key, k -> new Histogram()));
+    }
+
+    /**
+     * Registers a gauge, replacing an earlier one with the same labels.
+     */
+    public void gauge(String name, String help, Supplier<? extends Number> value, String... labels) {
+        family(name, help, Type.GAUGE).series.put(labelSet(labels), value);
+    }
+
+    /**
+     * Records one served request.
+     *
+     * @param resource  The resource name
+     * @param operation read, list, count or expand
+     * @param nanos     The time taken
+     * @param failed    Whether the request failed
+     */
+    public void recordRequest(String resource, String operation, long nanos, boolean failed) {
+        counter(REQUESTS, "Requests served", "resource", resource, "operation", operation).increment();
+        if (failed) {
+            counter(REQUEST_ERRORS, "Requests that failed", "resource", resource, "operation", operation).increment();
+        }
+        histogram(REQUEST_DURATION, "Request latency", "resource", resource, "operation", operation)
+                .observeNanos(nanos);
+    }
+
+    public LongAdder responseBytes(String resource, String operation) {
+        return counter(RESPONSE_BYTES, "Serialized response bytes", "resource", resource, "operation", operation);
+    }
+
+    static String labelSet(String... labels) {
+        if (labels.length == 0) {
+            return "";
+        }
+        StringBuilder set = new StringBuilder("{");
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            if (i > 0) {
+                set.append(',');
+            }
+            set.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+        }
+        return set.append('}').toString();
+    }
+
+    private static String escape(String value) {
+        return value == null ? "" : value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Writes every metric in the Prometheus text exposition format (version 0.0.4).
+     */
+    public void writePrometheus(Writer out) throws IOException {
+        for (Family family : new TreeMap<>(families).values()) {
+            out.write("# HELP " + family.name + " " + family.help + "\n");
+            out.write("# TYPE " + family.name + " " + family.type.name().toLowerCase() + "\n");
+            for (Map.Entry<String, Object> series : new TreeMap<>(family.series).entrySet()) {
+                String labels = series.getKey();
+                Object value = series.getValue();
+                if (value instanceof Histogram) {
+                    writeHistogram(out, family.name, labels, (Histogram) value);
+                } else {
+                    out.write(family.name + labels + " " + format(value(value)) + "\n");
+                }
+            }
+        }
+    }
+
+    private static void writeHistogram(Writer out, String name, String labels, Histogram histogram)
+            throws IOException {
+        long[] cumulative = histogram.cumulativeCounts();
+        String prefix = labels.isEmpty() ? "{" : labels.substring(0, labels.length() - 1) + ",";
+        for (int i = 0; i < cumulative.length; i++) {
+            String bound = i < Histogram.BUCKETS.length ? format(Histogram.BUCKETS[i]) : "+Inf";
+            out.write(name + "_bucket" + prefix + "le=\"" + bound + "\"} " + cumulative[i] + "\n");
+        }
+        out.write(name + "_sum" + labels + " " + format(histogram.getSumSeconds()) + "\n");
+        out.write(name + "_count" + labels + " " + cumulative[cumulative.length - 1] + "\n");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static double value(Object series) {
+        if (series instanceof LongAdder) {
+            return ((LongAdder) series).sum();
+        }
+        try {
+            Number number = ((Supplier<? extends Number>) series).get();
+            return number == null ? Double.NaN : number.doubleValue();
+        } catch (RuntimeException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    /**
+     * @return Every series as a single number; histograms contribute their count, mean and p99
+     */
+    public Map<String, Double> snapshot() {
+        Map<String, Double> snapshot = new LinkedHashMap<>();
+        for (Family family : new TreeMap<>(families).values()) {
+            for (Map.Entry<String, Object> series : new TreeMap<>(family.series).entrySet()) {
+                String name = family.name + series.getKey();
+                if (series.getValue() instanceof Histogram) {
+                    Histogram histogram = (Histogram) series.getValue();
+                    long count = histogram.getCount();
+                    snapshot.put(name + ".count", (double) count);
+                    snapshot.put(name + ".mean", count == 0 ? 0 : histogram.getSumSeconds() / count);
+                    snapshot.put(name + ".p99", histogram.getQuantileUpperBound(0.99));
+                } else {
+                    snapshot.put(name, value(series.getValue()));
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Publishes the registry on the platform MBean server, replacing a registration left by an earlier deployment.
+     */
+    public void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(new MetricsMBean(this), objectName);
+        } catch (Exception e) {
+            LOG.error("Could not register metrics MBean: {}", e.getMessage());
+        }
+    }
+
+    public void unregisterMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (Exception e) {
+            LOG.error("Could not unregister metrics MBean: {}", e.getMessage());
+        }
+    }
+}
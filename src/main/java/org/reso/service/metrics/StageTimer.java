@@ -0,0 +1,114 @@
+package org.reso.service.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Times the stages of a single request: URI parsing, filter compilation, count, find, document mapping, expand and
+ * serialization.
+ * <p>
+ * A timer is bound to the request thread by {@link #begin()} and released by {@link #end()}. Stages that run
+ * several times in one request, such as find during $expand, add up. The totals are sent back in a Server-Timing
+ * header, and every stage is also fed into the reso_stage_duration_seconds histogram, whether or not a timer is
+ * bound.
+ * <p>
+ * The header goes out before the body. A streamed response, raw BSON or a SQL cursor, reads and writes its rows
+ * after that, so its header reports only uri, filter and count; its find, map and ser time is only in the
+ * histogram.
+ */
+public final class StageTimer {
+    public static final String HEADER = "Server-Timing";
+
+    public static final String URI = "uri";
+    public static final String FILTER = "filter";
+    public static final String COUNT = "count";
+    public static final String FIND = "find";
+    public static final String MAP = "map";
+    public static final String EXPAND = "expand";
+    public static final String SERIALIZE = "ser";
+
+    private static final ThreadLocal<StageTimer> CURRENT = new ThreadLocal<>();
+
+    private final long beginNanos = System.nanoTime();
+    private final Map<String, Long> stages = new LinkedHashMap<>();
+
+    private StageTimer() {
+    }
+
+    /**
+     * Binds a new timer to the current thread.
+     */
+    public static StageTimer begin() {
+        StageTimer timer = new StageTimer();
+        CURRENT.set(timer);
+        return timer;
+    }
+
+    public static void end() {
+        CURRENT.remove();
+    }
+
+    /**
+     * @return The timer bound to the current thread, or null outside a request
+     */
+    public static StageTimer current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Records a stage that started at {@code startNanos} and ends now.
+     *
+     * @param stage      The stage name
+     * @param startNanos A {@link System#nanoTime()} reading taken when the stage started
+     */
+    public static void record(String stage, long startNanos) {
+        add(stage, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Records a stage measured by the caller, such as the sum of many short intervals.
+     */
+    public static void add(String stage, long nanos) {
+        StageTimer timer = CURRENT.get();
+        if (timer != null) {
+            timer.stages.merge(stage, nanos, Long::sum);
+        }
+        MetricsRegistry.getInstance().histogram("reso_stage_duration_seconds", "Time spent per request stage",
+                "stage", stage).observeNanos(nanos);
+    }
+
+    /**
+     * Records the time between {@link #begin()} and now as a stage, e.g. the URI parsing done before a processor
+     * is called.
+     */
+    public static void recordSinceBegin(String stage) {
+        StageTimer timer = CURRENT.get();
+        if (timer != null) {
+            add(stage, System.nanoTime() - timer.beginNanos);
+        }
+    }
+
+    /**
+     * @return The stages in the Server-Timing format, e.g. "filter;dur=1.2, find;dur=12.0", durations in milliseconds
+     */
+    public String toHeaderValue() {
+        StringBuilder value = new StringBuilder();
+        for (Map.Entry<String, Long> stage : stages.entrySet()) {
+            if (value.length() > 0) {
+                value.append(", ");
+            }
+            value.append(stage.getKey()).append(";dur=")
+                    .append(String.format(Locale.ROOT, "%.1f", stage.getValue() / 1e6));
+        }
+        return value.toString();
+    }
+
+    /**
+     * @return The Server-Timing value of the timer bound to the current thread, or null if there is nothing to send
+     */
+    public static String currentHeaderValue() {
+        StageTimer timer = CURRENT.get();
+        return timer == null || timer.stages.isEmpty() ? null : timer.toHeaderValue();
+    }
+}
@@ -0,0 +1,188 @@
+package org.reso.service.servlet;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.reso.service.data.definition.LookupCacheReloader;
+import org.reso.service.data.definition.LookupDefinition;
+import org.reso.service.data.definition.LookupDictionary;
+import org.reso.service.data.meta.FilterPlanCache;
+import org.reso.service.data.meta.ResourceInfo;
+import org.reso.service.data.mongodb.IndexAdvisor;
+import org.reso.service.data.mongodb.SlowQueryLog;
+import org.reso.service.data.sync.SyncEngine;
+import org.reso.service.security.Validator;
+import org.reso.service.security.providers.BearerAuthProvider;
+import org.reso.service.servlet.util.SimpleError;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.servlet.ServletException;
+import javax.servlet.http.*;
+
+/**
+ * Operational endpoints, protected by the same bearer token as the OData service, except for the readiness probe.
+ * <p>
+ * GET  /admin/ready           - 200 with the startup phase timings once the service is ready, 503 before
+ * GET  /admin/lookups         - lookup cache statistics
+ * POST /admin/lookups/reload  - rebuild the lookup cache in the background
+ * GET  /admin/filter-plans    - compiled $filter plan cache statistics per resource
+ * GET  /admin/indexes         - existing and recommended MongoDB indexes per collection
+ * POST /admin/indexes/create  - create the most used missing indexes in the background, at most ?limit=
+ *                               (INDEX_CREATE_LIMIT, 10)
+ * GET  /admin/slow-queries    - the most recent slow queries with their explain statistics
+ * GET  /admin/sync            - checkpoint, lag and counts of every resource synced from upstream
+ */
+public class AdminServlet extends HttpServlet {
+   private static final long serialVersionUID = 1L;
+   private static final Logger LOG = LoggerFactory.getLogger(AdminServlet.class);
+   private static final int INDEX_CREATE_LIMIT =
+         Integer.parseInt(System.getenv().getOrDefault("INDEX_CREATE_LIMIT", "10"));
+
+   private final ObjectMapper objectMapper = new ObjectMapper();
+   private Validator validator = null;
+
+   @Override
+   public void init() throws ServletException {
+      super.init();
+      this.validator = new Validator();
+      this.validator.addProvider(new BearerAuthProvider());
+   }
+
+   protected void service(final HttpServletRequest req, final HttpServletResponse resp)
+         throws ServletException, IOException {
+      resp.setContentType("application/json");
+      resp.setCharacterEncoding("UTF-8");
+
+      if ("/ready".equals(req.getPathInfo()) && "GET".equals(req.getMethod())) {
+         Map<String, Object> result = new LinkedHashMap<>();
+         result.put("ready", RESOservlet.isReady());
+         result.put("startupPhases", RESOservlet.getStartupPhases());
+         if (!RESOservlet.isReady()) {
+            resp.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+         }
+         writeJson(resp, result);
+         return;
+      }
+
+      if (!this.validator.verify(req) && this.validator.unauthorizedResponse(resp)) {
+         writeJson(resp, new SimpleError(SimpleError.AUTH_REQUIRED));
+         return;
+      }
+
+      String path = req.getPathInfo() == null ? "/" : req.getPathInfo();
+      String method = req.getMethod();
+
+      if ("/lookups".equals(path) && "GET".equals(method)) {
+         writeJson(resp, lookupStatus());
+      } else if ("/lookups/reload".equals(path) && "POST".equals(method)) {
+         reloadLookups(resp);
+      } else if ("/filter-plans".equals(path) && "GET".equals(method)) {
+         writeJson(resp, filterPlanStatus());
+      } else if ("/slow-queries".equals(path) && "GET".equals(method)) {
+         Map<String, Object> result = new LinkedHashMap<>();
+         result.put("thresholdMillis", SlowQueryLog.getInstance().getThresholdMillis());
+         result.put("queries", SlowQueryLog.getInstance().getEntries());
+         writeJson(resp, result);
+      } else if ("/sync".equals(path) && "GET".equals(method)) {
+         SyncEngine syncEngine = RESOservlet.getSyncEngine();
+         if (syncEngine == null) {
+            resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            writeJson(resp, new SimpleError(SimpleError.INVALID_REQUEST));
+         } else {
+            writeJson(resp, syncEngine.status());
+         }
+      } else if (path.startsWith("/indexes") && RESOservlet.getMongoClient() == null) {
+         resp.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+         writeJson(resp, new SimpleError(SimpleError.INVALID_REQUEST));
+      } else if ("/indexes".equals(path) && "GET".equals(method)) {
+         writeJson(resp, IndexAdvisor.getInstance().report(RESOservlet.getMongoClient().getDatabase("reso")));
+      } else if ("/indexes/create".equals(path) && "POST".equals(method)) {
+         createIndexes(req, resp);
+      } else {
+         resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+         writeJson(resp, new SimpleError(SimpleError.INVALID_REQUEST));
+      }
+   }
+
+   private Map<String, Object> lookupStatus() {
+      LookupDictionary dictionary = LookupDefinition.getDictionary();
+      LookupCacheReloader reloader = RESOservlet.getLookupCacheReloader();
+
+      Map<String, Object> status = new LinkedHashMap<>();
+      status.put("lookupNames", dictionary.getNameCount());
+      status.put("lookupValues", dictionary.size());
+      status.put("lastReloadMillis", reloader == null ? null : reloader.getLastReloadMillis());
+      return status;
+   }
+
+   private List<Map<String, Object>> filterPlanStatus() {
+      List<Map<String, Object>> status = new ArrayList<>();
+      for (ResourceInfo resource : RESOservlet.resourceLookup.values()) {
+         FilterPlanCache cache = resource.getFilterPlanCache();
+         Map<String, Object> entry = new LinkedHashMap<>();
+         entry.put("resource", resource.getResourceName());
+         entry.put("size", cache.size());
+         entry.put("capacity", cache.getCapacity());
+         entry.put("hits", cache.getHits());
+         entry.put("misses", cache.getMisses());
+         entry.put("evictions", cache.getEvictions());
+         entry.put("hitRate", cache.getHitRate());
+         status.add(entry);
+      }
+      return status;
+   }
+
+   private void reloadLookups(HttpServletResponse resp) throws IOException {
+      LookupCacheReloader reloader = RESOservlet.getLookupCacheReloader();
+      if (reloader == null) {
+         resp.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+         writeJson(resp, new SimpleError(SimpleError.INVALID_REQUEST));
+         return;
+      }
+
+      boolean scheduled = reloader.requestReload();
+      LOG.info("Lookup cache reload requested, scheduled: {}", scheduled);
+
+      Map<String, Object> result = new LinkedHashMap<>();
+      result.put("scheduled", scheduled);
+      resp.setStatus(HttpServletResponse.SC_ACCEPTED);
+      writeJson(resp, result);
+   }
+
+   private void createIndexes(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+      int limit = INDEX_CREATE_LIMIT;
+      if (req.getParameter("limit") != null) {
+         try {
+            limit = Integer.parseInt(req.getParameter("limit"));
+         } catch (NumberFormatException e) {
+            limit = -1;
+         }
+         if (limit < 1) {
+            resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            writeJson(resp, new SimpleError(SimpleError.INVALID_REQUEST));
+            return;
+         }
+      }
+
+      boolean scheduled = IndexAdvisor.getInstance()
+            .createMissingInBackground(RESOservlet.getMongoClient().getDatabase("reso"), limit);
+      LOG.info("Index creation requested, limit {}, scheduled: {}", limit, scheduled);
+
+      Map<String, Object> result = new LinkedHashMap<>();
+      result.put("scheduled", scheduled);
+      result.put("limit", limit);
+      resp.setStatus(HttpServletResponse.SC_ACCEPTED);
+      writeJson(resp, result);
+   }
+
+   private void writeJson(HttpServletResponse resp, Object value) throws IOException {
+      PrintWriter out = resp.getWriter();
+      out.println(objectMapper.writeValueAsString(value));
+      out.flush();
+   }
+}
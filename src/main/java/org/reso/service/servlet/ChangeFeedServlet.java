@@ -0,0 +1,321 @@
+package org.reso.service.servlet;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.olingo.commons.api.data.ContextURL;
+import org.apache.olingo.commons.api.edm.EdmEntitySet;
+import org.apache.olingo.commons.api.format.ContentType;
+import org.apache.olingo.server.api.OData;
+import org.apache.olingo.server.api.ServiceMetadata;
+import org.apache.olingo.server.api.serializer.EntitySerializerOptions;
+import org.apache.olingo.server.api.serializer.SerializerException;
+import org.apache.olingo.server.api.uri.UriInfo;
+import org.apache.olingo.server.core.uri.parser.Parser;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.reso.service.data.meta.MongoDBFilterExpressionVisitor;
+import org.reso.service.data.meta.ResourceInfo;
+import org.reso.service.data.mongodb.ChangeFeed;
+import org.reso.service.security.Validator;
+import org.reso.service.security.providers.BearerAuthProvider;
+import org.reso.service.servlet.util.SimpleError;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.http.*;
+
+/**
+ * GET /changes/{Resource} - a Server-Sent Events stream of the resource's inserts, updates and deletes, protected by
+ * the same bearer token as the OData service.
+ * <p>
+ * The optional $filter query parameter limits the inserts and updates sent, e.g.
+ * /changes/Property?$filter=City eq 'Ames'; deletes are always sent, with the key and @odata.id of the deleted
+ * entity, or its _id when the key is no longer known. Every event carries the id to send back as Last-Event-ID when reconnecting. An "overflow" event closes a stream that
+ * fell too far behind; a "reset" event tells a reconnecting client that changes may have been missed. MongoDB only,
+ * on a replica set.
+ * <p>
+ * Streams are asynchronous: the request thread returns once the client is subscribed, and a small pool of
+ * CHANGE_FEED_WRITERS (4) threads writes whatever the feed pushed and a keepalive every 15 seconds, so an idle
+ * subscriber holds no thread.
+ */
+public class ChangeFeedServlet extends HttpServlet {
+   private static final long serialVersionUID = 1L;
+   private static final Logger LOG = LoggerFactory.getLogger(ChangeFeedServlet.class);
+   private static final long HEARTBEAT_SECONDS = 15;
+   private static final int WRITERS =
+         Integer.parseInt(System.getenv().getOrDefault("CHANGE_FEED_WRITERS", "4"));
+
+   private final ObjectMapper objectMapper = new ObjectMapper();
+   private final boolean mongo = "mongodb".equalsIgnoreCase(System.getenv().getOrDefault("DB_TYPE", "mongodb"));
+   private final OData odata = OData.newInstance();
+   private final Set<Stream> streams = ConcurrentHashMap.newKeySet();
+   private Validator validator = null;
+   private ExecutorService writers = null;
+   private ScheduledExecutorService heartbeat = null;
+
+   @Override
+   public void init() throws ServletException {
+      super.init();
+      this.validator = new Validator();
+      this.validator.addProvider(new BearerAuthProvider());
+      this.writers = Executors.newFixedThreadPool(Math.max(1, WRITERS), daemon("change-feed-writer"));
+      this.heartbeat = Executors.newSingleThreadScheduledExecutor(daemon("change-feed-heartbeat"));
+      this.heartbeat.scheduleAtFixedRate(() -> {
+         for (Stream stream : streams) {
+            stream.keepalive = true;
+            stream.schedule();
+         }
+      }, HEARTBEAT_SECONDS, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+   }
+
+   @Override
+   public void destroy() {
+      heartbeat.shutdownNow();
+      for (Stream stream : streams) {
+         stream.complete();
+      }
+      writers.shutdownNow();
+      super.destroy();
+   }
+
+   private static ThreadFactory daemon(String name) {
+      return runnable -> {
+         Thread thread = new Thread(runnable, name);
+         thread.setDaemon(true);
+         return thread;
+      };
+   }
+
+   @Override
+   protected void doGet(final HttpServletRequest req, final HttpServletResponse resp)
+         throws ServletException, IOException {
+      if (!this.validator.verify(req) && this.validator.unauthorizedResponse(resp)) {
+         writeError(resp, 0, SimpleError.AUTH_REQUIRED);
+         return;
+      }
+
+      String path = req.getPathInfo() == null ? "" : req.getPathInfo();
+      ResourceInfo resource = RESOservlet.resourceLookup.get(path.startsWith("/") ? path.substring(1) : path);
+      if (resource == null) {
+         writeError(resp, HttpServletResponse.SC_NOT_FOUND, SimpleError.INVALID_REQUEST);
+         return;
+      }
+      if (!mongo) {
+         writeError(resp, HttpServletResponse.SC_NOT_IMPLEMENTED, SimpleError.INVALID_REQUEST);
+         return;
+      }
+      if (RESOservlet.getMongoClient() == null || RESOservlet.getServiceMetadata() == null) {
+         writeError(resp, HttpServletResponse.SC_SERVICE_UNAVAILABLE, SimpleError.INVALID_REQUEST);
+         return;
+      }
+
+      String filterText = req.getParameter("$filter");
+      Bson filter = null;
+      if (filterText != null) {
+         try {
+            filter = compileFilter(resource, filterText);
+         } catch (Exception e) {
+            LOG.debug("Invalid change feed $filter {}: {}", filterText, e.getMessage());
+            writeError(resp, HttpServletResponse.SC_BAD_REQUEST, SimpleError.INVALID_REQUEST);
+            return;
+         }
+      }
+
+      ChangeFeed feed = ChangeFeed.forResource(RESOservlet.getMongoClient().getDatabase("reso"), resource,
+            document -> render(resource, document));
+      resp.setContentType("text/event-stream");
+      resp.setCharacterEncoding("UTF-8");
+      resp.setHeader("Cache-Control", "no-cache");
+      // Keeps proxies such as nginx from buffering the stream
+      resp.setHeader("X-Accel-Buffering", "no");
+      PrintWriter out = resp.getWriter();
+      out.write("retry: 5000\n\n");
+      out.flush();
+
+      AsyncContext async = req.startAsync();
+      async.setTimeout(0);
+      Stream stream = new Stream(async, out);
+      async.addListener(stream);
+      streams.add(stream);
+      stream.subscription = feed.subscribe(filter, filterText, req.getHeader("Last-Event-ID"), stream::schedule);
+      if (!streams.contains(stream)) {
+         // The client went away before it was subscribed
+         stream.subscription.close();
+         return;
+      }
+      stream.reset = !stream.subscription.isReplayed();
+      stream.schedule();
+   }
+
+   /**
+    * One client's stream. Writes are made by one writer at a time, whenever the feed or the heartbeat schedules them.
+    */
+   private final class Stream implements AsyncListener {
+      private final AsyncContext async;
+      private final PrintWriter out;
+      private final AtomicBoolean scheduled = new AtomicBoolean(false);
+      private volatile ChangeFeed.Subscription subscription = null;
+      private volatile boolean reset = false;
+      private volatile boolean keepalive = false;
+      private boolean closed = false;
+
+      private Stream(AsyncContext async, PrintWriter out) {
+         this.async = async;
+         this.out = out;
+      }
+
+      private void schedule() {
+         if (scheduled.compareAndSet(false, true)) {
+            try {
+               writers.execute(this::write);
+            } catch (RejectedExecutionException e) {
+               scheduled.set(false);
+            }
+         }
+      }
+
+      private void write() {
+         // Cleared first, so a change queued while writing schedules another pass
+         scheduled.set(false);
+         ChangeFeed.Subscription subscription = this.subscription;
+         if (subscription == null) {
+            return;
+         }
+         synchronized (this) {
+            if (closed) {
+               return;
+            }
+            try {
+               if (reset) {
+                  out.write("event: reset\ndata: {}\n\n");
+                  reset = false;
+               }
+               for (ChangeFeed.Event event = subscription.poll(); event != null; event = subscription.poll()) {
+                  out.write("id: " + event.getId() + "\nevent: " + event.getOperation() + "\ndata: "
+                        + event.getData() + "\n\n");
+               }
+               if (subscription.getFailure() != null) {
+                  out.write("event: error\ndata: " + objectMapper.writeValueAsString(subscription.getFailure())
+                        + "\n\n");
+                  complete();
+                  return;
+               }
+               if (subscription.isOverflowed() && subscription.isEmpty()) {
+                  out.write("event: overflow\ndata: {}\n\n");
+                  complete();
+                  return;
+               }
+               if (keepalive) {
+                  out.write(": keepalive\n\n");
+                  keepalive = false;
+               }
+               // PrintWriter swallows IOExceptions; checkError flushes and reports a client that went away
+               if (out.checkError()) {
+                  complete();
+               }
+            } catch (IOException | RuntimeException e) {
+               LOG.debug("Change feed stream failed: {}", e.getMessage());
+               complete();
+            }
+         }
+      }
+
+      private synchronized void complete() {
+         if (closed) {
+            return;
+         }
+         close();
+         try {
+            out.flush();
+            async.complete();
+         } catch (IllegalStateException e) {
+            // The container completed it already
+         }
+      }
+
+      private synchronized void close() {
+         closed = true;
+         streams.remove(this);
+         if (subscription != null) {
+            subscription.close();
+         }
+      }
+
+      @Override
+      public void onComplete(AsyncEvent event) {
+         close();
+      }
+
+      @Override
+      public void onTimeout(AsyncEvent event) {
+         complete();
+      }
+
+      @Override
+      public void onError(AsyncEvent event) {
+         complete();
+      }
+
+      @Override
+      public void onStartAsync(AsyncEvent event) {
+      }
+   }
+
+   private Bson compileFilter(ResourceInfo resource, String filterText) throws Exception {
+      String query = "$filter=" + URLEncoder.encode(filterText, "UTF-8").replace("+", "%20");
+      UriInfo uriInfo = new Parser(RESOservlet.getServiceMetadata().getEdm(), odata)
+            .parseUri(resource.getResourcesName(), query, null, null);
+      return MongoDBFilterExpressionVisitor.compile(uriInfo.getFilterOption(), resource);
+   }
+
+   // The entity as the OData service would return it
+   private String render(ResourceInfo resource, Document document) {
+      ServiceMetadata serviceMetadata = RESOservlet.getServiceMetadata();
+      EdmEntitySet entitySet =
+            serviceMetadata.getEdm().getEntityContainer().getEntitySet(resource.getResourcesName());
+      EntitySerializerOptions options = EntitySerializerOptions.with()
+            .contextURL(ContextURL.with().entitySet(entitySet).suffix(ContextURL.Suffix.ENTITY).build())
+            .build();
+      try (InputStream content = odata.createSerializer(ContentType.JSON_NO_METADATA)
+            .entity(serviceMetadata, entitySet.getEntityType(), resource.getDocumentMapper().map(document), options)
+            .getContent()) {
+         ByteArrayOutputStream json = new ByteArrayOutputStream();
+         byte[] buffer = new byte[8192];
+         for (int read = content.read(buffer); read >= 0; read = content.read(buffer)) {
+            json.write(buffer, 0, read);
+         }
+         return new String(json.toByteArray(), StandardCharsets.UTF_8);
+      } catch (SerializerException | IOException e) {
+         throw new IllegalStateException(e.getMessage(), e);
+      }
+   }
+
+   private void writeError(HttpServletResponse resp, int status, String error) throws IOException {
+      if (status != 0) {
+         resp.setStatus(status);
+      }
+      resp.setContentType("application/json");
+      resp.setCharacterEncoding("UTF-8");
+      PrintWriter out = resp.getWriter();
+      out.println(objectMapper.writeValueAsString(new SimpleError(error)));
+      out.flush();
+   }
+}
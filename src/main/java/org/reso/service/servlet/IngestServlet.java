@@ -0,0 +1,88 @@
+package org.reso.service.servlet;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.reso.service.data.meta.ResourceInfo;
+import org.reso.service.data.mongodb.BulkIngest;
+import org.reso.service.data.mongodb.DocumentConverter;
+import org.reso.service.security.Validator;
+import org.reso.service.security.providers.BearerAuthProvider;
+import org.reso.service.servlet.util.SimpleError;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import javax.servlet.ServletException;
+import javax.servlet.http.*;
+
+/**
+ * POST /ingest/{Resource} - upsert newline-delimited JSON records, one per line, in batched bulk writes. Protected by
+ * the same bearer token as the OData service.
+ * <p>
+ * The optional batchSize query parameter overrides INGEST_BATCH_SIZE for the request. The response reports the
+ * records written, rejected and failed, with the outcome of every batch. MongoDB only.
+ */
+public class IngestServlet extends HttpServlet {
+   private static final long serialVersionUID = 1L;
+
+   private final ObjectMapper objectMapper = new ObjectMapper();
+   private final boolean mongo = "mongodb".equalsIgnoreCase(System.getenv().getOrDefault("DB_TYPE", "mongodb"));
+   private Validator validator = null;
+
+   @Override
+   public void init() throws ServletException {
+      super.init();
+      this.validator = new Validator();
+      this.validator.addProvider(new BearerAuthProvider());
+   }
+
+   @Override
+   protected void doPost(final HttpServletRequest req, final HttpServletResponse resp)
+         throws ServletException, IOException {
+      resp.setContentType("application/json");
+      resp.setCharacterEncoding("UTF-8");
+
+      if (!this.validator.verify(req) && this.validator.unauthorizedResponse(resp)) {
+         writeJson(resp, new SimpleError(SimpleError.AUTH_REQUIRED));
+         return;
+      }
+
+      String path = req.getPathInfo() == null ? "" : req.getPathInfo();
+      ResourceInfo resource = RESOservlet.resourceLookup.get(path.startsWith("/") ? path.substring(1) : path);
+      if (resource == null) {
+         resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
+         writeJson(resp, new SimpleError(SimpleError.INVALID_REQUEST));
+         return;
+      }
+      if (!mongo) {
+         resp.setStatus(HttpServletResponse.SC_NOT_IMPLEMENTED);
+         writeJson(resp, new SimpleError(SimpleError.INVALID_REQUEST));
+         return;
+      }
+      if (RESOservlet.getMongoClient() == null) {
+         resp.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+         writeJson(resp, new SimpleError(SimpleError.INVALID_REQUEST));
+         return;
+      }
+
+      int batchSize = BulkIngest.DEFAULT_BATCH_SIZE;
+      String batchParam = req.getParameter("batchSize");
+      if (batchParam != null) {
+         try {
+            batchSize = Integer.parseInt(batchParam);
+         } catch (NumberFormatException e) {
+            resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            writeJson(resp, new SimpleError(SimpleError.INVALID_REQUEST));
+            return;
+         }
+      }
+
+      BulkIngest ingest = new BulkIngest(RESOservlet.getMongoClient().getDatabase("reso"),
+            new DocumentConverter(resource), batchSize);
+      writeJson(resp, ingest.ingest(req.getReader()));
+   }
+
+   private void writeJson(HttpServletResponse resp, Object value) throws IOException {
+      PrintWriter out = resp.getWriter();
+      out.println(objectMapper.writeValueAsString(value));
+      out.flush();
+   }
+}
@@ -0,0 +1,41 @@
+package org.reso.service.servlet;
+
+import org.reso.service.metrics.MetricsRegistry;
+import org.reso.service.security.Validator;
+import org.reso.service.security.providers.BearerAuthProvider;
+
+import java.io.IOException;
+import java.io.Writer;
+import javax.servlet.ServletException;
+import javax.servlet.http.*;
+
+/**
+ * GET /metrics - the metrics registry in the Prometheus text format, protected by the same bearer token as the
+ * OData service.
+ */
+public class MetricsServlet extends HttpServlet {
+   private static final long serialVersionUID = 1L;
+
+   private Validator validator = null;
+
+   @Override
+   public void init() throws ServletException {
+      super.init();
+      this.validator = new Validator();
+      this.validator.addProvider(new BearerAuthProvider());
+   }
+
+   @Override
+   protected void doGet(final HttpServletRequest req, final HttpServletResponse resp)
+         throws ServletException, IOException {
+      if (!this.validator.verify(req) && this.validator.unauthorizedResponse(resp)) {
+         return;
+      }
+
+      resp.setContentType("text/plain; version=0.0.4");
+      resp.setCharacterEncoding("UTF-8");
+      Writer out = resp.getWriter();
+      MetricsRegistry.getInstance().writePrometheus(out);
+      out.flush();
+   }
+}
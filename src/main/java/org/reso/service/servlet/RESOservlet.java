@@ -8,11 +8,21 @@ import org.apache.olingo.commons.api.http.HttpMethod;
 import org.apache.olingo.server.api.*;
 import org.reso.service.data.GenericEntityCollectionProcessor;
 import org.reso.service.data.GenericEntityProcessor;
+import org.reso.service.data.definition.LookupCacheReloader;
 import org.reso.service.data.definition.LookupDefinition;
 import org.reso.service.data.meta.builder.DefinitionBuilder;
 import org.reso.service.data.definition.FieldDefinition;
 import org.reso.service.data.meta.ResourceInfo;
+import org.reso.service.data.mongodb.DeltaLog;
+import org.reso.service.data.mongodb.IndexAdvisor;
+import org.reso.service.data.mongodb.SearchShadowBackfill;
+import org.reso.service.data.sql.ConnectionPool;
+import org.reso.service.data.sql.SqlEntityIterator;
+import org.reso.service.data.sync.SyncEngine;
+import org.reso.service.diagnostics.DiagnosticLog;
 import org.reso.service.edmprovider.RESOedmProvider;
+import org.reso.service.metrics.MetricsRegistry;
+import org.reso.service.metrics.StageTimer;
 import org.reso.service.security.Validator;
 import org.reso.service.security.providers.BearerAuthProvider;
 import org.reso.service.servlet.util.ClassLoader;
@@ -23,6 +33,11 @@ import org.slf4j.LoggerFactory;
 import java.io.*;
 import java.lang.reflect.Constructor;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import javax.servlet.ServletException;
 import javax.servlet.http.*;
 
@@ -30,6 +45,15 @@ public class RESOservlet extends HttpServlet {
     private static final long serialVersionUID = 1L;
     private static final Logger LOG = LoggerFactory.getLogger(RESOservlet.class);
     private static MongoClient mongoClient = null;
+    private static LookupCacheReloader lookupCacheReloader = null;
+    private static SyncEngine syncEngine = null;
+    private static DeltaLog deltaLog = null;
+    private static SearchShadowBackfill searchShadowBackfill = null;
+    private static ServiceMetadata serviceMetadata = null;
+    private static final int STARTUP_THREADS =
+            Integer.parseInt(System.getenv().getOrDefault("STARTUP_THREADS", "8"));
+    private static final Map<String, Long> startupPhases = Collections.synchronizedMap(new LinkedHashMap<>());
+    private static volatile boolean ready = false;
     private Validator validator = null;
     private OData odata = null;
     ODataHttpHandler handler = null;
@@ -40,9 +64,48 @@ public class RESOservlet extends HttpServlet {
         return mongoClient;
     }
 
+    public static LookupCacheReloader getLookupCacheReloader() {
+        return lookupCacheReloader;
+    }
+
+    public static SyncEngine getSyncEngine() {
+        return syncEngine;
+    }
+
+    /**
+     * @return The log of deletes for delta responses, or null when the data is not in MongoDB
+     */
+    public static DeltaLog getDeltaLog() {
+        return deltaLog;
+    }
+
+    /**
+     * @return true once every resource, the lookup cache and the metadata are loaded
+     */
+    public static boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * @return How long each startup phase took, in milliseconds
+     */
+    public static Map<String, Long> getStartupPhases() {
+        synchronized (startupPhases) {
+            return new LinkedHashMap<>(startupPhases);
+        }
+    }
+
+    /**
+     * @return The service metadata, once the servlet is initialized
+     */
+    public static ServiceMetadata getServiceMetadata() {
+        return serviceMetadata;
+    }
+
     @Override
     public void init() throws ServletException {
         super.init();
+        long startupStart = System.nanoTime();
 
         Map<String, String> env = System.getenv();
         for (String envName : env.keySet()) {
@@ -78,66 +141,141 @@ public class RESOservlet extends HttpServlet {
         fieldDefinition.addResources(resources);
         resourceLookup.put(fieldDefinition.getResourceName(), fieldDefinition);
 
+        long phaseStart = System.nanoTime();
+        List<ResourceInfo> definitions = readDefinitions(env.get("CERT_REPORT_FILENAME"));
+        recordPhase("definitions", phaseStart);
+
+        // Primary keys are found concurrently; the metadata needs them all, while the lookup cache is only needed
+        // to read data and loads alongside both
+        ExecutorService startup = Executors.newFixedThreadPool(STARTUP_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "startup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        LookupDefinition defn = new LookupDefinition();
+        try {
+            Future<?> lookupCache = startup.submit(() -> {
+                long start = System.nanoTime();
+                LookupDefinition.loadCache(mongoClient, defn);
+                recordPhase("lookupCache", start);
+            });
+
+            phaseStart = System.nanoTime();
+            Map<ResourceInfo, Future<?>> keys = new LinkedHashMap<>();
+            for (ResourceInfo resource : definitions) {
+                keys.put(resource, startup.submit(() -> resource.findMongoPrimaryKey(mongoClient)));
+            }
+            keys.put(defn, startup.submit(() -> defn.findMongoPrimaryKey(mongoClient)));
+            for (Map.Entry<ResourceInfo, Future<?>> key : keys.entrySet()) {
+                ResourceInfo resource = key.getKey();
+                try {
+                    key.getValue().get();
+                    resources.add(resource);
+                    resourceLookup.put(resource.getResourceName(), resource);
+                } catch (ExecutionException e) {
+                    LOG.error("Error with: " + resource.getResourceName() + " - " + e.getCause().getMessage());
+                }
+            }
+            recordPhase("primaryKeys", phaseStart);
+
+            phaseStart = System.nanoTime();
+            buildMetadata(edmProvider, resources, startup);
+            recordPhase("metadata", phaseStart);
+
+            lookupCache.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServletException("Interrupted while starting", e);
+        } catch (ExecutionException e) {
+            throw new ServletException("Failed to start: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            startup.shutdownNow();
+        }
+
+        try {
+            boolean watchLookups = Boolean.parseBoolean(env.getOrDefault("LOOKUP_CACHE_WATCH", "true"));
+            lookupCacheReloader = new LookupCacheReloader(mongoClient, defn);
+            lookupCacheReloader.start(watchLookups);
+        } catch (Exception e) {
+            LOG.error(e.getMessage());
+        }
+
+        IndexAdvisor.getInstance().seedDefaults(resources);
+        registerMetrics(resources);
+        if (Boolean.parseBoolean(env.getOrDefault("MONGO_AUTO_INDEXES", "false"))) {
+            // Index builds can take a while on large collections, so they do not hold up startup
+            IndexAdvisor.getInstance().createMissingInBackground(mongoClient.getDatabase("reso"), Integer.MAX_VALUE);
+        }
+
+        if ("mongodb".equalsIgnoreCase(env.getOrDefault("DB_TYPE", "mongodb"))) {
+            syncEngine = SyncEngine.fromEnvironment(mongoClient.getDatabase("reso"), resources);
+            deltaLog = new DeltaLog(mongoClient.getDatabase("reso"), resources);
+            try {
+                deltaLog.start();
+            } catch (Exception e) {
+                LOG.error("Error starting the delta log: " + e.getMessage());
+            }
+            searchShadowBackfill = new SearchShadowBackfill(mongoClient.getDatabase("reso"), resources);
+            searchShadowBackfill.start();
+        }
+        if (syncEngine != null) {
+            syncEngine.start();
+        }
+
+        recordPhase("total", startupStart);
+        ready = true;
+        LOG.info("Ready with {} resources, startup phases in ms: {}", resources.size(), startupPhases);
+    }
+
+    /**
+     * @return The resources of the certification metadata report, or of the custom definition classes when there
+     * is none. Their primary keys are not known yet.
+     */
+    private List<ResourceInfo> readDefinitions(String definitionFile) {
+        List<ResourceInfo> definitions = new ArrayList<>();
         // If there is a Certification metadata report file, import it for class
         // definitions.
-        String definitionFile = env.get("CERT_REPORT_FILENAME");
         if (definitionFile != null) {
             DefinitionBuilder definitionBuilder = new DefinitionBuilder(definitionFile);
-            List<ResourceInfo> loadedResources = definitionBuilder.readResources();
-
-            for (ResourceInfo resource : loadedResources) {
+            for (ResourceInfo resource : definitionBuilder.readResources()) {
                 if (!(resource.getResourceName()).equals("Field") && !(resource.getResourceName()).equals("Lookup")) {
-                    try {
-                        resource.findMongoPrimaryKey(mongoClient);
-                        resources.add(resource);
-                        resourceLookup.put(resource.getResourceName(), resource);
-                    } catch (Exception e) {
-                        LOG.error("Error with: " + resource.getResourceName() + " - " + e.getMessage());
-                    }
-                }
-            }
-        } else {
-            // Get all classes with constructors with 0 parameters
-            try {
-                Class[] classList = ClassLoader.getClasses("org.reso.service.data.definition.custom");
-                for (Class classProto : classList) {
-                    Constructor ctor = null;
-                    Constructor[] ctors = classProto.getDeclaredConstructors();
-                    for (int i = 0; i < ctors.length; i++) {
-                        ctor = ctors[i];
-                        if (ctor.getGenericParameterTypes().length == 0)
-                            break;
-                    }
-                    if (ctor != null) {
-                        ctor.setAccessible(true);
-                        ResourceInfo resource = (ResourceInfo) ctor.newInstance();
-
-                        try {
-                            resource.findMongoPrimaryKey(mongoClient);
-                            resources.add(resource);
-                            resourceLookup.put(resource.getResourceName(), resource);
-                        } catch (Exception e) {
-                            LOG.error("Error with: " + resource.getResourceName() + " - " + e.getMessage());
-                        }
-                    }
+                    definitions.add(resource);
                 }
-            } catch (Exception e) {
-                LOG.error(e.getMessage());
             }
+            return definitions;
         }
 
-        LookupDefinition defn = new LookupDefinition();
+        // Get all classes with constructors with 0 parameters
         try {
-            defn.findMongoPrimaryKey(mongoClient);
-            resources.add(defn);
-            resourceLookup.put(defn.getResourceName(), defn);
-            LookupDefinition.loadCache(mongoClient, defn);
+            Class[] classList = ClassLoader.getClasses("org.reso.service.data.definition.custom");
+            for (Class classProto : classList) {
+                Constructor ctor = null;
+                Constructor[] ctors = classProto.getDeclaredConstructors();
+                for (int i = 0; i < ctors.length; i++) {
+                    ctor = ctors[i];
+                    if (ctor.getGenericParameterTypes().length == 0)
+                        break;
+                }
+                if (ctor != null) {
+                    ctor.setAccessible(true);
+                    definitions.add((ResourceInfo) ctor.newInstance());
+                }
+            }
         } catch (Exception e) {
             LOG.error(e.getMessage());
         }
+        return definitions;
+    }
 
+    /**
+     * Registers the resources with the OData handler and pre-loads the metadata, while the document mappers compile
+     * on the startup pool.
+     */
+    private void buildMetadata(RESOedmProvider edmProvider, List<ResourceInfo> resources, ExecutorService startup)
+            throws InterruptedException, ExecutionException {
         ServiceMetadata edm = odata.createServiceMetadata(edmProvider, new ArrayList<EdmxReference>());
         edm.getReferences();
+        serviceMetadata = edm;
 
         // create odata handler and configure it with CsdlEdmProvider and Processor
         this.handler = odata.createHandler(edm);
@@ -148,12 +286,14 @@ public class RESOservlet extends HttpServlet {
         this.handler.register(entityCollectionProcessor);
         this.handler.register(entityProcessor);
 
+        List<Future<?>> mappers = new ArrayList<>();
         for (ResourceInfo resource : resources) {
             LOG.info("Resource importing: " + resource.getResourceName());
             edmProvider.addDefinition(resource);
 
             entityCollectionProcessor.addResource(resource, resource.getResourceName());
             entityProcessor.addResource(resource, resource.getResourceName());
+            mappers.add(startup.submit(resource::compileDocumentMapper));
         }
 
         // We want to pre-load ALL the metadata. The best way is to do a $metadata
@@ -163,6 +303,55 @@ public class RESOservlet extends HttpServlet {
         request.setMethod(HttpMethod.GET);
         request.setProtocol("HTTP/1.1");
         this.handler.process(request);
+
+        for (Future<?> mapper : mappers) {
+            mapper.get();
+        }
+    }
+
+    private static void recordPhase(String phase, long startNanos) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        startupPhases.put(phase, millis);
+        LOG.info("Startup phase {} took {} ms", phase, millis);
+    }
+
+    private void registerMetrics(List<ResourceInfo> resources) {
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        metrics.gauge("reso_lookup_cache_size", "Lookup values held in the lookup cache",
+                () -> LookupDefinition.getDictionary().size());
+        for (ResourceInfo resource : resources) {
+            metrics.gauge("reso_filter_plan_cache_hit_ratio", "Hit ratio of the compiled $filter plan cache",
+                    () -> resource.getFilterPlanCache().getHitRate(), "resource", resource.getResourceName());
+            metrics.gauge("reso_filter_plan_cache_size", "Compiled $filter plans held",
+                    () -> resource.getFilterPlanCache().size(), "resource", resource.getResourceName());
+        }
+        metrics.gauge("reso_diagnostic_messages_dropped", "Diagnostic log messages dropped on a full queue",
+                DiagnosticLog::getDropped);
+        metrics.registerMBean();
+    }
+
+    @Override
+    public void destroy() {
+        ready = false;
+        if (lookupCacheReloader != null) {
+            lookupCacheReloader.stop();
+            lookupCacheReloader = null;
+        }
+        if (syncEngine != null) {
+            syncEngine.stop();
+            syncEngine = null;
+        }
+        if (deltaLog != null) {
+            deltaLog.stop();
+            deltaLog = null;
+        }
+        if (searchShadowBackfill != null) {
+            searchShadowBackfill.stop();
+            searchShadowBackfill = null;
+        }
+        MetricsRegistry.getInstance().unregisterMBean();
+        ConnectionPool.shutdown();
+        super.destroy();
     }
 
     protected void service(final HttpServletRequest req, final HttpServletResponse resp)
@@ -177,11 +366,21 @@ public class RESOservlet extends HttpServlet {
             return;
         }
 
+        StageTimer.begin();
+        String diagnosticId = DiagnosticLog.begin(req.getHeader(DiagnosticLog.HEADER));
+        if (diagnosticId != null) {
+            resp.setHeader(DiagnosticLog.ID_HEADER, diagnosticId);
+            DiagnosticLog.log("{} {}?{}", req.getMethod(), req.getRequestURI(), req.getQueryString());
+        }
         try {
             this.handler.process(req, resp);
         } catch (RuntimeException e) {
             LOG.error("Server Error occurred in RESOservlet", e);
             throw new ServletException(e);
+        } finally {
+            SqlEntityIterator.closeAbandoned();
+            DiagnosticLog.end();
+            StageTimer.end();
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,234 @@
+package org.reso.tests;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import org.bson.BsonDocument;
+import org.bson.BsonObjectId;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.reso.service.data.meta.GenericResourceInfo;
+import org.reso.service.data.mongodb.ChangeFeed;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ChangeFeedTest {
+    private static final ClassLoader LOADER = ChangeFeedTest.class.getClassLoader();
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Test
+    void deletesCarryTheKeyOfThePreImage() throws Exception {
+        Fake fake = new Fake();
+        ChangeFeed feed = fake.feed("FeedPreImage");
+        ChangeFeed.Subscription subscription = feed.subscribe(null, null, null, () -> { });
+
+        feed.publish(Collections.singletonList(ChangeFeed.Change.delete("1", new BsonObjectId(),
+                new Document("ListingKey", "L1"))));
+        JsonNode data = MAPPER.readTree(subscription.poll().getData());
+        Assertions.assertEquals("L1", data.get("ListingKey").asText());
+        Assertions.assertEquals("Property('L1')", data.get("@odata.id").asText());
+        subscription.close();
+    }
+
+    @Test
+    void deletesWithoutAPreImageUseTheLastSeenKey() throws Exception {
+        Fake fake = new Fake();
+        ChangeFeed feed = fake.feed("FeedSeenKey");
+        ChangeFeed.Subscription subscription = feed.subscribe(null, null, null, () -> { });
+        BsonObjectId seen = new BsonObjectId();
+        BsonObjectId unseen = new BsonObjectId();
+
+        feed.publish(Arrays.asList(
+                ChangeFeed.Change.of("1", "insert", seen, new Document("ListingKey", "L2")),
+                ChangeFeed.Change.delete("2", seen, null),
+                ChangeFeed.Change.delete("3", unseen, null)));
+        Assertions.assertEquals("insert", subscription.poll().getOperation());
+        Assertions.assertEquals("Property('L2')", MAPPER.readTree(subscription.poll().getData())
+                .get("@odata.id").asText());
+        JsonNode unknown = MAPPER.readTree(subscription.poll().getData());
+        Assertions.assertNull(unknown.get("@odata.id"), "an unknown key is not guessed");
+        Assertions.assertEquals(unseen.getValue().toHexString(), unknown.get("_id").get("$oid").asText());
+        subscription.close();
+    }
+
+    @Test
+    void aFilterIsLookedUpOncePerBatch() {
+        Fake fake = new Fake();
+        ChangeFeed feed = fake.feed("FeedBatch");
+        BsonObjectId first = new BsonObjectId();
+        BsonObjectId second = new BsonObjectId();
+        fake.matching.add(second);
+        ChangeFeed.Subscription one = feed.subscribe(Filters.eq("City", "Reno"), "City eq 'Reno'", null, () -> { });
+        ChangeFeed.Subscription two = feed.subscribe(Filters.eq("City", "Reno"), "City eq 'Reno'", null, () -> { });
+
+        feed.publish(Arrays.asList(
+                ChangeFeed.Change.of("1", "update", first, new Document("ListingKey", "L3")),
+                ChangeFeed.Change.of("2", "update", second, new Document("ListingKey", "L4")),
+                ChangeFeed.Change.delete("3", first, null)));
+        Assertions.assertEquals(1, fake.finds.get(), "one lookup for the batch and both subscribers");
+        for (ChangeFeed.Subscription subscription : Arrays.asList(one, two)) {
+            Assertions.assertEquals("2", subscription.poll().getId());
+            Assertions.assertEquals("delete", subscription.poll().getOperation(), "deletes always match");
+            Assertions.assertNull(subscription.poll());
+            subscription.close();
+        }
+    }
+
+    @Test
+    void reconnectingClientsResumeAfterTheirLastChange() {
+        Fake fake = new Fake();
+        ChangeFeed feed = fake.feed("FeedReplay");
+        ChangeFeed.Subscription live = feed.subscribe(null, null, null, () -> { });
+        feed.publish(Arrays.asList(
+                ChangeFeed.Change.of("1", "insert", new BsonObjectId(), new Document("ListingKey", "L5")),
+                ChangeFeed.Change.of("2", "insert", new BsonObjectId(), new Document("ListingKey", "L6")),
+                ChangeFeed.Change.of("3", "insert", new BsonObjectId(), new Document("ListingKey", "L7"))));
+
+        ChangeFeed.Subscription resumed = feed.subscribe(null, null, "1", () -> { });
+        Assertions.assertTrue(resumed.isReplayed());
+        Assertions.assertEquals("2", resumed.poll().getId());
+        Assertions.assertEquals("3", resumed.poll().getId());
+        Assertions.assertNull(resumed.poll());
+
+        ChangeFeed.Subscription reset = feed.subscribe(null, null, "unknown", () -> { });
+        Assertions.assertFalse(reset.isReplayed(), "changes may have been missed");
+        Assertions.assertNull(reset.poll());
+        live.close();
+        resumed.close();
+        reset.close();
+    }
+
+    @Test
+    void slowSubscribersOverflowAndListenersAreTold() {
+        Fake fake = new Fake();
+        ChangeFeed feed = fake.feed("FeedOverflow");
+        AtomicInteger told = new AtomicInteger();
+        ChangeFeed.Subscription subscription = feed.subscribe(null, null, null, told::incrementAndGet);
+
+        List<ChangeFeed.Change> changes = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            changes.add(ChangeFeed.Change.of(String.valueOf(i), "insert", new BsonObjectId(),
+                    new Document("ListingKey", "L" + i)));
+        }
+        feed.publish(changes);
+        Assertions.assertTrue(subscription.isOverflowed());
+        Assertions.assertEquals(300, told.get());
+        Assertions.assertEquals("0", subscription.poll().getId(), "what was queued is still delivered");
+        subscription.close();
+    }
+
+    /**
+     * A database whose change stream stays idle and whose lookups return the ids in matching.
+     */
+    private static final class Fake {
+        private final List<BsonValue> matching = new ArrayList<>();
+        private final AtomicInteger finds = new AtomicInteger();
+
+        ChangeFeed feed(String resourceName) {
+            GenericResourceInfo resource = new GenericResourceInfo(resourceName, resourceName.toLowerCase()) {
+                {
+                    resourcesName = "Property";
+                    primaryKeyName = "ListingKey";
+                }
+            };
+            return ChangeFeed.forResource(database(), resource, document -> document.toJson());
+        }
+
+        private MongoDatabase database() {
+            MongoCollection<?> collection = proxy(MongoCollection.class, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getNamespace":
+                        return new MongoNamespace("reso", "feed");
+                    case "watch":
+                        return stream();
+                    case "find":
+                        finds.incrementAndGet();
+                        return found();
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+            return proxy(MongoDatabase.class, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getCollection":
+                        return collection;
+                    case "runCommand":
+                        return new Document("ok", 1);
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+        }
+
+        private ChangeStreamIterable<?> stream() {
+            MongoChangeStreamCursor<?> cursor = proxy(MongoChangeStreamCursor.class, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "tryNext":
+                        Thread.sleep(10);
+                        return null;
+                    case "available":
+                        return 0;
+                    case "close":
+                        return null;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+            return proxy(ChangeStreamIterable.class, (proxy, method, args) ->
+                    method.getName().equals("cursor") ? cursor : proxy);
+        }
+
+        private FindIterable<?> found() {
+            return proxy(FindIterable.class, (proxy, method, args) -> {
+                if (!method.getName().equals("iterator")) {
+                    return proxy;
+                }
+                Iterator<BsonValue> ids = new ArrayList<>(matching).iterator();
+                return proxy(MongoCursor.class, (cursor, next, nextArgs) -> {
+                    switch (next.getName()) {
+                        case "hasNext":
+                            return ids.hasNext();
+                        case "next":
+                            return new BsonDocument("_id", ids.next());
+                        case "close":
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(next.getName());
+                    }
+                });
+            });
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(LOADER, new Class<?>[]{type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return type.getSimpleName();
+                default:
+                    return handler.invoke(proxy, method, args);
+            }
+        });
+    }
+}
@@ -0,0 +1,55 @@
+package org.reso.tests;
+
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.reso.service.data.mongodb.DeltaToken;
+
+import java.util.Date;
+
+public class DeltaTokenTest {
+
+    @Test
+    void positionSurvivesTheRoundTrip() {
+        ObjectId id = new ObjectId();
+        Date timestamp = new Date(1706702400000L);
+        DeltaToken token = new DeltaToken(null, null, "", 1000L).afterEntity(timestamp, id)
+                .afterTombstone("8265B9").issued(2000L);
+
+        String encoded = token.encode();
+        Assertions.assertTrue(encoded.matches("[A-Za-z0-9_-]+"), "safe in a query string as is");
+
+        DeltaToken decoded = DeltaToken.decode(encoded);
+        Assertions.assertNotNull(decoded);
+        Assertions.assertEquals(timestamp, decoded.getTimestamp());
+        Assertions.assertEquals(id, decoded.getAfterId());
+        Assertions.assertEquals("8265B9", decoded.getTombstone());
+        Assertions.assertEquals(2000L, decoded.getIssuedAt());
+        Assertions.assertFalse(decoded.isInitial());
+    }
+
+    @Test
+    void firstReadStaysInitialUntilTheDeltaLink() {
+        DeltaToken next = new DeltaToken(null, null, "", 1000L, true).afterEntity(new Date(1706702400000L),
+                new ObjectId());
+        DeltaToken decoded = DeltaToken.decode(next.encode());
+        Assertions.assertNotNull(decoded);
+        Assertions.assertTrue(decoded.isInitial());
+        Assertions.assertFalse(DeltaToken.decode(decoded.issued(2000L).encode()).isInitial());
+    }
+
+    @Test
+    void startOfTheCollectionHasNoPosition() {
+        DeltaToken decoded = DeltaToken.decode(new DeltaToken(null, null, null, 1000L).encode());
+        Assertions.assertNotNull(decoded);
+        Assertions.assertNull(decoded.getTimestamp());
+        Assertions.assertNull(decoded.getAfterId());
+        Assertions.assertEquals("", decoded.getTombstone());
+    }
+
+    @Test
+    void foreignTokensAreRejected() {
+        Assertions.assertNull(DeltaToken.decode("not a token"));
+        Assertions.assertNull(DeltaToken.decode("e30"));
+    }
+}
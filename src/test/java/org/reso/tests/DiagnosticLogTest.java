@@ -0,0 +1,34 @@
+package org.reso.tests;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.reso.service.diagnostics.DiagnosticLog;
+
+public class DiagnosticLogTest {
+
+    @AfterEach
+    void unbind() {
+        DiagnosticLog.end();
+    }
+
+    @Test
+    void offUnlessRequested() {
+        Assertions.assertNull(DiagnosticLog.begin(null));
+        Assertions.assertNull(DiagnosticLog.begin("false"));
+        Assertions.assertFalse(DiagnosticLog.isEnabled());
+    }
+
+    @Test
+    void requestedByHeader() {
+        String first = DiagnosticLog.begin("true");
+        Assertions.assertNotNull(first);
+        Assertions.assertTrue(DiagnosticLog.isEnabled());
+
+        String second = DiagnosticLog.begin("1");
+        Assertions.assertNotEquals(first, second);
+
+        DiagnosticLog.end();
+        Assertions.assertFalse(DiagnosticLog.isEnabled());
+    }
+}
@@ -0,0 +1,63 @@
+package org.reso.tests;
+
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind;
+import org.bson.Document;
+import org.bson.types.Decimal128;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.reso.service.data.meta.FieldInfo;
+import org.reso.service.data.meta.GenericResourceInfo;
+import org.reso.service.data.mongodb.DocumentConverter;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class DocumentConverterTest {
+
+    private static DocumentConverter converter() {
+        GenericResourceInfo resource = new GenericResourceInfo("Member", "member");
+        resource.getFieldList().add(new FieldInfo("MemberKey", EdmPrimitiveTypeKind.String.getFullQualifiedName()));
+        resource.getFieldList().add(new FieldInfo("MemberAge", EdmPrimitiveTypeKind.Int32.getFullQualifiedName()));
+        resource.getFieldList().add(new FieldInfo("MemberFee", EdmPrimitiveTypeKind.Decimal.getFullQualifiedName()));
+        resource.getFieldList().add(new FieldInfo("ModificationTimestamp",
+                EdmPrimitiveTypeKind.DateTimeOffset.getFullQualifiedName()));
+        return new DocumentConverter(resource);
+    }
+
+    @Test
+    void convertsValuesToTheStoredTypes() {
+        Map<String, Object> record = new HashMap<>();
+        record.put("@odata.id", "Member('M1')");
+        record.put("MemberKey", "M1");
+        record.put("MemberAge", 42L);
+        record.put("MemberFee", new BigDecimal("12.50"));
+        record.put("ModificationTimestamp", "2024-01-31T12:00:00Z");
+        List<String> errors = new ArrayList<>();
+
+        Document document = converter().convert(record, errors);
+
+        Assertions.assertTrue(errors.isEmpty(), errors.toString());
+        Assertions.assertEquals(42, document.get("MemberAge"));
+        Assertions.assertEquals(new Decimal128(new BigDecimal("12.50")), document.get("MemberFee"));
+        Assertions.assertEquals(Date.from(Instant.parse("2024-01-31T12:00:00Z")),
+                document.get("ModificationTimestamp"));
+        Assertions.assertFalse(document.containsKey("@odata.id"));
+    }
+
+    @Test
+    void rejectsUnknownFieldsAndValuesOutOfRange() {
+        Map<String, Object> record = new HashMap<>();
+        record.put("MemberKey", "M1");
+        record.put("MemberAge", 1L << 40);
+        record.put("MemberShoeSize", 9);
+        List<String> errors = new ArrayList<>();
+
+        Assertions.assertNull(converter().convert(record, errors));
+        Assertions.assertEquals(2, errors.size(), errors.toString());
+    }
+}
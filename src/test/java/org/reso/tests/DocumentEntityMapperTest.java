@@ -0,0 +1,38 @@
+package org.reso.tests;
+
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind;
+import org.bson.Document;
+import org.bson.types.Decimal128;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.reso.service.data.common.DocumentEntityMapper;
+import org.reso.service.data.meta.FieldInfo;
+import org.reso.service.data.meta.GenericResourceInfo;
+
+import java.math.BigDecimal;
+
+public class DocumentEntityMapperTest {
+
+    private static Object int64(Object stored) {
+        GenericResourceInfo resource = new GenericResourceInfo("Property", "property");
+        resource.getFieldList().add(new FieldInfo("BedroomsTotal", EdmPrimitiveTypeKind.Int64.getFullQualifiedName()));
+        Entity entity = DocumentEntityMapper.compile(resource).map(new Document("BedroomsTotal", stored));
+        return entity.getProperty("BedroomsTotal").getValue();
+    }
+
+    @Test
+    void integralValuesBecomeLongs() {
+        Assertions.assertEquals(3L, int64(3));
+        Assertions.assertEquals(3L, int64(3L));
+        Assertions.assertEquals(4L, int64(4.0));
+        Assertions.assertEquals(5L, int64(new Decimal128(new BigDecimal("5.00"))));
+    }
+
+    @Test
+    void fractionalValuesAreNotTruncated() {
+        Assertions.assertNull(int64(1.5));
+        Assertions.assertNull(int64(new Decimal128(new BigDecimal("2.25"))));
+        Assertions.assertNull(int64(1e20));
+    }
+}
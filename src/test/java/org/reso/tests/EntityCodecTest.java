@@ -0,0 +1,92 @@
+package org.reso.tests;
+
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.reso.service.data.definition.LookupDefinition;
+import org.reso.service.data.definition.LookupDictionary;
+import org.reso.service.data.meta.EnumFieldInfo;
+import org.reso.service.data.meta.FieldInfo;
+import org.reso.service.data.meta.GenericResourceInfo;
+
+import java.util.Arrays;
+
+public class EntityCodecTest {
+
+    @Test
+    void decodesDocumentIntoEntity() {
+        GenericResourceInfo resource = new GenericResourceInfo("Member", "member");
+        resource.getFieldList().add(new FieldInfo("MemberKey", EdmPrimitiveTypeKind.String.getFullQualifiedName()));
+        resource.getFieldList().add(new FieldInfo("MemberAge", EdmPrimitiveTypeKind.Int64.getFullQualifiedName()));
+        FieldInfo languages = new FieldInfo("MemberLanguages", EdmPrimitiveTypeKind.String.getFullQualifiedName());
+        languages.setCollection();
+        resource.getFieldList().add(languages);
+
+        RawBsonDocument doc = RawBsonDocument.parse("{ \"_id\": 1, \"MemberAge\": 42, \"Unknown\": { \"a\": 1 },"
+                + " \"MemberLanguages\": [\"English\", \"French\"], \"MemberKey\": \"M1\" }");
+        Entity entity = resource.getEntityCodec().decode(new BsonDocumentReader(doc), DecoderContext.builder().build());
+
+        Assertions.assertEquals(3, entity.getProperties().size());
+        Assertions.assertEquals("M1", entity.getProperty("MemberKey").getValue());
+        Assertions.assertEquals(42L, entity.getProperty("MemberAge").getValue());
+        Assertions.assertEquals(Arrays.asList("English", "French"), entity.getProperty("MemberLanguages").getValue());
+    }
+
+    @Test
+    void encodedEntityDecodesToTheSameValues() {
+        GenericResourceInfo resource = new GenericResourceInfo("Member", "member");
+        resource.getFieldList().add(new FieldInfo("MemberKey", EdmPrimitiveTypeKind.String.getFullQualifiedName()));
+        resource.getFieldList().add(new FieldInfo("MemberAge", EdmPrimitiveTypeKind.Int64.getFullQualifiedName()));
+        FieldInfo languages = new FieldInfo("MemberLanguages", EdmPrimitiveTypeKind.String.getFullQualifiedName());
+        languages.setCollection();
+        resource.getFieldList().add(languages);
+        Entity entity = resource.getEntityCodec().decode(new BsonDocumentReader(RawBsonDocument.parse(
+                "{ \"MemberKey\": \"M1\", \"MemberAge\": 42, \"MemberLanguages\": [\"English\"] }")),
+                DecoderContext.builder().build());
+
+        BsonDocument encoded = new BsonDocument();
+        resource.getEntityCodec().encode(new BsonDocumentWriter(encoded), entity, EncoderContext.builder().build());
+
+        Assertions.assertEquals(BsonDocument.parse(
+                "{ \"MemberKey\": \"M1\", \"MemberAge\": { \"$numberLong\": \"42\" },"
+                        + " \"MemberLanguages\": [\"English\"] }"), encoded);
+    }
+
+    @Test
+    void enumsAndDatesAreEncodedAsStored() {
+        LookupDictionary.Builder builder = new LookupDictionary.Builder();
+        builder.add("StandardStatus", "S1", "Active Under Contract", "Active Under Contract", "ActiveUnderContract");
+        builder.add("StandardStatus", "S2", "Closed", "Closed", null);
+        LookupDefinition.publish(builder.build());
+        try {
+            GenericResourceInfo resource = new GenericResourceInfo("Property", "property");
+            resource.getFieldList().add(new FieldInfo("ListingContractDate",
+                    EdmPrimitiveTypeKind.Date.getFullQualifiedName()));
+            EnumFieldInfo status = new EnumFieldInfo("StandardStatus",
+                    EdmPrimitiveTypeKind.String.getFullQualifiedName());
+            status.setLookupName("StandardStatus");
+            resource.getFieldList().add(status);
+
+            for (String stored : new String[] {
+                    "{ \"ListingContractDate\": \"2024-01-05\", \"StandardStatus\": \"S1\" }",
+                    "{ \"ListingContractDate\": \"2023-12-31\", \"StandardStatus\": \"S2\" }",
+                    "{ \"ListingContractDate\": null, \"StandardStatus\": \"Unknown\" }"}) {
+                Entity entity = resource.getEntityCodec().decode(new BsonDocumentReader(BsonDocument.parse(stored)),
+                        DecoderContext.builder().build());
+                BsonDocument encoded = new BsonDocument();
+                resource.getEntityCodec().encode(new BsonDocumentWriter(encoded), entity,
+                        EncoderContext.builder().build());
+                Assertions.assertEquals(BsonDocument.parse(stored), encoded);
+            }
+        } finally {
+            LookupDefinition.publish(LookupDictionary.EMPTY);
+        }
+    }
+}
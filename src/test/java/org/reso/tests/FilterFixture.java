@@ -0,0 +1,146 @@
+package org.reso.tests;
+
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind;
+import org.apache.olingo.commons.api.edm.FullQualifiedName;
+import org.apache.olingo.commons.api.edm.provider.CsdlAbstractEdmProvider;
+import org.apache.olingo.commons.api.edm.provider.CsdlEntityContainer;
+import org.apache.olingo.commons.api.edm.provider.CsdlEntityContainerInfo;
+import org.apache.olingo.commons.api.edm.provider.CsdlEntitySet;
+import org.apache.olingo.commons.api.edm.provider.CsdlEntityType;
+import org.apache.olingo.commons.api.edm.provider.CsdlEnumMember;
+import org.apache.olingo.commons.api.edm.provider.CsdlEnumType;
+import org.apache.olingo.commons.api.edm.provider.CsdlProperty;
+import org.apache.olingo.commons.api.edm.provider.CsdlPropertyRef;
+import org.apache.olingo.server.api.OData;
+import org.apache.olingo.server.api.uri.UriInfo;
+import org.apache.olingo.server.api.uri.queryoption.FilterOption;
+import org.apache.olingo.server.core.uri.parser.Parser;
+import org.reso.service.data.meta.EnumFieldInfo;
+import org.reso.service.data.meta.EnumValueInfo;
+import org.reso.service.data.meta.FieldInfo;
+import org.reso.service.data.meta.GenericResourceInfo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A Property resource and its EDM, for parsing query options as the service does.
+ */
+final class FilterFixture {
+    private static final String NAMESPACE = "org.reso.metadata";
+    private static final FullQualifiedName CONTAINER = new FullQualifiedName(NAMESPACE, "Container");
+    private static final FullQualifiedName PROPERTY = new FullQualifiedName(NAMESPACE, "Property");
+    private static final OData ODATA = OData.newInstance();
+
+    private FilterFixture() {
+    }
+
+    /**
+     * @return A fresh resource, with its own plan cache
+     */
+    static GenericResourceInfo resource() {
+        GenericResourceInfo resource = new GenericResourceInfo("Property", "property") {
+            {
+                primaryKeyName = "ListingKey";
+            }
+        };
+        List<FieldInfo> fields = resource.getFieldList();
+        fields.add(new FieldInfo("ListingKey", EdmPrimitiveTypeKind.String.getFullQualifiedName()));
+        fields.add(new FieldInfo("City", EdmPrimitiveTypeKind.String.getFullQualifiedName()));
+        fields.add(new FieldInfo("ListPrice", EdmPrimitiveTypeKind.Double.getFullQualifiedName()));
+        fields.add(new FieldInfo("BedroomsTotal", EdmPrimitiveTypeKind.Int64.getFullQualifiedName()));
+        fields.add(new FieldInfo("ListingContractDate", EdmPrimitiveTypeKind.Date.getFullQualifiedName()));
+        fields.add(new FieldInfo("ModificationTimestamp",
+                EdmPrimitiveTypeKind.DateTimeOffset.getFullQualifiedName()));
+        EnumFieldInfo status = new EnumFieldInfo("StandardStatus", EdmPrimitiveTypeKind.String.getFullQualifiedName());
+        status.setLookupName("StandardStatus");
+        for (String value : new String[] {"Active", "Pending", "Closed"}) {
+            status.addValue(new EnumValueInfo(value));
+        }
+        fields.add(status);
+        FieldInfo tags = new FieldInfo("Tags", EdmPrimitiveTypeKind.String.getFullQualifiedName());
+        tags.setCollection();
+        fields.add(tags);
+        FieldInfo rooms = new FieldInfo("RoomCounts", EdmPrimitiveTypeKind.Int64.getFullQualifiedName());
+        rooms.setCollection();
+        fields.add(rooms);
+        return resource;
+    }
+
+    /**
+     * @return The $filter of /Property?$filter=text, parsed against the resource's EDM
+     */
+    static FilterOption filter(GenericResourceInfo resource, String text) throws Exception {
+        return uri(resource, "$filter=" + text).getFilterOption();
+    }
+
+    /**
+     * @return /Property?query, parsed against the resource's EDM
+     */
+    static UriInfo uri(GenericResourceInfo resource, String query) throws Exception {
+        Parser parser = new Parser(ODATA.createServiceMetadata(new EdmProvider(resource), Collections.emptyList())
+                .getEdm(), ODATA);
+        return parser.parseUri("Property", query, null, null);
+    }
+
+    private static final class EdmProvider extends CsdlAbstractEdmProvider {
+        private final GenericResourceInfo resource;
+
+        EdmProvider(GenericResourceInfo resource) {
+            this.resource = resource;
+        }
+
+        @Override
+        public CsdlEntityType getEntityType(FullQualifiedName entityTypeName) {
+            if (!PROPERTY.equals(entityTypeName)) {
+                return null;
+            }
+            List<CsdlProperty> properties = new ArrayList<>();
+            for (FieldInfo field : resource.getFieldList()) {
+                properties.add(new CsdlProperty().setName(field.getFieldName()).setType(field.getType())
+                        .setCollection(field.isCollection()));
+            }
+            return new CsdlEntityType().setName(PROPERTY.getName()).setProperties(properties)
+                    .setKey(Collections.singletonList(new CsdlPropertyRef().setName("ListingKey")));
+        }
+
+        @Override
+        public CsdlEnumType getEnumType(FullQualifiedName enumTypeName) {
+            for (FieldInfo field : resource.getFieldList()) {
+                if (field instanceof EnumFieldInfo && field.getType().equals(enumTypeName)) {
+                    List<CsdlEnumMember> members = new ArrayList<>();
+                    List<EnumValueInfo> values = ((EnumFieldInfo) field).getValues();
+                    for (int i = 0; i < values.size(); i++) {
+                        members.add(new CsdlEnumMember().setName(values.get(i).getValue()).setValue("" + i));
+                    }
+                    return new CsdlEnumType().setName(enumTypeName.getName()).setMembers(members)
+                            .setUnderlyingType(EdmPrimitiveTypeKind.Int64.getFullQualifiedName());
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public CsdlEntitySet getEntitySet(FullQualifiedName entityContainer, String entitySetName) {
+            if (!CONTAINER.equals(entityContainer) || !PROPERTY.getName().equals(entitySetName)) {
+                return null;
+            }
+            return new CsdlEntitySet().setName(entitySetName).setType(PROPERTY);
+        }
+
+        @Override
+        public CsdlEntityContainer getEntityContainer() {
+            return new CsdlEntityContainer().setName(CONTAINER.getName())
+                    .setEntitySets(Collections.singletonList(getEntitySet(CONTAINER, PROPERTY.getName())));
+        }
+
+        @Override
+        public CsdlEntityContainerInfo getEntityContainerInfo(FullQualifiedName entityContainerName) {
+            if (entityContainerName == null || CONTAINER.equals(entityContainerName)) {
+                return new CsdlEntityContainerInfo().setContainerName(CONTAINER);
+            }
+            return null;
+        }
+    }
+}
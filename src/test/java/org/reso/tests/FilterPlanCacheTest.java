@@ -0,0 +1,82 @@
+package org.reso.tests;
+
+import org.apache.olingo.server.api.uri.queryoption.FilterOption;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.reso.service.data.meta.FilterPlanCache;
+import org.reso.service.data.meta.GenericResourceInfo;
+import org.reso.service.data.meta.MongoDBFilterExpressionVisitor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class FilterPlanCacheTest {
+
+    private static String normalize(String text, List<String> literals) {
+        return FilterPlanCache.normalize(text, literals);
+    }
+
+    @Test
+    void sameShapeForDifferentLiterals() {
+        List<String> first = new ArrayList<>();
+        List<String> second = new ArrayList<>();
+        String a = normalize("ListPrice gt 100000 and City eq 'Austin'", first);
+        String b = normalize("ListPrice  gt 250000 and City eq 'O''Fallon'", second);
+
+        Assertions.assertEquals(a, b);
+        Assertions.assertEquals(Arrays.asList("100000", "'Austin'"), first);
+        Assertions.assertEquals(Arrays.asList("250000", "'O''Fallon'"), second);
+    }
+
+    @Test
+    void literalKindsAreDistinguished() {
+        List<String> literals = new ArrayList<>();
+        Assertions.assertNotEquals(normalize("ListPrice gt 1", literals), normalize("ListPrice gt 1.5", literals));
+        Assertions.assertNotEquals(normalize("ListPrice gt 1", literals), normalize("ListPrice gt -1", literals));
+        Assertions.assertNotEquals(normalize("ModificationTimestamp gt 2024-01-05", literals),
+                normalize("ModificationTimestamp gt 2024-01-05T10:00:00Z", literals));
+    }
+
+    @Test
+    void propertyNamesAndStringContentsAreNotLiterals() {
+        List<String> literals = new ArrayList<>();
+        String shape = normalize("Field2 eq 'x eq 5' and StandardStatus eq org.reso.metadata.enums.StandardStatus'Active'"
+                + " and NewConstructionYN eq true", literals);
+
+        Assertions.assertEquals(Arrays.asList("'x eq 5'", "org.reso.metadata.enums.StandardStatus'Active'", "true"),
+                literals);
+        Assertions.assertTrue(shape.startsWith("Field2 eq ?"));
+    }
+
+    @Test
+    void disabledCacheKeepsNothing() {
+        FilterPlanCache cache = new FilterPlanCache(0);
+        cache.put("ListPrice gt ?i", null);
+        Assertions.assertEquals(0, cache.size());
+        Assertions.assertNull(cache.get("ListPrice gt ?i"));
+        Assertions.assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void cachedPlansBindLikeAFreshCompile() throws Exception {
+        String[][] pairs = {
+                {"City eq 'Austin' and ListPrice gt 100000", "City eq 'O''Fallon' and ListPrice gt 250000"},
+                {"ListingContractDate ge 2024-01-05", "ListingContractDate ge 2023-12-31"},
+                {"ModificationTimestamp lt 2024-01-05T10:00:00Z", "ModificationTimestamp lt 2023-06-30T23:59:59Z"},
+                {"StandardStatus eq org.reso.metadata.enums.StandardStatus'Active'",
+                        "StandardStatus eq org.reso.metadata.enums.StandardStatus'Pending'"},
+                {"City in ('Ames', 'Reno')", "City in ('Boise', 'Provo')"},
+        };
+        for (String[] pair : pairs) {
+            GenericResourceInfo resource = FilterFixture.resource();
+            MongoDBFilterExpressionVisitor.compile(FilterFixture.filter(resource, pair[0]), resource);
+
+            FilterOption second = FilterFixture.filter(resource, pair[1]);
+            Assertions.assertEquals(
+                    MongoDBFilterExpressionVisitor.compile(second.getExpression(), resource).toBsonDocument(),
+                    MongoDBFilterExpressionVisitor.compile(second, resource).toBsonDocument(), pair[1]);
+            Assertions.assertEquals(1, resource.getFilterPlanCache().getHits(), pair[1] + " is bound from the cache");
+        }
+    }
+}
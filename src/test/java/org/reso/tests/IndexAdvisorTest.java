@@ -0,0 +1,133 @@
+package org.reso.tests;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.reso.service.data.mongodb.IndexAdvisor;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class IndexAdvisorTest {
+    private static final ClassLoader LOADER = IndexAdvisorTest.class.getClassLoader();
+    private static final IndexAdvisor ADVISOR = IndexAdvisor.getInstance();
+
+    @Test
+    void sortDirectionsAreKept() {
+        ADVISOR.record("advisor_sort", null, new Document("ModificationTimestamp", -1).append("ListingKey", -1));
+
+        Fake ascending = new Fake("advisor_sort", new Document("ModificationTimestamp", 1).append("ListingKey", 1));
+        Assertions.assertTrue(ADVISOR.findMissing(ascending.database).isEmpty(), "the index is walked backwards");
+
+        Fake mixed = new Fake("advisor_sort", new Document("ModificationTimestamp", 1).append("ListingKey", -1));
+        Map<String, List<IndexAdvisor.IndexShape>> missing = ADVISOR.findMissing(mixed.database);
+        Assertions.assertEquals(new Document("ModificationTimestamp", -1).append("ListingKey", -1),
+                missing.get("advisor_sort").get(0).getIndexKeys());
+    }
+
+    @Test
+    void theMostUsedMissingIndexesAreCreated() {
+        for (int i = 0; i < 3; i++) {
+            ADVISOR.record("advisor_top", equal("City"), null);
+        }
+        for (int i = 0; i < 2; i++) {
+            ADVISOR.record("advisor_top", equal("StandardStatus"), null);
+        }
+        ADVISOR.record("advisor_top", equal("PostalCode"), null);
+
+        Fake fake = new Fake("advisor_top");
+        Assertions.assertEquals(2, ADVISOR.createMissing(fake.database, 2).size());
+        Assertions.assertEquals(new Document("City", 1), fake.created.get(0));
+        Assertions.assertEquals(new Document("StandardStatus", 1), fake.created.get(1));
+    }
+
+    @Test
+    void shapesServedByACreatedIndexAreSkipped() {
+        ADVISOR.record("advisor_prefix", equal("City"), new Document("ListPrice", 1));
+        ADVISOR.record("advisor_prefix", equal("City"), new Document("ListPrice", 1));
+        ADVISOR.record("advisor_prefix", equal("City"), null);
+
+        Fake fake = new Fake("advisor_prefix");
+        ADVISOR.createMissing(fake.database, 10);
+        Assertions.assertEquals(Collections.singletonList(new Document("City", 1).append("ListPrice", 1)),
+                fake.created);
+    }
+
+    @Test
+    void collectionsStayUnderTheIndexLimit() {
+        ADVISOR.record("advisor_full", equal("City"), null);
+        Document[] indexes = new Document[64];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = new Document("Field" + i, 1);
+        }
+
+        Fake fake = new Fake("advisor_full", indexes);
+        Assertions.assertTrue(ADVISOR.createMissing(fake.database, 10).isEmpty());
+        Assertions.assertTrue(fake.created.isEmpty());
+    }
+
+    private static Document equal(String field) {
+        return new Document(field, new Document("$eq", "x"));
+    }
+
+    /**
+     * A database with one collection and the given index keys.
+     */
+    private static final class Fake {
+        private final List<Document> indexes = new ArrayList<>();
+        private final List<Bson> created = new ArrayList<>();
+        private final MongoDatabase database;
+
+        Fake(String collectionName, Document... keys) {
+            for (Document key : keys) {
+                indexes.add(new Document("key", key));
+            }
+            MongoCollection<?> collection = proxy(MongoCollection.class, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "listIndexes":
+                        return iterable(method.getReturnType(), indexes);
+                    case "createIndex":
+                        created.add((Bson) args[0]);
+                        indexes.add(new Document("key", args[0]));
+                        return "index" + indexes.size();
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+            database = proxy(MongoDatabase.class, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "listCollectionNames":
+                        return iterable(method.getReturnType(), Collections.singletonList(collectionName));
+                    case "getCollection":
+                        return collection;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object iterable(Class<?> type, List<?> items) {
+        return proxy(type, (proxy, method, args) -> {
+            if (method.getName().equals("into")) {
+                ((Collection<Object>) args[0]).addAll(items);
+                return args[0];
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(LOADER, new Class<?>[]{type}, handler);
+    }
+}
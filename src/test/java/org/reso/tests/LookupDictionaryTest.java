@@ -0,0 +1,65 @@
+package org.reso.tests;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.reso.service.data.definition.LookupDictionary;
+
+public class LookupDictionaryTest {
+
+    private static LookupDictionary sampleDictionary() {
+        LookupDictionary.Builder builder = new LookupDictionary.Builder();
+        builder.add("StandardStatus", "k1", "Active", "Active", "Active");
+        builder.add("StandardStatus", "k2", "Active Under Contract", "Active Under Contract", "ActiveUnderContract");
+        builder.add("PropertyType", "k3", "Residential", "Residential", "Residential");
+        return builder.build();
+    }
+
+    @Test
+    void assignsDenseIds() {
+        LookupDictionary dictionary = sampleDictionary();
+
+        Assertions.assertEquals(3, dictionary.size());
+        Assertions.assertEquals(2, dictionary.getNameCount());
+        Assertions.assertEquals(0, dictionary.getNameId("StandardStatus"));
+        Assertions.assertEquals(1, dictionary.getNameId("PropertyType"));
+        Assertions.assertEquals(2, dictionary.getValueIdByKey("k3"));
+        Assertions.assertEquals(1, dictionary.getNameIdOfValue(dictionary.getValueIdByKey("k3")));
+    }
+
+    @Test
+    void resolvesValuesByKeyAndByName() {
+        LookupDictionary dictionary = sampleDictionary();
+
+        int valueId = dictionary.getValueIdByKey("k2");
+        Assertions.assertEquals("ActiveUnderContract", dictionary.getLegacyODataValue(valueId));
+        Assertions.assertEquals("Active Under Contract", dictionary.getStandardLookupValue(valueId));
+        Assertions.assertEquals("k2", dictionary.findLookupKey("StandardStatus", "Active Under Contract"));
+        Assertions.assertNull(dictionary.findLookupKey("PropertyType", "Active"));
+    }
+
+    @Test
+    void ignoresDuplicateAndIncompleteRows() {
+        LookupDictionary.Builder builder = new LookupDictionary.Builder();
+        Assertions.assertTrue(builder.add("StandardStatus", "k1", "Active", null, null));
+        Assertions.assertFalse(builder.add("StandardStatus", "k1", "Pending", null, null));
+        Assertions.assertFalse(builder.add(null, "k2", "Pending", null, null));
+        Assertions.assertFalse(builder.add("StandardStatus", null, "Pending", null, null));
+
+        LookupDictionary dictionary = builder.build();
+        Assertions.assertEquals(1, dictionary.size());
+        Assertions.assertEquals(LookupDictionary.NOT_FOUND, dictionary.getValueIdByKey("k2"));
+        Assertions.assertEquals(LookupDictionary.NOT_FOUND, dictionary.getValueIdByKey(null));
+        Assertions.assertEquals(LookupDictionary.NOT_FOUND, dictionary.getNameId("Unknown"));
+    }
+
+    @Test
+    void odataValuesAreTheLegacyValueThenTheLookupValue() {
+        LookupDictionary.Builder builder = new LookupDictionary.Builder();
+        builder.add("StandardStatus", "k1", "Active Under Contract", "Active Under Contract", "ActiveUnderContract");
+        builder.add("StandardStatus", "k2", "Closed", "Closed", null);
+        LookupDictionary dictionary = builder.build();
+
+        Assertions.assertEquals("ActiveUnderContract", dictionary.getODataValue(dictionary.getValueIdByKey("k1")));
+        Assertions.assertEquals("Closed", dictionary.getODataValue(dictionary.getValueIdByKey("k2")));
+    }
+}
@@ -0,0 +1,70 @@
+package org.reso.tests;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.reso.service.metrics.CountingOutputStream;
+import org.reso.service.metrics.Histogram;
+import org.reso.service.metrics.MetricsRegistry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public class MetricsRegistryTest {
+
+    @Test
+    void histogramBucketsAreCumulative() throws IOException {
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        Histogram histogram = metrics.histogram("test_latency_seconds", "Test latency", "resource", "Property");
+        histogram.observeNanos(TimeUnit.MICROSECONDS.toNanos(500));
+        histogram.observeNanos(TimeUnit.MILLISECONDS.toNanos(40));
+        histogram.observeNanos(TimeUnit.SECONDS.toNanos(20));
+
+        StringWriter out = new StringWriter();
+        metrics.writePrometheus(out);
+        String text = out.toString();
+        Assertions.assertTrue(text.contains("# TYPE test_latency_seconds histogram\n"));
+        Assertions.assertTrue(text.contains("test_latency_seconds_bucket{resource=\"Property\",le=\"0.001\"} 1\n"));
+        Assertions.assertTrue(text.contains("test_latency_seconds_bucket{resource=\"Property\",le=\"0.05\"} 2\n"));
+        Assertions.assertTrue(text.contains("test_latency_seconds_bucket{resource=\"Property\",le=\"+Inf\"} 3\n"));
+        Assertions.assertTrue(text.contains("test_latency_seconds_count{resource=\"Property\"} 3\n"));
+        Assertions.assertEquals(0.05, histogram.getQuantileUpperBound(0.5));
+    }
+
+    @Test
+    void countersAndGaugesAreLabelled() throws IOException {
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        metrics.counter("test_requests_total", "Test requests", "resource", "Member").add(2);
+        metrics.counter("test_requests_total", "Test requests", "resource", "Member").increment();
+        metrics.gauge("test_ratio", "Test ratio", () -> 0.75, "resource", "Office \"HQ\"");
+
+        StringWriter out = new StringWriter();
+        metrics.writePrometheus(out);
+        String text = out.toString();
+        Assertions.assertTrue(text.contains("test_requests_total{resource=\"Member\"} 3\n"));
+        Assertions.assertTrue(text.contains("test_ratio{resource=\"Office \\\"HQ\\\"\"} 0.75\n"));
+        Assertions.assertEquals(3.0, metrics.snapshot().get("test_requests_total{resource=\"Member\"}"));
+    }
+
+    @Test
+    void metricTypesCannotBeMixed() {
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        metrics.counter("test_mixed", "Test");
+        Assertions.assertThrows(IllegalArgumentException.class, () -> metrics.histogram("test_mixed", "Test"));
+    }
+
+    @Test
+    void streamedResponseBytesAreCounted() throws IOException {
+        LongAdder bytes = MetricsRegistry.getInstance().responseBytes("Property", "stream");
+        long before = bytes.sum();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (CountingOutputStream out = new CountingOutputStream(body, bytes)) {
+            out.write('{');
+            out.write("\"value\":[]}".getBytes(), 0, 11);
+        }
+        Assertions.assertEquals("{\"value\":[]}", body.toString());
+        Assertions.assertEquals(12, bytes.sum() - before);
+    }
+}
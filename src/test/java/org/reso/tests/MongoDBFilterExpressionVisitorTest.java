@@ -0,0 +1,119 @@
+package org.reso.tests;
+
+import org.apache.olingo.commons.api.http.HttpStatusCode;
+import org.apache.olingo.server.api.ODataApplicationException;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonRegularExpression;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.reso.service.data.meta.GenericResourceInfo;
+import org.reso.service.data.meta.MongoDBFilterExpressionVisitor;
+import org.reso.service.data.meta.MongoFilter;
+
+import java.util.Arrays;
+
+public class MongoDBFilterExpressionVisitorTest {
+
+    private static MongoFilter filter(String filter) throws Exception {
+        GenericResourceInfo resource = FilterFixture.resource();
+        return MongoDBFilterExpressionVisitor.compile(FilterFixture.filter(resource, filter).getExpression(), resource);
+    }
+
+    private static BsonDocument compile(String filter) throws Exception {
+        return filter(filter).toBsonDocument();
+    }
+
+    private static void assertCompiles(String expected, String filter) throws Exception {
+        Assertions.assertEquals(BsonDocument.parse(expected), compile(filter), filter);
+    }
+
+    private static void assertNotImplemented(String filter) {
+        ODataApplicationException e = Assertions.assertThrows(ODataApplicationException.class, () -> compile(filter),
+                filter);
+        Assertions.assertEquals(HttpStatusCode.NOT_IMPLEMENTED.getStatusCode(), e.getStatusCode(), filter);
+    }
+
+    @Test
+    void literalsAreTypedForTheProperty() throws Exception {
+        assertCompiles("{ListPrice: {$gt: 100.0}}", "ListPrice gt 100");
+        assertCompiles("{BedroomsTotal: {$gte: {$numberLong: '3'}}}", "BedroomsTotal ge 3");
+        assertCompiles("{ListingContractDate: {$eq: {$date: '2024-01-05T00:00:00Z'}}}",
+                "ListingContractDate eq 2024-01-05");
+        assertCompiles("{ModificationTimestamp: {$lt: {$date: '2024-01-05T10:30:00Z'}}}",
+                "ModificationTimestamp lt 2024-01-05T05:30:00-05:00");
+        assertCompiles("{StandardStatus: {$ne: 'Active'}}",
+                "StandardStatus ne org.reso.metadata.enums.StandardStatus'Active'");
+        assertCompiles("{BedroomsTotal: {$gt: {$numberLong: '2'}}}", "2 lt BedroomsTotal");
+    }
+
+    @Test
+    void anyIsAnElementMatch() throws Exception {
+        assertCompiles("{Tags: {$elemMatch: {$eq: 'Pool'}}}", "Tags/any(t: t eq 'Pool')");
+        assertCompiles("{RoomCounts: {$elemMatch: {$gt: {$numberLong: '1'}, $lt: {$numberLong: '5'}}}}",
+                "RoomCounts/any(r: r gt 1 and r lt 5)");
+        assertCompiles("{Tags: {$elemMatch: {$in: ['Pool', 'Spa']}}}", "Tags/any(t: t eq 'Pool' or t eq 'Spa')");
+    }
+
+    @Test
+    void allIsNoElementFailing() throws Exception {
+        assertCompiles("{Tags: {$not: {$elemMatch: {$eq: 'Pool'}}}}", "Tags/all(t: t ne 'Pool')");
+        assertCompiles("{RoomCounts: {$not: {$elemMatch: {$lte: {$numberLong: '1'}}}}}", "RoomCounts/all(r: r gt 1)");
+        assertCompiles("{Tags: {$not: {$elemMatch: {$nin: ['Pool', 'Spa']}}}}",
+                "Tags/all(t: t eq 'Pool' or t eq 'Spa')");
+    }
+
+    @Test
+    void untranslatableLambdaBodiesAreNotImplemented() {
+        assertNotImplemented("RoomCounts/all(r: r gt 1 and r lt 5)");
+        assertNotImplemented("Tags/all(t: t eq 'Pool' or startswith(t, 'S'))");
+        assertNotImplemented("Tags/all(t: not (t eq 'Pool'))");
+        assertNotImplemented("Tags/any(t: t ne 'Pool' and t ne 'Spa')");
+    }
+
+    @Test
+    void foldedEqualityRunsUnderTheCollation() throws Exception {
+        MongoFilter filter = filter("tolower(City) eq 'austin'");
+        Assertions.assertEquals(BsonDocument.parse("{City: {$eq: 'austin'}}"), filter.toBsonDocument());
+        Assertions.assertEquals(MongoFilter.CASE_INSENSITIVE, MongoFilter.collationOf(filter));
+
+        assertCompiles("{City: {$eq: {$minKey: 1}}}", "tolower(City) eq 'Austin'");
+        assertCompiles("{City: {$ne: 'AUSTIN'}}", "toupper(City) ne 'AUSTIN'");
+    }
+
+    @Test
+    void foldedEqualityIsARegexBesideCaseSensitiveComparisons() throws Exception {
+        MongoFilter filter = filter("tolower(City) eq 'austin' and ListingKey eq 'L1'");
+        Assertions.assertEquals(new BsonDocument("$and", new BsonArray(Arrays.asList(
+                        new BsonDocument("City",
+                                new BsonDocument("$regex", new BsonRegularExpression("^austin$", "i"))),
+                        BsonDocument.parse("{ListingKey: {$eq: 'L1'}}")))),
+                filter.toBsonDocument());
+        Assertions.assertNull(MongoFilter.collationOf(filter));
+    }
+
+    @Test
+    void stringFunctionsAreRegexes() throws Exception {
+        Assertions.assertEquals(new BsonDocument("City",
+                        new BsonDocument("$regex", new BsonRegularExpression("^Aus", ""))),
+                compile("startswith(City, 'Aus')"));
+        Assertions.assertEquals(new BsonDocument("City",
+                        new BsonDocument("$regex", new BsonRegularExpression("t\\.in", ""))),
+                compile("contains(City, 't.in')"));
+        Assertions.assertEquals(new BsonDocument("Tags", new BsonDocument("$not", new BsonDocument("$elemMatch",
+                        new BsonDocument("$not", new BsonRegularExpression("^S", ""))))),
+                compile("Tags/all(t: startswith(t, 'S'))"));
+    }
+
+    @Test
+    void equalityOnOnePropertyFoldsIntoIn() throws Exception {
+        assertCompiles("{City: {$in: ['Ames', 'Reno', 'Boise']}}",
+                "City eq 'Ames' or City eq 'Reno' or City eq 'Boise'");
+        assertCompiles("{City: {$in: ['Ames', 'Reno', 'Boise']}}", "City in ('Ames', 'Reno') or City eq 'Boise'");
+        assertCompiles("{ListPrice: {$in: [1.0, 2.0]}}", "ListPrice in (1, 2)");
+        assertCompiles("{$or: [{City: {$eq: 'Ames'}}, {ListingKey: {$eq: 'L1'}}]}",
+                "City eq 'Ames' or ListingKey eq 'L1'");
+        assertCompiles("{Tags: {$elemMatch: {$in: ['Pool', 'Spa', 'Deck']}}}",
+                "Tags/any(t: t in ('Pool', 'Spa') or t eq 'Deck')");
+    }
+}
@@ -0,0 +1,245 @@
+package org.reso.tests;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.olingo.commons.api.data.ContextURL;
+import org.apache.olingo.commons.api.edm.EdmEntitySet;
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind;
+import org.apache.olingo.commons.api.edm.FullQualifiedName;
+import org.apache.olingo.commons.api.edm.provider.CsdlAbstractEdmProvider;
+import org.apache.olingo.commons.api.edm.provider.CsdlEntityContainer;
+import org.apache.olingo.commons.api.edm.provider.CsdlEntityContainerInfo;
+import org.apache.olingo.commons.api.edm.provider.CsdlEntitySet;
+import org.apache.olingo.commons.api.edm.provider.CsdlEntityType;
+import org.apache.olingo.commons.api.edm.provider.CsdlProperty;
+import org.apache.olingo.commons.api.edm.provider.CsdlPropertyRef;
+import org.apache.olingo.commons.api.format.ContentType;
+import org.apache.olingo.server.api.OData;
+import org.apache.olingo.server.api.ServiceMetadata;
+import org.apache.olingo.server.api.serializer.EntitySerializerOptions;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.reso.service.data.common.DocumentEntityMapper;
+import org.reso.service.data.common.RawBsonJsonWriter;
+import org.reso.service.data.definition.LookupDefinition;
+import org.reso.service.data.definition.LookupDictionary;
+import org.reso.service.data.meta.EnumFieldInfo;
+import org.reso.service.data.meta.FieldInfo;
+import org.reso.service.data.meta.GenericResourceInfo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Scanner;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class RawBsonJsonWriterTest {
+
+    private static RawBsonJsonWriter writer;
+
+    @BeforeAll
+    static void setUp() {
+        LookupDictionary.Builder lookups = new LookupDictionary.Builder();
+        lookups.add("StandardStatus", "k1", "Active Under Contract", "Active Under Contract", "ActiveUnderContract");
+        LookupDefinition.publish(lookups.build());
+
+        GenericResourceInfo resource = new GenericResourceInfo("Property", "property");
+        List<FieldInfo> fields = resource.getFieldList();
+        fields.add(new FieldInfo("ListingKey", EdmPrimitiveTypeKind.String.getFullQualifiedName()));
+        fields.add(new FieldInfo("BedroomsTotal", EdmPrimitiveTypeKind.Int64.getFullQualifiedName()));
+        fields.add(new FieldInfo("ListingContractDate", EdmPrimitiveTypeKind.Date.getFullQualifiedName()));
+        fields.add(new FieldInfo("ModificationTimestamp", EdmPrimitiveTypeKind.DateTimeOffset.getFullQualifiedName()));
+        EnumFieldInfo status = new EnumFieldInfo("StandardStatus", EdmPrimitiveTypeKind.String.getFullQualifiedName());
+        status.setLookupName("StandardStatus");
+        fields.add(status);
+        writer = RawBsonJsonWriter.compile(resource);
+    }
+
+    private static JsonNode write(String nextLink, RawBsonDocument... documents) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.writeCollection(out, "$metadata#Property", Arrays.asList(documents).iterator(),
+                writer.getSelection(null), nextLink);
+        return new ObjectMapper().readTree(out.toByteArray());
+    }
+
+    @Test
+    void writesConvertedValues() throws Exception {
+        JsonNode result = write(null, RawBsonDocument.parse("{ \"_id\": { \"$oid\": \"65a000000000000000000001\" },"
+                + " \"ListingKey\": \"L1\", \"BedroomsTotal\": 3, \"ListingContractDate\": \"2024-1-5\","
+                + " \"ModificationTimestamp\": { \"$date\": \"2024-01-05T10:15:30Z\" }, \"StandardStatus\": \"k1\" }"));
+
+        Assertions.assertEquals("$metadata#Property", result.get("@odata.context").asText());
+        Assertions.assertFalse(result.has("@odata.nextLink"));
+
+        JsonNode entity = result.get("value").get(0);
+        Assertions.assertEquals(5, entity.size());
+        Assertions.assertEquals("L1", entity.get("ListingKey").asText());
+        Assertions.assertTrue(entity.get("BedroomsTotal").isIntegralNumber());
+        Assertions.assertEquals(3, entity.get("BedroomsTotal").asLong());
+        Assertions.assertEquals("2024-01-05", entity.get("ListingContractDate").asText());
+        Assertions.assertEquals("2024-01-05T10:15:30Z", entity.get("ModificationTimestamp").asText());
+        Assertions.assertEquals("ActiveUnderContract", entity.get("StandardStatus").asText());
+    }
+
+    @Test
+    void writesFractionalInt64ValuesUnchanged() throws Exception {
+        JsonNode result = write(null, RawBsonDocument.parse("{ \"ListingKey\": \"L4\", \"BedroomsTotal\": 2.5 }"),
+                RawBsonDocument.parse("{ \"ListingKey\": \"L5\", \"BedroomsTotal\": 4.0 }"));
+
+        Assertions.assertEquals(2.5, result.get("value").get(0).get("BedroomsTotal").asDouble());
+        JsonNode whole = result.get("value").get(1).get("BedroomsTotal");
+        Assertions.assertTrue(whole.isIntegralNumber());
+        Assertions.assertEquals(4, whole.asLong());
+    }
+
+    @Test
+    void writesDecimalInt64ValuesExactly() throws Exception {
+        JsonNode result = write(null,
+                RawBsonDocument.parse("{ \"BedroomsTotal\": { \"$numberDecimal\": \"12345678901234.5\" } }"),
+                RawBsonDocument.parse("{ \"BedroomsTotal\": { \"$numberDecimal\": \"7.00\" } }"));
+
+        Assertions.assertEquals("12345678901234.5", result.get("value").get(0).get("BedroomsTotal").decimalValue()
+                .toPlainString());
+        JsonNode whole = result.get("value").get(1).get("BedroomsTotal");
+        Assertions.assertTrue(whole.isIntegralNumber());
+        Assertions.assertEquals(7, whole.asLong());
+    }
+
+    @Test
+    void failedPageIsNotValidJson() {
+        RawBsonDocument first = RawBsonDocument.parse("{ \"ListingKey\": \"L6\" }");
+        Iterator<RawBsonDocument> failing = new Iterator<RawBsonDocument>() {
+            private boolean read = false;
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public RawBsonDocument next() {
+                if (read) {
+                    throw new IllegalStateException("cursor lost");
+                }
+                read = true;
+                return first;
+            }
+        };
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assertions.assertThrows(IllegalStateException.class, () -> writer.writeCollection(out,
+                "$metadata#Property", failing, writer.getSelection(null), null));
+        Assertions.assertTrue(out.size() > 0, "the first entity was sent");
+        Assertions.assertThrows(JsonProcessingException.class,
+                () -> new ObjectMapper().readTree(out.toByteArray()), "a short page must not parse");
+    }
+
+    @Test
+    void writesMissingFieldsAsNull() throws Exception {
+        JsonNode result = write("Property?$top=10&$skip=10", RawBsonDocument.parse("{ \"ListingKey\": \"L2\" }"),
+                RawBsonDocument.parse("{ \"ListingKey\": \"L3\", \"StandardStatus\": \"unknown\" }"));
+
+        Assertions.assertEquals("Property?$top=10&$skip=10", result.get("@odata.nextLink").asText());
+        Assertions.assertEquals(2, result.get("value").size());
+
+        JsonNode first = result.get("value").get(0);
+        Assertions.assertEquals(5, first.size());
+        Assertions.assertTrue(first.get("BedroomsTotal").isNull());
+        Assertions.assertTrue(first.get("StandardStatus").isNull());
+        Assertions.assertEquals("unknown", result.get("value").get(1).get("StandardStatus").asText());
+    }
+
+    @Test
+    void writesDateTimeOffsetAsTheOlingoSerializerDoes() throws Exception {
+        GenericResourceInfo resource = new GenericResourceInfo("Property", "property");
+        resource.getFieldList().add(new FieldInfo("ListingKey", EdmPrimitiveTypeKind.String.getFullQualifiedName()));
+        resource.getFieldList().add(new FieldInfo("ModificationTimestamp",
+                EdmPrimitiveTypeKind.DateTimeOffset.getFullQualifiedName()));
+        RawBsonJsonWriter timestampWriter = RawBsonJsonWriter.compile(resource);
+        DocumentEntityMapper mapper = DocumentEntityMapper.compile(resource);
+
+        OData odata = OData.newInstance();
+        ServiceMetadata metadata = odata.createServiceMetadata(new PropertyEdmProvider(), Collections.emptyList());
+        EdmEntitySet entitySet = metadata.getEdm().getEntityContainer().getEntitySet("Property");
+        EntitySerializerOptions options = EntitySerializerOptions.with()
+                .contextURL(ContextURL.with().entitySet(entitySet).suffix(ContextURL.Suffix.ENTITY).build())
+                .build();
+
+        for (long millis : new long[] {1704449730000L, 1704449730100L, 1704449730120L, 1704449730123L}) {
+            Document document = new Document("ListingKey", "L1").append("ModificationTimestamp", new Date(millis));
+
+            ByteArrayOutputStream raw = new ByteArrayOutputStream();
+            timestampWriter.writeCollection(raw, "$metadata#Property",
+                    Collections.singletonList(RawBsonDocument.parse(document.toJson())).iterator(),
+                    timestampWriter.getSelection(null), null);
+
+            String serialized;
+            try (InputStream content = odata.createSerializer(ContentType.JSON_NO_METADATA)
+                    .entity(metadata, entitySet.getEntityType(), mapper.map(document), options).getContent();
+                 Scanner scanner = new Scanner(content, StandardCharsets.UTF_8.name()).useDelimiter("\\A")) {
+                serialized = scanner.next();
+            }
+
+            Assertions.assertEquals(timestampOf(serialized),
+                    timestampOf(new String(raw.toByteArray(), StandardCharsets.UTF_8)), "at " + millis);
+        }
+    }
+
+    private static String timestampOf(String json) {
+        Matcher matcher = Pattern.compile("\"ModificationTimestamp\":\"[^\"]*\"").matcher(json);
+        Assertions.assertTrue(matcher.find(), json);
+        return matcher.group();
+    }
+
+    private static final class PropertyEdmProvider extends CsdlAbstractEdmProvider {
+        private static final String NAMESPACE = "org.reso.metadata";
+        private static final FullQualifiedName CONTAINER = new FullQualifiedName(NAMESPACE, "Container");
+        private static final FullQualifiedName PROPERTY = new FullQualifiedName(NAMESPACE, "Property");
+
+        @Override
+        public CsdlEntityType getEntityType(FullQualifiedName entityTypeName) {
+            if (!PROPERTY.equals(entityTypeName)) {
+                return null;
+            }
+            return new CsdlEntityType().setName(PROPERTY.getName())
+                    .setProperties(Arrays.asList(
+                            new CsdlProperty().setName("ListingKey")
+                                    .setType(EdmPrimitiveTypeKind.String.getFullQualifiedName()),
+                            new CsdlProperty().setName("ModificationTimestamp")
+                                    .setType(EdmPrimitiveTypeKind.DateTimeOffset.getFullQualifiedName())))
+                    .setKey(Collections.singletonList(new CsdlPropertyRef().setName("ListingKey")));
+        }
+
+        @Override
+        public CsdlEntitySet getEntitySet(FullQualifiedName entityContainer, String entitySetName) {
+            if (!CONTAINER.equals(entityContainer) || !PROPERTY.getName().equals(entitySetName)) {
+                return null;
+            }
+            return new CsdlEntitySet().setName(entitySetName).setType(PROPERTY);
+        }
+
+        @Override
+        public CsdlEntityContainer getEntityContainer() {
+            return new CsdlEntityContainer().setName(CONTAINER.getName())
+                    .setEntitySets(Collections.singletonList(getEntitySet(CONTAINER, PROPERTY.getName())));
+        }
+
+        @Override
+        public CsdlEntityContainerInfo getEntityContainerInfo(FullQualifiedName entityContainerName) {
+            if (entityContainerName == null || CONTAINER.equals(entityContainerName)) {
+                return new CsdlEntityContainerInfo().setContainerName(CONTAINER);
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.reso.tests;
+
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.reso.service.data.common.ResultSetEntityMapper;
+import org.reso.service.data.meta.FieldInfo;
+import org.reso.service.data.meta.GenericResourceInfo;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.Arrays;
+
+public class ResultSetEntityMapperTest {
+    private static final ClassLoader LOADER = ResultSetEntityMapperTest.class.getClassLoader();
+
+    @Test
+    void readsPresentColumnsByIndexAndSkipsAbsentFields() throws Exception {
+        GenericResourceInfo resource = new GenericResourceInfo("Member", "member");
+        resource.getFieldList().add(new FieldInfo("MemberKey", EdmPrimitiveTypeKind.String.getFullQualifiedName()));
+        resource.getFieldList().add(new FieldInfo("MemberAge", EdmPrimitiveTypeKind.Int64.getFullQualifiedName()));
+        FieldInfo nickname = new FieldInfo("MemberNickname", EdmPrimitiveTypeKind.String.getFullQualifiedName());
+        resource.getFieldList().add(nickname);
+        FieldInfo languages = new FieldInfo("MemberLanguages", EdmPrimitiveTypeKind.String.getFullQualifiedName());
+        languages.setCollection();
+        resource.getFieldList().add(languages);
+
+        String[] labels = {"memberkey", "MemberLanguages", "MemberAge"};
+        Object[] row = {"M1", "[\"English\", \"French\"]", 42L};
+        ResultSet resultSet = resultSet(labels, row);
+
+        ResultSetEntityMapper mapper = ResultSetEntityMapper.compile(resource, resultSet.getMetaData());
+        Entity entity = mapper.mapRow(resultSet, null);
+
+        Assertions.assertEquals(3, mapper.getColumnCount());
+        Assertions.assertEquals("M1", entity.getProperty("MemberKey").getValue());
+        Assertions.assertEquals(42L, entity.getProperty("MemberAge").getValue());
+        Assertions.assertEquals(Arrays.asList("English", "French"), entity.getProperty("MemberLanguages").getValue());
+        Assertions.assertNull(entity.getProperty("MemberNickname"));
+    }
+
+    // Answers the metadata and by-index getters of a single row; anything else, e.g. a lookup by name, fails
+    private static ResultSet resultSet(String[] labels, Object[] row) {
+        ResultSetMetaData metaData = (ResultSetMetaData) Proxy.newProxyInstance(LOADER,
+                new Class<?>[]{ResultSetMetaData.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getColumnCount":
+                            return labels.length;
+                        case "getColumnLabel":
+                            return labels[(Integer) args[0] - 1];
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        return (ResultSet) Proxy.newProxyInstance(LOADER, new Class<?>[]{ResultSet.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("getMetaData")) {
+                        return metaData;
+                    }
+                    if (args != null && args.length == 1 && args[0] instanceof Integer) {
+                        Object value = row[(Integer) args[0] - 1];
+                        return method.getName().equals("getLong") ? ((Number) value).longValue() : value;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
@@ -0,0 +1,55 @@
+package org.reso.tests;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.reso.service.data.meta.GenericResourceInfo;
+import org.reso.service.data.meta.SearchShadowFields;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class SearchShadowFieldsTest {
+
+    @Test
+    void gramsAreLowercasedAndDistinct() {
+        Assertions.assertEquals(Arrays.asList("mai", "ain", "in ", "n s", " st"),
+                SearchShadowFields.grams("Main St", 16));
+        Assertions.assertEquals(Arrays.asList("aaa"), SearchShadowFields.grams("AAAAA", 16));
+        Assertions.assertTrue(SearchShadowFields.grams("ab", 16).isEmpty());
+    }
+
+    @Test
+    void gramsAreSampledAcrossTheValue() {
+        List<String> grams = SearchShadowFields.grams("abcdefghijklmnopqrstuvwxyz", 4);
+        Assertions.assertEquals(Arrays.asList("abc", "ghi", "mno", "stu"), grams);
+    }
+
+    @Test
+    void everyGramIsKeptWithoutALimit() {
+        StringBuilder value = new StringBuilder();
+        for (char c = 'a'; c <= 'z'; c++) {
+            for (char d = 'a'; d <= 'z'; d++) {
+                value.append(c).append(d).append(' ');
+            }
+        }
+        List<String> grams = SearchShadowFields.grams(value.toString(), Integer.MAX_VALUE);
+        Assertions.assertTrue(grams.size() > 512);
+        Assertions.assertTrue(grams.contains("zz "), "the end of a long value is still found");
+    }
+
+    @Test
+    void narrowingWaitsForTheBackfill() {
+        GenericResourceInfo resource = new GenericResourceInfo("ShadowReady", "shadowready");
+        resource.getFilterPlanCache().put("City eq ?", null);
+        Assertions.assertFalse(SearchShadowFields.isReady(resource));
+
+        SearchShadowFields.markReady(resource);
+        Assertions.assertTrue(SearchShadowFields.isReady(resource));
+        Assertions.assertEquals(0, resource.getFilterPlanCache().size(), "plans compiled unnarrowed are dropped");
+    }
+
+    @Test
+    void reversedIsLowercased() {
+        Assertions.assertEquals("ts niam", SearchShadowFields.reversed("Main St"));
+    }
+}
@@ -0,0 +1,66 @@
+package org.reso.tests;
+
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind;
+import org.apache.olingo.commons.api.edm.EdmType;
+import org.apache.olingo.server.api.uri.queryoption.expression.Literal;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.reso.service.data.sql.SqlParameters;
+
+import java.lang.reflect.Proxy;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.util.UUID;
+
+public class SqlParametersTest {
+    private static final ClassLoader LOADER = SqlParametersTest.class.getClassLoader();
+
+    @Test
+    void likeWildcardsAreEscaped() {
+        Assertions.assertEquals("50\\%\\_off\\\\", SqlParameters.escapeLike("50%_off\\"));
+    }
+
+    @Test
+    void keyValuesAreTypedAfterTheField() {
+        Assertions.assertEquals("O'Brien", SqlParameters.keyValue("'O''Brien'",
+                EdmPrimitiveTypeKind.String.getFullQualifiedName()));
+        Assertions.assertEquals(42L, SqlParameters.keyValue("42", EdmPrimitiveTypeKind.Int64.getFullQualifiedName()));
+        Assertions.assertEquals("42", SqlParameters.keyValue("42", null));
+    }
+
+    @Test
+    void temporalAndGuidLiteralsAreTyped() {
+        Assertions.assertEquals(OffsetDateTime.parse("2024-01-01T00:00:00Z"),
+                SqlParameters.literalValue(literal(EdmPrimitiveTypeKind.DateTimeOffset, "2024-01-01T00:00:00Z")));
+        Assertions.assertEquals(LocalDate.of(2024, 1, 31),
+                SqlParameters.literalValue(literal(EdmPrimitiveTypeKind.Date, "2024-01-31")));
+        Assertions.assertEquals(LocalTime.of(12, 30, 15),
+                SqlParameters.literalValue(literal(EdmPrimitiveTypeKind.TimeOfDay, "12:30:15")));
+        Assertions.assertEquals(UUID.fromString("0b0c1d2e-3f40-4a5b-8c6d-7e8f90a1b2c3"),
+                SqlParameters.literalValue(literal(EdmPrimitiveTypeKind.Guid, "0b0c1d2e-3f40-4a5b-8c6d-7e8f90a1b2c3")));
+        Assertions.assertEquals(42L, SqlParameters.literalValue(literal(EdmPrimitiveTypeKind.Int32, "42")));
+        Assertions.assertEquals("Ames", SqlParameters.literalValue(literal(EdmPrimitiveTypeKind.String, "'Ames'")));
+    }
+
+    private static Literal literal(EdmPrimitiveTypeKind kind, String text) {
+        EdmType type = (EdmType) Proxy.newProxyInstance(LOADER, new Class<?>[]{EdmType.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("getFullQualifiedName")) {
+                        return kind.getFullQualifiedName();
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        return (Literal) Proxy.newProxyInstance(LOADER, new Class<?>[]{Literal.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getText":
+                            return text;
+                        case "getType":
+                            return type;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
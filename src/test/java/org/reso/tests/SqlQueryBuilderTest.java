@@ -0,0 +1,74 @@
+package org.reso.tests;
+
+import org.apache.olingo.commons.api.http.HttpStatusCode;
+import org.apache.olingo.server.api.ODataApplicationException;
+import org.apache.olingo.server.api.uri.UriInfo;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.reso.service.data.meta.GenericResourceInfo;
+import org.reso.service.data.sql.SqlQuery;
+import org.reso.service.data.sql.SqlQueryBuilder;
+
+import java.util.Arrays;
+
+public class SqlQueryBuilderTest {
+
+    private static SqlQueryBuilder page(String query) throws Exception {
+        GenericResourceInfo resource = FilterFixture.resource();
+        UriInfo uriInfo = FilterFixture.uri(resource, query);
+        SqlQueryBuilder builder = new SqlQueryBuilder(resource, SqlQueryBuilder.Dialect.POSTGRES);
+        builder.paginate(uriInfo.getTopOption().getValue(),
+                uriInfo.getSkipOption() == null ? 0 : uriInfo.getSkipOption().getValue(),
+                uriInfo.getOrderByOption(),
+                uriInfo.getSkipTokenOption() == null ? null : uriInfo.getSkipTokenOption().getValue());
+        return builder;
+    }
+
+    @Test
+    void skipTokensContinueAfterThePrimaryKey() throws Exception {
+        SqlQuery query = page("$top=10&$skiptoken=L100").select();
+        Assertions.assertEquals("SELECT * FROM property WHERE property.ListingKey > ? ORDER BY property.ListingKey"
+                + " LIMIT ? OFFSET ?", query.getSql());
+        Assertions.assertEquals(Arrays.asList("L100", 11, 0), query.getParameters());
+    }
+
+    @Test
+    void orderedPagesUseOffsets() throws Exception {
+        SqlQuery query = page("$top=10&$skip=20&$orderby=ListPrice desc").select();
+        Assertions.assertEquals("SELECT * FROM property ORDER BY property.ListPrice DESC LIMIT ? OFFSET ?",
+                query.getSql());
+        Assertions.assertEquals(Arrays.asList(10, 20), query.getParameters());
+    }
+
+    @Test
+    void skipTokensAreNotIgnoredWithOrderByOrSkip() {
+        for (String query : new String[] {"$top=10&$orderby=ListPrice&$skiptoken=L100",
+                "$top=10&$skip=20&$skiptoken=L100"}) {
+            ODataApplicationException e = Assertions.assertThrows(ODataApplicationException.class,
+                    () -> page(query), query);
+            Assertions.assertEquals(HttpStatusCode.BAD_REQUEST.getStatusCode(), e.getStatusCode(), query);
+        }
+    }
+
+    @Test
+    void lambdasAreSemiJoins() throws Exception {
+        // Lookups are read from lookup_value unless LOOKUP_TYPE=STRING
+        Assumptions.assumeFalse("STRING".equals(System.getenv("LOOKUP_TYPE")));
+        GenericResourceInfo resource = FilterFixture.resource();
+        SqlQuery any = new SqlQueryBuilder(resource, SqlQueryBuilder.Dialect.MYSQL)
+                .filter(FilterFixture.filter(resource, "Tags/any(t: t eq 'Pool')")).select();
+        Assertions.assertTrue(any.getSql().startsWith("SELECT * FROM property WHERE property.ListingKey IN (SELECT"
+                + " v.ResourceRecordKey FROM lookup_value AS v"), any.getSql());
+        Assertions.assertFalse(any.getSql().contains("EXISTS"), any.getSql());
+        Assertions.assertEquals(Arrays.asList("Pool"), any.getParameters());
+
+        SqlQuery all = new SqlQueryBuilder(resource, SqlQueryBuilder.Dialect.MYSQL)
+                .filter(FilterFixture.filter(resource, "Tags/all(t: t eq 'Pool')")).select();
+        Assertions.assertTrue(all.getSql().contains("NOT property.ListingKey IN (SELECT v.ResourceRecordKey"),
+                all.getSql());
+        Assertions.assertTrue(all.getSql().contains("v.ResourceRecordKey IS NOT NULL AND NOT l.LegacyOdataValue"),
+                all.getSql());
+        Assertions.assertFalse(all.getSql().contains("EXISTS"), all.getSql());
+    }
+}
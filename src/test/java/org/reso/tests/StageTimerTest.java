@@ -0,0 +1,36 @@
+package org.reso.tests;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.reso.service.metrics.StageTimer;
+
+import java.util.concurrent.TimeUnit;
+
+public class StageTimerTest {
+
+    @AfterEach
+    void unbind() {
+        StageTimer.end();
+    }
+
+    @Test
+    void repeatedStagesAddUpInFirstSeenOrder() {
+        StageTimer.begin();
+        StageTimer.add(StageTimer.FILTER, TimeUnit.MICROSECONDS.toNanos(1200));
+        StageTimer.add(StageTimer.FIND, TimeUnit.MILLISECONDS.toNanos(10));
+        StageTimer.add(StageTimer.FIND, TimeUnit.MILLISECONDS.toNanos(2));
+        StageTimer.add(StageTimer.SERIALIZE, TimeUnit.MILLISECONDS.toNanos(20));
+
+        Assertions.assertEquals("filter;dur=1.2, find;dur=12.0, ser;dur=20.0", StageTimer.currentHeaderValue());
+    }
+
+    @Test
+    void nothingIsSentOutsideARequest() {
+        StageTimer.add(StageTimer.FIND, 1000);
+        Assertions.assertNull(StageTimer.currentHeaderValue());
+
+        StageTimer.begin();
+        Assertions.assertNull(StageTimer.currentHeaderValue());
+    }
+}